@@ -0,0 +1,552 @@
+package com.zipwhip.api;
+
+import com.zipwhip.api.signals.reconnect.ReconnectCoordinator;
+import com.zipwhip.api.signals.sockets.netty.SignalEventDispatcher;
+import com.zipwhip.lifecycle.DestroyableBase;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads that HTTP connections, clients and signal connections run on, shared by as many of them as are
+ * given the same {@code ExecutionResources}. A process hosting many clients then runs on a fixed, known number of
+ * threads rather than a few per client.
+ * <p/>
+ * There is a pool per role, each sized from the available processors and each naming its threads after its role:
+ * <ul>
+ * <li>nio, for the NIO event loops, a boss and workers, of the signal connections and of the HTTP client</li>
+ * <li>io, for blocking work, HTTP requests, connects and disconnects</li>
+ * <li>cpu, for parsing responses</li>
+ * <li>callback, for running the code of the callers of the client</li>
+ * <li>timer, for reconnect delays, the HTTP request reaper and the timeouts of the signal connections: keepalives,
+ * delayed flushes, version gaps and staggered connect attempts</li>
+ * </ul>
+ * The blocking work, HTTP requests, connects, disconnects and reconnect attempts, runs where {@link BlockingMode} says:
+ * in the io pool, or on a thread of its own per task, virtual if the JVM has virtual threads. See {@link #getBlockingExecutor()}.
+ * Signal events are notified on a single dispatcher shared by every signal connection, see {@link SignalEventDispatcher}.
+ * A pool starts its threads as work arrives and never has more than its size. Each reports how saturated it is
+ * through its {@link Statistics}. The nio pool is the exception, it is not bounded but only ever runs the threads
+ * the event loops start, the boss and {@code nioWorkers} workers of each. It is kept apart from the io pool so that
+ * blocking work waiting on a connect can never queue the boss that would complete it.
+ * <p/>
+ * Components never shut down the pools they are given, destroying this object does.
+ */
+public class ExecutionResources extends DestroyableBase {
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutionResources.class);
+
+    private final ThreadPoolExecutor nio;
+    private final ThreadPoolExecutor io;
+    private final ThreadPoolExecutor cpu;
+    private final ThreadPoolExecutor callback;
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final ExecutorService nioView;
+    private final ExecutorService ioView;
+    private final ExecutorService cpuView;
+    private final ExecutorService callbackView;
+    private final ScheduledExecutorService timerView;
+
+    private final int nioWorkers;
+
+    private final BlockingMode blockingMode;
+    private final ThreadPerTaskExecutor threadPerTask;
+    private final ExecutorService blockingView;
+
+    private ChannelFactory channelFactory;
+    private SignalEventDispatcher dispatcher;
+    private ReconnectCoordinator reconnectCoordinator;
+
+    /**
+     * Create resources sized for the available processors.
+     */
+    public ExecutionResources() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create resources sized for a number of processors.
+     *
+     * @param processors The processors to size the pools for.
+     */
+    public ExecutionResources(int processors) {
+        this(processors, BlockingMode.POOLED);
+    }
+
+    /**
+     * Create resources sized for the available processors, that run the blocking work as the mode says.
+     *
+     * @param blockingMode Where to run the blocking work.
+     */
+    public ExecutionResources(BlockingMode blockingMode) {
+        this(Runtime.getRuntime().availableProcessors(), blockingMode);
+    }
+
+    /**
+     * Create resources sized for a number of processors, that run the blocking work as the mode says.
+     *
+     * @param processors The processors to size the pools for.
+     * @param blockingMode Where to run the blocking work.
+     */
+    public ExecutionResources(int processors, BlockingMode blockingMode) {
+        this(Math.max(8, processors * 4), processors, Math.max(2, processors), Math.max(1, processors / 2), blockingMode);
+    }
+
+    /**
+     * Create resources with pools of the given sizes.
+     *
+     * @param ioThreads The size of the io pool, that runs the blocking work if it is pooled.
+     * @param cpuThreads The size of the pool that parses responses.
+     * @param callbackThreads The size of the pool that runs the callers' code.
+     * @param nioWorkers The number of NIO workers that read and write every signal connection.
+     */
+    public ExecutionResources(int ioThreads, int cpuThreads, int callbackThreads, int nioWorkers) {
+        this(ioThreads, cpuThreads, callbackThreads, nioWorkers, BlockingMode.POOLED);
+    }
+
+    /**
+     * Create resources with pools of the given sizes, that run the blocking work as the mode says.
+     *
+     * @param ioThreads The size of the io pool, that runs the blocking work if it is pooled.
+     * @param cpuThreads The size of the pool that parses responses.
+     * @param callbackThreads The size of the pool that runs the callers' code.
+     * @param nioWorkers The number of NIO workers that read and write every signal connection.
+     * @param blockingMode Where to run the blocking work.
+     */
+    public ExecutionResources(int ioThreads, int cpuThreads, int callbackThreads, int nioWorkers, BlockingMode blockingMode) {
+
+        if (ioThreads < 1 || nioWorkers < 1) {
+            throw new IllegalArgumentException("The io pool and the NIO event loop need a thread at least");
+        }
+
+        this.nio = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new RoleThreadFactory("nio"));
+        this.io = pool("io", ioThreads);
+        this.cpu = pool("cpu", cpuThreads);
+        this.callback = pool("callback", callbackThreads);
+
+        this.timer = new ScheduledThreadPoolExecutor(1, new RoleThreadFactory("timer"));
+
+        this.nioView = new SharedExecutorService(nio);
+        this.ioView = new SharedExecutorService(io);
+        this.cpuView = new SharedExecutorService(cpu);
+        this.callbackView = new SharedExecutorService(callback);
+        this.timerView = new SharedScheduledExecutorService(timer);
+
+        this.nioWorkers = nioWorkers;
+
+        this.blockingMode = blockingMode;
+
+        if (blockingMode == BlockingMode.THREAD_PER_TASK) {
+            this.threadPerTask = new ThreadPerTaskExecutor("zipwhip-blocking");
+            this.blockingView = new SharedExecutorService(threadPerTask);
+            LOGGER.debug("Running blocking work on a " + (threadPerTask.isVirtual() ? "virtual" : "platform") + " thread per task");
+        } else {
+            this.threadPerTask = null;
+            this.blockingView = ioView;
+        }
+    }
+
+    /**
+     * @return The pool for the NIO event loops. Only give it to a NIO transport, which starts a known number of
+     *         threads in it, never run tasks of your own in it.
+     */
+    public ExecutorService getNioExecutor() {
+        return nioView;
+    }
+
+    /**
+     * Get a view of the nio pool for one component that shuts down and then waits for whatever executor it was given
+     * to terminate, as the Ning client does. Shutting the view down stops it taking tasks and it reports itself
+     * terminated right away, without waiting for the pool, which carries on for everyone else.
+     *
+     * @return A view of the nio pool of the caller's own.
+     */
+    public ExecutorService newNioExecutor() {
+        return new OwnedExecutorService(nio);
+    }
+
+    /**
+     * @return The pool for blocking I/O.
+     */
+    public ExecutorService getIoExecutor() {
+        return ioView;
+    }
+
+    /**
+     * @return Where to run work that blocks: the io pool if the blocking mode is pooled, otherwise a thread per task.
+     */
+    public ExecutorService getBlockingExecutor() {
+        return blockingView;
+    }
+
+    public BlockingMode getBlockingMode() {
+        return blockingMode;
+    }
+
+    /**
+     * @return The pool for parsing.
+     */
+    public ExecutorService getCpuExecutor() {
+        return cpuView;
+    }
+
+    /**
+     * @return The pool that runs callers' code.
+     */
+    public ExecutorService getCallbackExecutor() {
+        return callbackView;
+    }
+
+    /**
+     * @return The single timer thread. Tasks on it must be short, hand anything longer to another pool.
+     */
+    public ScheduledExecutorService getTimer() {
+        return timerView;
+    }
+
+    /**
+     * @return The NIO {@code ChannelFactory} every signal connection on these resources connects through, its
+     *         event loop runs in the nio pool.
+     */
+    public synchronized ChannelFactory getChannelFactory() {
+
+        if (channelFactory == null) {
+            channelFactory = new NioClientSocketChannelFactory(nio, nio, nioWorkers);
+        }
+
+        return channelFactory;
+    }
+
+    /**
+     * @return The dispatcher that notifies the observers of every signal connection on these resources.
+     */
+    public synchronized SignalEventDispatcher getDispatcher() {
+
+        if (dispatcher == null) {
+            dispatcher = new SignalEventDispatcher();
+        }
+
+        return dispatcher;
+    }
+
+    /**
+     * @return The coordinator that admits the reconnects of every signal connection on these resources. It times them
+     *         on the timer and runs them on the blocking executor.
+     */
+    public synchronized ReconnectCoordinator getReconnectCoordinator() {
+
+        if (reconnectCoordinator == null) {
+            reconnectCoordinator = new ReconnectCoordinator(timerView, blockingView, ReconnectCoordinator.DEFAULT_PERMITS_PER_SECOND, ReconnectCoordinator.DEFAULT_BURST);
+        }
+
+        return reconnectCoordinator;
+    }
+
+    /**
+     * @return How many threads the NIO event loops run on, the pool is not bounded so its maximum is reported as 0.
+     */
+    public Statistics getNioStatistics() {
+        return new Statistics(nio.getPoolSize(), 0, nio.getActiveCount(), 0, nio.getCompletedTaskCount());
+    }
+
+    public Statistics getIoStatistics() {
+        return new Statistics(io);
+    }
+
+    public Statistics getCpuStatistics() {
+        return new Statistics(cpu);
+    }
+
+    public Statistics getCallbackStatistics() {
+        return new Statistics(callback);
+    }
+
+    public Statistics getTimerStatistics() {
+        return new Statistics(timer);
+    }
+
+    /**
+     * @return How busy the blocking executor is. A thread per task is never saturated, its maximum is reported as 0.
+     */
+    public Statistics getBlockingStatistics() {
+
+        if (threadPerTask == null) {
+            return getIoStatistics();
+        }
+
+        return new Statistics(threadPerTask.getRunning(), 0, threadPerTask.getRunning(), 0, threadPerTask.getCompleted());
+    }
+
+    @Override
+    protected void onDestroy() {
+
+        LOGGER.debug("Destroying ExecutionResources");
+
+        synchronized (this) {
+
+            if (channelFactory != null) {
+                // Shuts down the nio pool too
+                channelFactory.releaseExternalResources();
+            }
+
+            if (dispatcher != null) {
+                dispatcher.destroy();
+            }
+        }
+
+        nio.shutdownNow();
+        io.shutdownNow();
+        cpu.shutdownNow();
+        callback.shutdownNow();
+        timer.shutdownNow();
+
+        if (threadPerTask != null) {
+            threadPerTask.shutdownNow();
+        }
+    }
+
+    private static ThreadPoolExecutor pool(String role, int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new RoleThreadFactory(role));
+    }
+
+    /**
+     * A view of a pool that ignores shutdown, for components that shut down whatever executor they are given.
+     */
+    private static class SharedExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService pool;
+
+        SharedExecutorService(ExecutorService pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pool.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return pool.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return pool.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return pool.awaitTermination(timeout, unit);
+        }
+
+    }
+
+    /**
+     * A view of a pool for one component, that is shut down and terminated as far as that component can tell once
+     * it asks, the tasks it already handed to the pool are not waited for.
+     */
+    private static class OwnedExecutorService extends SharedExecutorService {
+
+        private volatile boolean shutdown;
+
+        OwnedExecutorService(ExecutorService pool) {
+            super(pool);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+
+            if (shutdown) {
+                throw new RejectedExecutionException("The executor has been shut down");
+            }
+
+            super.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown || super.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown || super.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return shutdown || super.awaitTermination(timeout, unit);
+        }
+
+    }
+
+    private static class SharedScheduledExecutorService extends SharedExecutorService implements ScheduledExecutorService {
+
+        private final ScheduledExecutorService timer;
+
+        SharedScheduledExecutorService(ScheduledExecutorService timer) {
+            super(timer);
+            this.timer = timer;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return timer.schedule(command, delay, unit);
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            return timer.schedule(callable, delay, unit);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            return timer.scheduleAtFixedRate(command, initialDelay, period, unit);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            return timer.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+        }
+
+    }
+
+    /**
+     * A snapshot of how busy a pool is.
+     */
+    public static class Statistics {
+
+        private final int threads;
+        private final int maxThreads;
+        private final int active;
+        private final int queued;
+        private final long completed;
+
+        Statistics(ThreadPoolExecutor pool) {
+            this(pool.getPoolSize(), pool.getMaximumPoolSize(), pool.getActiveCount(), pool.getQueue().size(), pool.getCompletedTaskCount());
+        }
+
+        Statistics(int threads, int maxThreads, int active, int queued, long completed) {
+            this.threads = threads;
+            this.maxThreads = maxThreads;
+            this.active = active;
+            this.queued = queued;
+            this.completed = completed;
+        }
+
+        /**
+         * @return The threads started so far.
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+        /**
+         * @return The threads running a task.
+         */
+        public int getActive() {
+            return active;
+        }
+
+        /**
+         * @return The tasks waiting for a thread.
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return The share of the pool that is busy, 1.0 or more means tasks are waiting for a thread.
+         */
+        public double getSaturation() {
+            return maxThreads == 0 ? 0 : (double) (active + queued) / maxThreads;
+        }
+
+        @Override
+        public String toString() {
+            return "threads " + threads + "/" + maxThreads + ", active " + active + ", queued " + queued + ", completed " + completed;
+        }
+
+    }
+
+    /**
+     * Where the blocking work runs.
+     */
+    public enum BlockingMode {
+
+        /**
+         * In the bounded io pool. Blocked tasks hold a pool thread and the rest wait behind them.
+         */
+        POOLED,
+
+        /**
+         * On a thread of its own per task, virtual if the JVM has virtual threads, see {@link ThreadPerTaskExecutor}.
+         */
+        THREAD_PER_TASK
+
+    }
+
+    private static class RoleThreadFactory implements ThreadFactory {
+
+        private final String role;
+        private final AtomicInteger number = new AtomicInteger();
+
+        RoleThreadFactory(String role) {
+            this.role = role;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "zipwhip-" + role + "-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -31,11 +31,27 @@ public class HttpConnection extends DestroyableBase implements ApiConnection {
 
     private String sessionKey;
     private SignTool authenticator;
-    private ExecutorService bossExecutor = Executors.newSingleThreadExecutor();
-    private ExecutorService workerExecutor = Executors.newFixedThreadPool(10);
+    private ExecutorService bossExecutor;
+    private ExecutorService workerExecutor;
+    private boolean ownsExecutors;
 
     public HttpConnection() {
         super();
+        this.bossExecutor = Executors.newSingleThreadExecutor();
+        this.workerExecutor = Executors.newFixedThreadPool(10);
+        this.ownsExecutors = true;
+    }
+
+    /**
+     * Create a new {@code HttpConnection} that runs on shared threads, the requests on the blocking executor
+     * and their responses in the cpu pool.
+     *
+     * @param resources The threads to run on, they are not shut down when this connection is destroyed.
+     */
+    public HttpConnection(ExecutionResources resources) {
+        super();
+        this.bossExecutor = resources.getBlockingExecutor();
+        this.workerExecutor = resources.getCpuExecutor();
     }
 
     public HttpConnection(String apiKey, String secret) throws Exception {
@@ -144,8 +160,10 @@ public class HttpConnection extends DestroyableBase implements ApiConnection {
 
         LOGGER.debug("Destroying HttpConnection");
 
-        bossExecutor.shutdownNow();
-        workerExecutor.shutdownNow();
+        if (ownsExecutors) {
+            bossExecutor.shutdownNow();
+            workerExecutor.shutdownNow();
+        }
     }
 
 }
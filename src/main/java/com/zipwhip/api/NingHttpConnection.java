@@ -33,14 +33,33 @@ public class NingHttpConnection extends DestroyableBase implements ApiConnection
     private String sessionKey;
     private SignTool authenticator;
 
-    private AsyncHttpClient asyncHttpClient = new AsyncHttpClient();
-    private Executor workerExecutor = Executors.newFixedThreadPool(10);
+    private AsyncHttpClient asyncHttpClient;
+    private Executor workerExecutor;
 
     /**
      * Create a new {@code NingHttpConnection} with a default configuration.
      */
     public NingHttpConnection() {
         super();
+        this.asyncHttpClient = new AsyncHttpClient();
+        this.workerExecutor = Executors.newFixedThreadPool(10);
+    }
+
+    /**
+     * Create a new {@code NingHttpConnection} that runs on shared threads. The client's event loop runs in the
+     * nio pool, its request timeouts on the timer and the responses in the cpu pool. Its NIO boss thread is the
+     * one thread the client always starts of its own. The client shuts down and waits on the executor it is given
+     * when it is closed, so it gets a view of the nio pool of its own, see {@link ExecutionResources#newNioExecutor()}.
+     *
+     * @param resources The threads to run on, they are not shut down when this connection is destroyed.
+     */
+    public NingHttpConnection(ExecutionResources resources) {
+        super();
+        this.asyncHttpClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setExecutorService(resources.newNioExecutor())
+                .setScheduledExecutorService(resources.getTimer())
+                .build());
+        this.workerExecutor = resources.getCpuExecutor();
     }
 
     /**
@@ -0,0 +1,255 @@
+package com.zipwhip.api;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An executor that starts a new thread for every task, for work that spends its time blocked: HTTP requests,
+ * connects and disconnects. Nothing ever waits for a thread, so one slow server does not hold up everything behind it
+ * the way it would in a bounded pool.
+ * <p/>
+ * On a JVM with virtual threads the tasks run on virtual threads, which cost no platform thread while they are blocked
+ * in socket I/O or waiting on a future. On any other JVM they run on platform daemon threads, which gives the same
+ * semantics at the cost of a thread per blocked task. See {@link #isVirtualThreadsAvailable()}.
+ */
+public class ThreadPerTaskExecutor extends AbstractExecutorService {
+
+    private static final Logger LOGGER = Logger.getLogger(ThreadPerTaskExecutor.class);
+
+    private final ThreadFactory threadFactory;
+    private final boolean virtual;
+
+    private final Set<Thread> running = new HashSet<Thread>();
+    private boolean shutdown;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicInteger peak = new AtomicInteger();
+
+    /**
+     * Create an executor that runs each task on a thread of its own, a virtual one if the JVM has them.
+     *
+     * @param name The prefix of the names of the threads.
+     */
+    public ThreadPerTaskExecutor(String name) {
+
+        ThreadFactory virtualFactory = virtualThreadFactory(name);
+
+        this.virtual = virtualFactory != null;
+        this.threadFactory = virtual ? virtualFactory : new DaemonThreadFactory(name);
+    }
+
+    /**
+     * Create an executor that runs each task on a thread of the given factory.
+     *
+     * @param threadFactory The factory to start a thread per task with.
+     */
+    public ThreadPerTaskExecutor(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        this.virtual = false;
+    }
+
+    /**
+     * @return True if this JVM can run tasks on virtual threads.
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return virtualThreadFactory("probe") != null;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+
+        Thread thread = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    command.run();
+                } finally {
+                    finished(Thread.currentThread());
+                }
+            }
+        });
+
+        synchronized (running) {
+
+            if (shutdown) {
+                throw new RejectedExecutionException("The executor is shut down");
+            }
+
+            running.add(thread);
+
+            if (running.size() > peak.get()) {
+                peak.set(running.size());
+            }
+        }
+
+        started.incrementAndGet();
+        thread.start();
+    }
+
+    /**
+     * @return True if the tasks run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return The tasks running now, each on a thread of its own.
+     */
+    public int getRunning() {
+        synchronized (running) {
+            return running.size();
+        }
+    }
+
+    /**
+     * @return The most tasks that have run at once.
+     */
+    public int getPeak() {
+        return peak.get();
+    }
+
+    public long getStarted() {
+        return started.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (running) {
+            shutdown = true;
+            running.notifyAll();
+        }
+    }
+
+    /**
+     * Interrupt every running task. The tasks are never queued, so there are none to return.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+
+        List<Thread> threads;
+
+        synchronized (running) {
+            shutdown = true;
+            threads = new ArrayList<Thread>(running);
+        }
+
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (running) {
+            return shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (running) {
+            return shutdown && running.isEmpty();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        synchronized (running) {
+
+            while (!(shutdown && running.isEmpty())) {
+
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(running, remaining);
+            }
+
+            return true;
+        }
+    }
+
+    private void finished(Thread thread) {
+
+        completed.incrementAndGet();
+
+        synchronized (running) {
+            running.remove(thread);
+            running.notifyAll();
+        }
+    }
+
+    /**
+     * Thread.ofVirtual().name(name, 0).factory(), looked up reflectively since this library is built for JVMs that
+     * predate it.
+     *
+     * @param name The prefix of the names of the threads.
+     * @return A factory of virtual threads, or null if this JVM has none.
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+
+            Object builder = ofVirtual.invoke(null);
+            builder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (Exception e) {
+            // Preview API in a JVM that has not enabled it
+            LOGGER.debug("Virtual threads are not available: " + e);
+            return null;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger number = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -128,6 +128,15 @@ public abstract class ZipwhipNetworkSupport extends CascadingDestroyableBase {
         link(this.connection);
     }
 
+    /**
+     * Run the callbacks of this client's futures in the shared callback pool rather than a thread of its own.
+     *
+     * @param resources The threads to run callbacks on.
+     */
+    public void setExecutionResources(ExecutionResources resources) {
+        this.callbackExecutor = resources.getCallbackExecutor();
+    }
+
     public ResponseParser getResponseParser() {
         return responseParser;
     }
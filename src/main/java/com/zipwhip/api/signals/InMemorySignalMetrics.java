@@ -0,0 +1,324 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.Command;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps counters and latency histograms in memory for one connection, to be read with {@link #snapshot()}.
+ * <p/>
+ * Latencies are kept in power of two buckets of microseconds, so recording one is a few atomic increments and a
+ * percentile is accurate to within a factor of two. Decode and dispatch latencies are kept per command type.
+ */
+public class InMemorySignalMetrics implements SignalMetrics {
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    private final ConcurrentMap<Class<? extends Command>, Histogram> decode = new ConcurrentHashMap<Class<? extends Command>, Histogram>();
+    private final ConcurrentMap<Class<? extends Command>, Histogram> dispatch = new ConcurrentHashMap<Class<? extends Command>, Histogram>();
+    private final Histogram pingRoundTrip = new Histogram();
+    private final Histogram negotiation = new Histogram();
+    private final Histogram fullHandshakes = new Histogram();
+    private final Histogram resumedHandshakes = new Histogram();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void bytesReceived(int bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    @Override
+    public void bytesSent(int bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    @Override
+    public void frameReceived() {
+        framesReceived.incrementAndGet();
+    }
+
+    @Override
+    public void frameSent() {
+        framesSent.incrementAndGet();
+    }
+
+    @Override
+    public void commandDecoded(Class<? extends Command> type, long nanos) {
+        histogram(decode, type).record(nanos);
+    }
+
+    @Override
+    public void commandDispatched(Class<? extends Command> type, long nanos) {
+        histogram(dispatch, type).record(nanos);
+    }
+
+    @Override
+    public void pingRoundTrip(long nanos) {
+        pingRoundTrip.record(nanos);
+    }
+
+    @Override
+    public void reconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    @Override
+    public void negotiated(long nanos) {
+        negotiation.record(nanos);
+    }
+
+    @Override
+    public void tlsHandshake(boolean resumed, long nanos) {
+        (resumed ? resumedHandshakes : fullHandshakes).record(nanos);
+    }
+
+    /**
+     * @return A copy of everything recorded so far, it does not change as more is recorded.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    private static Histogram histogram(ConcurrentMap<Class<? extends Command>, Histogram> histograms, Class<? extends Command> type) {
+
+        Histogram histogram = histograms.get(type);
+
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(type, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+
+        return histogram;
+    }
+
+    private static Map<String, Latency> latencies(ConcurrentMap<Class<? extends Command>, Histogram> histograms) {
+
+        Map<String, Latency> latencies = new TreeMap<String, Latency>();
+
+        for (Map.Entry<Class<? extends Command>, Histogram> entry : histograms.entrySet()) {
+            latencies.put(entry.getKey().getSimpleName(), new Latency(entry.getValue()));
+        }
+
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * A latency histogram, bucket 0 holds latencies under a microsecond and bucket {@code n} those of at least
+     * 2<sup>n-1</sup> and less than 2<sup>n</sup> microseconds.
+     */
+    private static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+
+            long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(micros));
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+
+            long max;
+            while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+                // Lost the race, try again
+            }
+        }
+
+    }
+
+    /**
+     * A copy of a latency histogram.
+     */
+    public static class Latency {
+
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Latency(Histogram histogram) {
+
+            this.buckets = new long[histogram.buckets.length()];
+
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram.buckets.get(i);
+            }
+
+            this.count = histogram.count.get();
+            this.totalNanos = histogram.totalNanos.get();
+            this.maxNanos = histogram.maxNanos.get();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 100.
+         * @return The upper bound of the bucket the percentile falls in, in nanoseconds, but no more than the maximum.
+         */
+        public long getPercentileNanos(double percentile) {
+
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+
+            for (int i = 0; i < buckets.length; i++) {
+
+                seen += buckets[i];
+
+                if (seen >= rank) {
+                    return Math.min(maxNanos, TimeUnit.MICROSECONDS.toNanos(1L << i));
+                }
+            }
+
+            return maxNanos;
+        }
+
+        /**
+         * @return The latency counts by bucket, bucket 0 holds latencies under a microsecond and bucket {@code n}
+         *         those of at least 2<sup>n-1</sup> and less than 2<sup>n</sup> microseconds.
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        @Override
+        public String toString() {
+            return count + " samples, mean " + TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) + "us, p99 " + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99)) + "us, max " + TimeUnit.NANOSECONDS.toMicros(maxNanos) + "us";
+        }
+
+    }
+
+    /**
+     * Everything recorded up to the moment it was taken.
+     */
+    public static class Snapshot {
+
+        private final long bytesReceived;
+        private final long bytesSent;
+        private final long framesReceived;
+        private final long framesSent;
+        private final long reconnects;
+
+        private final Map<String, Latency> decode;
+        private final Map<String, Latency> dispatch;
+        private final Latency pingRoundTrip;
+        private final Latency negotiation;
+        private final Latency fullHandshakes;
+        private final Latency resumedHandshakes;
+
+        Snapshot(InMemorySignalMetrics metrics) {
+            this.bytesReceived = metrics.bytesReceived.get();
+            this.bytesSent = metrics.bytesSent.get();
+            this.framesReceived = metrics.framesReceived.get();
+            this.framesSent = metrics.framesSent.get();
+            this.reconnects = metrics.reconnects.get();
+            this.decode = latencies(metrics.decode);
+            this.dispatch = latencies(metrics.dispatch);
+            this.pingRoundTrip = new Latency(metrics.pingRoundTrip);
+            this.negotiation = new Latency(metrics.negotiation);
+            this.fullHandshakes = new Latency(metrics.fullHandshakes);
+            this.resumedHandshakes = new Latency(metrics.resumedHandshakes);
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getFramesReceived() {
+            return framesReceived;
+        }
+
+        public long getFramesSent() {
+            return framesSent;
+        }
+
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        /**
+         * @return The decode latencies by the simple name of the command type.
+         */
+        public Map<String, Latency> getDecode() {
+            return decode;
+        }
+
+        /**
+         * @return The dispatch latencies by the simple name of the command type.
+         */
+        public Map<String, Latency> getDispatch() {
+            return dispatch;
+        }
+
+        public Latency getPingRoundTrip() {
+            return pingRoundTrip;
+        }
+
+        /**
+         * @return The times from starting to connect to being negotiated with the SignalServer.
+         */
+        public Latency getNegotiation() {
+            return negotiation;
+        }
+
+        /**
+         * @return The TLS handshakes that negotiated a new session.
+         */
+        public Latency getFullHandshakes() {
+            return fullHandshakes;
+        }
+
+        /**
+         * @return The TLS handshakes that resumed a cached session.
+         */
+        public Latency getResumedHandshakes() {
+            return resumedHandshakes;
+        }
+
+        @Override
+        public String toString() {
+            return "in " + bytesReceived + " bytes/" + framesReceived + " frames, out " + bytesSent + " bytes/" + framesSent + " frames, "
+                    + reconnects + " reconnects, negotiation " + negotiation + ", tls full " + fullHandshakes + ", tls resumed " + resumedHandshakes + ", ping " + pingRoundTrip + ", decode " + decode + ", dispatch " + dispatch;
+        }
+
+    }
+
+}
@@ -6,12 +6,17 @@ import java.io.Serializable;
  * Created by IntelliJ IDEA. User: Michael Date: 7/5/11 Time: 8:11 PM
  * <p/>
  * Represents a Signal that was parsed from Json
+ * <p/>
+ * Only the text is held, no parsed tree. Signals parsed from a frame keep their text as it came off the wire.
  */
 public class JsonSignal extends Signal implements Serializable {
 
     private static final long serialVersionUID = 757720958701072081L;
     private String json;
 
+    /**
+     * @param json The text of the signal, such as the slice of the frame it was parsed from.
+     */
     public JsonSignal(String json) {
         this.json = json;
     }
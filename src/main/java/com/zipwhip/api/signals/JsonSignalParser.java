@@ -2,6 +2,8 @@ package com.zipwhip.api.signals;
 
 import com.zipwhip.api.response.JsonDtoParser;
 import com.zipwhip.locators.Locator;
+import com.zipwhip.util.Factory;
+import com.zipwhip.util.JsonPullParser;
 import com.zipwhip.util.MemoryLocator;
 import com.zipwhip.util.Parser;
 import org.apache.log4j.Logger;
@@ -19,6 +21,8 @@ public class JsonSignalParser implements SignalParser<JSONObject> {
 
     private final Locator<Parser<JSONObject, ?>> LOCATOR;
 
+    private boolean lazyContent;
+
     public static final String CONTACT_KEY = "contact";
     public static final String CONVERSATION_KEY = "conversation";
     public static final String DEVICE_KEY = "device";
@@ -42,6 +46,19 @@ public class JsonSignalParser implements SignalParser<JSONObject> {
 
     @Override
     public Signal parseSignal(JSONObject object) throws Exception {
+        return parseSignal(object, null);
+    }
+
+    /**
+     * Parse a signal whose text is at hand, such as a slice of the frame it came in. The text is kept as it is
+     * rather than rendered again from the node, and with lazy content only the text of the content is held.
+     *
+     * @param object The signal, or an object with the signal as its {@code signal} member.
+     * @param json The text of the signal itself, or null to render it from the node.
+     * @return The signal, or null if there is none.
+     * @throws Exception If the content can not be parsed.
+     */
+    public Signal parseSignal(JSONObject object, String json) throws Exception {
 
         JSONObject node;
 
@@ -58,11 +75,15 @@ public class JsonSignalParser implements SignalParser<JSONObject> {
         // Get signal.content
         JSONObject content = node.optJSONObject("content");
 
+        if (json == null) {
+            json = node.toString();
+        }
+
         if (LOGGER.isDebugEnabled()){
-            LOGGER.debug("SIGNAL>>>" + node.toString());
+            LOGGER.debug("SIGNAL>>>" + json);
         }
 
-        Signal signal = new JsonSignal(node.toString());
+        Signal signal = new JsonSignal(json);
 
         String mType = signal.type = node.optString("type");
         signal.event = node.optString("event");
@@ -71,9 +92,14 @@ public class JsonSignalParser implements SignalParser<JSONObject> {
         signal.scope = node.optString("scope");
         signal.uri = node.optString("uri");
 
-        Parser<JSONObject, ?> parser = LOCATOR.locate(mType.toLowerCase());
+        Parser<JSONObject, ?> parser = getContentParser(mType);
+
+        if (parser != null && lazyContent) {
 
-        if (parser != null){
+            // Hold the text of the content, not its tree
+            signal.setLazyContent(lazyContent(parser, content == null ? null : JsonPullParser.optMemberText(json, "content")));
+
+        } else if (parser != null){
 
             signal.content = parser.parse(content);
 
@@ -89,4 +115,44 @@ public class JsonSignalParser implements SignalParser<JSONObject> {
         return signal;
     }
 
+    /**
+     * Build the DTO of a signal from the text of its content when it is first asked for.
+     *
+     * @param parser The parser for the type of the signal.
+     * @param content The text of the content of the signal.
+     * @return What builds the DTO.
+     */
+    public static Factory<Object> lazyContent(final Parser<JSONObject, ?> parser, final String content) {
+        return new Factory<Object>() {
+            @Override
+            public Object create() throws Exception {
+                return parser.parse(content == null ? null : new JSONObject(content));
+            }
+        };
+    }
+
+    public boolean isLazyContent() {
+        return lazyContent;
+    }
+
+    /**
+     * Leave the DTO of each signal to be built the first time its content is asked for, see
+     * {@link Signal#setLazyContent(Factory)}. Signals of a type with no DTO get their content as before.
+     *
+     * @param lazyContent True to build the DTOs lazily.
+     */
+    public void setLazyContent(boolean lazyContent) {
+        this.lazyContent = lazyContent;
+    }
+
+    /**
+     * Find the parser for the content of a signal of the given type.
+     *
+     * @param type The signal type, case insensitive.
+     * @return The content parser or null if this type of content is not parsed.
+     */
+    public Parser<JSONObject, ?> getContentParser(String type) {
+        return LOCATOR.locate(type.toLowerCase());
+    }
+
 }
@@ -0,0 +1,61 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.Command;
+
+/**
+ * Discards everything. Since it is not enabled the connection and provider take no timestamps for it and add
+ * nothing to the pipeline.
+ */
+public final class NoopSignalMetrics implements SignalMetrics {
+
+    public static final SignalMetrics INSTANCE = new NoopSignalMetrics();
+
+    private NoopSignalMetrics() {
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void bytesReceived(int bytes) {
+    }
+
+    @Override
+    public void bytesSent(int bytes) {
+    }
+
+    @Override
+    public void frameReceived() {
+    }
+
+    @Override
+    public void frameSent() {
+    }
+
+    @Override
+    public void commandDecoded(Class<? extends Command> type, long nanos) {
+    }
+
+    @Override
+    public void commandDispatched(Class<? extends Command> type, long nanos) {
+    }
+
+    @Override
+    public void pingRoundTrip(long nanos) {
+    }
+
+    @Override
+    public void reconnected() {
+    }
+
+    @Override
+    public void negotiated(long nanos) {
+    }
+
+    @Override
+    public void tlsHandshake(boolean resumed, long nanos) {
+    }
+
+}
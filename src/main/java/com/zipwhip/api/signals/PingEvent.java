@@ -17,6 +17,11 @@ public enum PingEvent {
     PING_CANCELLED,
     PONG_RECEIVED,
     PONG_CANCELLED,
-    PONG_TIMEOUT
+    PONG_TIMEOUT,
+
+    /**
+     * The adaptive keepalive learned a new PING interval, read it from the connection's {@code getPingTimeout()}.
+     */
+    PING_INTERVAL_CHANGED
 
 }
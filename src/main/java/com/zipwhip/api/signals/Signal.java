@@ -1,5 +1,10 @@
 package com.zipwhip.api.signals;
 
+import com.zipwhip.util.Factory;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
@@ -9,6 +14,8 @@ public class Signal implements Serializable {
 
     private static final long serialVersionUID = 4312231478912373L;
 
+    private static final Logger LOGGER = Logger.getLogger(Signal.class);
+
     /**
      * Some signals can be parsed as DTO's. If that's possible it will be in the content.
      */
@@ -20,6 +27,11 @@ public class Signal implements Serializable {
     String reason;
     String uri;
 
+    /**
+     * Builds the content the first time it is asked for, null once it has been built or if it was set outright.
+     */
+    private transient volatile Factory<?> pendingContent;
+
     public String getType() {
         return type;
     }
@@ -60,12 +72,64 @@ public class Signal implements Serializable {
         this.reason = reason;
     }
 
+    /**
+     * @return The content of the signal, built now if it was set to be built lazily and has not been yet.
+     */
     public Object getContent() {
+
+        if (pendingContent != null) {
+            materializeContent();
+        }
+
         return content;
     }
 
     public void setContent(Object content) {
         this.content = content;
+        this.pendingContent = null;
+    }
+
+    /**
+     * Build the content the first time {@link #getContent()} is called rather than now, so that a signal that is
+     * dropped on its type or uuid never pays for it. It is built once, whichever thread asks first.
+     * If it cannot be built the content is null.
+     *
+     * @param content Builds the content.
+     */
+    public void setLazyContent(Factory<?> content) {
+        this.content = null;
+        this.pendingContent = content;
+    }
+
+    /**
+     * @return False if the content is yet to be built.
+     */
+    public boolean isContentMaterialized() {
+        return pendingContent == null;
+    }
+
+    private synchronized void materializeContent() {
+
+        Factory<?> pending = pendingContent;
+
+        if (pending == null) {
+            // Built by another thread while we waited
+            return;
+        }
+
+        try {
+            content = pending.create();
+        } catch (Exception e) {
+            LOGGER.error("Error building the content of a " + type + " signal", e);
+            content = null;
+        }
+
+        pendingContent = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getContent();
+        out.defaultWriteObject();
     }
 
     public String getUri() {
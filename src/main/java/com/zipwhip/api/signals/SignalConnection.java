@@ -192,4 +192,19 @@ public interface SignalConnection extends Destroyable {
      */
     void setReconnectStrategy(ReconnectStrategy strategy);
 
+    /**
+     * Get where the connection reports its traffic, decode latencies, PING round trips and reconnects.
+     *
+     * @return the metrics of the connection, never null.
+     */
+    SignalMetrics getSignalMetrics();
+
+    /**
+     * Set where the connection reports its traffic, decode latencies, PING round trips and reconnects.
+     * What is counted in the pipeline takes effect on the next connect.
+     *
+     * @param metrics the metrics to report to, {@link NoopSignalMetrics#INSTANCE} to report nothing.
+     */
+    void setSignalMetrics(SignalMetrics metrics);
+
 }
@@ -0,0 +1,196 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.SignalCommand;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the signals most recently delivered so that the ones the SignalServer sends again, most often in the
+ * backlog after a reconnect, can be dropped before they reach our observers.
+ * <p/>
+ * A signal is known by its uuid and the version it was given under its versionKey. At most {@code capacity} of them
+ * are remembered, least recently seen first out, and none for longer than {@code maxAgeMillis}. Memory stays fixed
+ * however many signals go through, a duplicate costs a hash lookup. Signals without a uuid or a version are never
+ * taken for duplicates.
+ */
+public class SignalDeduplicator {
+
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final long DEFAULT_MAX_AGE = 1000 * 60 * 60;
+
+    private final long maxAgeMillis;
+    private final Statistics statistics = new Statistics();
+
+    private final LinkedHashMap<String, Long> seen;
+
+    public SignalDeduplicator() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param capacity The most signals to remember.
+     * @param maxAgeMillis How long to remember a signal after it was last seen, in milliseconds.
+     */
+    public SignalDeduplicator(final int capacity, long maxAgeMillis) {
+
+        if (capacity <= 0 || maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("The capacity and max age must be positive");
+        }
+
+        this.maxAgeMillis = maxAgeMillis;
+
+        // In access order, so the eldest is the least recently seen
+        this.seen = new LinkedHashMap<String, Long>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+
+                if (size() > capacity) {
+                    statistics.evicted.incrementAndGet();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Remember the signal and tell whether it was delivered before.
+     *
+     * @param command The signal about to be delivered.
+     * @return True if the same signal was seen within the max age and should be dropped.
+     */
+    public boolean isDuplicate(SignalCommand command) {
+
+        String key = key(command);
+
+        if (key == null) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean duplicate;
+
+        synchronized (seen) {
+
+            expire(now);
+
+            Long previous = seen.put(key, now);
+            duplicate = previous != null;
+        }
+
+        statistics.checked.incrementAndGet();
+
+        if (duplicate) {
+            statistics.duplicates.incrementAndGet();
+        }
+
+        return duplicate;
+    }
+
+    /**
+     * Forget every signal, the statistics are kept.
+     */
+    public void clear() {
+        synchronized (seen) {
+            seen.clear();
+        }
+    }
+
+    /**
+     * @return How many signals are remembered right now.
+     */
+    public int size() {
+        synchronized (seen) {
+            return seen.size();
+        }
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /*
+     * The uuid of a signal names the subscriber it is for rather than the signal, so it takes the version the
+     * SignalServer gave the signal to tell one from another.
+     */
+    private static String key(SignalCommand command) {
+
+        Signal signal = command.getSignal();
+        VersionMapEntry version = command.getVersion();
+
+        if (signal == null || signal.getUuid() == null || version == null || version.getValue() == null || version.getValue() < 0) {
+            return null;
+        }
+
+        return signal.getUuid() + '|' + version.getKey() + '|' + version.getValue();
+    }
+
+    /*
+     * The map is in access order and every access is a put, so the entries run from the longest ago seen
+     * to the most recently seen and the expired ones are all at the front.
+     */
+    private void expire(long now) {
+
+        Iterator<Long> iterator = seen.values().iterator();
+
+        while (iterator.hasNext() && now - iterator.next() > maxAgeMillis) {
+            iterator.remove();
+            statistics.expired.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the signals that were checked, how many were duplicates and how many were forgotten.
+     */
+    public static class Statistics {
+
+        private final AtomicLong checked = new AtomicLong();
+        private final AtomicLong duplicates = new AtomicLong();
+        private final AtomicLong evicted = new AtomicLong();
+        private final AtomicLong expired = new AtomicLong();
+
+        /**
+         * @return The signals with a uuid and a version that were checked.
+         */
+        public long getChecked() {
+            return checked.get();
+        }
+
+        public long getDuplicates() {
+            return duplicates.get();
+        }
+
+        /**
+         * @return The signals forgotten to stay within the capacity.
+         */
+        public long getEvicted() {
+            return evicted.get();
+        }
+
+        /**
+         * @return The signals forgotten for being older than the max age.
+         */
+        public long getExpired() {
+            return expired.get();
+        }
+
+        /**
+         * @return The share of the checked signals that were duplicates, between 0.0 and 1.0.
+         */
+        public double getHitRate() {
+            long count = checked.get();
+            return count == 0 ? 0.0 : (double) duplicates.get() / count;
+        }
+
+        @Override
+        public String toString() {
+            return checked.get() + " checked, " + duplicates.get() + " duplicates, " + evicted.get() + " evicted, " + expired.get() + " expired";
+        }
+
+    }
+
+}
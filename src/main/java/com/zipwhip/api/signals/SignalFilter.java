@@ -0,0 +1,148 @@
+package com.zipwhip.api.signals;
+
+/**
+ * What a {@link SignalRouter} subscriber wants to see. Each part that is set must match, those that are not match
+ * anything, so {@code SignalFilter.any()} matches every signal.
+ * <p/>
+ * The type is matched ignoring case, the event, scope and address exactly and the uri by its prefix. The address is
+ * the {@code uuid} of the signal, the subscriber the SignalServer sent it for.
+ * <p/>
+ * A filter is immutable, each of its setters returns a new one.
+ */
+public final class SignalFilter {
+
+    private static final SignalFilter ANY = new SignalFilter(null, null, null, null, null);
+
+    private final String type;
+    private final String event;
+    private final String scope;
+    private final String uriPrefix;
+    private final String address;
+
+    private SignalFilter(String type, String event, String scope, String uriPrefix, String address) {
+        this.type = type;
+        this.event = event;
+        this.scope = scope;
+        this.uriPrefix = uriPrefix;
+        this.address = address;
+    }
+
+    /**
+     * @return A filter that matches every signal.
+     */
+    public static SignalFilter any() {
+        return ANY;
+    }
+
+    /**
+     * @param type The type of signal, such as {@code message}, in any case.
+     * @return A filter that also matches on the type.
+     */
+    public SignalFilter type(String type) {
+        return new SignalFilter(type == null ? null : type.toLowerCase(), event, scope, uriPrefix, address);
+    }
+
+    /**
+     * @param type The type of signal.
+     * @return A filter that also matches on the type.
+     */
+    public SignalFilter type(SignalObserverAdapter.SignalType type) {
+        return type(type.name());
+    }
+
+    /**
+     * @param event The event, such as {@code receive}.
+     * @return A filter that also matches on the event.
+     */
+    public SignalFilter event(String event) {
+        return new SignalFilter(type, event, scope, uriPrefix, address);
+    }
+
+    /**
+     * @param scope The scope, such as {@code device}.
+     * @return A filter that also matches on the scope.
+     */
+    public SignalFilter scope(String scope) {
+        return new SignalFilter(type, event, scope, uriPrefix, address);
+    }
+
+    /**
+     * @param uriPrefix What the uri starts with, such as {@code /signal/message/}.
+     * @return A filter that also matches on the uri.
+     */
+    public SignalFilter uriPrefix(String uriPrefix) {
+        return new SignalFilter(type, event, scope, uriPrefix, address);
+    }
+
+    /**
+     * @param address The uuid of the subscriber the signal is for.
+     * @return A filter that also matches on the address.
+     */
+    public SignalFilter address(String address) {
+        return new SignalFilter(type, event, scope, uriPrefix, address);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getUriPrefix() {
+        return uriPrefix;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Match a signal against every part of this filter. The router only does this for the parts it did not
+     * already match in its indexes.
+     *
+     * @param signal The signal.
+     * @param lowerCaseType The type of the signal in lower case, so it is folded once per signal.
+     * @return True if the signal matches.
+     */
+    boolean matches(Signal signal, String lowerCaseType) {
+        return (type == null || type.equals(lowerCaseType))
+                && (event == null || event.equals(signal.getEvent()))
+                && (scope == null || scope.equals(signal.getScope()))
+                && (address == null || address.equals(signal.getUuid()))
+                && (uriPrefix == null || (signal.getUri() != null && signal.getUri().startsWith(uriPrefix)));
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder("SignalFilter{");
+
+        append(builder, "type", type);
+        append(builder, "event", event);
+        append(builder, "scope", scope);
+        append(builder, "uriPrefix", uriPrefix);
+        append(builder, "address", address);
+
+        return builder.append('}').toString();
+    }
+
+    private static void append(StringBuilder builder, String name, String value) {
+
+        if (value == null) {
+            return;
+        }
+
+        if (builder.charAt(builder.length() - 1) != '{') {
+            builder.append(", ");
+        }
+
+        builder.append(name).append('=').append(value);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.Command;
+
+/**
+ * Where a {@code SignalConnection} and the {@code SignalProvider} on top of it report how the connection is doing:
+ * the traffic on the wire, how long commands take to decode and to handle, the PING round trip, reconnects, the TLS
+ * handshakes and how long it takes to be negotiated with the SignalServer.
+ * <p/>
+ * Implementations are called from the I/O thread and must be cheap and thread safe. The default is
+ * {@link NoopSignalMetrics}, keep what is reported with {@link InMemorySignalMetrics}.
+ */
+public interface SignalMetrics {
+
+    /**
+     * @return False if whatever is reported is discarded, so that the callers need not even take timestamps.
+     */
+    boolean isEnabled();
+
+    /**
+     * @param bytes Bytes read off the socket, before they are inflated.
+     */
+    void bytesReceived(int bytes);
+
+    /**
+     * @param bytes Bytes written to the socket.
+     */
+    void bytesSent(int bytes);
+
+    /**
+     * A frame was received, a command or a keepalive.
+     */
+    void frameReceived();
+
+    /**
+     * A command was sent, a keepalive included.
+     */
+    void frameSent();
+
+    /**
+     * @param type The type of the command that was parsed.
+     * @param nanos How long it took to parse the frame into the command.
+     */
+    void commandDecoded(Class<? extends Command> type, long nanos);
+
+    /**
+     * @param type The type of the command that was handled.
+     * @param nanos How long the provider and its observers took to handle the command.
+     */
+    void commandDispatched(Class<? extends Command> type, long nanos);
+
+    /**
+     * @param nanos The time from a PING being sent to its PONG being received.
+     */
+    void pingRoundTrip(long nanos);
+
+    /**
+     * The connection connected again after it had been connected before.
+     */
+    void reconnected();
+
+    /**
+     * @param nanos The time from starting to connect to the SignalServer accepting the CONNECT.
+     */
+    void negotiated(long nanos);
+
+    /**
+     * @param resumed True if the handshake resumed a cached TLS session, false if it negotiated a new one.
+     * @param nanos How long the TLS handshake took.
+     */
+    void tlsHandshake(boolean resumed, long nanos);
+
+}
@@ -5,7 +5,9 @@ import com.zipwhip.events.Observer;
 import com.zipwhip.util.StringUtil;
 import org.apache.log4j.Logger;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by IntelliJ IDEA.
@@ -31,23 +33,29 @@ public abstract class SignalObserverAdapter implements Observer<List<Signal>> {
         NOVALUE,
         UNKNOWN;
 
+        private static final Map<String, SignalType> BY_NAME = new HashMap<String, SignalType>();
+
+        static {
+            for (SignalType type : values()) {
+                BY_NAME.put(type.name(), type);
+                BY_NAME.put(type.name().toLowerCase(), type);
+            }
+        }
+
         public static SignalType toSignalType(String typeString) {
 
             if (StringUtil.isNullOrEmpty(typeString)) {
                 return NOVALUE;
             }
 
-            // Cleanup the type string
-            String enumString = typeString.toUpperCase();
+            // The SignalServer sends them in lower case, only fold the case of anything else
+            SignalType type = BY_NAME.get(typeString);
 
-            try {
-
-                return valueOf(enumString);
-
-            } catch (Exception ex) {
-
-                return UNKNOWN;
+            if (type == null) {
+                type = BY_NAME.get(typeString.toUpperCase());
             }
+
+            return type == null ? UNKNOWN : type;
         }
     }
 
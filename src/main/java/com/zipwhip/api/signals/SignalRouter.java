@@ -0,0 +1,448 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.events.Observer;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers each signal only to the observers that want it, rather than every signal to every observer.
+ * <p/>
+ * Observers subscribe with a {@link SignalFilter}. The filters are compiled into indexes, hash maps on the address,
+ * type, event and scope and a trie on the uri prefix, so the subscriptions a signal might match are found in a few
+ * lookups however many there are. Only those are then checked against the rest of their filter. Each filter is
+ * indexed on one part, the first it sets of address, type, uri prefix, scope and event, the most selective first.
+ * <p/>
+ * Observe a provider with the router, {@code provider.onSignalReceived(router)}. Each observer is notified once per
+ * list of signals with the signals from it that it matched, in order, and is not notified if it matched none. A
+ * signal that matches several filters of the same observer is delivered to it once.
+ * <p/>
+ * Subscribing and unsubscribing recompile the indexes, routing never waits on them.
+ */
+public class SignalRouter implements Observer<List<Signal>> {
+
+    private static final Logger LOGGER = Logger.getLogger(SignalRouter.class);
+
+    private final Object lock = new Object();
+    private final List<Route> routes = new ArrayList<Route>();
+    private final Map<Observer<List<Signal>>, Subscriber> subscribers = new IdentityHashMap<Observer<List<Signal>>, Subscriber>();
+
+    private volatile Index index = new Index(Collections.<Route>emptyList());
+
+    private final Statistics statistics = new Statistics();
+
+    /**
+     * Deliver the signals that match the filter to the observer. An observer may subscribe with several filters.
+     *
+     * @param filter What the observer wants to see.
+     * @param observer Notified with the signals that match.
+     */
+    public void subscribe(SignalFilter filter, Observer<List<Signal>> observer) {
+
+        if (filter == null || observer == null) {
+            throw new IllegalArgumentException("The filter and observer are required");
+        }
+
+        synchronized (lock) {
+
+            Subscriber subscriber = subscribers.get(observer);
+
+            if (subscriber == null) {
+                subscriber = new Subscriber(observer);
+                subscribers.put(observer, subscriber);
+            }
+
+            routes.add(new Route(filter, subscriber));
+
+            index = new Index(routes);
+        }
+    }
+
+    /**
+     * Stop delivering to the observer, whatever filters it subscribed with.
+     *
+     * @param observer The observer.
+     */
+    public void unsubscribe(Observer<List<Signal>> observer) {
+
+        synchronized (lock) {
+
+            Subscriber subscriber = subscribers.remove(observer);
+
+            if (subscriber == null) {
+                return;
+            }
+
+            for (int i = routes.size() - 1; i >= 0; i--) {
+                if (routes.get(i).subscriber == subscriber) {
+                    routes.remove(i);
+                }
+            }
+
+            index = new Index(routes);
+        }
+    }
+
+    /**
+     * @return The number of filters subscribed.
+     */
+    public int size() {
+        synchronized (lock) {
+            return routes.size();
+        }
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public void notify(Object sender, List<Signal> signals) {
+
+        if (signals == null || signals.isEmpty()) {
+            return;
+        }
+
+        Index current = index;
+
+        // In the order each subscriber first matched, with its signals in the order they came
+        Map<Subscriber, List<Signal>> deliveries = new LinkedHashMap<Subscriber, List<Signal>>();
+
+        List<Route> candidates = new ArrayList<Route>();
+
+        for (Signal signal : signals) {
+
+            statistics.signals.incrementAndGet();
+
+            if (signal == null) {
+                continue;
+            }
+
+            String type = signal.getType() == null ? null : signal.getType().toLowerCase();
+
+            candidates.clear();
+            current.candidates(signal, type, candidates);
+
+            boolean matched = false;
+
+            for (Route route : candidates) {
+
+                if (!route.filter.matches(signal, type)) {
+                    continue;
+                }
+
+                matched = true;
+
+                List<Signal> delivery = deliveries.get(route.subscriber);
+
+                if (delivery == null) {
+                    delivery = new ArrayList<Signal>(signals.size());
+                    deliveries.put(route.subscriber, delivery);
+                }
+
+                // Matched another filter of the same subscriber already
+                if (delivery.isEmpty() || delivery.get(delivery.size() - 1) != signal) {
+                    delivery.add(signal);
+                }
+            }
+
+            if (!matched) {
+                statistics.unmatched.incrementAndGet();
+            }
+        }
+
+        for (Map.Entry<Subscriber, List<Signal>> entry : deliveries.entrySet()) {
+
+            statistics.deliveries.incrementAndGet();
+
+            try {
+                entry.getKey().observer.notify(sender, entry.getValue());
+            } catch (Exception e) {
+                LOGGER.error("Error notifying " + entry.getKey().observer, e);
+            }
+        }
+    }
+
+    private static class Subscriber {
+
+        private final Observer<List<Signal>> observer;
+
+        Subscriber(Observer<List<Signal>> observer) {
+            this.observer = observer;
+        }
+    }
+
+    private static class Route {
+
+        private final SignalFilter filter;
+        private final Subscriber subscriber;
+
+        Route(SignalFilter filter, Subscriber subscriber) {
+            this.filter = filter;
+            this.subscriber = subscriber;
+        }
+    }
+
+    /**
+     * The routes compiled for lookup, never changed once built.
+     */
+    private static class Index {
+
+        private final Map<String, List<Route>> byAddress = new HashMap<String, List<Route>>();
+        private final Map<String, TypeRoutes> byType = new HashMap<String, TypeRoutes>();
+        private final Trie byUriPrefix = new Trie();
+        private final Map<String, List<Route>> byScope = new HashMap<String, List<Route>>();
+        private final Map<String, List<Route>> byEvent = new HashMap<String, List<Route>>();
+        private final List<Route> wildcard = new ArrayList<Route>();
+
+        Index(List<Route> routes) {
+
+            for (Route route : routes) {
+
+                SignalFilter filter = route.filter;
+
+                if (filter.getAddress() != null) {
+
+                    add(byAddress, filter.getAddress(), route);
+
+                } else if (filter.getType() != null) {
+
+                    TypeRoutes typeRoutes = byType.get(filter.getType());
+
+                    if (typeRoutes == null) {
+                        typeRoutes = new TypeRoutes();
+                        byType.put(filter.getType(), typeRoutes);
+                    }
+
+                    if (filter.getEvent() == null) {
+                        typeRoutes.anyEvent.add(route);
+                    } else {
+                        add(typeRoutes.byEvent, filter.getEvent(), route);
+                    }
+
+                } else if (filter.getUriPrefix() != null) {
+
+                    byUriPrefix.add(filter.getUriPrefix(), route);
+
+                } else if (filter.getScope() != null) {
+
+                    add(byScope, filter.getScope(), route);
+
+                } else if (filter.getEvent() != null) {
+
+                    add(byEvent, filter.getEvent(), route);
+
+                } else {
+
+                    wildcard.add(route);
+                }
+            }
+
+            byUriPrefix.compile();
+        }
+
+        /*
+         * Every route is in exactly one index, so no route is a candidate twice.
+         */
+        void candidates(Signal signal, String type, List<Route> candidates) {
+
+            addAll(candidates, byAddress, signal.getUuid());
+
+            if (type != null) {
+
+                TypeRoutes typeRoutes = byType.get(type);
+
+                if (typeRoutes != null) {
+                    candidates.addAll(typeRoutes.anyEvent);
+                    addAll(candidates, typeRoutes.byEvent, signal.getEvent());
+                }
+            }
+
+            byUriPrefix.match(signal.getUri(), candidates);
+
+            addAll(candidates, byScope, signal.getScope());
+            addAll(candidates, byEvent, signal.getEvent());
+
+            candidates.addAll(wildcard);
+        }
+
+        private static void add(Map<String, List<Route>> index, String key, Route route) {
+
+            List<Route> routes = index.get(key);
+
+            if (routes == null) {
+                routes = new ArrayList<Route>(1);
+                index.put(key, routes);
+            }
+
+            routes.add(route);
+        }
+
+        private static void addAll(List<Route> candidates, Map<String, List<Route>> index, String key) {
+
+            if (key == null || index.isEmpty()) {
+                return;
+            }
+
+            List<Route> routes = index.get(key);
+
+            if (routes != null) {
+                candidates.addAll(routes);
+            }
+        }
+    }
+
+    private static class TypeRoutes {
+
+        private final List<Route> anyEvent = new ArrayList<Route>();
+        private final Map<String, List<Route>> byEvent = new HashMap<String, List<Route>>();
+    }
+
+    /**
+     * A character trie of the uri prefixes. Each node keeps its children in arrays sorted by character, so matching
+     * a uri is a binary search per character and allocates nothing.
+     */
+    private static class Trie {
+
+        private final TrieNode root = new TrieNode();
+        private boolean empty = true;
+
+        void add(String prefix, Route route) {
+
+            TrieNode node = root;
+
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i));
+            }
+
+            node.routes.add(route);
+            empty = false;
+        }
+
+        void compile() {
+            root.compile();
+        }
+
+        void match(String uri, List<Route> candidates) {
+
+            if (empty || uri == null) {
+                return;
+            }
+
+            TrieNode node = root;
+            candidates.addAll(node.routes);
+
+            for (int i = 0; i < uri.length() && node != null; i++) {
+
+                node = node.next(uri.charAt(i));
+
+                if (node != null) {
+                    candidates.addAll(node.routes);
+                }
+            }
+        }
+    }
+
+    private static class TrieNode {
+
+        private final List<Route> routes = new ArrayList<Route>(0);
+
+        private TreeMap<Character, TrieNode> building = new TreeMap<Character, TrieNode>();
+
+        private char[] chars = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+
+        TrieNode child(char c) {
+
+            TrieNode child = building.get(c);
+
+            if (child == null) {
+                child = new TrieNode();
+                building.put(c, child);
+            }
+
+            return child;
+        }
+
+        void compile() {
+
+            chars = new char[building.size()];
+            children = new TrieNode[building.size()];
+
+            int i = 0;
+
+            for (Map.Entry<Character, TrieNode> entry : building.entrySet()) {
+                chars[i] = entry.getKey();
+                children[i] = entry.getValue();
+                children[i].compile();
+                i++;
+            }
+
+            building = null;
+        }
+
+        TrieNode next(char c) {
+
+            int low = 0;
+            int high = chars.length - 1;
+
+            while (low <= high) {
+
+                int middle = (low + high) >>> 1;
+
+                if (chars[middle] < c) {
+                    low = middle + 1;
+                } else if (chars[middle] > c) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Counts the signals routed, the lists delivered to observers and the signals no one wanted.
+     */
+    public static class Statistics {
+
+        private final AtomicLong signals = new AtomicLong();
+        private final AtomicLong deliveries = new AtomicLong();
+        private final AtomicLong unmatched = new AtomicLong();
+
+        public long getSignals() {
+            return signals.get();
+        }
+
+        /**
+         * @return The times an observer was notified, once per list of signals it matched any of.
+         */
+        public long getDeliveries() {
+            return deliveries.get();
+        }
+
+        /**
+         * @return The signals that matched no filter.
+         */
+        public long getUnmatched() {
+            return unmatched.get();
+        }
+
+        @Override
+        public String toString() {
+            return signals.get() + " signals, " + deliveries.get() + " deliveries, " + unmatched.get() + " unmatched";
+        }
+
+    }
+
+}
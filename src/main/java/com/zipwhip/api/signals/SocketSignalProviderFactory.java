@@ -1,9 +1,18 @@
 package com.zipwhip.api.signals;
 
+import com.zipwhip.api.ExecutionResources;
+import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
 import com.zipwhip.api.signals.reconnect.ReconnectStrategy;
 import com.zipwhip.api.signals.sockets.SocketSignalProvider;
+import com.zipwhip.api.signals.sockets.netty.AdaptiveKeepalive;
+import com.zipwhip.api.signals.sockets.netty.AddressRacer;
 import com.zipwhip.api.signals.sockets.netty.NettySignalConnection;
+import com.zipwhip.api.signals.sockets.netty.SignalTls;
 import com.zipwhip.util.Factory;
+import org.jboss.netty.channel.ChannelFactory;
+
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Created by IntelliJ IDEA. User: Michael Date: 8/12/11 Time: 6:54 PM
@@ -14,6 +23,20 @@ public class SocketSignalProviderFactory implements Factory<SignalProvider> {
 
     private ReconnectStrategy reconnectStrategy;
     private Runnable onSocketActivity;
+    private ChannelFactory channelFactory;
+    private int backlogChunkSize = SocketSignalProvider.DEFAULT_BACKLOG_CHUNK_SIZE;
+    private boolean compression;
+    private boolean lazySignalContent;
+    private boolean raceAddresses;
+    private AddressRacer addressRacer;
+    private List<String> fallbackHosts;
+    private boolean standby;
+    private boolean metrics;
+    private int deduplicate;
+    private boolean sequence;
+    private AdaptiveKeepalive adaptiveKeepalive;
+    private SignalTls tls;
+    private ExecutionResources resources;
 
     private SocketSignalProviderFactory() {
     }
@@ -25,17 +48,78 @@ public class SocketSignalProviderFactory implements Factory<SignalProvider> {
     @Override
     public SignalProvider create() {
 
-        NettySignalConnection nettySignalConnection = new NettySignalConnection();
+        NettySignalConnection nettySignalConnection = newConnection();
 
         if (reconnectStrategy != null) {
             nettySignalConnection.setReconnectStrategy(reconnectStrategy);
+            if (resources != null) {
+                reconnectStrategy.setReconnectCoordinator(resources.getReconnectCoordinator());
+            }
+        }
+
+        SocketSignalProvider provider = resources == null
+                ? new SocketSignalProvider(nettySignalConnection)
+                : new SocketSignalProvider(nettySignalConnection, resources);
+        provider.setBacklogChunkSize(backlogChunkSize);
+
+        if (standby) {
+            // A strategy is bound to a single connection, the standby always reconnects with the default one
+            provider.setStandbyConnection(newConnection());
+        }
+
+        if (metrics) {
+            provider.setSignalMetrics(new InMemorySignalMetrics());
+        }
+
+        if (deduplicate > 0) {
+            provider.setSignalDeduplicator(new SignalDeduplicator(deduplicate, SignalDeduplicator.DEFAULT_MAX_AGE));
+        }
+
+        if (sequence) {
+            provider.setVersionSequencer(resources == null
+                    ? new VersionSequencer()
+                    : new VersionSequencer(VersionSequencer.DEFAULT_MAX_HELD, VersionSequencer.DEFAULT_MAX_WAIT, resources.getTimer()));
+        }
+
+        return provider;
+    }
+
+    private NettySignalConnection newConnection() {
+
+        NettySignalConnection nettySignalConnection;
+
+        if (resources != null) {
+            nettySignalConnection = new NettySignalConnection(new DefaultReconnectStrategy(), resources);
+        } else if (channelFactory == null) {
+            nettySignalConnection = new NettySignalConnection();
+        } else {
+            nettySignalConnection = new NettySignalConnection(new DefaultReconnectStrategy(), channelFactory);
         }
 
         if(onSocketActivity != null) {
             nettySignalConnection.setOnSocketActivity(onSocketActivity);
         }
 
-        return new SocketSignalProvider(nettySignalConnection);
+        nettySignalConnection.setCompressionEnabled(compression);
+        nettySignalConnection.setLazySignalContent(lazySignalContent);
+        nettySignalConnection.setAddressRacer(addressRacer());
+        nettySignalConnection.setFallbackHosts(fallbackHosts);
+        nettySignalConnection.setAdaptiveKeepalive(adaptiveKeepalive);
+        nettySignalConnection.setTls(tls);
+
+        return nettySignalConnection;
+    }
+
+    /*
+     * One racer for every provider, created on first use so that it runs on the resources if there are any
+     */
+    private synchronized AddressRacer addressRacer() {
+
+        if (raceAddresses && addressRacer == null) {
+            addressRacer = resources == null ? new AddressRacer() : new AddressRacer(resources.getBlockingExecutor(), resources.getTimer());
+        }
+
+        return addressRacer;
     }
 
     public SocketSignalProviderFactory reconnectStrategy(ReconnectStrategy reconnectStrategy) {
@@ -48,4 +132,147 @@ public class SocketSignalProviderFactory implements Factory<SignalProvider> {
         return this;
     }
 
+    public SocketSignalProviderFactory channelFactory(ChannelFactory channelFactory) {
+        this.channelFactory = channelFactory;
+        return this;
+    }
+
+    public SocketSignalProviderFactory backlogChunkSize(int backlogChunkSize) {
+        this.backlogChunkSize = backlogChunkSize;
+        return this;
+    }
+
+    /**
+     * Create providers whose connections share the JVM wide NIO transport rather than holding a blocking OIO thread each.
+     *
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory nio() {
+        return channelFactory(NettySignalConnection.getSharedNioChannelFactory());
+    }
+
+    /**
+     * Create providers whose connections, executors, dispatcher, timers and reconnect coordinator all come from shared
+     * {@code ExecutionResources}. This takes the place of {@link #nio()} and {@link #channelFactory(ChannelFactory)}.
+     *
+     * @param resources The threads every provider from this factory runs on.
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory executionResources(ExecutionResources resources) {
+        this.resources = resources;
+        return this;
+    }
+
+    /**
+     * Create providers that ask the SignalServer to deflate what it sends them.
+     *
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory compression() {
+        this.compression = true;
+        return this;
+    }
+
+    /**
+     * Create providers whose signals build their DTO the first time their content is asked for, rather than when
+     * they are parsed.
+     *
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory lazySignalContent() {
+        this.lazySignalContent = true;
+        return this;
+    }
+
+    /**
+     * Create providers that connect over TLS. Every provider shares the JVM wide {@link SignalTls}, so a reconnect
+     * of any of them resumes a TLS session if one to the same host is cached.
+     *
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory tls() {
+        return tls(SignalTls.getInstance());
+    }
+
+    /**
+     * Create providers that connect over TLS, caching their TLS sessions in the given {@code SignalTls}.
+     *
+     * @param tls Where the sessions are cached, and the trust store they are checked against.
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory tls(SignalTls tls) {
+        this.tls = tls;
+        return this;
+    }
+
+    /**
+     * Create providers that race every address of the SignalServer and of the fallback hosts when connecting.
+     * Every provider from this factory shares one {@code AddressRacer}, so what one learns about the addresses
+     * the others use.
+     *
+     * @param fallbackHosts The other hosts of the SignalServer, in order of preference.
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory raceAddresses(String... fallbackHosts) {
+        this.raceAddresses = true;
+        this.fallbackHosts = Arrays.asList(fallbackHosts);
+        return this;
+    }
+
+    /**
+     * Create providers that keep a second connection negotiated on standby, to take over without a reconnect
+     * when the first is lost. This doubles the sockets held open to the SignalServer.
+     *
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory standby() {
+        this.standby = true;
+        return this;
+    }
+
+    /**
+     * Create providers whose connections learn how long they may be idle on their network rather than PINGing
+     * at a fixed interval. Every provider shares the JVM wide {@link AdaptiveKeepalive}.
+     *
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory adaptiveKeepalive() {
+        this.adaptiveKeepalive = AdaptiveKeepalive.getInstance();
+        return this;
+    }
+
+    /**
+     * Create providers that drop the signals the SignalServer sends them again, each remembering the uuids of up to
+     * {@code capacity} signals, see {@link SignalDeduplicator}.
+     *
+     * @param capacity The most uuids each provider remembers.
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory deduplicate(int capacity) {
+        this.deduplicate = capacity;
+        return this;
+    }
+
+    /**
+     * Create providers that deliver the signals of each versionKey in version order and ask the SignalServer for
+     * the ones that go missing, see {@link VersionSequencer}.
+     *
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory sequenceVersions() {
+        this.sequence = true;
+        return this;
+    }
+
+    /**
+     * Create providers that each keep an {@link InMemorySignalMetrics} of how their connection is doing,
+     * see {@link SocketSignalProvider#getSignalMetrics()}.
+     *
+     * @return This factory.
+     */
+    public SocketSignalProviderFactory metrics() {
+        this.metrics = true;
+        return this;
+    }
+
 }
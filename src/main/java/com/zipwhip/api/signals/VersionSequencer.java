@@ -0,0 +1,410 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.events.ObservableHelper;
+import com.zipwhip.events.Observer;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts the signals of each versionKey back in version order before they are delivered.
+ * <p/>
+ * A signal that arrives ahead of its version, 41 after 39, is held until the ones before it arrive. Whatever is
+ * held is released in order as soon as the gap fills, by a live signal or by a backlog committing the versions
+ * in between. A gap that has not filled after {@code maxWaitMillis} is announced on {@link #onGap(Observer)} with
+ * the last version before it, so that the SignalServer can be asked for just what is missing. If it is still open
+ * after another {@code maxWaitMillis}, or more than {@code maxHeld} signals are held for the versionKey, the gap is
+ * given up on and the held signals are released in order.
+ * <p/>
+ * Signals at or below the last version released are passed through as they are, telling a redelivery from a new
+ * signal is up to a {@link SignalDeduplicator}. Signals without a version are never held.
+ * <p/>
+ * Every method is synchronized on the sequencer, and signals are released while holding it. Anyone delivering
+ * signals alongside the ones released here should hold it too, so that they are not interleaved.
+ */
+public class VersionSequencer {
+
+    private static final Logger LOGGER = Logger.getLogger(VersionSequencer.class);
+
+    public static final int DEFAULT_MAX_HELD = 64;
+    public static final long DEFAULT_MAX_WAIT = 1000 * 5;
+
+    private final int maxHeld;
+    private final long maxWaitMillis;
+    private final ScheduledExecutorService timer;
+
+    private final Map<String, Sequence> sequences = new HashMap<String, Sequence>();
+    private final Statistics statistics = new Statistics();
+
+    private final ObservableHelper<SignalCommand> releaseEvent = new ObservableHelper<SignalCommand>();
+    private final ObservableHelper<VersionMapEntry> gapEvent = new ObservableHelper<VersionMapEntry>();
+
+    public VersionSequencer() {
+        this(DEFAULT_MAX_HELD, DEFAULT_MAX_WAIT);
+    }
+
+    /**
+     * @param maxHeld The most signals to hold for a versionKey before giving up on its gap.
+     * @param maxWaitMillis How long a gap may stay open before it is announced, and again before it is given up on.
+     */
+    public VersionSequencer(int maxHeld, long maxWaitMillis) {
+        this(maxHeld, maxWaitMillis, null);
+    }
+
+    /**
+     * @param maxHeld The most signals to hold for a versionKey before giving up on its gap.
+     * @param maxWaitMillis How long a gap may stay open before it is announced, and again before it is given up on.
+     * @param timer Times the gaps, or null to time them on a JVM wide thread. It is not shut down.
+     */
+    public VersionSequencer(int maxHeld, long maxWaitMillis, ScheduledExecutorService timer) {
+
+        if (maxHeld <= 0 || maxWaitMillis <= 0) {
+            throw new IllegalArgumentException("The signals held and the wait must be positive");
+        }
+
+        this.maxHeld = maxHeld;
+        this.maxWaitMillis = maxWaitMillis;
+        this.timer = timer;
+    }
+
+    /**
+     * Observe the signals as they are released in order. Each is released exactly once.
+     *
+     * @param observer Notified with each signal as it is released.
+     */
+    public void onRelease(Observer<SignalCommand> observer) {
+        releaseEvent.addObserver(observer);
+    }
+
+    /**
+     * Observe the gaps that have not filled in time.
+     *
+     * @param observer Notified with the versionKey and the last version released before the gap.
+     */
+    public void onGap(Observer<VersionMapEntry> observer) {
+        gapEvent.addObserver(observer);
+    }
+
+    /**
+     * Take a signal as it arrives, it is released now or once the signals before it are.
+     *
+     * @param command The signal.
+     * @param committed The last version delivered for the signal's versionKey, in case this is the first signal
+     *                  the sequencer sees for it. Null if none was.
+     */
+    public synchronized void offer(SignalCommand command, Long committed) {
+
+        VersionMapEntry version = command.getVersion();
+
+        if (version == null || version.getValue() == null || version.getValue() < 0) {
+            releaseEvent.notifyObservers(this, command);
+            return;
+        }
+
+        Sequence sequence = sequences.get(version.getKey());
+
+        if (sequence == null) {
+            sequence = new Sequence(version.getKey(), committed == null ? version.getValue() - 1 : committed);
+            sequences.put(version.getKey(), sequence);
+        }
+
+        long value = version.getValue();
+
+        if (value <= sequence.last) {
+
+            statistics.stale.incrementAndGet();
+            releaseEvent.notifyObservers(this, command);
+
+        } else if (value == sequence.last + 1) {
+
+            release(sequence, command);
+            drain(sequence);
+
+        } else {
+
+            if (sequence.held.isEmpty()) {
+                LOGGER.debug("Gap in " + sequence.key + " after " + sequence.last + ", holding " + value);
+                statistics.gaps.incrementAndGet();
+                sequence.open(System.currentTimeMillis() + maxWaitMillis);
+            }
+
+            if (sequence.held.put(value, command) == null) {
+                statistics.held.incrementAndGet();
+            }
+
+            if (sequence.held.size() > maxHeld) {
+                giveUp(sequence);
+            }
+        }
+    }
+
+    /**
+     * Learn of a version that was delivered some other way, such as in a backlog. The signals held at or below
+     * it are dropped, they were delivered with it. Call {@link #drain()} once the backlog is delivered to release
+     * the held signals that follow on from it.
+     *
+     * @param version The version delivered.
+     */
+    public synchronized void committed(VersionMapEntry version) {
+
+        Sequence sequence = sequences.get(version.getKey());
+
+        if (sequence == null || version.getValue() == null || version.getValue() <= sequence.last) {
+            return;
+        }
+
+        sequence.last = version.getValue();
+
+        Iterator<Long> iterator = sequence.held.keySet().iterator();
+
+        while (iterator.hasNext() && iterator.next() <= sequence.last) {
+            iterator.remove();
+            statistics.stale.incrementAndGet();
+        }
+
+        if (sequence.held.isEmpty()) {
+            sequence.close();
+        }
+    }
+
+    /**
+     * Release the held signals that are next in line.
+     */
+    public synchronized void drain() {
+        for (Sequence sequence : sequences.values()) {
+            drain(sequence);
+        }
+    }
+
+    /**
+     * Announce or give up on the gaps that are due. This runs on its own, calling it is only needed to not wait
+     * for the timer.
+     *
+     * @param now The time in milliseconds.
+     */
+    public synchronized void expire(long now) {
+
+        for (Sequence sequence : sequences.values()) {
+
+            if (sequence.deadline == 0 || sequence.deadline > now) {
+                continue;
+            }
+
+            if (!sequence.announced) {
+
+                LOGGER.warn("Gap in " + sequence.key + " after " + sequence.last + " did not fill, asking for it");
+
+                sequence.announced = true;
+                sequence.deadline = now + maxWaitMillis;
+                schedule(maxWaitMillis);
+
+                statistics.resyncs.incrementAndGet();
+                gapEvent.notifyObservers(this, new VersionMapEntry(sequence.key, sequence.last));
+
+            } else {
+                giveUp(sequence);
+            }
+        }
+    }
+
+    /**
+     * Forget every versionKey and drop whatever is held, as when the versions are reset.
+     */
+    public synchronized void clear() {
+        sequences.clear();
+    }
+
+    /**
+     * @return The number of signals held right now.
+     */
+    public synchronized int getHeld() {
+
+        int held = 0;
+
+        for (Sequence sequence : sequences.values()) {
+            held += sequence.held.size();
+        }
+
+        return held;
+    }
+
+    public int getMaxHeld() {
+        return maxHeld;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    private void drain(Sequence sequence) {
+
+        while (!sequence.held.isEmpty() && sequence.held.firstKey() == sequence.last + 1) {
+            statistics.reordered.incrementAndGet();
+            release(sequence, sequence.held.remove(sequence.held.firstKey()));
+        }
+
+        if (sequence.held.isEmpty()) {
+            sequence.close();
+        }
+    }
+
+    private void giveUp(Sequence sequence) {
+
+        LOGGER.warn("Giving up on the gap in " + sequence.key + " after " + sequence.last + ", releasing " + sequence.held.size() + " held signals");
+
+        statistics.skipped.incrementAndGet();
+
+        boolean announced = sequence.announced;
+        long before = sequence.last;
+
+        while (!sequence.held.isEmpty()) {
+            statistics.reordered.incrementAndGet();
+            release(sequence, sequence.held.remove(sequence.held.firstKey()));
+        }
+
+        sequence.close();
+
+        // Held too many to wait for the SignalServer, ask for what we skipped all the same
+        if (!announced) {
+            statistics.resyncs.incrementAndGet();
+            gapEvent.notifyObservers(this, new VersionMapEntry(sequence.key, before));
+        }
+    }
+
+    private void release(Sequence sequence, SignalCommand command) {
+        sequence.last = command.getVersion().getValue();
+        releaseEvent.notifyObservers(this, command);
+    }
+
+    private void schedule(long delay) {
+        (timer == null ? Expirer.TIMER : timer).schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expire(System.currentTimeMillis());
+                } catch (Exception e) {
+                    LOGGER.error("Error expiring the gaps", e);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private class Sequence {
+
+        private final String key;
+        private final TreeMap<Long, SignalCommand> held = new TreeMap<Long, SignalCommand>();
+
+        private long last;
+        private long deadline;
+        private boolean announced;
+
+        Sequence(String key, long last) {
+            this.key = key;
+            this.last = last;
+        }
+
+        void open(long deadline) {
+            this.deadline = deadline;
+            this.announced = false;
+            schedule(maxWaitMillis);
+        }
+
+        void close() {
+            this.deadline = 0;
+            this.announced = false;
+        }
+
+    }
+
+    /**
+     * Counts the gaps found, how many were filled and how many were given up on.
+     */
+    public static class Statistics {
+
+        private final AtomicLong gaps = new AtomicLong();
+        private final AtomicLong held = new AtomicLong();
+        private final AtomicLong reordered = new AtomicLong();
+        private final AtomicLong stale = new AtomicLong();
+        private final AtomicLong resyncs = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+
+        /**
+         * @return The gaps found, each counted once however many signals were held for it.
+         */
+        public long getGaps() {
+            return gaps.get();
+        }
+
+        /**
+         * @return The signals that arrived ahead of their version and were held.
+         */
+        public long getHeld() {
+            return held.get();
+        }
+
+        /**
+         * @return The held signals that were released, put back in order.
+         */
+        public long getReordered() {
+            return reordered.get();
+        }
+
+        /**
+         * @return The signals at or below a version already delivered.
+         */
+        public long getStale() {
+            return stale.get();
+        }
+
+        /**
+         * @return The gaps announced to be asked for.
+         */
+        public long getResyncs() {
+            return resyncs.get();
+        }
+
+        /**
+         * @return The gaps given up on, the signals in them were never seen.
+         */
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        @Override
+        public String toString() {
+            return gaps.get() + " gaps, " + held.get() + " held, " + reordered.get() + " reordered, " + stale.get() + " stale, "
+                    + resyncs.get() + " resyncs, " + skipped.get() + " skipped";
+        }
+
+    }
+
+    /**
+     * Only started once a gap is found.
+     */
+    private static class Expirer {
+
+        static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SignalSequencerTimer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    }
+
+}
@@ -1,25 +1,75 @@
 package com.zipwhip.api.signals.commands;
 
-import com.zipwhip.api.signals.Signal;
+import com.zipwhip.util.Factory;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
  * @author jed
- * 
+ *
+ * A backlog can be parsed lazily, in which case only its raw messages are held and each {@link SignalCommand} is
+ * parsed as an iteration reaches it. Nothing that was parsed is kept, once a command has been handed out it is
+ * up to the caller to hold on to it or not, so delivering a backlog holds no more of it than the caller does.
+ * Every iteration parses the messages again from the start, so the backlog can be iterated any number of times,
+ * by any number of callers, and each iteration sees all of it.
  */
-public class BacklogCommand extends Command {
+public class BacklogCommand extends Command implements Iterable<SignalCommand> {
 
     public static final String ACTION = "backlog";
 
-    private List<SignalCommand> command;
+    private final List<SignalCommand> command;
+    private final Factory<Iterator<SignalCommand>> source;
 
     public BacklogCommand(List<SignalCommand> command) {
         this.command = command;
+        this.source = null;
     }
 
+    /**
+     * Create a new lazy BacklogCommand.
+     *
+     * @param source Creates an iterator that parses the messages from the first, each time the backlog is iterated.
+     */
+    public BacklogCommand(Factory<Iterator<SignalCommand>> source) {
+        this.command = null;
+        this.source = source;
+    }
+
+    /**
+     * A lazy backlog is parsed in full every time this is called, hold on to the list rather than asking again.
+     * To go through the commands without holding them all at once, iterate the backlog instead.
+     *
+     * @return The commands of the backlog.
+     */
     public List<SignalCommand> getCommands() {
-        return command;
+
+        if (source == null) {
+            return command;
+        }
+
+        List<SignalCommand> commands = new ArrayList<SignalCommand>();
+
+        for (SignalCommand signalCommand : this) {
+            commands.add(signalCommand);
+        }
+
+        return commands;
+    }
+
+    @Override
+    public Iterator<SignalCommand> iterator() {
+
+        if (source == null) {
+            return command.iterator();
+        }
+
+        try {
+            return source.create();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not read the backlog", e);
+        }
     }
 
 }
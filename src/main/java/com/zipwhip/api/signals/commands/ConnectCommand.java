@@ -25,6 +25,7 @@ public class ConnectCommand extends SerializingCommand {
     private String clientId;
     private Map<String, Long> versions;
     private Presence presence;
+    private String compression;
 
     public ConnectCommand(String clientId) {
         this(clientId, null, null);
@@ -44,6 +45,19 @@ public class ConnectCommand extends SerializingCommand {
         return clientId;
     }
 
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * Set the stream compression asked for, or accepted in a reply from the SignalServer.
+     *
+     * @param compression The compression mode such as {@code "deflate"}, or null for none.
+     */
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
     public String toString() {
         return serialize();
     }
@@ -69,6 +83,10 @@ public class ConnectCommand extends SerializingCommand {
                 json.put("presence", PresenceUtil.getInstance().serialize(Collections.singletonList(presence)));
             }
 
+            if (StringUtil.exists(compression)) {
+                json.put("compression", compression);
+            }
+
         } catch (JSONException e) {
             LOGGER.error("Error serializing ConnectCommand", e);
         }
@@ -4,15 +4,19 @@ import com.zipwhip.api.signals.JsonSignalParser;
 import com.zipwhip.api.signals.PresenceUtil;
 import com.zipwhip.api.signals.VersionMapEntry;
 import com.zipwhip.api.signals.sockets.netty.StringToChannelBuffer;
+import com.zipwhip.util.Factory;
+import com.zipwhip.util.JsonPullParser;
 import com.zipwhip.util.Parser;
 import com.zipwhip.util.StringUtil;
 
 import org.apache.log4j.Logger;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -43,11 +47,23 @@ public class JsonSignalCommandParser implements Parser<String, Command> {
         parsers.put(NoopCommand.ACTION, NOOP_PARSER);
     }
 
+    public boolean isLazySignalContent() {
+        return signalContentParser.isLazyContent();
+    }
+
+    /**
+     * @param lazySignalContent True to build the DTO of each signal the first time its content is asked for.
+     * @see JsonSignalParser#setLazyContent(boolean)
+     */
+    public void setLazySignalContent(boolean lazySignalContent) {
+        signalContentParser.setLazyContent(lazySignalContent);
+    }
+
     @Override
     public Command parse(String string) throws Exception {
 
-        // First check if it is a short form PONG command
-        if (StringToChannelBuffer.CRLF.equals(string)) {
+        // First check if it is a short form PONG command, the frame decoder strips the CRLF so it arrives empty
+        if (StringUtil.isNullOrEmpty(string) || StringToChannelBuffer.CRLF.equals(string)) {
             return PingPongCommand.getShortformInstance();
         }
 
@@ -67,6 +83,13 @@ public class JsonSignalCommandParser implements Parser<String, Command> {
 
         LOGGER.debug("Parsing" + string);
 
+        // Signals keep their text as it came in, cut out of the frame rather than rendered again from the tree
+        if (parser == SIGNAL_PARSER) {
+            return parseSignal(json, JsonPullParser.optMemberText(string, "signal"));
+        } else if (parser == BACKLOG_PARSER) {
+            return parseBacklog(json, string);
+        }
+
         return parser.parse(json);
     }
     
@@ -76,7 +99,10 @@ public class JsonSignalCommandParser implements Parser<String, Command> {
             
             String clientId = object.optString("clientId");
 
-            return new ConnectCommand(clientId);
+            ConnectCommand command = new ConnectCommand(clientId);
+            command.setCompression(object.optString("compression", null));
+
+            return command;
         }
     };
     
@@ -130,46 +156,14 @@ public class JsonSignalCommandParser implements Parser<String, Command> {
     public final Parser<JSONObject, Command> BACKLOG_PARSER = new Parser<JSONObject, Command>() {
         @Override
         public Command parse(JSONObject object) throws Exception {
-
-            if (!object.has("messages")) {
-                LOGGER.warn("BACKLOG command received with no messages.");
-                return null;
-            }
-
-            JSONArray messages = object.optJSONArray("messages");
-            if (messages == null) {
-                LOGGER.warn("BACKLOG command received with no messages.");
-                return null;
-            }
-
-            List<SignalCommand> signalCommands = new ArrayList<SignalCommand>();
-
-            for (int i = 0; i < messages.length(); i++) {
-
-                JSONObject signalJson = messages.optJSONObject(i);
-
-                if (signalJson != null && signalJson.has("signal")) {
-                    signalCommands.add((SignalCommand) SIGNAL_PARSER.parse(signalJson));
-                }
-            }
-
-            return new BacklogCommand(signalCommands);
+            return parseBacklog(object, null);
         }
     };
 
     public final Parser<JSONObject, Command> SIGNAL_PARSER = new Parser<JSONObject, Command>() {
         @Override
         public Command parse(JSONObject object) throws Exception {
-
-            if (!object.has("signal")) {
-                LOGGER.warn("SIGNAL command received with no signal object.");
-                return null;
-            }
-
-            SignalCommand signalCommand = new SignalCommand(signalContentParser.parseSignal(object));
-            signalCommand.setVersion(new VersionMapEntry(object.optString("versionKey", StringUtil.EMPTY_STRING), object.optLong("version", -1)));
-
-            return signalCommand;
+            return parseSignal(object, null);
         }
     };
 
@@ -216,4 +210,144 @@ public class JsonSignalCommandParser implements Parser<String, Command> {
         }
     };
 
+    /**
+     * @param signalText The text of the signal as it is in the frame, or null to render it from the tree.
+     */
+    private Command parseSignal(JSONObject object, String signalText) throws Exception {
+
+        if (!object.has("signal")) {
+            LOGGER.warn("SIGNAL command received with no signal object.");
+            return null;
+        }
+
+        SignalCommand signalCommand = new SignalCommand(signalContentParser.parseSignal(object, signalText));
+        signalCommand.setVersion(new VersionMapEntry(object.optString("versionKey", StringUtil.EMPTY_STRING), object.optLong("version", -1)));
+
+        return signalCommand;
+    }
+
+    /**
+     * @param frame The frame the backlog came in. If given only the frame is held, and each message is cut out of
+     *              it and parsed as the backlog is delivered. If null the parsed messages are held instead.
+     */
+    private Command parseBacklog(JSONObject object, final String frame) throws Exception {
+
+        if (!object.has("messages")) {
+            LOGGER.warn("BACKLOG command received with no messages.");
+            return null;
+        }
+
+        final JSONArray messages = object.optJSONArray("messages");
+        if (messages == null) {
+            LOGGER.warn("BACKLOG command received with no messages.");
+            return null;
+        }
+
+        if (frame != null) {
+            return new BacklogCommand(new Factory<Iterator<SignalCommand>>() {
+                @Override
+                public Iterator<SignalCommand> create() throws Exception {
+
+                    final JsonPullParser array = openArray(frame, "messages");
+
+                    return new SignalCommandSource() {
+
+                        private boolean malformed;
+
+                        @Override
+                        protected boolean hasMoreMessages() {
+
+                            if (malformed) {
+                                return false;
+                            }
+
+                            char c = array.peek();
+
+                            return c != ']' && c != 0;
+                        }
+
+                        @Override
+                        protected SignalCommand parseNextMessage() throws Exception {
+
+                            try {
+                                array.skipValue();
+                            } catch (JSONException e) {
+                                // We can not tell where the next message starts
+                                malformed = true;
+                                throw e;
+                            }
+
+                            int start = array.getTokenStart();
+                            int end = array.getPosition();
+
+                            if (frame.charAt(start) != '{') {
+                                return null;
+                            }
+
+                            JSONObject signalJson = new JSONObject(frame.substring(start, end));
+
+                            if (signalJson.has("signal")) {
+                                return (SignalCommand) parseSignal(signalJson, JsonPullParser.optMemberText(frame, start, end, "signal"));
+                            }
+
+                            return null;
+                        }
+                    };
+                }
+            });
+        }
+
+        // The signals are parsed as the backlog is delivered
+        return new BacklogCommand(new Factory<Iterator<SignalCommand>>() {
+            @Override
+            public Iterator<SignalCommand> create() {
+                return new SignalCommandSource() {
+
+                    private int index;
+
+                    @Override
+                    protected boolean hasMoreMessages() {
+                        return index < messages.length();
+                    }
+
+                    @Override
+                    protected SignalCommand parseNextMessage() throws Exception {
+
+                        JSONObject signalJson = messages.optJSONObject(index++);
+
+                        if (signalJson != null && signalJson.has("signal")) {
+                            return (SignalCommand) parseSignal(signalJson, null);
+                        }
+
+                        return null;
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * @return A parser positioned inside the array that is the named member of the object in {@code text}.
+     */
+    private static JsonPullParser openArray(String text, String name) throws JSONException {
+
+        JsonPullParser parser = new JsonPullParser(text);
+
+        if (parser.next() == JsonPullParser.Token.START_OBJECT) {
+            while (parser.next() == JsonPullParser.Token.NAME) {
+
+                if (name.equals(parser.getName())) {
+                    if (parser.next() == JsonPullParser.Token.START_ARRAY) {
+                        return parser;
+                    }
+                    break;
+                }
+
+                parser.skipValue();
+            }
+        }
+
+        throw new JSONException("The " + name + " member is not an array");
+    }
+
 }
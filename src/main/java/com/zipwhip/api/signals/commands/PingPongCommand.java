@@ -14,7 +14,7 @@ import org.json.JSONObject;
 public class PingPongCommand extends SerializingCommand {
 
     private static final Logger LOGGER = Logger.getLogger(PingPongCommand.class);
-    private static PingPongCommand shortformInstance;
+    private static final PingPongCommand SHORTFORM_INSTANCE = new PingPongCommand(true);
 
     public static final String ACTION = "ping";
 
@@ -38,12 +38,7 @@ public class PingPongCommand extends SerializingCommand {
      * @return A singleton instance of the shortform command.
      */
     public static PingPongCommand getShortformInstance() {
-
-        if (shortformInstance == null) {
-            shortformInstance = new PingPongCommand(true);
-        }
-
-        return shortformInstance;
+        return SHORTFORM_INSTANCE;
     }
 
     /**
@@ -55,6 +50,13 @@ public class PingPongCommand extends SerializingCommand {
         return new PingPongCommand(false);
     }
 
+    /**
+     * @return True if this is the shortform (CRLF) command.
+     */
+    public boolean isShortForm() {
+        return isShortForm;
+    }
+
     public boolean isRequest() {
         return request;
     }
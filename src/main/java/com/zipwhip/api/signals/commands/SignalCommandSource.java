@@ -0,0 +1,65 @@
+package com.zipwhip.api.signals.commands;
+
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Parses the messages of a backlog one at a time, as a lazy {@link BacklogCommand} is iterated.
+ * <p/>
+ * A message that is not a signal is skipped. A message that fails to parse is logged and skipped, so one bad
+ * message does not cost the rest of the backlog.
+ */
+abstract class SignalCommandSource implements Iterator<SignalCommand> {
+
+    private static final Logger LOGGER = Logger.getLogger(SignalCommandSource.class);
+
+    private SignalCommand next;
+
+    /**
+     * @return True if there are messages left to parse.
+     */
+    protected abstract boolean hasMoreMessages();
+
+    /**
+     * Parse the next message.
+     *
+     * @return The parsed command, or null if the message is not a signal.
+     * @throws Exception If the message could not be parsed.
+     */
+    protected abstract SignalCommand parseNextMessage() throws Exception;
+
+    @Override
+    public boolean hasNext() {
+
+        while (next == null && hasMoreMessages()) {
+            try {
+                next = parseNextMessage();
+            } catch (Exception e) {
+                LOGGER.error("Error parsing backlog message, skipping it", e);
+            }
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public SignalCommand next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        SignalCommand result = next;
+        next = null;
+
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
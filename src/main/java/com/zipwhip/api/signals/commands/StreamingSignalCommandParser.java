@@ -0,0 +1,630 @@
+package com.zipwhip.api.signals.commands;
+
+import com.zipwhip.api.signals.JsonSignal;
+import com.zipwhip.api.signals.JsonSignalParser;
+import com.zipwhip.api.signals.VersionMapEntry;
+import com.zipwhip.api.signals.sockets.netty.SignalFrameDecoder;
+import com.zipwhip.api.signals.sockets.netty.StringToChannelBuffer;
+import com.zipwhip.signals.address.ClientAddress;
+import com.zipwhip.signals.presence.*;
+import com.zipwhip.util.Factory;
+import com.zipwhip.util.JsonPullParser;
+import com.zipwhip.util.JsonPullParser.Token;
+import com.zipwhip.util.Parser;
+import com.zipwhip.util.StringUtil;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parse out a SignalCommand from a String without building a JSONObject tree for the frame.
+ * <p/>
+ * The top level members are read with a {@link JsonPullParser}. Scalars are kept and nested values are only
+ * stepped over, so the {@code action} can be dispatched on before anything else is built. The parser for the
+ * action then binds the fields into the command, reading into the one nested value it needs.
+ * The only tree still built is the {@code signal.content} object, because that is what the DTO parsers take.
+ * <p/>
+ * The commands are the same as the ones {@link JsonSignalCommandParser} produces, except that
+ * {@link JsonSignal#getJson()} returns the signal text as the server sent it rather than a re-serialized copy.
+ * To use it, pass it to the {@code MessageDecoder(Parser)} constructor.
+ */
+public class StreamingSignalCommandParser implements Parser<String, Command> {
+
+    private static final Logger LOGGER = Logger.getLogger(StreamingSignalCommandParser.class);
+
+    private Map<String, Parser<Members, Command>> parsers;
+    private JsonSignalParser signalContentParser = new JsonSignalParser();
+
+    public StreamingSignalCommandParser() {
+
+        parsers = new HashMap<String, Parser<Members, Command>>();
+
+        parsers.put(ConnectCommand.ACTION, CONNECT_PARSER);
+        parsers.put(DisconnectCommand.ACTION, DISCONNECT_PARSER);
+        parsers.put(SubscriptionCompleteCommand.ACTION, SUBSCRIPTION_COMPLETE_PARSER);
+        parsers.put(BacklogCommand.ACTION, BACKLOG_PARSER);
+        parsers.put(SignalCommand.ACTION, SIGNAL_PARSER);
+        parsers.put(PresenceCommand.ACTION, PRESENCE_PARSER);
+        parsers.put(SignalVerificationCommand.ACTION, SIGNAL_VERIFICATION_PARSER);
+        parsers.put(PingPongCommand.ACTION, PING_PONG_PARSER);
+        parsers.put(NoopCommand.ACTION, NOOP_PARSER);
+    }
+
+    public boolean isLazySignalContent() {
+        return signalContentParser.isLazyContent();
+    }
+
+    /**
+     * Build the DTO of each signal the first time its content is asked for. The content is then not even read
+     * into a {@code JSONObject} until it is.
+     *
+     * @param lazySignalContent True to build the DTOs lazily.
+     * @see JsonSignalParser#setLazyContent(boolean)
+     */
+    public void setLazySignalContent(boolean lazySignalContent) {
+        signalContentParser.setLazyContent(lazySignalContent);
+    }
+
+    @Override
+    public Command parse(String string) throws Exception {
+        return parse((CharSequence) string);
+    }
+
+    /**
+     * Parse a frame held in any {@code CharSequence}, such as a {@code LargeFrame}. The signals of a backlog keep
+     * a reference to the frame until the backlog has been iterated.
+     *
+     * @param frame The frame, the CRLF not included.
+     * @return The parsed command.
+     * @throws Exception If the frame could not be parsed.
+     */
+    public Command parse(CharSequence frame) throws Exception {
+
+        // First check if it is a short form PONG command, the frame decoder strips the CRLF so it arrives empty
+        if (frame == null || frame.length() == 0 || StringToChannelBuffer.CRLF.contentEquals(frame)) {
+            return PingPongCommand.getShortformInstance();
+        }
+
+        Members members = Members.read(frame, 0, frame.length());
+
+        String action = members.optString("action", StringUtil.EMPTY_STRING).toLowerCase();
+
+        Parser<Members, Command> parser = parsers.get(action);
+
+        if (parser == null) {
+            throw new RuntimeException("No parser for " + action + " was found.");
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Parsing " + frame);
+        }
+
+        return parser.parse(members);
+    }
+
+    /**
+     * Parse a frame of UTF-8 bytes, the CRLF not included.
+     *
+     * @param bytes The buffer holding the frame.
+     * @param offset The index of the first byte of the frame.
+     * @param length The number of bytes in the frame.
+     * @return The parsed command.
+     * @throws Exception If the frame could not be parsed.
+     */
+    public Command parse(byte[] bytes, int offset, int length) throws Exception {
+        return parse(SignalFrameDecoder.decode(bytes, offset, length));
+    }
+
+    public final Parser<Members, Command> CONNECT_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(Members object) throws Exception {
+
+            String clientId = object.optString("clientId", StringUtil.EMPTY_STRING);
+
+            ConnectCommand command = new ConnectCommand(clientId);
+            command.setCompression(object.optString("compression", null));
+
+            return command;
+        }
+    };
+
+    public final Parser<Members, Command> DISCONNECT_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(Members object) throws Exception {
+
+            String host = object.optString("host", StringUtil.EMPTY_STRING);
+            int port = JsonPullParser.optInt(object.get("port"), 0);
+            int reconnectDelay = JsonPullParser.optInt(object.get("reconnectDelay"), 0);
+            boolean stop = JsonPullParser.optBoolean(object.get("stop"), false);
+            boolean ban = JsonPullParser.optBoolean(object.get("ban"), false);
+
+            return new DisconnectCommand(host, port, reconnectDelay, stop, ban);
+        }
+    };
+
+    public final Parser<Members, Command> SUBSCRIPTION_COMPLETE_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(Members object) throws Exception {
+
+            if (!object.has("channels")) {
+                LOGGER.warn("SUBSCRIPTION_COMPLETE command received with no channels.");
+                return null;
+            }
+
+            List<Object> channels = new ArrayList<Object>();
+
+            JsonPullParser channelArray = object.optArray("channels");
+
+            if (channelArray == null) {
+
+                LOGGER.warn("SUBSCRIPTION_COMPLETE command received with no channels.");
+
+            } else {
+
+                while (channelArray.peek() != ']') {
+                    channels.add(object.readElement(channelArray));
+                }
+            }
+
+            String subscriptionId = object.optString("subscriptionId", StringUtil.EMPTY_STRING);
+
+            SubscriptionCompleteCommand subscriptionCompleteCommand = new SubscriptionCompleteCommand(subscriptionId, channels);
+            subscriptionCompleteCommand.setVersion(object.optVersion());
+
+            return subscriptionCompleteCommand;
+        }
+    };
+
+    public final Parser<Members, Command> BACKLOG_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(final Members object) throws Exception {
+
+            if (!object.has("messages")) {
+                LOGGER.warn("BACKLOG command received with no messages.");
+                return null;
+            }
+
+            if (object.optArray("messages") == null) {
+                LOGGER.warn("BACKLOG command received with no messages.");
+                return null;
+            }
+
+            // Only the frame is held, each message is read out of it as the backlog is delivered
+            return new BacklogCommand(new Factory<Iterator<SignalCommand>>() {
+                @Override
+                public Iterator<SignalCommand> create() throws Exception {
+
+                    final JsonPullParser messages = object.optArray("messages");
+
+                    return new SignalCommandSource() {
+
+                        private boolean malformed;
+
+                        @Override
+                        protected boolean hasMoreMessages() {
+
+                            if (malformed) {
+                                return false;
+                            }
+
+                            char c = messages.peek();
+
+                            return c != ']' && c != 0;
+                        }
+
+                        @Override
+                        protected SignalCommand parseNextMessage() throws Exception {
+
+                            Members signalJson;
+
+                            try {
+                                signalJson = object.readObjectElement(messages);
+                            } catch (JSONException e) {
+                                // We can not tell where the next message starts
+                                malformed = true;
+                                throw e;
+                            }
+
+                            if (signalJson != null && signalJson.has("signal")) {
+                                return (SignalCommand) SIGNAL_PARSER.parse(signalJson);
+                            }
+
+                            return null;
+                        }
+                    };
+                }
+            });
+        }
+    };
+
+    public final Parser<Members, Command> SIGNAL_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(Members object) throws Exception {
+
+            if (!object.has("signal")) {
+                LOGGER.warn("SIGNAL command received with no signal object.");
+                return null;
+            }
+
+            SignalCommand signalCommand = new SignalCommand(parseSignal(object.optObject("signal")));
+            signalCommand.setVersion(object.optVersion());
+
+            return signalCommand;
+        }
+    };
+
+    public final Parser<Members, Command> PRESENCE_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(Members object) throws Exception {
+
+            if (!object.has("presence")) {
+                LOGGER.warn("PRESENCE command received with no presence object.");
+                return null;
+            }
+
+            PresenceCommand presenceCommand = new PresenceCommand(parsePresence(object, object.optArray("presence")));
+            presenceCommand.setVersion(object.optVersion());
+
+            return presenceCommand;
+        }
+    };
+
+    public final Parser<Members, Command> SIGNAL_VERIFICATION_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(Members object) throws Exception {
+            return new SignalVerificationCommand();
+        }
+    };
+
+    public final Parser<Members, Command> PING_PONG_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(Members object) throws Exception {
+
+            PingPongCommand pingPongCommand = PingPongCommand.getNewLongformInstance();
+            pingPongCommand.setTimestamp(JsonPullParser.optLong(object.get("timestamp"), 0));
+            pingPongCommand.setRequest(JsonPullParser.optBoolean(object.get("request"), false));
+            pingPongCommand.setToken(object.optString("token", StringUtil.EMPTY_STRING));
+
+            return pingPongCommand;
+        }
+    };
+
+    public final Parser<Members, Command> NOOP_PARSER = new Parser<Members, Command>() {
+        @Override
+        public Command parse(Members object) throws Exception {
+            return new NoopCommand();
+        }
+    };
+
+    private JsonSignal parseSignal(Members node) throws Exception {
+
+        if (node == null) {
+            return null;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("SIGNAL>>>" + node.getText());
+        }
+
+        JsonSignal signal = new JsonSignal(node.getText());
+
+        String type = node.optString("type", StringUtil.EMPTY_STRING);
+
+        signal.setType(type);
+        signal.setEvent(node.optString("event", StringUtil.EMPTY_STRING));
+        signal.setReason(node.optString("reason", StringUtil.EMPTY_STRING));
+        signal.setUuid(node.optString("uuid", StringUtil.EMPTY_STRING));
+        signal.setScope(node.optString("scope", StringUtil.EMPTY_STRING));
+        signal.setUri(node.optString("uri", StringUtil.EMPTY_STRING));
+
+        Parser<JSONObject, ?> parser = signalContentParser.getContentParser(type);
+
+        if (parser != null && signalContentParser.isLazyContent()) {
+
+            Members content = node.optObject("content");
+
+            // Only the text is kept, not the frame it came in
+            signal.setLazyContent(JsonSignalParser.lazyContent(parser, content == null ? null : content.getText()));
+
+        } else if (parser != null) {
+
+            Members content = node.optObject("content");
+
+            signal.setContent(parser.parse(content == null ? null : content.toJSONObject()));
+
+        } else {
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Unparsed signal type: " + type);
+            }
+
+            signal.setContent(node.optString("content", StringUtil.EMPTY_STRING));
+        }
+
+        return signal;
+    }
+
+    /**
+     * Binds the same fields as {@code PresenceUtil.parse} does, straight from the frame.
+     */
+    private List<Presence> parsePresence(Members object, JsonPullParser array) throws Exception {
+
+        List<Presence> presenceList = new ArrayList<Presence>();
+
+        if (array == null) {
+            return presenceList;
+        }
+
+        while (array.peek() != ']') {
+
+            Members presenceJsonObject = object.readObjectElement(array);
+
+            if (presenceJsonObject == null) {
+                LOGGER.error("Error parsing Presence", new JSONException("JSONArray element is not a JSONObject."));
+                continue;
+            }
+
+            Presence presence = new Presence();
+
+            // category
+            String category = presenceJsonObject.optString("category", StringUtil.EMPTY_STRING);
+
+            if (StringUtil.isNullOrEmpty(category)) {
+                presence.setCategory(PresenceCategory.NONE);
+            } else {
+                try {
+                    presence.setCategory(PresenceCategory.valueOf(category));
+                } catch (Exception e) {
+                    LOGGER.error("Error converting String to PresenceCategory", e);
+                }
+            }
+
+            // userAgent
+            Members userAgentJsonObject = presenceJsonObject.optObject("userAgent");
+            if (userAgentJsonObject != null) {
+
+                UserAgent userAgent = new UserAgent();
+                userAgent.setBuild(userAgentJsonObject.optString("build", StringUtil.EMPTY_STRING));
+                userAgent.setMakeModel(userAgentJsonObject.optString("makeModel", StringUtil.EMPTY_STRING));
+
+                Members productJsonObject = userAgentJsonObject.optObject("product");
+                if (productJsonObject != null) {
+
+                    Product product = new Product();
+                    product.setBuild(productJsonObject.optString("build", StringUtil.EMPTY_STRING));
+                    product.setVersion(productJsonObject.optString("version", StringUtil.EMPTY_STRING));
+
+                    String name = productJsonObject.optString("name", StringUtil.EMPTY_STRING);
+                    if (StringUtil.exists(name)) {
+                        try {
+                            product.setName(ProductLine.valueOf(name));
+                        } catch (Exception e) {
+                            LOGGER.error("Error converting String to ProductLine", e);
+                        }
+                    }
+
+                    userAgent.setProduct(product);
+                }
+
+                presence.setUserAgent(userAgent);
+            }
+
+            // address
+            Members clientAddressJsonObject = presenceJsonObject.optObject("address");
+            if (clientAddressJsonObject != null) {
+
+                ClientAddress address = new ClientAddress();
+                address.setClientId(clientAddressJsonObject.optString("clientId", StringUtil.EMPTY_STRING));
+
+                presence.setAddress(address);
+            }
+
+            // presenceStatus
+            String status = presenceJsonObject.optString("presenceStatus", StringUtil.EMPTY_STRING);
+
+            if (StringUtil.isNullOrEmpty(status)) {
+                presence.setStatus(PresenceStatus.OFFLINE);
+            } else {
+                presence.setStatus(PresenceStatus.valueOf(status));
+            }
+
+            presence.setConnected(JsonPullParser.optBoolean(presenceJsonObject.get("connected"), false));
+            presence.setSubscriptionId(presenceJsonObject.optString("subscriptionId", StringUtil.EMPTY_STRING));
+            presence.setIp(presenceJsonObject.optString("ip", StringUtil.EMPTY_STRING));
+
+            presenceList.add(presence);
+        }
+
+        return presenceList;
+    }
+
+    /**
+     * The members of one JSON object. Scalars are held as values, nested objects and arrays only as the
+     * range of the input they occupy, until something asks for them.
+     */
+    public static final class Members {
+
+        private final CharSequence input;
+        private final int start;
+        private int end;
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        private Members(CharSequence input, int start) {
+            this.input = input;
+            this.start = start;
+        }
+
+        /**
+         * Read the object that lies between {@code start} and {@code end} of {@code input}.
+         */
+        static Members read(CharSequence input, int start, int end) throws JSONException {
+
+            JsonPullParser parser = new JsonPullParser(input, start, end);
+
+            if (parser.next() != Token.START_OBJECT) {
+                throw new JSONException("A JSONObject text must begin with '{' at character " + parser.getTokenStart());
+            }
+
+            Members members = new Members(input, parser.getTokenStart());
+
+            while (true) {
+
+                Token token = parser.next();
+
+                if (token == Token.END_OBJECT) {
+                    break;
+                }
+
+                if (token != Token.NAME) {
+                    throw new JSONException("A JSONObject text must end with '}' at character " + parser.getTokenStart());
+                }
+
+                String name = parser.getName();
+                Object value;
+
+                char c = parser.peek();
+
+                if (c == '{' || c == '[') {
+                    parser.skipValue();
+                    value = new Span(parser.getTokenStart(), parser.getPosition());
+                } else {
+                    parser.next();
+                    value = parser.getValue();
+                }
+
+                if (members.values.put(name, value) != null) {
+                    throw new JSONException("Duplicate key \"" + name + "\"");
+                }
+            }
+
+            members.end = parser.getPosition();
+
+            return members;
+        }
+
+        public boolean has(String key) {
+            return values.containsKey(key);
+        }
+
+        /**
+         * @return The scalar value, or for a nested value an opaque marker that only the {@code opt*} methods understand.
+         */
+        public Object get(String key) {
+            return values.get(key);
+        }
+
+        /**
+         * @return The raw text of this object.
+         */
+        public String getText() {
+            return input.subSequence(start, end).toString();
+        }
+
+        public String optString(String key, String defaultValue) throws JSONException {
+
+            Object value = values.get(key);
+
+            if (value instanceof Span) {
+                return materialize((Span) value).toString();
+            }
+
+            return JsonPullParser.optString(value, defaultValue);
+        }
+
+        public VersionMapEntry optVersion() throws JSONException {
+            return new VersionMapEntry(optString("versionKey", StringUtil.EMPTY_STRING), JsonPullParser.optLong(values.get("version"), -1));
+        }
+
+        public Members optObject(String key) throws JSONException {
+
+            Object value = values.get(key);
+
+            if (value instanceof Span && input.charAt(((Span) value).start) == '{') {
+                return read(input, ((Span) value).start, ((Span) value).end);
+            }
+
+            return null;
+        }
+
+        /**
+         * @return A parser positioned inside the array, or null if the value is not an array.
+         */
+        public JsonPullParser optArray(String key) throws JSONException {
+
+            Object value = values.get(key);
+
+            if (value instanceof Span && input.charAt(((Span) value).start) == '[') {
+                JsonPullParser parser = new JsonPullParser(input, ((Span) value).start, ((Span) value).end);
+                parser.next();
+                return parser;
+            }
+
+            return null;
+        }
+
+        public JSONObject toJSONObject() throws JSONException {
+            return new JSONObject(getText());
+        }
+
+        /**
+         * Read the next element of an array as an object.
+         *
+         * @return The element, or null if it is not an object.
+         */
+        Members readObjectElement(JsonPullParser array) throws JSONException {
+
+            boolean object = array.peek() == '{';
+
+            array.skipValue();
+
+            return object ? read(input, array.getTokenStart(), array.getPosition()) : null;
+        }
+
+        /**
+         * Read the next element of an array the way {@code JSONArray.get} would return it.
+         */
+        Object readElement(JsonPullParser array) throws JSONException {
+
+            char c = array.peek();
+
+            if (c == '{' || c == '[') {
+                array.skipValue();
+                return materialize(new Span(array.getTokenStart(), array.getPosition()));
+            }
+
+            if (array.next() != Token.VALUE) {
+                throw new JSONException("Expected a ',' or ']' at character " + array.getTokenStart());
+            }
+
+            return array.getValue();
+        }
+
+        private Object materialize(Span span) throws JSONException {
+
+            String text = input.subSequence(span.start, span.end).toString();
+
+            return text.charAt(0) == '{' ? new JSONObject(text) : new JSONArray(text);
+        }
+
+    }
+
+    private static final class Span {
+
+        private final int start;
+        private final int end;
+
+        private Span(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+    }
+
+}
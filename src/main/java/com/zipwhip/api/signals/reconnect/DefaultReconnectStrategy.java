@@ -2,7 +2,7 @@ package com.zipwhip.api.signals.reconnect;
 
 import org.apache.log4j.Logger;
 
-import java.util.concurrent.*;
+import java.util.concurrent.Future;
 
 /**
  * Created by IntelliJ IDEA.
@@ -10,7 +10,9 @@ import java.util.concurrent.*;
  * Date: 9/7/11
  * Time: 2:29 PM
  *
- * Try to reconnect the SignalConnection every 5 seconds until we get a successful connection.
+ * Try to reconnect the SignalConnection every 5 to 10 seconds until we get a successful connection. The delay is
+ * jittered and the attempts are admitted by the {@code ReconnectCoordinator}, so connections that dropped together
+ * do not all come back together.
  *
  */
 public class DefaultReconnectStrategy extends ReconnectStrategy {
@@ -19,8 +21,10 @@ public class DefaultReconnectStrategy extends ReconnectStrategy {
 
     private static final long RECONNECT_DELAY = 5000;
 
+    private static final double RECONNECT_JITTER = 2.0;
+
     private Future<Boolean> reconnectTask;
-    private ScheduledExecutorService scheduler;
+    private Future<?> scheduledReconnect;
 
     @Override
     public void stop() {
@@ -34,12 +38,12 @@ public class DefaultReconnectStrategy extends ReconnectStrategy {
         }
 
         // Cleanup any scheduled reconnects
-        if (scheduler != null) {
+        if (scheduledReconnect != null) {
 
-            LOGGER.debug("Shutting down scheduled execution");
+            LOGGER.debug("Cancelling scheduled reconnect");
 
-            scheduler.shutdownNow();
-            scheduler = null;
+            scheduledReconnect.cancel(true);
+            scheduledReconnect = null;
         }
 
         // Stop listening to SignalConnection events
@@ -49,13 +53,13 @@ public class DefaultReconnectStrategy extends ReconnectStrategy {
     @Override
     protected void doStrategy() {
 
-        LOGGER.debug("Scheduling a reconnect attempt in 5 seconds...");
+        ReconnectCoordinator coordinator = getReconnectCoordinator();
 
-        if (scheduler == null) {
-            scheduler = Executors.newSingleThreadScheduledExecutor();
-        }
+        long delay = coordinator.nextBackoff(RECONNECT_DELAY, RECONNECT_DELAY, RECONNECT_JITTER, (long) (RECONNECT_DELAY * RECONNECT_JITTER));
+
+        LOGGER.debug("Scheduling a reconnect attempt in " + delay + " milliseconds...");
 
-        scheduler.schedule(new Runnable() {
+        scheduledReconnect = coordinator.schedule(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -72,7 +76,7 @@ public class DefaultReconnectStrategy extends ReconnectStrategy {
                     LOGGER.error("Error reconnecting", e);
                 }
             }
-        }, RECONNECT_DELAY, TimeUnit.MILLISECONDS);
+        }, delay);
     }
 
     @Override
@@ -4,12 +4,16 @@ import com.zipwhip.events.Observer;
 import org.apache.log4j.Logger;
 
 import java.util.Date;
-import java.util.concurrent.*;
+import java.util.concurrent.Future;
 
 /**
  * This class schedules reconnect attempts in a geometrically increasing (2^X by default) way up to a threshold.
  * Once the threshold has been reached all subsequent reconnect attempts will be run at the threshold time.
  * <p/>
+ * The delays are decorrelated jitter, each a random time between one second and {@code multiplier} times the
+ * previous delay, so that connections dropped by the same SignalServer restart drift apart. The attempts are
+ * admitted by the {@code ReconnectCoordinator}.
+ * <p/>
  * If a reconnect has been scheduled but has not completed any subsequent disconnect notices will be ignored.
  */
 public class ExponentialBackoffReconnectStrategy extends ReconnectStrategy {
@@ -26,13 +30,16 @@ public class ExponentialBackoffReconnectStrategy extends ReconnectStrategy {
      */
     public static final double DEFAULT_MULTIPLIER = 2.0;
 
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+
     private boolean connectObserverSet;
 
     private long maxBackoffSeconds;
     private double multiplier;
     private long consecutiveReconnectAttempts;
+    private long previousBackoffMillis = BASE_BACKOFF_MILLIS;
 
-    private ScheduledExecutorService scheduler;
+    private Future<?> scheduledReconnect;
     private Future<Boolean> reconnectTask;
     private Runnable reconnectRunnable;
 
@@ -91,6 +98,7 @@ public class ExponentialBackoffReconnectStrategy extends ReconnectStrategy {
 
                         // We connected, reset
                         consecutiveReconnectAttempts = 0;
+                        previousBackoffMillis = BASE_BACKOFF_MILLIS;
                     }
                 }
             });
@@ -98,10 +106,6 @@ public class ExponentialBackoffReconnectStrategy extends ReconnectStrategy {
             connectObserverSet = true;
         }
 
-        if (scheduler == null) {
-            scheduler = Executors.newSingleThreadScheduledExecutor();
-        }
-
         if (reconnectRunnable == null) {
 
             reconnectRunnable = new Runnable() {
@@ -139,7 +143,7 @@ public class ExponentialBackoffReconnectStrategy extends ReconnectStrategy {
 
             LOGGER.debug("Scheduling attempt at ==>> " + new Date(System.currentTimeMillis()));
 
-            scheduler.schedule(reconnectRunnable, calculateBackoff(), TimeUnit.SECONDS);
+            scheduledReconnect = getReconnectCoordinator().schedule(reconnectRunnable, calculateBackoff());
 
         } catch (Exception e) {
 
@@ -154,11 +158,13 @@ public class ExponentialBackoffReconnectStrategy extends ReconnectStrategy {
 
     private long calculateBackoff() {
 
-        long backoff = Math.round(Math.pow(multiplier, consecutiveReconnectAttempts));
+        long backoff = getReconnectCoordinator().nextBackoff(BASE_BACKOFF_MILLIS, previousBackoffMillis, multiplier, maxBackoffSeconds * 1000);
+
+        previousBackoffMillis = backoff;
 
-        LOGGER.debug("Backoff calculated as ==>> " + backoff + (backoff == 1 ? " second" : " seconds"));
+        LOGGER.debug("Backoff calculated as ==>> " + backoff + " milliseconds");
 
-        return (backoff > maxBackoffSeconds ? maxBackoffSeconds : backoff);
+        return backoff;
     }
 
     private void cleanup() {
@@ -171,12 +177,12 @@ public class ExponentialBackoffReconnectStrategy extends ReconnectStrategy {
         }
 
         // Cleanup any scheduled reconnects
-        if (scheduler != null) {
+        if (scheduledReconnect != null) {
 
-            LOGGER.debug("Shutting down scheduled execution");
+            LOGGER.debug("Cancelling scheduled reconnect");
 
-            scheduler.shutdownNow();
-            scheduler = null;
+            scheduledReconnect.cancel(true);
+            scheduledReconnect = null;
         }
     }
 
@@ -0,0 +1,259 @@
+package com.zipwhip.api.signals.reconnect;
+
+import org.apache.log4j.Logger;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the reconnect attempts of every connection in the JVM on one timer, and admits them through a token
+ * bucket so that a SignalServer restart does not bring all of them back in the same instant.
+ * <p/>
+ * An attempt that comes due when the bucket is empty waits for the next token rather than connecting. The bucket
+ * holds {@code burst} tokens and refills at {@code permitsPerSecond}, so a handful of connections reconnect at once
+ * and a few thousand are spread out at that rate. The delays themselves should be jittered, see
+ * {@link #nextBackoff(long, long, double, long)}, so that the attempts do not come due in lockstep either.
+ * <p/>
+ * The timer only admits attempts, they run on a pool of their own so that one blocking connect does not hold up the
+ * others.
+ */
+public class ReconnectCoordinator {
+
+    private static final Logger LOGGER = Logger.getLogger(ReconnectCoordinator.class);
+
+    public static final double DEFAULT_PERMITS_PER_SECOND = 10.0;
+    public static final int DEFAULT_BURST = 10;
+
+    private static ReconnectCoordinator instance;
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService attempts;
+
+    private final Random random = new Random();
+
+    private double permitsPerSecond;
+    private int burst;
+
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    public ReconnectCoordinator() {
+        this(DEFAULT_PERMITS_PER_SECOND, DEFAULT_BURST);
+    }
+
+    /**
+     * @param permitsPerSecond The rate at which reconnect attempts are admitted once the burst is spent.
+     * @param burst The number of reconnect attempts that may be admitted at once.
+     */
+    public ReconnectCoordinator(double permitsPerSecond, int burst) {
+        this(Executors.newSingleThreadScheduledExecutor(daemon("SignalReconnectTimer")), Executors.newCachedThreadPool(daemon("SignalReconnect")), permitsPerSecond, burst);
+    }
+
+    /**
+     * Create a coordinator that runs on threads shared with other components.
+     *
+     * @param timer The timer to time the delays and admissions on, it only ever runs short tasks.
+     * @param attempts The executor to run the reconnect attempts in, they may block for as long as a connect takes.
+     * @param permitsPerSecond The rate at which reconnect attempts are admitted once the burst is spent.
+     * @param burst The number of reconnect attempts that may be admitted at once.
+     */
+    public ReconnectCoordinator(ScheduledExecutorService timer, ExecutorService attempts, double permitsPerSecond, int burst) {
+
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("A reconnect coordinator needs a positive rate and a burst of at least 1");
+        }
+
+        this.timer = timer;
+        this.attempts = attempts;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /**
+     * Get the JVM wide coordinator that reconnect strategies use unless they are given another.
+     *
+     * @return The shared {@code ReconnectCoordinator}.
+     */
+    public static synchronized ReconnectCoordinator getInstance() {
+
+        if (instance == null) {
+            instance = new ReconnectCoordinator();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Run a reconnect attempt once the delay has passed and the token bucket admits it.
+     *
+     * @param attempt The reconnect attempt.
+     * @param delayMillis The least time to wait before the attempt, it is never run earlier.
+     * @return A future to cancel the attempt with, whether it is still waiting or already running.
+     */
+    public Future<?> schedule(Runnable attempt, long delayMillis) {
+
+        final AtomicBoolean queued = new AtomicBoolean(true);
+
+        final FutureTask<Void> task = new FutureTask<Void>(attempt, null) {
+            @Override
+            protected void done() {
+                // Cancelled while it was waiting
+                leave(queued);
+            }
+        };
+
+        queueDepth.incrementAndGet();
+
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                admit(task, queued);
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+
+        return task;
+    }
+
+    /**
+     * Decorrelated jitter: a random delay between {@code base} and {@code multiplier} times the previous delay,
+     * capped. Each connection's delays grow like an exponential backoff, but connections that went down together
+     * drift apart rather than retrying in step.
+     *
+     * @param base The least delay.
+     * @param previous The previous delay, or {@code base} for the first attempt.
+     * @param multiplier How fast the upper bound grows.
+     * @param cap The most delay.
+     * @return The next delay, in the unit of the arguments.
+     */
+    public long nextBackoff(long base, long previous, double multiplier, long cap) {
+
+        double upper = Math.max(base, previous * multiplier);
+        long backoff = base + Math.round(random.nextDouble() * (upper - base));
+
+        return Math.min(cap, backoff);
+    }
+
+    /**
+     * @return The reconnect attempts waiting on their delay or on the token bucket.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return The reconnect attempts admitted over the life of this coordinator.
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * @return The number of times an attempt that came due had to wait for a token.
+     */
+    public long getDeferred() {
+        return deferred.get();
+    }
+
+    public synchronized double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public synchronized void setPermitsPerSecond(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    public synchronized int getBurst() {
+        return burst;
+    }
+
+    public synchronized void setBurst(int burst) {
+        this.burst = burst;
+        this.tokens = Math.min(tokens, burst);
+    }
+
+    private void admit(final FutureTask<Void> task, final AtomicBoolean queued) {
+
+        if (task.isCancelled()) {
+            return;
+        }
+
+        long wait = acquire();
+
+        if (wait > 0) {
+
+            deferred.incrementAndGet();
+
+            LOGGER.debug("Reconnect deferred " + TimeUnit.NANOSECONDS.toMillis(wait) + "ms for a token, " + queueDepth.get() + " waiting");
+
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    admit(task, queued);
+                }
+            }, wait, TimeUnit.NANOSECONDS);
+
+            return;
+        }
+
+        if (leave(queued)) {
+            admitted.incrementAndGet();
+            attempts.execute(task);
+        }
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise the nanoseconds until the next one.
+     */
+    private synchronized long acquire() {
+
+        long now = System.nanoTime();
+
+        tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+
+        return Math.max(1, (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    }
+
+    private boolean leave(AtomicBoolean queued) {
+
+        if (queued.compareAndSet(true, false)) {
+            queueDepth.decrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + THREAD_NUMBER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+}
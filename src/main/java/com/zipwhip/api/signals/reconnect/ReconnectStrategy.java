@@ -20,6 +20,8 @@ public abstract class ReconnectStrategy extends DestroyableBase {
     protected SignalConnection signalConnection;
     protected Observer<Boolean> disconnectObserver;
 
+    private ReconnectCoordinator reconnectCoordinator = ReconnectCoordinator.getInstance();
+
     private boolean isStarted;
 
     /**
@@ -46,6 +48,25 @@ public abstract class ReconnectStrategy extends DestroyableBase {
         return signalConnection;
     }
 
+    /**
+     * Get the coordinator this strategy schedules its reconnect attempts with.
+     *
+     * @return The coordinator, the JVM wide one unless another has been set.
+     */
+    public final ReconnectCoordinator getReconnectCoordinator() {
+        return reconnectCoordinator;
+    }
+
+    /**
+     * Schedule this strategy's reconnect attempts with a coordinator other than the JVM wide one, to admit
+     * a group of connections apart from the rest.
+     *
+     * @param reconnectCoordinator The coordinator to schedule with.
+     */
+    public final void setReconnectCoordinator(ReconnectCoordinator reconnectCoordinator) {
+        this.reconnectCoordinator = reconnectCoordinator;
+    }
+
     /**
      * Calling {@code stop} will cause this strategy to stop observing the {@code SignalConnection},
      * <p>
@@ -0,0 +1,255 @@
+package com.zipwhip.api.signals.sockets;
+
+import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.events.Observer;
+import org.apache.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes each command to the handler registered for its type, in one map lookup however many types there are.
+ * <p/>
+ * A command is handled by the handler of its class, or failing that of its nearest superclass that has one. Each
+ * type runs its handler either inline, on the thread that dispatched it, or on an executor of its own. Commands of a
+ * type bound to an executor are handled one at a time in the order they were dispatched, even on a shared pool, but
+ * no longer in order with the commands of other types. Bind a type to an executor when its handling is slow and
+ * nothing after it depends on it having finished, so that the other types do not queue behind it.
+ * <p/>
+ * Handlers can be registered, replaced and rebound at any time, a command already dispatched runs where it was
+ * dispatched to.
+ */
+public class CommandDispatchTable {
+
+    private static final Logger LOGGER = Logger.getLogger(CommandDispatchTable.class);
+
+    private final ConcurrentMap<Class<?>, Binding<?>> bindings = new ConcurrentHashMap<Class<?>, Binding<?>>();
+
+    /**
+     * Resolved bindings by concrete class, so a subclass is looked up once. Cleared whenever a binding changes.
+     */
+    private final ConcurrentMap<Class<?>, Binding<?>> resolved = new ConcurrentHashMap<Class<?>, Binding<?>>();
+
+    /**
+     * Moved on whenever a binding changes, so a lookup that raced the change does not leave its answer cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong unhandled = new AtomicLong();
+
+    /**
+     * Handle the commands of a type inline.
+     *
+     * @param type The type of command, its subclasses are handled too unless they have a handler of their own.
+     * @param handler The handler, notified with the command.
+     * @param <T> The type of command.
+     */
+    public <T extends Command> void register(Class<T> type, Observer<? super T> handler) {
+        register(type, handler, null);
+    }
+
+    /**
+     * Handle the commands of a type on an executor, one at a time and in order.
+     *
+     * @param type The type of command, its subclasses are handled too unless they have a handler of their own.
+     * @param handler The handler, notified with the command.
+     * @param executor Where to handle them, or null to handle them inline.
+     * @param <T> The type of command.
+     */
+    public <T extends Command> void register(Class<T> type, Observer<? super T> handler, Executor executor) {
+
+        if (type == null || handler == null) {
+            throw new IllegalArgumentException("The type and handler are required");
+        }
+
+        bindings.put(type, new Binding<T>(type, handler, executor));
+        changed();
+    }
+
+    /**
+     * Move the handler of a type to another executor, or inline, keeping the handler.
+     *
+     * @param type The type of command, it must have a handler.
+     * @param executor Where to handle them, or null to handle them inline.
+     */
+    public <T extends Command> void bind(Class<T> type, Executor executor) {
+
+        @SuppressWarnings("unchecked")
+        Binding<T> binding = (Binding<T>) bindings.get(type);
+
+        if (binding == null) {
+            throw new IllegalArgumentException("No handler is registered for " + type.getSimpleName());
+        }
+
+        register(type, binding.handler, executor);
+    }
+
+    /**
+     * Stop handling a type, its subclasses fall through to the handler of a superclass if there is one.
+     *
+     * @param type The type of command.
+     */
+    public void unregister(Class<? extends Command> type) {
+        bindings.remove(type);
+        changed();
+    }
+
+    /**
+     * @param type The type of command.
+     * @return True if commands of the type, or a superclass of it, have a handler.
+     */
+    public boolean isRegistered(Class<? extends Command> type) {
+        return resolve(type) != null;
+    }
+
+    /**
+     * Hand a command to the handler of its type.
+     *
+     * @param sender Passed on to the handler.
+     * @param command The command.
+     * @return False if no handler was registered for the command.
+     */
+    public boolean dispatch(Object sender, Command command) {
+
+        Binding<?> binding = resolve(command.getClass());
+
+        if (binding == null) {
+            unhandled.incrementAndGet();
+            return false;
+        }
+
+        binding.dispatch(sender, command);
+
+        return true;
+    }
+
+    /**
+     * @return The commands dispatched that had no handler.
+     */
+    public long getUnhandled() {
+        return unhandled.get();
+    }
+
+    private void changed() {
+        generation.incrementAndGet();
+        resolved.clear();
+    }
+
+    private Binding<?> resolve(Class<?> type) {
+
+        Binding<?> binding = resolved.get(type);
+
+        if (binding != null) {
+            return binding;
+        }
+
+        long seen = generation.get();
+
+        for (Class<?> current = type; current != null && Command.class.isAssignableFrom(current); current = current.getSuperclass()) {
+
+            binding = bindings.get(current);
+
+            if (binding != null) {
+                resolved.put(type, binding);
+
+                // A change since the lookup may have been cleared before our put, so take it back out
+                if (generation.get() != seen) {
+                    resolved.remove(type, binding);
+                }
+
+                return binding;
+            }
+        }
+
+        return null;
+    }
+
+    private static class Binding<T extends Command> {
+
+        private final Class<T> type;
+        private final Observer<? super T> handler;
+        private final Executor executor;
+
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Binding(Class<T> type, Observer<? super T> handler, Executor executor) {
+            this.type = type;
+            this.handler = handler;
+            this.executor = executor;
+        }
+
+        void dispatch(final Object sender, Command command) {
+
+            final T typed = type.cast(command);
+
+            if (executor == null) {
+                handler.notify(sender, typed);
+                return;
+            }
+
+            queue.add(new Runnable() {
+                @Override
+                public void run() {
+                    handler.notify(sender, typed);
+                }
+            });
+
+            schedule();
+        }
+
+        /*
+         * At most one drain runs at a time, so the commands of this type run in order whatever the executor.
+         */
+        private void schedule() {
+
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                execute();
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                LOGGER.error("Could not handle a " + type.getSimpleName() + ", its executor is shut down", e);
+            }
+        }
+
+        private void execute() {
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    Runnable next;
+
+                    try {
+                        while ((next = queue.poll()) != null) {
+                            try {
+                                next.run();
+                            } catch (Exception e) {
+                                LOGGER.error("Error handling a " + type.getSimpleName(), e);
+                            }
+                        }
+                    } finally {
+                        // Cleared even if an Error got out, or this type would never be drained again
+                        scheduled.set(false);
+
+                        // Something may have been queued after the last poll but before the flag was cleared
+                        if (!queue.isEmpty()) {
+                            schedule();
+                        }
+                    }
+                }
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.zipwhip.api.signals.sockets;
+
+import com.zipwhip.api.ExecutionResources;
+import com.zipwhip.api.signals.SignalProvider;
+import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
+import com.zipwhip.api.signals.reconnect.ReconnectStrategy;
+import com.zipwhip.api.signals.sockets.netty.NettySignalConnection;
+import com.zipwhip.api.signals.sockets.netty.SignalEventDispatcher;
+import com.zipwhip.lifecycle.DestroyableBase;
+import com.zipwhip.util.Factory;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts the signal connections of many accounts in one process.
+ * <p/>
+ * The manager owns the NIO event loop, the executor that connects and disconnects run in and the dispatcher
+ * that notifies every connection's observers. PING/PONG timeouts run on the JVM wide keepalive timer, or on the
+ * timer of the {@code ExecutionResources} if it runs on them.
+ * Every {@code SignalProvider} it creates runs on these shared resources so an idle account costs a few objects
+ * rather than a few threads. The providers are plain {@code SocketSignalProvider}s so they can be handed
+ * straight to a {@code DefaultZipwhipClient}.
+ * <p/>
+ * Destroy the providers before destroying the manager, once the manager is destroyed its providers can no longer connect.
+ */
+public class SignalConnectionManager extends DestroyableBase implements Factory<SignalProvider> {
+
+    private static final Logger LOGGER = Logger.getLogger(SignalConnectionManager.class);
+
+    private static final AtomicInteger MANAGER_NUMBER = new AtomicInteger();
+
+    // The threads of a manager that runs on pools of its own are named after it and their role
+    private final String threadNamePrefix = "SignalConnectionManager-" + MANAGER_NUMBER.incrementAndGet() + "-";
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final ChannelFactory channelFactory;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private SignalEventDispatcher dispatcher;
+    private ExecutionResources resources;
+
+    private Factory<ReconnectStrategy> reconnectStrategyFactory;
+    private Runnable onSocketActivity;
+
+    // The shared executors are never shut down by the manager, so they can not tell us it is destroyed
+    private volatile boolean destroyed;
+
+    /**
+     * Create a new {@code SignalConnectionManager} with one NIO worker per available processor.
+     */
+    public SignalConnectionManager() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new {@code SignalConnectionManager}.
+     *
+     * @param workerCount The number of NIO worker threads that all the sockets will be read and written from.
+     */
+    public SignalConnectionManager(int workerCount) {
+        this.channelFactory = new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(named("boss")), Executors.newCachedThreadPool(named("worker")), workerCount);
+        this.executor = Executors.newCachedThreadPool(named("executor"));
+        this.timer = null;
+        this.dispatcher = new SignalEventDispatcher();
+    }
+
+    /**
+     * Create a new {@code SignalConnectionManager} on the shared {@code ExecutionResources}, alongside whatever
+     * else runs on them. The manager does not release them when it is destroyed.
+     *
+     * @param resources The threads every connection of this manager runs on.
+     */
+    public SignalConnectionManager(ExecutionResources resources) {
+        this.channelFactory = resources.getChannelFactory();
+        this.executor = resources.getBlockingExecutor();
+        this.timer = resources.getTimer();
+        this.dispatcher = resources.getDispatcher();
+        this.resources = resources;
+    }
+
+    /**
+     * Create a new provider for one account. Each call returns a new provider with its own connection,
+     * clientId and versions but no threads of its own.
+     *
+     * @return A new {@code SignalProvider} running on this manager's shared resources.
+     * @throws Exception If the reconnect strategy could not be created.
+     */
+    @Override
+    public SignalProvider create() throws Exception {
+
+        if (destroyed) {
+            throw new IllegalStateException("The SignalConnectionManager has been destroyed");
+        }
+
+        ReconnectStrategy reconnectStrategy = reconnectStrategyFactory == null ? new DefaultReconnectStrategy() : reconnectStrategyFactory.create();
+
+        NettySignalConnection connection = new NettySignalConnection(reconnectStrategy, channelFactory, executor, dispatcher, timer);
+
+        if (onSocketActivity != null) {
+            connection.setOnSocketActivity(onSocketActivity);
+        }
+
+        if (resources != null) {
+            reconnectStrategy.setReconnectCoordinator(resources.getReconnectCoordinator());
+            return new SocketSignalProvider(connection, resources);
+        }
+
+        return new SocketSignalProvider(connection, executor);
+    }
+
+    /**
+     * Each connection needs a strategy of its own, so strategies are configured with a factory.
+     *
+     * @param reconnectStrategyFactory Creates a {@code ReconnectStrategy} for each new connection.
+     */
+    public void setReconnectStrategyFactory(Factory<ReconnectStrategy> reconnectStrategyFactory) {
+        this.reconnectStrategyFactory = reconnectStrategyFactory;
+    }
+
+    public void setOnSocketActivity(Runnable onSocketActivity) {
+        this.onSocketActivity = onSocketActivity;
+    }
+
+    public SignalEventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Replace the dispatcher, to change its capacity, wait strategy or overflow policy. It is used by the providers
+     * created after this call and the manager destroys it when it is destroyed, unless it runs on shared {@code ExecutionResources}.
+     *
+     * @param dispatcher The dispatcher that notifies the observers of the connections.
+     */
+    public void setDispatcher(SignalEventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    protected void onDestroy() {
+
+        LOGGER.debug("Destroying SignalConnectionManager");
+
+        destroyed = true;
+
+        if (resources != null) {
+            // The resources belong to whoever created them
+            if (dispatcher != resources.getDispatcher()) {
+                dispatcher.destroy();
+            }
+            return;
+        }
+
+        executor.shutdownNow();
+        channelFactory.releaseExternalResources();
+        dispatcher.destroy();
+    }
+
+    private ThreadFactory named(final String role) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, threadNamePrefix + role + "-" + threadNumber.incrementAndGet());
+            }
+        };
+    }
+
+}
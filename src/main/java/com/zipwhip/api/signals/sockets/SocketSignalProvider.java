@@ -1,7 +1,9 @@
 package com.zipwhip.api.signals.sockets;
 
+import com.zipwhip.api.ExecutionResources;
 import com.zipwhip.api.signals.*;
 import com.zipwhip.api.signals.commands.*;
+import com.zipwhip.api.signals.reconnect.ReconnectCoordinator;
 import com.zipwhip.api.signals.sockets.netty.NettySignalConnection;
 import com.zipwhip.events.ObservableHelper;
 import com.zipwhip.events.Observer;
@@ -16,6 +18,7 @@ import org.apache.log4j.Logger;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by IntelliJ IDEA. User: Michael Date: 8/1/11 Time: 4:30 PM
@@ -29,6 +32,13 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
 
     private static final Logger LOGGER = Logger.getLogger(SocketSignalProvider.class);
 
+    /**
+     * Deliver the whole backlog in a single signal event.
+     */
+    public static final int DEFAULT_BACKLOG_CHUNK_SIZE = 0;
+
+    private static final double SERVER_RECONNECT_JITTER = 2.0;
+
     private ObservableHelper<PingEvent> pingEvent = new ObservableHelper<PingEvent>();
     private ObservableHelper<Boolean> connectEvent = new ObservableHelper<Boolean>();
     private ObservableHelper<String> newClientIdEvent = new ObservableHelper<String>();
@@ -41,8 +51,12 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
     private ObservableHelper<Command> commandReceivedEvent = new ObservableHelper<Command>();
 
     private CountDownLatch connectLatch;
-    private SignalConnection connection = new NettySignalConnection();
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile SignalConnection connection;
+    private volatile SignalConnection standby;
+    private volatile boolean standbyNegotiated;
+    private final AtomicLong failovers = new AtomicLong();
+    private ExecutorService executor;
+    private boolean ownsExecutor;
 
     private String clientId;
     private String originalClientId; //So we can detect change
@@ -53,11 +67,52 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
     private Presence presence;
     private Map<String, Long> versions = new HashMap<String, Long>();
 
+    private int backlogChunkSize = DEFAULT_BACKLOG_CHUNK_SIZE;
+
+    private ReconnectCoordinator reconnectCoordinator = ReconnectCoordinator.getInstance();
+
+    private volatile SignalMetrics metrics = NoopSignalMetrics.INSTANCE;
+    private volatile long negotiationStarted;
+    private volatile SignalDeduplicator deduplicator;
+    private volatile VersionSequencer sequencer;
+
+    private final CommandDispatchTable dispatchTable = new CommandDispatchTable();
+
     public SocketSignalProvider() {
         this(new NettySignalConnection());
     }
 
     public SocketSignalProvider(SignalConnection connection) {
+        this(connection, (ExecutorService) null);
+    }
+
+    /**
+     * Create a new {@code SocketSignalProvider} that connects on the shared blocking executor and reconnects through the
+     * shared reconnect coordinator.
+     *
+     * @param connection The connection to the SignalServer.
+     * @param resources The threads to run on, they are not shut down when this provider is destroyed.
+     */
+    public SocketSignalProvider(SignalConnection connection, ExecutionResources resources) {
+        this(connection, resources.getBlockingExecutor());
+        this.reconnectCoordinator = resources.getReconnectCoordinator();
+    }
+
+    /**
+     * Create a new {@code SocketSignalProvider}.
+     *
+     * @param connection The connection to the SignalServer.
+     * @param executor The executor to run connects in. If it is shared it will NOT be shutdown when this provider
+     *                 is destroyed. If null the provider creates its own.
+     */
+    public SocketSignalProvider(SignalConnection connection, ExecutorService executor) {
+
+        if (executor == null) {
+            this.executor = Executors.newSingleThreadExecutor();
+            this.ownsExecutor = true;
+        } else {
+            this.executor = executor;
+        }
 
         this.connection = connection;
         this.link(this.connection);
@@ -72,7 +127,35 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
         this.link(presenceReceivedEvent);
         this.link(subscriptionCompleteEvent);
 
-        connection.onMessageReceived(new Observer<Command>() {
+        registerHandlers();
+
+        observe(connection);
+
+        /*
+            Observe our own version changed events so we can stay in sync internally
+         */
+        onVersionChanged(new Observer<VersionMapEntry>() {
+            @Override
+            public void notify(Object sender, VersionMapEntry version) {
+
+                versions.put(version.getKey(), version.getValue());
+
+                VersionSequencer sequencing = sequencer;
+
+                if (sequencing != null) {
+                    sequencing.committed(version);
+                }
+            }
+        });
+    }
+
+    /*
+     * Route the events of a connection. Those of the primary drive this provider, those of the standby only keep
+     * the standby negotiated. Which one is the primary is decided when the event fires, so the roles can swap.
+     */
+    private void observe(final SignalConnection observed) {
+
+        observed.onMessageReceived(new Observer<Command>() {
             /**
              * The NettySignalConnection will call this method when there's an
              * event from the remote SignalServer.
@@ -83,53 +166,26 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
             @Override
             public void notify(Object sender, Command command) {
 
-                commandReceivedEvent.notifyObservers(this, command);
-
-                // Check if this command has a version number associated with it
-                if (command.getVersion() != null && command.getVersion().getValue() >= 0) {
-                    newVersionEvent.notifyObservers(this, command.getVersion());
+                if (observed != connection) {
+                    receiveOnStandby(observed, command);
+                    return;
                 }
 
-                if (command instanceof ConnectCommand) {
+                VersionSequencer sequencing = sequencer;
 
-                    handleConnectCommand((ConnectCommand) command);
-
-                } else if (command instanceof DisconnectCommand) {
-
-                    handleDisconnectCommand((DisconnectCommand) command);
-
-                } else if (command instanceof SubscriptionCompleteCommand) {
-
-                    handleSubscriptionCompleteCommand((SubscriptionCompleteCommand) command);
-
-                } else if (command instanceof BacklogCommand) {
-
-                    handleBacklogCommand((BacklogCommand) command);
-
-                } else if (command instanceof SignalCommand) {
-
-                    handleSignalCommand((SignalCommand) command);
-
-                } else if (command instanceof PresenceCommand) {
-
-                    handlePresenceCommand((PresenceCommand) command);
-
-                } else if (command instanceof SignalVerificationCommand) {
-
-                    handleSignalVerificationCommand((SignalVerificationCommand) command);
-
-                } else if (command instanceof NoopCommand) {
-
-                    LOGGER.debug("Received NoopCommand");
-
-                } else {
+                if (sequencing == null) {
+                    dispatch(command);
+                    return;
+                }
 
-                    LOGGER.warn("Unrecognised command: " + command.getClass().getSimpleName());
+                // Nothing is delivered while the sequencer releases what it held
+                synchronized (sequencing) {
+                    dispatch(command);
                 }
             }
         });
 
-        connection.onConnect(new Observer<Boolean>() {
+        observed.onConnect(new Observer<Boolean>() {
             /*
              * The NettySignalConnection will call this method when a TCP socket connection is attempted.
              */
@@ -140,7 +196,15 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
                  * check if we need to send the connect command.
                  */
                 if (connected) {
-                    sendConnect();
+                    if (observed == connection) {
+                        if (negotiationStarted == 0) {
+                            // A reconnect, it is timed from the socket connecting
+                            negotiationStarted = System.nanoTime();
+                        }
+                        sendConnect();
+                    } else {
+                        negotiateStandby();
+                    }
                 }
             }
         });
@@ -148,9 +212,14 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
         /*
             Forward connect events up to clients
          */
-        connection.onConnect(new Observer<Boolean>() {
+        observed.onConnect(new Observer<Boolean>() {
             @Override
             public void notify(Object sender, Boolean connected) {
+
+                if (observed != connection) {
+                    return;
+                }
+
                 // If the state has changed then notify
                 if (connectionStateSwitch ^ connected) {
                     connectionStateSwitch = connected;
@@ -162,10 +231,20 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
         /*
             Forward disconnect events up to clients
          */
-        connection.onDisconnect(new Observer<Boolean>() {
+        observed.onDisconnect(new Observer<Boolean>() {
             @Override
             public void notify(Object sender, Boolean disconnected) {
 
+                if (observed != connection) {
+                    standbyNegotiated = false;
+                    return;
+                }
+
+                // A network disconnect of the primary is covered by the standby if it is ready
+                if (disconnected && promoteStandby()) {
+                    return;
+                }
+
                 // Ensure that the latch is in a good state for reconnect
                 if (connectLatch != null) {
                     connectLatch.countDown();
@@ -184,30 +263,127 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
         /*
             Forward ping events up to clients
          */
-        connection.onPingEvent(new Observer<PingEvent>() {
+        observed.onPingEvent(new Observer<PingEvent>() {
             @Override
             public void notify(Object sender, PingEvent item) {
-                pingEvent.notifyObservers(sender, item);
+                if (observed == connection) {
+                    pingEvent.notifyObservers(sender, item);
+                }
             }
         });
 
         /*
             Forward connection exceptions up to clients
          */
-        connection.onExceptionCaught(new Observer<String>() {
+        observed.onExceptionCaught(new Observer<String>() {
             @Override
             public void notify(Object sender, String message) {
-                exceptionEvent.notifyObservers(sender, message);
+                if (observed == connection) {
+                    exceptionEvent.notifyObservers(sender, message);
+                }
             }
         });
+    }
 
-        /*
-            Observe our own version changed events so we can stay in sync internally
-         */
-        onVersionChanged(new Observer<VersionMapEntry>() {
+    private void dispatch(Command command) {
+
+        SignalMetrics current = metrics;
+
+        if (!current.isEnabled()) {
+            receive(command);
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        receive(command);
+
+        current.commandDispatched(command.getClass(), System.nanoTime() - start);
+    }
+
+    /**
+     * Handle a command from the primary connection and notify our observers of it.
+     */
+    private void receive(Command command) {
+
+        commandReceivedEvent.notifyObservers(this, command);
+
+        VersionSequencer sequencing = sequencer;
+
+        if (sequencing != null && command instanceof SignalCommand) {
+            // Its version is committed and it is handled once the sequencer releases it in order
+            sequencing.offer((SignalCommand) command, command.getVersion() == null ? null : versions.get(command.getVersion().getKey()));
+            return;
+        }
+
+        // Check if this command has a version number associated with it
+        if (command.getVersion() != null && command.getVersion().getValue() >= 0) {
+            newVersionEvent.notifyObservers(this, command.getVersion());
+        }
+
+        if (!dispatchTable.dispatch(this, command)) {
+            LOGGER.warn("Unrecognised command: " + command.getClass().getSimpleName());
+        }
+    }
+
+    /*
+     * Every command the SignalServer sends is handled inline, in the order it arrived, unless rebound.
+     */
+    private void registerHandlers() {
+
+        dispatchTable.register(ConnectCommand.class, new Observer<ConnectCommand>() {
             @Override
-            public void notify(Object sender, VersionMapEntry version) {
-                versions.put(version.getKey(), version.getValue());
+            public void notify(Object sender, ConnectCommand command) {
+                handleConnectCommand(command);
+            }
+        });
+
+        dispatchTable.register(DisconnectCommand.class, new Observer<DisconnectCommand>() {
+            @Override
+            public void notify(Object sender, DisconnectCommand command) {
+                handleDisconnectCommand(command);
+            }
+        });
+
+        dispatchTable.register(SubscriptionCompleteCommand.class, new Observer<SubscriptionCompleteCommand>() {
+            @Override
+            public void notify(Object sender, SubscriptionCompleteCommand command) {
+                handleSubscriptionCompleteCommand(command);
+            }
+        });
+
+        dispatchTable.register(BacklogCommand.class, new Observer<BacklogCommand>() {
+            @Override
+            public void notify(Object sender, BacklogCommand command) {
+                handleBacklogCommand(command);
+            }
+        });
+
+        dispatchTable.register(SignalCommand.class, new Observer<SignalCommand>() {
+            @Override
+            public void notify(Object sender, SignalCommand command) {
+                handleSignalCommand(command);
+            }
+        });
+
+        dispatchTable.register(PresenceCommand.class, new Observer<PresenceCommand>() {
+            @Override
+            public void notify(Object sender, PresenceCommand command) {
+                handlePresenceCommand(command);
+            }
+        });
+
+        dispatchTable.register(SignalVerificationCommand.class, new Observer<SignalVerificationCommand>() {
+            @Override
+            public void notify(Object sender, SignalVerificationCommand command) {
+                handleSignalVerificationCommand(command);
+            }
+        });
+
+        dispatchTable.register(NoopCommand.class, new Observer<NoopCommand>() {
+            @Override
+            public void notify(Object sender, NoopCommand command) {
+                LOGGER.debug("Received NoopCommand");
             }
         });
     }
@@ -249,7 +425,183 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
 
     @Override
     public void setVersions(Map<String, Long> versions) {
+
         this.versions = versions;
+
+        VersionSequencer sequencing = sequencer;
+
+        if (sequencing != null) {
+            sequencing.clear();
+        }
+    }
+
+    public ReconnectCoordinator getReconnectCoordinator() {
+        return reconnectCoordinator;
+    }
+
+    /**
+     * Set the coordinator that admits the reconnects a {@code DisconnectCommand} asks for.
+     *
+     * @param reconnectCoordinator The coordinator to schedule with, the JVM wide one by default.
+     */
+    public void setReconnectCoordinator(ReconnectCoordinator reconnectCoordinator) {
+        this.reconnectCoordinator = reconnectCoordinator;
+    }
+
+    public SignalConnection getStandbyConnection() {
+        return standby;
+    }
+
+    /**
+     * Keep a second connection to the SignalServer negotiated alongside this provider's connection, to take over
+     * as soon as the primary is lost to the network. It is connected and sends CONNECT with our clientId once the
+     * primary has negotiated, and then only keeps itself alive. Nothing it receives is delivered while it stands by.
+     * <p/>
+     * On promotion the standby replays our versions in a new CONNECT, so the SignalServer sends whatever the old
+     * primary missed. No connection changed event is fired, the swap only shows in {@link #getFailovers()}. The old
+     * primary reconnects through its {@code ReconnectStrategy} and becomes the standby.
+     * <p/>
+     * The standby should not share a {@code ReconnectStrategy} with the primary. It is destroyed with this provider.
+     *
+     * @param standby The connection to stand by, configured for the same SignalServer as the primary.
+     */
+    public void setStandbyConnection(SignalConnection standby) {
+
+        if (this.standby != null) {
+            throw new IllegalStateException("A standby connection has already been set");
+        }
+
+        this.standby = standby;
+        this.link(standby);
+
+        if (metrics.isEnabled()) {
+            standby.setSignalMetrics(metrics);
+        }
+
+        observe(standby);
+    }
+
+    public SignalMetrics getSignalMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Report how this provider and its connections are doing: the traffic, how long commands take to decode and to
+     * be handled by our observers, the PING round trips, reconnects and how long it takes to be negotiated. The
+     * connection and the standby report to the same metrics. What the connections count in their pipeline takes
+     * effect on their next connect.
+     *
+     * @param metrics Where to report, {@link NoopSignalMetrics#INSTANCE} to report nothing.
+     */
+    public void setSignalMetrics(SignalMetrics metrics) {
+
+        this.metrics = metrics;
+
+        connection.setSignalMetrics(metrics);
+
+        SignalConnection current = standby;
+
+        if (current != null) {
+            current.setSignalMetrics(metrics);
+        }
+    }
+
+    public SignalDeduplicator getSignalDeduplicator() {
+        return deduplicator;
+    }
+
+    /**
+     * Drop the signals the SignalServer sends again, as it does when a backlog after a reconnect overlaps what was
+     * already delivered. Dropped signals never reach the signal observers, their versions are still committed.
+     *
+     * @param deduplicator What to check each signal against, or null to deliver every signal.
+     */
+    public void setSignalDeduplicator(SignalDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * The handlers of the commands from the SignalServer, by command type. Register a handler to take over a type or
+     * to handle a new one, or bind a type to an executor of its own so that slow handling of it, as of a large
+     * {@code BacklogCommand}, does not hold up the others. {@code ConnectCommand} and {@code DisconnectCommand}
+     * should stay inline, connecting waits on them.
+     *
+     * @return The dispatch table of this provider.
+     */
+    public CommandDispatchTable getCommandDispatchTable() {
+        return dispatchTable;
+    }
+
+    public VersionSequencer getVersionSequencer() {
+        return sequencer;
+    }
+
+    /**
+     * Deliver the signals of each versionKey in version order, holding those that arrive ahead of a gap until it
+     * fills. A gap that does not fill in time is asked for by sending CONNECT again on the live connection, with
+     * the versionKey rolled back to the last version delivered before it, so the SignalServer sends a backlog of
+     * what is missing rather than us reconnecting.
+     *
+     * @param sequencer The sequencer to put the signals through, it may not be shared with another provider.
+     */
+    public void setVersionSequencer(VersionSequencer sequencer) {
+
+        if (this.sequencer != null) {
+            throw new IllegalStateException("A version sequencer has already been set");
+        }
+
+        sequencer.onRelease(new Observer<SignalCommand>() {
+            @Override
+            public void notify(Object sender, SignalCommand command) {
+
+                if (command.getVersion() != null && command.getVersion().getValue() >= 0) {
+                    newVersionEvent.notifyObservers(SocketSignalProvider.this, command.getVersion());
+                }
+
+                // Whoever handles SignalCommands in the dispatch table handles it, not necessarily us
+                if (!dispatchTable.dispatch(SocketSignalProvider.this, command)) {
+                    LOGGER.warn("Unrecognised command: " + command.getClass().getSimpleName());
+                }
+            }
+        });
+
+        sequencer.onGap(new Observer<VersionMapEntry>() {
+            @Override
+            public void notify(Object sender, VersionMapEntry gap) {
+                resync(gap);
+            }
+        });
+
+        this.sequencer = sequencer;
+    }
+
+    /**
+     * @return True if the standby is connected and negotiated, ready to be promoted.
+     */
+    public boolean isStandbyReady() {
+        SignalConnection current = standby;
+        return current != null && standbyNegotiated && current.isConnected();
+    }
+
+    /**
+     * @return The number of times the standby has been promoted over the life of this provider.
+     */
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    public int getBacklogChunkSize() {
+        return backlogChunkSize;
+    }
+
+    /**
+     * Deliver backlogs in chunks of at most this many signals, one signal event per chunk. The versions
+     * of each chunk are committed once it has been delivered.
+     *
+     * @param backlogChunkSize The largest number of signals per signal event, 0 or less for the whole backlog at once.
+     */
+    public void setBacklogChunkSize(int backlogChunkSize) {
+        this.backlogChunkSize = backlogChunkSize;
     }
 
     @Override
@@ -292,6 +644,8 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
             this.versions = versions;
         }
 
+        negotiationStarted = System.nanoTime();
+
         // Connect our TCP socket
         final Future<Boolean> connectFuture = connection.connect();
 
@@ -339,6 +693,13 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
 
     @Override
     public Future<Void> disconnect() throws Exception {
+
+        SignalConnection current = standby;
+
+        if (current != null) {
+            current.disconnect(false);
+        }
+
         return connection.disconnect(false);
     }
 
@@ -349,12 +710,22 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
 
     @Override
     public void startPings() {
+
         connection.startKeepalives();
+
+        if (standby != null) {
+            standby.startKeepalives();
+        }
     }
 
     @Override
     public void stopPings() {
+
         connection.stopKeepalives();
+
+        if (standby != null) {
+            standby.stopKeepalives();
+        }
     }
 
     @Override
@@ -409,17 +780,26 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
 
     @Override
     protected void onDestroy() {
-        executor.shutdownNow();
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
     }
 
     private void handleConnectCommand(ConnectCommand command) {
 
         LOGGER.debug("Handling ConnectCommand");
 
+        long started = negotiationStarted;
+        negotiationStarted = 0;
+
         if (command.isSuccessful()) {
 
             connectionNegotiated = true;
 
+            if (started != 0) {
+                metrics.negotiated(System.nanoTime() - started);
+            }
+
             // copy it over for stale checking
             originalClientId = clientId;
 
@@ -431,6 +811,8 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
                 newClientIdEvent.notifyObservers(this, clientId);
             }
 
+            connectStandby();
+
         } else {
 
             connectionNegotiated = false;
@@ -461,18 +843,27 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
         }
 
         // If the command has not said 'ban' or 'stop'
-        if (!command.isStop() || !command.isBan()) {
+        if (!command.isStop() && !command.isBan()) {
 
             if (!StringUtil.EMPTY_STRING.equals(command.getHost())) {
                 connection.setHost(command.getHost());
+                if (standby != null) {
+                    standby.setHost(command.getHost());
+                }
             }
 
             if (command.getPort() > 0) {
                 connection.setPort(command.getPort());
+                if (standby != null) {
+                    standby.setPort(command.getPort());
+                }
             }
 
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.schedule(new Runnable() {
+            // Never sooner than the SignalServer asked, spread out to as late again so its clients do not return together
+            long delay = command.getReconnectDelay();
+            delay = reconnectCoordinator.nextBackoff(delay, delay, SERVER_RECONNECT_JITTER, (long) (delay * SERVER_RECONNECT_JITTER));
+
+            reconnectCoordinator.schedule(new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -481,26 +872,198 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
                         LOGGER.error("Error connecting", e);
                     }
                 }
-            }, command.getReconnectDelay(), TimeUnit.SECONDS);
+            }, delay);
+        }
+    }
+
+    /*
+     * Bring the standby up once the primary has negotiated, we need its clientId. A standby that was the primary
+     * before a failover is already being reconnected by its own strategy.
+     */
+    private void connectStandby() {
+
+        final SignalConnection current = standby;
+
+        if (current == null || standbyNegotiated) {
+            return;
+        }
+
+        if (current.isConnected()) {
+            negotiateStandby();
+            return;
+        }
+
+        if (current.getReconnectStrategy() != null && current.getReconnectStrategy().isStarted()) {
+            return;
+        }
+
+        // A blocking transport connects in the caller's thread, keep it off the thread that delivers our commands
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!current.isConnected()) {
+                        current.connect();
+                    }
+                } catch (Exception e) {
+                    LOGGER.warn("Error connecting the standby", e);
+                }
+            }
+        });
+    }
+
+    private void negotiateStandby() {
+
+        SignalConnection current = standby;
+
+        if (current != null && current.isConnected() && StringUtil.exists(clientId)) {
+            current.send(new ConnectCommand(clientId, versions, presence));
+        }
+    }
+
+    private void receiveOnStandby(SignalConnection observed, Command command) {
+
+        if (command instanceof ConnectCommand) {
+
+            standbyNegotiated = observed == standby && ((ConnectCommand) command).isSuccessful();
+
+            LOGGER.debug("Standby negotiated " + standbyNegotiated);
+
+        } else {
+
+            // The primary delivers it, or the replay after a failover will
+            LOGGER.debug("Standby ignored " + command.getClass().getSimpleName());
         }
     }
 
+    /*
+     * Swap the standby in for the primary that was just lost, if it is ready. Our connection state does not
+     * change, as far as anyone observing this provider can tell we never went down.
+     */
+    private synchronized boolean promoteStandby() {
+
+        SignalConnection promoted = standby;
+
+        if (promoted == null || !standbyNegotiated || !promoted.isConnected()) {
+            return false;
+        }
+
+        standby = connection;
+        standbyNegotiated = false;
+        connection = promoted;
+
+        failovers.incrementAndGet();
+
+        LOGGER.warn("Lost the primary connection, promoted the standby");
+
+        // Replay our versions so the SignalServer catches us up on what the old primary missed
+        promoted.send(new ConnectCommand(clientId, versions, presence));
+
+        return true;
+    }
+
+    /*
+     * Ask for the signals of one versionKey from the version before the gap, the other versions are where
+     * they are so the SignalServer has nothing more to send for them.
+     */
+    private void resync(VersionMapEntry gap) {
+
+        SignalConnection current = connection;
+
+        if (!connectionNegotiated || !current.isConnected()) {
+            // The CONNECT of the reconnect will ask for it
+            return;
+        }
+
+        Map<String, Long> resync = new HashMap<String, Long>(versions);
+        resync.put(gap.getKey(), gap.getValue());
+
+        LOGGER.info("Asking for " + gap.getKey() + " after version " + gap.getValue());
+
+        current.send(new ConnectCommand(clientId, resync, presence));
+    }
+
     private void handleBacklogCommand(BacklogCommand command) {
 
+        VersionSequencer sequencing = sequencer;
+
+        if (sequencing == null) {
+            deliverBacklog(command);
+            return;
+        }
+
+        // Taken again in case the backlog was bound to an executor of its own
+        synchronized (sequencing) {
+            deliverBacklog(command);
+        }
+    }
+
+    private void deliverBacklog(BacklogCommand command) {
+
         LOGGER.debug("Handling BacklogCommand");
 
+        int chunkSize = backlogChunkSize > 0 ? backlogChunkSize : Integer.MAX_VALUE;
+        int chunks = 0;
+        int taken = 0;
+        int received = 0;
+
+        SignalDeduplicator current = deduplicator;
+
         List<Signal> signals = new ArrayList<Signal>();
+        List<VersionMapEntry> signalVersions = new ArrayList<VersionMapEntry>();
 
-        for (SignalCommand signalCommand : command.getCommands()) {
+        // The signals are parsed as we go, so only one chunk of them is held at a time
+        for (SignalCommand signalCommand : command) {
 
-            signals.add(signalCommand.getSignal());
+            received++;
+            taken++;
+
+            // A duplicate is not delivered again, but its version is still committed with the chunk it came in
+            if (current == null || !current.isDuplicate(signalCommand)) {
+                signals.add(signalCommand.getSignal());
+            }
 
             if (signalCommand.getVersion() != null && signalCommand.getVersion().getValue() >= 0) {
-                newVersionEvent.notifyObservers(this, signalCommand.getVersion());
+                signalVersions.add(signalCommand.getVersion());
             }
+
+            if (taken >= chunkSize) {
+
+                deliverBacklogChunk(signals, signalVersions, false);
+                chunks++;
+                taken = 0;
+
+                signals = new ArrayList<Signal>();
+                signalVersions = new ArrayList<VersionMapEntry>();
+            }
+        }
+
+        if (taken > 0 || chunks == 0) {
+            deliverBacklogChunk(signals, signalVersions, received == 0);
+        }
+
+        VersionSequencer sequencing = sequencer;
+
+        // The backlog may have filled a gap, release what was held behind it
+        if (sequencing != null) {
+            sequencing.drain();
+        }
+    }
+
+    /*
+     * The versions are committed only once their signals have been delivered, so if we go down
+     * part way through a backlog the next connect picks up after the last chunk that was delivered.
+     */
+    private void deliverBacklogChunk(List<Signal> signals, List<VersionMapEntry> signalVersions, boolean emptyBacklog) {
+
+        // An empty backlog is still announced, a chunk of nothing but duplicates is not
+        if (!signals.isEmpty() || emptyBacklog) {
+            signalEvent.notifyObservers(this, signals);
         }
 
-        signalEvent.notifyObservers(this, signals);
+        for (VersionMapEntry version : signalVersions) {
+            newVersionEvent.notifyObservers(this, version);
+        }
     }
 
     private void handlePresenceCommand(PresenceCommand command) {
@@ -516,6 +1079,14 @@ public class SocketSignalProvider extends CascadingDestroyableBase implements Si
 
     private void handleSignalCommand(SignalCommand command) {
         LOGGER.debug("Handling SignalCommand");
+
+        SignalDeduplicator current = deduplicator;
+
+        if (current != null && current.isDuplicate(command)) {
+            LOGGER.debug("Dropping a duplicate signal " + command.getSignal().getUuid());
+            return;
+        }
+
         signalEvent.notifyObservers(this, Collections.singletonList(command.getSignal()));
     }
 
@@ -0,0 +1,235 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.apache.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Learns how long a connection may sit idle on a network before something between us and the SignalServer, most
+ * often a NAT, forgets it, and keeps the PING interval of the connections on that network just below it.
+ * <p/>
+ * Each network starts at {@code initialInterval}. Every PING that goes out after a full interval of silence and is
+ * answered proves the interval and probes the next one, {@link #PROBE_FACTOR} longer, up to {@code maxInterval}.
+ * A PING that goes unanswered after a silence marks that silence as too long, and the network settles at
+ * {@link #SETTLE_FACTOR} of the shortest silence that failed. A network that never drops a connection ends up at
+ * {@code maxInterval}, so quiet networks cost as few wakeups as possible.
+ * <p/>
+ * A network is the local address the connection goes out of and the address of the SignalServer, see
+ * {@link #network(SocketAddress, SocketAddress)}. What is learned is kept for the life of this object, share one
+ * across connections so that each need not learn it again.
+ */
+public class AdaptiveKeepalive {
+
+    private static final Logger LOGGER = Logger.getLogger(AdaptiveKeepalive.class);
+
+    public static final int DEFAULT_MIN_INTERVAL = 1000 * 30;
+    public static final int DEFAULT_INITIAL_INTERVAL = 1000 * 60;
+    public static final int DEFAULT_MAX_INTERVAL = 1000 * 60 * 15;
+
+    /**
+     * How much longer each probe is than the silence it follows.
+     */
+    public static final double PROBE_FACTOR = 1.5;
+
+    /**
+     * How far below a silence that lost the connection a network settles.
+     */
+    public static final double SETTLE_FACTOR = 0.8;
+
+    private static AdaptiveKeepalive instance;
+
+    private final int minInterval;
+    private final int initialInterval;
+    private final int maxInterval;
+
+    private final ConcurrentMap<String, Estimate> estimates = new ConcurrentHashMap<String, Estimate>();
+
+    public AdaptiveKeepalive() {
+        this(DEFAULT_MIN_INTERVAL, DEFAULT_INITIAL_INTERVAL, DEFAULT_MAX_INTERVAL);
+    }
+
+    /**
+     * @param minInterval The shortest PING interval in milliseconds, however soon a network drops connections.
+     * @param initialInterval The PING interval in milliseconds of a network nothing is known about.
+     * @param maxInterval The longest PING interval in milliseconds, however long a network keeps connections.
+     */
+    public AdaptiveKeepalive(int minInterval, int initialInterval, int maxInterval) {
+
+        if (minInterval <= 0 || initialInterval < minInterval || maxInterval < initialInterval) {
+            throw new IllegalArgumentException("The intervals must be positive and in order, min <= initial <= max");
+        }
+
+        this.minInterval = minInterval;
+        this.initialInterval = initialInterval;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * Get the JVM wide instance that connections use when they are asked to adapt their keepalives.
+     *
+     * @return The shared {@code AdaptiveKeepalive}.
+     */
+    public static synchronized AdaptiveKeepalive getInstance() {
+
+        if (instance == null) {
+            instance = new AdaptiveKeepalive();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Name the network a connection is on. The local port is left out, it changes with every connection.
+     *
+     * @param local The local address of the connection.
+     * @param remote The address of the SignalServer.
+     * @return The name of the network.
+     */
+    public static String network(SocketAddress local, SocketAddress remote) {
+        return host(local) + "->" + host(remote) + (remote instanceof InetSocketAddress ? ":" + ((InetSocketAddress) remote).getPort() : "");
+    }
+
+    /**
+     * @param network The network, see {@link #network(SocketAddress, SocketAddress)}.
+     * @return What is known about the network, created at the initial interval if nothing is.
+     */
+    public Estimate getEstimate(String network) {
+
+        Estimate estimate = estimates.get(network);
+
+        if (estimate == null) {
+            Estimate created = new Estimate(network);
+            estimate = estimates.putIfAbsent(network, created);
+            if (estimate == null) {
+                estimate = created;
+            }
+        }
+
+        return estimate;
+    }
+
+    public int getMinInterval() {
+        return minInterval;
+    }
+
+    public int getInitialInterval() {
+        return initialInterval;
+    }
+
+    public int getMaxInterval() {
+        return maxInterval;
+    }
+
+    private static String host(SocketAddress address) {
+
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            return inet.getAddress() == null ? inet.getHostName() : inet.getAddress().getHostAddress();
+        }
+
+        return String.valueOf(address);
+    }
+
+    /**
+     * What has been learned about the idle timeout of one network.
+     */
+    public class Estimate {
+
+        private final String network;
+
+        private int interval = initialInterval;
+        private long longestSurvived;
+        private long shortestFailed;
+
+        Estimate(String network) {
+            this.network = network;
+        }
+
+        /**
+         * @return The PING interval to use on this network, in milliseconds.
+         */
+        public synchronized int getInterval() {
+            return interval;
+        }
+
+        /**
+         * @return True once a connection has been lost on this network and the interval has settled below it.
+         */
+        public synchronized boolean isSettled() {
+            return shortestFailed > 0;
+        }
+
+        /**
+         * @return The longest silence in milliseconds a connection has survived on this network.
+         */
+        public synchronized long getLongestSurvived() {
+            return longestSurvived;
+        }
+
+        /**
+         * @return The shortest silence in milliseconds a connection has been lost after, 0 if none has been.
+         */
+        public synchronized long getShortestFailed() {
+            return shortestFailed;
+        }
+
+        /**
+         * A PING sent after {@code idle} milliseconds of silence was answered.
+         *
+         * @param idle The silence before the PING.
+         * @return True if the interval changed.
+         */
+        public synchronized boolean survived(long idle) {
+
+            longestSurvived = Math.max(longestSurvived, idle);
+
+            // Only a PING that went out after a full interval proves it
+            if (idle < interval || shortestFailed > 0) {
+                return false;
+            }
+
+            return update((int) Math.min(maxInterval, (long) (interval * PROBE_FACTOR)));
+        }
+
+        /**
+         * A PING sent after {@code idle} milliseconds of silence went unanswered.
+         *
+         * @param idle The silence before the PING.
+         * @return True if the interval changed.
+         */
+        public synchronized boolean failed(long idle) {
+
+            shortestFailed = shortestFailed == 0 ? idle : Math.min(shortestFailed, idle);
+
+            // The network changed its mind, what survived before no longer counts
+            if (longestSurvived >= shortestFailed) {
+                longestSurvived = 0;
+            }
+
+            return update((int) Math.max(minInterval, Math.min(maxInterval, (long) (shortestFailed * SETTLE_FACTOR))));
+        }
+
+        private boolean update(int next) {
+
+            if (next == interval) {
+                return false;
+            }
+
+            LOGGER.debug("PING interval of " + network + " goes from " + interval + "ms to " + next + "ms");
+
+            interval = next;
+
+            return true;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return network + " every " + interval + "ms, survived " + longestSurvived + "ms, failed " + shortestFailed + "ms";
+        }
+
+    }
+
+}
@@ -0,0 +1,590 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.events.Observer;
+import com.zipwhip.util.Factory;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects to whichever of several addresses answers first, in the manner of "happy eyeballs" (RFC 8305).
+ * <p/>
+ * The addresses are tried in order of how fast each connected last time. The next attempt starts when the
+ * one before it fails or after {@code staggerMillis}, whichever is sooner, and the attempts already started
+ * keep going. The first socket to connect wins and every other one is closed. Until it wins a socket's
+ * pipeline sees nothing, a gate at its head holds back every upstream event and replays them in order to the
+ * winner, so the losers never announce a connect or a disconnect.
+ * <p/>
+ * The connect latency of every address is remembered as a moving average, and an address that failed goes
+ * to the back of the line until it connects again.
+ * <p/>
+ * The connect calls run on the executor the racer is given, they block with the OIO transport. Without one they
+ * run on a JVM wide pool of {@link #DEFAULT_CONNECTOR_THREADS} daemon threads, that exit when they have been idle
+ * for a minute. Past that many connects at once the attempts wait their turn. The staggered attempts are started
+ * on the timer the racer is given, or on the JVM wide timer of the {@code KeepaliveMonitor}.
+ */
+public class AddressRacer {
+
+    private static final Logger LOGGER = Logger.getLogger(AddressRacer.class);
+
+    public static final long DEFAULT_STAGGER_MILLIS = 250;
+
+    public static final int DEFAULT_CONNECTOR_THREADS = 16;
+
+    /**
+     * The weight of the newest sample in the moving average of an address's connect latency.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private static final long UNKNOWN = Long.MAX_VALUE - 1;
+    private static final long FAILED = Long.MAX_VALUE;
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private final Executor connector;
+    private final Timer timer;
+
+    private final Map<InetSocketAddress, Long> latencies = new HashMap<InetSocketAddress, Long>();
+
+    private final AtomicLong races = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile long staggerMillis = DEFAULT_STAGGER_MILLIS;
+
+    /**
+     * Create a new {@code AddressRacer} that connects on the JVM wide pool.
+     */
+    public AddressRacer() {
+        this(null, null);
+    }
+
+    /**
+     * Create a new {@code AddressRacer} that connects on an executor of the caller's, such as the blocking executor
+     * of the {@code ExecutionResources}. It is not shut down by the racer.
+     *
+     * @param connector Runs the connect calls, or null to run them on the JVM wide pool.
+     */
+    public AddressRacer(Executor connector) {
+        this(connector, null);
+    }
+
+    /**
+     * Create a new {@code AddressRacer} that connects and times the staggered attempts on the caller's threads,
+     * such as the blocking executor and the timer of the {@code ExecutionResources}. Neither is shut down by the racer.
+     *
+     * @param connector Runs the connect calls, or null to run them on the JVM wide pool.
+     * @param timer Starts the staggered attempts, or null to start them on the JVM wide timer.
+     */
+    public AddressRacer(Executor connector, ScheduledExecutorService timer) {
+        this.connector = connector == null ? Connector.POOL : connector;
+        this.timer = timer == null ? KeepaliveMonitor.TIMER : new ScheduledExecutorTimer(timer);
+    }
+
+    /**
+     * Resolve every address of every host, alternating IPv6 and IPv4 so a broken family costs one stagger at most.
+     * Hosts that do not resolve are skipped.
+     *
+     * @param hosts The host names, in order of preference.
+     * @param port The port to connect to on each.
+     * @return The addresses, without duplicates.
+     * @throws UnknownHostException If no host resolved.
+     */
+    public static List<InetSocketAddress> resolve(List<String> hosts, int port) throws UnknownHostException {
+
+        List<InetAddress> v6 = new ArrayList<InetAddress>();
+        List<InetAddress> v4 = new ArrayList<InetAddress>();
+        Boolean v6First = null;
+
+        for (String host : hosts) {
+
+            InetAddress[] resolved;
+
+            try {
+                resolved = InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                LOGGER.warn("Could not resolve " + host + ", skipping it");
+                continue;
+            }
+
+            for (InetAddress address : resolved) {
+
+                boolean isV6 = address instanceof Inet6Address;
+
+                if (v6First == null) {
+                    v6First = isV6;
+                }
+
+                List<InetAddress> family = isV6 ? v6 : v4;
+
+                if (!family.contains(address)) {
+                    family.add(address);
+                }
+            }
+        }
+
+        if (v6First == null) {
+            throw new UnknownHostException("None of " + hosts + " resolved");
+        }
+
+        List<InetAddress> first = v6First ? v6 : v4;
+        List<InetAddress> second = v6First ? v4 : v6;
+
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(first.size() + second.size());
+
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                addresses.add(new InetSocketAddress(first.get(i), port));
+            }
+            if (i < second.size()) {
+                addresses.add(new InetSocketAddress(second.get(i), port));
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Start racing connections to the given addresses.
+     *
+     * @param addresses The addresses to try, they are reordered by their remembered latency.
+     * @param channels Creates a new unconnected channel for each attempt.
+     * @param onDone Notified with the winning channel before its pipeline sees any event, or with null if every
+     *               attempt failed or the race was cancelled. The race is the sender.
+     * @return The race, to cancel.
+     */
+    public Race race(List<InetSocketAddress> addresses, Factory<Channel> channels, Observer<Channel> onDone) {
+
+        races.incrementAndGet();
+
+        Race race = new Race(order(addresses), channels, onDone);
+        race.attempt(0);
+
+        return race;
+    }
+
+    /**
+     * @param addresses The addresses to order.
+     * @return The addresses, fastest first, then the ones never tried, then the ones that failed last time.
+     */
+    public List<InetSocketAddress> order(List<InetSocketAddress> addresses) {
+
+        final Map<InetSocketAddress, Long> keys = new HashMap<InetSocketAddress, Long>();
+
+        synchronized (latencies) {
+            for (InetSocketAddress address : addresses) {
+                Long latency = latencies.get(address);
+                keys.put(address, latency == null ? UNKNOWN : latency);
+            }
+        }
+
+        List<InetSocketAddress> ordered = new ArrayList<InetSocketAddress>(addresses);
+
+        // Stable, so equal addresses keep the order they were resolved in
+        Collections.sort(ordered, new Comparator<InetSocketAddress>() {
+            @Override
+            public int compare(InetSocketAddress a, InetSocketAddress b) {
+                long ka = keys.get(a);
+                long kb = keys.get(b);
+                return ka < kb ? -1 : (ka == kb ? 0 : 1);
+            }
+        });
+
+        return ordered;
+    }
+
+    /**
+     * @param address The address to look up.
+     * @return The average connect latency of the address in nanoseconds, -1 if it has not connected or failed last time.
+     */
+    public long getLatency(InetSocketAddress address) {
+
+        synchronized (latencies) {
+            Long latency = latencies.get(address);
+            return latency == null || latency == FAILED ? -1 : latency;
+        }
+    }
+
+    public long getStaggerMillis() {
+        return staggerMillis;
+    }
+
+    /**
+     * Set how long an attempt gets before the next one is started alongside it. The JVM wide timer ticks every
+     * 100 milliseconds, so without a timer of its own that is the resolution.
+     *
+     * @param staggerMillis The head start of each attempt in milliseconds, 0 to start them all at once.
+     */
+    public void setStaggerMillis(long staggerMillis) {
+        this.staggerMillis = staggerMillis;
+    }
+
+    public long getRaces() {
+        return races.get();
+    }
+
+    /**
+     * @return The number of connections attempted, over all races.
+     */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * @return The number of attempts that failed to connect, over all races.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private void recordSuccess(InetSocketAddress address, long nanos) {
+
+        synchronized (latencies) {
+
+            Long latency = latencies.get(address);
+
+            if (latency == null || latency == FAILED) {
+                latencies.put(address, nanos);
+            } else {
+                latencies.put(address, latency + (long) ((nanos - latency) * SMOOTHING));
+            }
+        }
+    }
+
+    private void recordFailure(InetSocketAddress address) {
+
+        failures.incrementAndGet();
+
+        synchronized (latencies) {
+            latencies.put(address, FAILED);
+        }
+    }
+
+    /**
+     * One race between connection attempts.
+     */
+    public class Race {
+
+        private final List<InetSocketAddress> addresses;
+        private final Factory<Channel> channels;
+        private final Observer<Channel> onDone;
+
+        private final List<Attempt> started = new ArrayList<Attempt>();
+        private int failed;
+        private boolean done;
+        private Attempt winner;
+
+        private Race(List<InetSocketAddress> addresses, Factory<Channel> channels, Observer<Channel> onDone) {
+            this.addresses = addresses;
+            this.channels = channels;
+            this.onDone = onDone;
+        }
+
+        /**
+         * @return The channel that won, null if the race is still running, was cancelled or every attempt failed.
+         */
+        public synchronized Channel getWinner() {
+            return winner == null ? null : winner.channel;
+        }
+
+        /**
+         * @return The address that won, null if there is no winner.
+         */
+        public synchronized InetSocketAddress getWinningAddress() {
+            return winner == null ? null : winner.address;
+        }
+
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Stop the race and close every socket in it, including the winner's if there was one.
+         */
+        public void cancel() {
+
+            List<Attempt> closing;
+            boolean notify;
+
+            synchronized (this) {
+                notify = !done;
+                done = true;
+                winner = null;
+                closing = new ArrayList<Attempt>(started);
+            }
+
+            for (Attempt attempt : closing) {
+                attempt.lose();
+            }
+
+            if (notify) {
+                onDone.notify(this, null);
+            }
+        }
+
+        private void attempt(final int index) {
+
+            final Attempt attempt;
+
+            synchronized (this) {
+
+                if (done || index >= addresses.size() || index < started.size()) {
+                    return;
+                }
+
+                attempt = new Attempt(addresses.get(index));
+                started.add(attempt);
+            }
+
+            attempts.incrementAndGet();
+
+            connector.execute(new Runnable() {
+                @Override
+                public void run() {
+                    attempt.connect();
+                }
+            });
+
+            if (index + 1 < addresses.size()) {
+                if (staggerMillis <= 0) {
+                    attempt(index + 1);
+                } else {
+                    timer.newTimeout(new TimerTask() {
+                        @Override
+                        public void run(Timeout timeout) throws Exception {
+                            attempt(index + 1);
+                        }
+                    }, staggerMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private void finished(Attempt attempt, boolean success) {
+
+            List<Attempt> losers = null;
+            boolean decided;
+            boolean won = false;
+            boolean lost = false;
+            boolean next = false;
+
+            synchronized (this) {
+
+                decided = done;
+
+                if (success && !done) {
+
+                    done = true;
+                    won = true;
+                    winner = attempt;
+                    losers = new ArrayList<Attempt>(started);
+                    losers.remove(attempt);
+
+                } else if (!success) {
+
+                    failed++;
+
+                    if (!done && failed == addresses.size()) {
+                        done = true;
+                        lost = true;
+                    } else {
+                        next = !done;
+                    }
+                }
+            }
+
+            if (success) {
+                recordSuccess(attempt.address, System.nanoTime() - attempt.start);
+            } else if (attempt.start > 0 && !decided && !attempt.closed) {
+                // Not one we closed ourselves because another won or the race was cancelled, that says nothing of the address
+                recordFailure(attempt.address);
+            }
+
+            if (won) {
+
+                LOGGER.debug("Connected to " + attempt.address);
+
+                for (Attempt loser : losers) {
+                    loser.lose();
+                }
+
+                // The owner takes the channel before anything reaches its pipeline
+                onDone.notify(this, attempt.channel);
+
+                attempt.win();
+
+            } else if (success) {
+                // Connected after the race was decided
+                attempt.lose();
+            } else if (lost) {
+                LOGGER.warn("Could not connect to any of " + addresses);
+                onDone.notify(this, null);
+            } else if (next) {
+                // Do not wait out the stagger behind a failed attempt
+                attempt(started.size());
+            }
+        }
+
+        /**
+         * One socket in the race.
+         */
+        private class Attempt {
+
+            private final InetSocketAddress address;
+            private final RaceGate gate = new RaceGate();
+
+            private volatile Channel channel;
+            private volatile long start;
+            private volatile boolean closed;
+
+            private Attempt(InetSocketAddress address) {
+                this.address = address;
+            }
+
+            private void connect() {
+
+                try {
+
+                    channel = channels.create();
+                    channel.getPipeline().addFirst("raceGate", gate);
+
+                    synchronized (Race.this) {
+                        if (done) {
+                            lose();
+                            return;
+                        }
+                    }
+
+                    start = System.nanoTime();
+
+                    channel.connect(address).addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) throws Exception {
+                            finished(Attempt.this, future.isSuccess() && future.getChannel().isConnected());
+                        }
+                    });
+
+                } catch (Exception e) {
+                    LOGGER.warn("Could not start connecting to " + address, e);
+                    finished(this, false);
+                }
+            }
+
+            private void win() {
+                gate.open(channel);
+            }
+
+            private void lose() {
+
+                closed = true;
+                gate.discard();
+
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Only started once a racer without an executor of its own races.
+     */
+    private static class Connector {
+
+        static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(DEFAULT_CONNECTOR_THREADS, DEFAULT_CONNECTOR_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SignalConnectRace-" + THREAD_NUMBER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        static {
+            POOL.allowCoreThreadTimeOut(true);
+        }
+
+    }
+
+    /**
+     * Holds back every upstream event of a socket until it has won or lost its race.
+     */
+    static class RaceGate implements ChannelUpstreamHandler {
+
+        private final List<ChannelEvent> held = new ArrayList<ChannelEvent>();
+        private ChannelHandlerContext ctx;
+
+        private volatile boolean open;
+        private boolean discarded;
+
+        @Override
+        public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+
+            if (!open) {
+                synchronized (this) {
+                    if (!open) {
+                        this.ctx = ctx;
+                        if (!discarded) {
+                            held.add(e);
+                        }
+                        return;
+                    }
+                }
+            }
+
+            ctx.sendUpstream(e);
+        }
+
+        /**
+         * Replay what was held back, in order, and let everything through from now on.
+         */
+        synchronized void open(Channel channel) {
+
+            ChannelHandlerContext context = ctx == null ? channel.getPipeline().getContext(this) : ctx;
+
+            for (ChannelEvent e : held) {
+                context.sendUpstream(e);
+            }
+
+            held.clear();
+            open = true;
+        }
+
+        /**
+         * Drop what was held back and everything that comes after it.
+         */
+        synchronized void discard() {
+            discarded = true;
+            held.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.commands.ConnectCommand;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.json.JSONObject;
+
+/**
+ * Watches the first frame from the SignalServer, the reply to our CONNECT, and switches the rest of the stream
+ * to {@link SignalCompression} if the reply accepted it.
+ * <p/>
+ * Until then the bytes are passed through untouched and the current line is copied aside. Once the reply has
+ * been seen the bytes up to and including its CRLF go upstream as they are, an inflater is added in front of
+ * this handler and whatever followed the CRLF in the same read is handed to the inflater. From then on this
+ * handler only passes messages through. If the reply did not accept compression, or the first frame was not
+ * a CONNECT reply at all, nothing is added.
+ * <p/>
+ * It must sit in front of the {@code SignalFrameDecoder}. A new one is needed for every connection.
+ */
+public class CompressionHandshakeHandler extends SimpleChannelUpstreamHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(CompressionHandshakeHandler.class);
+
+    private static final int MAX_REPLY_LENGTH = 1024 * 64;
+
+    private final ChannelBuffer line = ChannelBuffers.dynamicBuffer(256);
+
+    private volatile boolean negotiating = true;
+    private volatile boolean compressed;
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+        if (!negotiating || !(e.getMessage() instanceof ChannelBuffer)) {
+            super.messageReceived(ctx, e);
+            return;
+        }
+
+        ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+
+        int start = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        int eol = buffer.indexOf(start, end, (byte) '\n');
+
+        if (eol < 0) {
+
+            line.writeBytes(buffer, start, end - start);
+
+            if (line.readableBytes() > MAX_REPLY_LENGTH) {
+                LOGGER.warn("The first frame is too long to be a CONNECT reply, the stream will not be compressed");
+                finish();
+            }
+
+            super.messageReceived(ctx, e);
+            return;
+        }
+
+        line.writeBytes(buffer, start, eol - start);
+
+        boolean accepted = isAccepted(line);
+
+        finish();
+
+        if (!accepted) {
+            super.messageReceived(ctx, e);
+            return;
+        }
+
+        LOGGER.debug("The SignalServer accepted compression");
+
+        compressed = true;
+
+        Channels.fireMessageReceived(ctx, buffer.slice(start, eol + 1 - start), e.getRemoteAddress());
+
+        SignalInflater inflater = SignalCompression.newDecoder();
+
+        ctx.getPipeline().addBefore(ctx.getName(), "inflater", inflater);
+
+        if (eol + 1 < end) {
+            inflater.handleUpstream(ctx.getPipeline().getContext(inflater),
+                    new UpstreamMessageEvent(ctx.getChannel(), buffer.slice(eol + 1, end - eol - 1), e.getRemoteAddress()));
+        }
+    }
+
+    /**
+     * @return True once the CONNECT reply has been seen, or negotiation was given up.
+     */
+    public boolean isNegotiated() {
+        return !negotiating;
+    }
+
+    /**
+     * @return True if the SignalServer accepted compression and the stream is being inflated.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    private void finish() {
+        negotiating = false;
+        line.clear();
+    }
+
+    private static boolean isAccepted(ChannelBuffer line) {
+
+        int length = line.readableBytes();
+
+        if (length > 0 && line.getByte(length - 1) == '\r') {
+            length--;
+        }
+
+        if (length == 0 || line.getByte(0) != '{') {
+            return false;
+        }
+
+        try {
+
+            JSONObject reply = new JSONObject(line.toString(0, length, SignalFrameDecoder.UTF_8));
+
+            return ConnectCommand.ACTION.equalsIgnoreCase(reply.optString("action"))
+                    && SignalCompression.DEFLATE.equalsIgnoreCase(reply.optString("compression"));
+
+        } catch (Exception e) {
+            LOGGER.warn("Could not read the first frame as a CONNECT reply, the stream will not be compressed", e);
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,370 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.NoopSignalMetrics;
+import com.zipwhip.api.signals.PingEvent;
+import com.zipwhip.api.signals.SignalConnection;
+import com.zipwhip.api.signals.SignalMetrics;
+import com.zipwhip.api.signals.commands.PingPongCommand;
+import com.zipwhip.events.ObservableHelper;
+import org.apache.log4j.Logger;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@code SignalConnection} alive by sending a PING after {@code pingTimeout} milliseconds of
+ * inactivity and disconnecting it if the PONG does not arrive within {@code pongTimeout} milliseconds.
+ * <p/>
+ * Receiving a frame or sending a command only records a timestamp via {@link #activity()}. The deadlines are checked lazily
+ * when the monitor's timeout fires, and the timeout is rescheduled for whatever time is left.
+ * Unless given a timer, all monitors in the JVM share a single {@code HashedWheelTimer}, so scheduling is O(1) and
+ * costs one thread in total. Given the timer of the {@code ExecutionResources} they cost no thread of their own.
+ * <p/>
+ * Every {@code PingEvent} but {@code PONG_TIMEOUT} is routine, and with many idle connections announcing them
+ * can cost more than the keepalives themselves. They can be sampled to one keepalive cycle in {@code n}, or turned
+ * off, see {@link #setPingEventSampling(int)}. A {@code PONG_TIMEOUT} is always announced.
+ * <p/>
+ * The time from each PING sent to its PONG received is reported to the {@code SignalMetrics}, sampled or not.
+ * <p/>
+ * Given an {@link AdaptiveKeepalive.Estimate} the PING interval is learned rather than fixed. Whether each PING sent
+ * after a full interval of silence is answered is reported to the estimate, and when the interval it gives changes the
+ * connection's {@code pingTimeout} is set to it and {@code PING_INTERVAL_CHANGED} is announced, sampled or not.
+ */
+public class KeepaliveMonitor implements TimerTask {
+
+    private static final Logger LOGGER = Logger.getLogger(KeepaliveMonitor.class);
+
+    private static final long TICK_DURATION_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    /**
+     * Shared with the other timeouts of the signal connection, such as the staggered attempts of {@code AddressRacer},
+     * when they are not given a timer of their own.
+     */
+    static final Timer TIMER = new HashedWheelTimer(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SignalKeepaliveTimer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }, TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+
+    private final SignalConnection connection;
+    private final ObservableHelper<PingEvent> pingEvent;
+    private final SignalEventDispatcher dispatcher;
+    private final Timer timer;
+
+    private volatile long lastActivity;
+    private volatile long pongDeadline;
+    private volatile boolean running;
+
+    private volatile int pingEventSampling = 1;
+    private volatile int cycle;
+
+    private volatile SignalMetrics metrics = NoopSignalMetrics.INSTANCE;
+    private volatile long pingSentNanos;
+
+    private volatile AdaptiveKeepalive.Estimate estimate;
+    private volatile long probeIdle = -1;
+
+    private Timeout timeout;
+
+    /**
+     * Create a new {@code KeepaliveMonitor}.
+     *
+     * @param connection The connection to PING, read the timeouts from and disconnect.
+     * @param pingEvent Where to announce the {@code PingEvent}s.
+     */
+    public KeepaliveMonitor(SignalConnection connection, ObservableHelper<PingEvent> pingEvent) {
+        this(connection, pingEvent, null);
+    }
+
+    /**
+     * Create a new {@code KeepaliveMonitor} that announces its {@code PingEvent}s through a dispatcher,
+     * so the observers never run on the timer or I/O thread.
+     *
+     * @param connection The connection to PING, read the timeouts from and disconnect.
+     * @param pingEvent Where to announce the {@code PingEvent}s.
+     * @param dispatcher The dispatcher to notify the observers from, or null to notify them directly.
+     */
+    public KeepaliveMonitor(SignalConnection connection, ObservableHelper<PingEvent> pingEvent, SignalEventDispatcher dispatcher) {
+        this(connection, pingEvent, dispatcher, null);
+    }
+
+    /**
+     * Create a new {@code KeepaliveMonitor} whose PING and PONG timeouts run on the given timer.
+     *
+     * @param connection The connection to PING, read the timeouts from and disconnect.
+     * @param pingEvent Where to announce the {@code PingEvent}s.
+     * @param dispatcher The dispatcher to notify the observers from, or null to notify them directly.
+     * @param timer The timer to run the timeouts on, or null to run them on the JVM wide one. It is not shut down.
+     */
+    public KeepaliveMonitor(SignalConnection connection, ObservableHelper<PingEvent> pingEvent, SignalEventDispatcher dispatcher, ScheduledExecutorService timer) {
+        this.connection = connection;
+        this.pingEvent = pingEvent;
+        this.dispatcher = dispatcher;
+        this.timer = timer == null ? TIMER : new ScheduledExecutorTimer(timer);
+    }
+
+    /**
+     * Start monitoring, the first PING will go out after {@code pingTimeout} milliseconds of inactivity.
+     */
+    public synchronized void start() {
+
+        lastActivity = System.currentTimeMillis();
+        pongDeadline = 0;
+        running = true;
+
+        LOGGER.debug("Scheduling a PING");
+        fireSampled(PingEvent.PING_SCHEDULED);
+
+        schedule(connection.getPingTimeout());
+    }
+
+    /**
+     * Stop monitoring and cancel any pending PING or PONG timeout.
+     */
+    public synchronized void stop() {
+
+        running = false;
+
+        if (timeout != null) {
+
+            timeout.cancel();
+            timeout = null;
+
+            if (pongDeadline > 0) {
+                LOGGER.debug("Resetting timeout PONG");
+                fireSampled(PingEvent.PONG_CANCELLED);
+            } else {
+                LOGGER.debug("Resetting scheduled PING");
+                fireSampled(PingEvent.PING_CANCELLED);
+            }
+        }
+
+        pongDeadline = 0;
+    }
+
+    /**
+     * Record that there was traffic on the wire, in either direction. Outbound traffic keeps a NAT mapping alive as
+     * well as inbound does. This is called for every frame so it does nothing but write a timestamp.
+     */
+    public void activity() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Cancel the pending timeout and send a PING right away. Does nothing while the connection is down.
+     */
+    public synchronized void pingNow() {
+
+        if (!connection.isConnected()) {
+            LOGGER.debug("Not connected, not sending a PING");
+            return;
+        }
+
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        running = true;
+
+        sendPing(System.currentTimeMillis(), false);
+    }
+
+    /**
+     * A PONG arrived, the connection is alive.
+     */
+    public void pongReceived() {
+
+        LOGGER.debug("Received a PONG");
+
+        pongDeadline = 0;
+        lastActivity = System.currentTimeMillis();
+
+        long sent = pingSentNanos;
+
+        if (sent != 0) {
+            pingSentNanos = 0;
+            metrics.pingRoundTrip(System.nanoTime() - sent);
+        }
+
+        fireSampled(PingEvent.PONG_RECEIVED);
+
+        AdaptiveKeepalive.Estimate current = estimate;
+        long idle = probeIdle;
+
+        if (current != null && idle >= 0) {
+
+            probeIdle = -1;
+
+            if (current.survived(idle)) {
+                intervalChanged(current);
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getPingEventSampling() {
+        return pingEventSampling;
+    }
+
+    /**
+     * Set how often the routine {@code PingEvent}s are announced.
+     *
+     * @param pingEventSampling 1 to announce every one, which is the default, {@code n} to announce only those
+     *                          of every {@code n}th keepalive cycle, 0 to announce none but {@code PONG_TIMEOUT}.
+     */
+    public void setPingEventSampling(int pingEventSampling) {
+        this.pingEventSampling = pingEventSampling;
+    }
+
+    public AdaptiveKeepalive.Estimate getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * Learn the PING interval of the connection's network rather than keeping the one it was given. The connection's
+     * {@code pingTimeout} is set to the interval of the estimate right away.
+     *
+     * @param estimate What is known about the network, or null to keep the connection's {@code pingTimeout} as it is.
+     */
+    public void setEstimate(AdaptiveKeepalive.Estimate estimate) {
+
+        this.estimate = estimate;
+        this.probeIdle = -1;
+
+        if (estimate != null) {
+            connection.setPingTimeout(estimate.getInterval());
+        }
+    }
+
+    public SignalMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics Where to report the PING round trips.
+     */
+    public void setMetrics(SignalMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void run(Timeout fired) throws Exception {
+
+        synchronized (this) {
+
+            // A stale timeout that was cancelled or replaced after it had already expired
+            if (!running || fired != timeout) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+
+            if (pongDeadline > 0) {
+
+                if (now < pongDeadline) {
+                    schedule(pongDeadline - now);
+                    return;
+                }
+
+                running = false;
+                timeout = null;
+                pongDeadline = 0;
+
+            } else {
+
+                long idle = now - lastActivity;
+
+                if (idle < connection.getPingTimeout()) {
+                    schedule(connection.getPingTimeout() - idle);
+                } else {
+                    sendPing(now, true);
+                }
+
+                return;
+            }
+        }
+
+        // Outside the lock, disconnecting fires observers that may call back into us
+        LOGGER.warn("PONG timeout, disconnecting...");
+        fire(PingEvent.PONG_TIMEOUT);
+
+        AdaptiveKeepalive.Estimate current = estimate;
+        long idle = probeIdle;
+
+        if (current != null && idle >= 0) {
+
+            probeIdle = -1;
+
+            if (current.failed(idle)) {
+                intervalChanged(current);
+            }
+        }
+
+        connection.disconnect(true);
+    }
+
+    /**
+     * @param probe True if the PING follows a full interval of silence, so that whether it is answered tells
+     *              whether the interval is too long.
+     */
+    private void sendPing(long now, boolean probe) {
+
+        probeIdle = probe ? now - lastActivity : -1;
+
+        pongDeadline = now + connection.getPongTimeout();
+        cycle++;
+
+        LOGGER.debug("Sending a PING");
+        fireSampled(PingEvent.PING_SENT);
+
+        pingSentNanos = System.nanoTime();
+
+        connection.send(PingPongCommand.getShortformInstance());
+
+        schedule(connection.getPongTimeout());
+    }
+
+    private void intervalChanged(AdaptiveKeepalive.Estimate current) {
+
+        connection.setPingTimeout(current.getInterval());
+
+        fire(PingEvent.PING_INTERVAL_CHANGED);
+    }
+
+    /**
+     * Announce a routine event if it belongs to a sampled cycle. Events of the same cycle are announced together.
+     */
+    private void fireSampled(PingEvent event) {
+
+        int sampling = pingEventSampling;
+
+        if (sampling == 1 || (sampling > 1 && cycle % sampling == 0)) {
+            fire(event);
+        }
+    }
+
+    private void fire(PingEvent event) {
+        if (dispatcher == null) {
+            pingEvent.notifyObservers(this, event);
+        } else {
+            dispatcher.publish(pingEvent, this, event);
+        }
+    }
+
+    private void schedule(long delay) {
+        timeout = timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * The text of a frame too large to be worth decoding into one {@code String}, held in fixed size blocks.
+ * <p/>
+ * The bytes are copied into blocks as they arrive and are never copied again as the frame grows, there is no
+ * contiguous buffer to outgrow. A frame that is all ASCII is read straight out of the byte blocks, one byte per char.
+ * Anything else is decoded as UTF-8 into char blocks when the frame is finished, releasing each byte block as
+ * it is decoded.
+ * <p/>
+ * It is a {@code CharSequence} so it can be parsed in place, see {@code StreamingSignalCommandParser}.
+ * {@link #subSequence(int, int)} returns a {@code String}.
+ */
+public final class LargeFrame implements CharSequence {
+
+    private static final int BLOCK_SHIFT = 14;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private byte[][] bytes = new byte[16][];
+    private char[][] chars;
+
+    private int byteLength;
+    private int length;
+    private boolean ascii = true;
+
+    LargeFrame() {
+    }
+
+    /**
+     * Copy {@code count} bytes of {@code buffer} starting at {@code index} onto the end of the frame.
+     */
+    void append(ChannelBuffer buffer, int index, int count) {
+
+        while (count > 0) {
+
+            int block = byteLength >>> BLOCK_SHIFT;
+            int offset = byteLength & BLOCK_MASK;
+
+            if (block == bytes.length) {
+                byte[][] grown = new byte[block * 2][];
+                System.arraycopy(bytes, 0, grown, 0, block);
+                bytes = grown;
+            }
+
+            if (bytes[block] == null) {
+                bytes[block] = new byte[BLOCK_SIZE];
+            }
+
+            int n = Math.min(count, BLOCK_SIZE - offset);
+
+            buffer.getBytes(index, bytes[block], offset, n);
+
+            if (ascii) {
+                byte[] target = bytes[block];
+                for (int i = offset; i < offset + n; i++) {
+                    if (target[i] < 0) {
+                        ascii = false;
+                        break;
+                    }
+                }
+            }
+
+            byteLength += n;
+            index += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * @return The number of bytes appended so far.
+     */
+    int getByteLength() {
+        return byteLength;
+    }
+
+    /**
+     * @return The last byte appended, 0 if there is none.
+     */
+    byte getLastByte() {
+        return byteLength == 0 ? 0 : bytes[(byteLength - 1) >>> BLOCK_SHIFT][(byteLength - 1) & BLOCK_MASK];
+    }
+
+    /**
+     * Drop the last {@code count} bytes.
+     */
+    void truncate(int count) {
+        byteLength -= count;
+    }
+
+    /**
+     * Stop appending and make the frame readable as text.
+     *
+     * @return This frame.
+     */
+    LargeFrame finish() {
+
+        if (ascii) {
+            length = byteLength;
+            return this;
+        }
+
+        Reader reader = new InputStreamReader(new BlockInputStream(), SignalFrameDecoder.UTF_8);
+
+        chars = new char[16][];
+
+        try {
+            while (true) {
+
+                int block = length >>> BLOCK_SHIFT;
+                int offset = length & BLOCK_MASK;
+
+                if (block == chars.length) {
+                    char[][] grown = new char[block * 2][];
+                    System.arraycopy(chars, 0, grown, 0, block);
+                    chars = grown;
+                }
+
+                if (chars[block] == null) {
+                    chars[block] = new char[BLOCK_SIZE];
+                }
+
+                int n = reader.read(chars[block], offset, BLOCK_SIZE - offset);
+
+                if (n < 0) {
+                    break;
+                }
+
+                length += n;
+            }
+        } catch (IOException e) {
+            // Reading from memory, malformed input is replaced rather than thrown
+            throw new IllegalStateException(e);
+        }
+
+        bytes = null;
+
+        return this;
+    }
+
+    /**
+     * @return True if every byte of the frame is ASCII.
+     */
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+
+        if (index < 0 || index >= length) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+
+        if (ascii) {
+            return (char) bytes[index >>> BLOCK_SHIFT][index & BLOCK_MASK];
+        }
+
+        return chars[index >>> BLOCK_SHIFT][index & BLOCK_MASK];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+
+        if (start < 0 || end > length || start > end) {
+            throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+
+        char[] text = new char[end - start];
+
+        int index = start;
+        int position = 0;
+
+        while (index < end) {
+
+            int block = index >>> BLOCK_SHIFT;
+            int offset = index & BLOCK_MASK;
+            int n = Math.min(end - index, BLOCK_SIZE - offset);
+
+            if (ascii) {
+                byte[] source = bytes[block];
+                for (int i = 0; i < n; i++) {
+                    text[position + i] = (char) source[offset + i];
+                }
+            } else {
+                System.arraycopy(chars[block], offset, text, position, n);
+            }
+
+            index += n;
+            position += n;
+        }
+
+        return new String(text);
+    }
+
+    @Override
+    public String toString() {
+        return (String) subSequence(0, length);
+    }
+
+    /**
+     * Reads the byte blocks in order, releasing each one once it has been read.
+     */
+    private class BlockInputStream extends InputStream {
+
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] single = new byte[1];
+
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int count) throws IOException {
+
+            if (position >= byteLength) {
+                return -1;
+            }
+
+            int block = position >>> BLOCK_SHIFT;
+            int blockOffset = position & BLOCK_MASK;
+            int n = Math.min(count, Math.min(byteLength - position, BLOCK_SIZE - blockOffset));
+
+            System.arraycopy(bytes[block], blockOffset, target, offset, n);
+
+            position += n;
+
+            if ((position & BLOCK_MASK) == 0 || position == byteLength) {
+                bytes[block] = null;
+            }
+
+            return n;
+        }
+
+    }
+
+}
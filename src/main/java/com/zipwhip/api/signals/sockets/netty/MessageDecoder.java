@@ -1,37 +1,94 @@
 package com.zipwhip.api.signals.sockets.netty;
 
+import com.zipwhip.api.signals.NoopSignalMetrics;
+import com.zipwhip.api.signals.SignalMetrics;
 import com.zipwhip.api.signals.commands.JsonSignalCommandParser;
 import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.api.signals.commands.StreamingSignalCommandParser;
 import com.zipwhip.util.Parser;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 
+/**
+ * Parses each decoded frame into a {@code Command}. A {@link LargeFrame} is always parsed in place by a
+ * {@link StreamingSignalCommandParser}, whichever parser handles the other frames.
+ * <p/>
+ * Every frame is reported to the {@code SignalMetrics}, and so is how long each command took to parse if they are enabled.
+ */
 public final class MessageDecoder extends OneToOneDecoder {
 
     private Parser<String, Command> parser;
+    private StreamingSignalCommandParser largeFrameParser;
+    private SignalMetrics metrics;
 
     public MessageDecoder() {
         this(new JsonSignalCommandParser());
     }
 
     public MessageDecoder(Parser<String, Command> parser) {
+        this(parser, NoopSignalMetrics.INSTANCE);
+    }
+
+    public MessageDecoder(SignalMetrics metrics) {
+        this(new JsonSignalCommandParser(), metrics);
+    }
+
+    public MessageDecoder(Parser<String, Command> parser, SignalMetrics metrics) {
         this.parser = parser;
+        this.metrics = metrics;
+        this.largeFrameParser = parser instanceof StreamingSignalCommandParser ? (StreamingSignalCommandParser) parser : new StreamingSignalCommandParser();
+
+        if (parser instanceof JsonSignalCommandParser) {
+            // Large frames build their signals' content the same way the others do
+            largeFrameParser.setLazySignalContent(((JsonSignalCommandParser) parser).isLazySignalContent());
+        }
     }
 
     @Override
     protected Object decode(ChannelHandlerContext channelHandlerContext, Channel channel, Object o) throws Exception {
-        
+
+        metrics.frameReceived();
+
         // comes in as a string, leaves as a SignalCommand
         if (o instanceof String) {
             if (parser == null) {
                 return o;
             }
 
-            return parser.parse((String) o);
+            if (!metrics.isEnabled()) {
+                return parser.parse((String) o);
+            }
+
+            long start = System.nanoTime();
+
+            return decoded(parser.parse((String) o), start);
+        }
+
+        if (o instanceof LargeFrame) {
+            if (parser == null) {
+                return o.toString();
+            }
+
+            if (!metrics.isEnabled()) {
+                return largeFrameParser.parse((LargeFrame) o);
+            }
+
+            long start = System.nanoTime();
+
+            return decoded(largeFrameParser.parse((LargeFrame) o), start);
         }
 
         return o;
     }
 
+    private Command decoded(Command command, long start) {
+
+        if (command != null) {
+            metrics.commandDecoded(command.getClass(), System.nanoTime() - start);
+        }
+
+        return command;
+    }
+
 }
@@ -1,8 +1,13 @@
 package com.zipwhip.api.signals.sockets.netty;
 
+import com.zipwhip.api.ExecutionResources;
+import com.zipwhip.api.signals.NoopSignalMetrics;
 import com.zipwhip.api.signals.PingEvent;
 import com.zipwhip.api.signals.SignalConnection;
+import com.zipwhip.api.signals.SignalMetrics;
 import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.api.signals.commands.ConnectCommand;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParser;
 import com.zipwhip.api.signals.commands.PingPongCommand;
 import com.zipwhip.api.signals.commands.SerializingCommand;
 import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
@@ -10,17 +15,18 @@ import com.zipwhip.api.signals.reconnect.ReconnectStrategy;
 import com.zipwhip.events.ObservableHelper;
 import com.zipwhip.events.Observer;
 import com.zipwhip.lifecycle.CascadingDestroyableBase;
+import com.zipwhip.util.Factory;
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.oio.OioClientSocketChannelFactory;
-import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
-import org.jboss.netty.handler.codec.string.StringDecoder;
 
 import java.net.InetSocketAddress;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.*;
-
-import static org.jboss.netty.buffer.ChannelBuffers.copiedBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by IntelliJ IDEA. User: Michael Date: 8/2/11 Time: 11:49 AM
@@ -31,24 +37,50 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
 
     private static final Logger LOGGER = Logger.getLogger(NettySignalConnection.class);
 
+    private static ChannelFactory sharedNioChannelFactory;
+
     public static final int CONNECTION_TIMEOUT_SECONDS = 45;
 
-    private static final int MAX_FRAME_SIZE = 65535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024 * 16; // the hard ceiling, frames past 64KB are accumulated in blocks
 
     private static final int DEFAULT_PING_TIMEOUT = 1000 * 300; // when to ping, inactive seconds
     private static final int DEFAULT_PONG_TIMEOUT = 1000 * 30; // when to disconnect if a ping was not ponged by this time
 
+    private static final int DEFAULT_FLUSH_WINDOW = 0; // millis a write may wait to be coalesced with others, 0 never waits
+    private static final int DEFAULT_MAX_FLUSH_BYTES = 1024 * 16;
+
     private String host = "signals.zipwhip.com";
     private int port = 3000;
 
+    private List<String> fallbackHosts = Collections.emptyList();
+    private AddressRacer addressRacer;
+    private AddressRacer.Race race;
+
     private int pingTimeout = DEFAULT_PING_TIMEOUT;
     private int pongTimeout = DEFAULT_PONG_TIMEOUT;
 
+    private AdaptiveKeepalive adaptiveKeepalive;
+
+    private int flushWindow = DEFAULT_FLUSH_WINDOW;
+    private int maxFlushBytes = DEFAULT_MAX_FLUSH_BYTES;
+    private final WriteCoalescingHandler.Statistics writeStatistics = new WriteCoalescingHandler.Statistics();
+
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private final SignalFrameDecoder.Statistics frameStatistics = new SignalFrameDecoder.Statistics();
+
+    private boolean compressionEnabled;
+    private SignalTls tls;
+    private boolean lazySignalContent;
+
+    private volatile SignalMetrics metrics = NoopSignalMetrics.INSTANCE;
+    private boolean connectedBefore;
+
     private ExecutorService executor;
+    private boolean ownsExecutor;
 
-    private ScheduledFuture<?> pingTimeoutFuture;
-    private ScheduledFuture<?> pongTimeoutFuture;
-    private ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(2);
+    private KeepaliveMonitor keepaliveMonitor;
+    private SignalEventDispatcher dispatcher;
+    private ScheduledExecutorService timer;
 
     private ObservableHelper<PingEvent> pingEvent = new ObservableHelper<PingEvent>();
     private ObservableHelper<Command> receiveEvent = new ObservableHelper<Command>();
@@ -60,7 +92,8 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
     private Runnable onSocketActivity;
 
     private Channel channel;
-    private ChannelFactory channelFactory = new OioClientSocketChannelFactory(Executors.newSingleThreadExecutor());
+    private ChannelFactory channelFactory;
+    private boolean ownsChannelFactory;
 
     private boolean networkDisconnect;
     private boolean doKeepalives;
@@ -78,6 +111,95 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
      * @param reconnectStrategy The reconnect strategy to use in the case of socket disconnects.
      */
     public NettySignalConnection(ReconnectStrategy reconnectStrategy) {
+        this(reconnectStrategy, new OioClientSocketChannelFactory(Executors.newSingleThreadExecutor()));
+        this.ownsChannelFactory = true;
+    }
+
+    /**
+     * Create a new {@code NettySignalConnection} that creates its channels from the given {@code ChannelFactory}.
+     * <p/>
+     * The factory is NOT released when this connection is destroyed so that it can be shared by many connections.
+     * Pass {@link #getSharedNioChannelFactory()} to run this connection on the NIO transport.
+     *
+     * @param reconnectStrategy The reconnect strategy to use in the case of socket disconnects.
+     * @param channelFactory The factory to create the socket channel from.
+     */
+    public NettySignalConnection(ReconnectStrategy reconnectStrategy, ChannelFactory channelFactory) {
+        this(reconnectStrategy, channelFactory, null);
+    }
+
+    /**
+     * Create a new {@code NettySignalConnection} that runs on resources shared with other connections.
+     * <p/>
+     * None of the resources passed in are released when this connection is destroyed, that is up to the owner.
+     * If the executor is null this connection will create and own one of its own. PING and PONG timeouts
+     * always run on the JVM wide {@code KeepaliveMonitor} timer.
+     *
+     * @param reconnectStrategy The reconnect strategy to use in the case of socket disconnects.
+     * @param channelFactory The factory to create the socket channel from.
+     * @param executor The executor to run disconnects in.
+     */
+    public NettySignalConnection(ReconnectStrategy reconnectStrategy, ChannelFactory channelFactory, ExecutorService executor) {
+        this(reconnectStrategy, channelFactory, executor, null);
+    }
+
+    /**
+     * Create a new {@code NettySignalConnection} that runs on the shared {@code ExecutionResources}: their NIO
+     * event loop, blocking executor, dispatcher, timer and reconnect coordinator. None of them are released when this connection is destroyed.
+     *
+     * @param reconnectStrategy The reconnect strategy to use in the case of socket disconnects.
+     * @param resources The threads to run on.
+     */
+    public NettySignalConnection(ReconnectStrategy reconnectStrategy, ExecutionResources resources) {
+        this(reconnectStrategy, resources.getChannelFactory(), resources.getBlockingExecutor(), resources.getDispatcher(), resources.getTimer());
+        reconnectStrategy.setReconnectCoordinator(resources.getReconnectCoordinator());
+    }
+
+    /**
+     * Create a new {@code NettySignalConnection} that runs on resources shared with other connections.
+     * <p/>
+     * None of the resources passed in are released when this connection is destroyed, that is up to the owner.
+     * If the executor or the dispatcher is null this connection will create and own one of its own.
+     *
+     * @param reconnectStrategy The reconnect strategy to use in the case of socket disconnects.
+     * @param channelFactory The factory to create the socket channel from.
+     * @param executor The executor to run disconnects in.
+     * @param dispatcher The dispatcher that notifies this connection's observers, off the I/O thread.
+     */
+    public NettySignalConnection(ReconnectStrategy reconnectStrategy, ChannelFactory channelFactory, ExecutorService executor, SignalEventDispatcher dispatcher) {
+        this(reconnectStrategy, channelFactory, executor, dispatcher, null);
+    }
+
+    /**
+     * Create a new {@code NettySignalConnection} that runs on resources shared with other connections, its PING
+     * and PONG timeouts and delayed flushes included.
+     * <p/>
+     * None of the resources passed in are released when this connection is destroyed, that is up to the owner.
+     * If the executor or the dispatcher is null this connection will create and own one of its own. If the timer
+     * is null the timeouts run on the JVM wide timers.
+     *
+     * @param reconnectStrategy The reconnect strategy to use in the case of socket disconnects.
+     * @param channelFactory The factory to create the socket channel from.
+     * @param executor The executor to run disconnects in.
+     * @param dispatcher The dispatcher that notifies this connection's observers, off the I/O thread.
+     * @param timer The timer for the keepalives and the delayed flushes.
+     */
+    public NettySignalConnection(ReconnectStrategy reconnectStrategy, ChannelFactory channelFactory, ExecutorService executor, SignalEventDispatcher dispatcher, ScheduledExecutorService timer) {
+
+        this.channelFactory = channelFactory;
+        this.timer = timer;
+
+        this.executor = executor;
+        this.ownsExecutor = executor == null;
+
+        if (dispatcher == null) {
+            this.dispatcher = new SignalEventDispatcher();
+            this.link(this.dispatcher);
+        } else {
+            this.dispatcher = dispatcher;
+        }
+
+        this.keepaliveMonitor = new KeepaliveMonitor(this, pingEvent, this.dispatcher, timer);
 
         this.link(pingEvent);
         this.link(receiveEvent);
@@ -99,21 +221,23 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
             throw new Exception("Tried to connect but we already have a channel connected!");
         }
 
-        channel = channelFactory.newChannel(getPipeline());
+        if (race != null && !race.isDone()) {
+            throw new Exception("Tried to connect but we are already connecting!");
+        }
 
-        if (channel instanceof AbstractChannel) {
-            ((AbstractChannel) channel).setOnSocketActivity(onSocketActivity);
+        if (addressRacer != null) {
+            return raceConnect();
         }
 
+        channel = newChannel();
+
         final ChannelFuture channelFuture = channel.connect(new InetSocketAddress(host, port));
 
-        FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+        final FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
 
             @Override
             public Boolean call() throws Exception {
 
-                channelFuture.await(CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-
                 boolean socketConnected = !channelFuture.isCancelled() && channelFuture.isSuccess() && channelFuture.getChannel().isConnected();
 
                 networkDisconnect = socketConnected;
@@ -122,14 +246,83 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
             }
         });
 
-        if (executor == null) {
-            executor = Executors.newSingleThreadExecutor();
+        // The transport enforces the connect timeout, complete our task when it is done rather than parking a thread on it
+        channelFuture.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                task.run();
+            }
+        });
+
+        return task;
+    }
+
+    /**
+     * Race connections to every address of the host and the fallback hosts, keeping the first to connect.
+     */
+    private Future<Boolean> raceConnect() throws Exception {
+
+        List<String> hosts = new ArrayList<String>();
+        hosts.add(host);
+
+        for (String fallbackHost : fallbackHosts) {
+            if (!hosts.contains(fallbackHost)) {
+                hosts.add(fallbackHost);
+            }
         }
-        executor.execute(task);
+
+        final AtomicReference<Channel> winner = new AtomicReference<Channel>();
+
+        final FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+
+                boolean socketConnected = winner.get() != null && winner.get().isConnected();
+
+                networkDisconnect = socketConnected;
+
+                return socketConnected;
+            }
+        });
+
+        channel = null;
+
+        race = addressRacer.race(AddressRacer.resolve(hosts, port), new Factory<Channel>() {
+            @Override
+            public Channel create() throws Exception {
+                return newChannel();
+            }
+        }, new Observer<Channel>() {
+            @Override
+            public void notify(Object sender, Channel item) {
+
+                if (item != null) {
+                    synchronized (NettySignalConnection.this) {
+                        channel = item;
+                    }
+                }
+
+                winner.set(item);
+                task.run();
+            }
+        });
 
         return task;
     }
 
+    private Channel newChannel() throws Exception {
+
+        Channel channel = channelFactory.newChannel(getPipeline());
+        channel.getConfig().setConnectTimeoutMillis(CONNECTION_TIMEOUT_SECONDS * 1000);
+
+        if (channel instanceof AbstractChannel) {
+            ((AbstractChannel) channel).setOnSocketActivity(onSocketActivity);
+        }
+
+        return channel;
+    }
+
     @Override
     public synchronized Future<Void> disconnect() {
         return disconnect(false);
@@ -149,29 +342,32 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
                     reconnectStrategy.stop();
                 }
 
+                AddressRacer.Race connecting = race;
+
+                if (connecting != null && !connecting.isDone()) {
+                    connecting.cancel();
+                }
+
                 if (channel != null) {
                     ChannelFuture closeFuture = channel.close().await();
                     LOGGER.debug("Closing channel success was " + closeFuture.isSuccess());
                 }
 
-                executor.shutdownNow();
-                executor = null;
-
-                if (pingTimeoutFuture != null) {
-                    pingTimeoutFuture.cancel(true);
+                if (ownsExecutor) {
+                    executor.shutdownNow();
+                    executor = null;
                 }
 
-                if (pongTimeoutFuture != null) {
-                    pongTimeoutFuture.cancel(true);
-                }
+                keepaliveMonitor.stop();
 
                 return null;
             }
         });
 
-        if (executor != null) {
-            executor.execute(task);
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor();
         }
+        executor.execute(task);
 
         return task;
     }
@@ -181,8 +377,7 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
 
         LOGGER.debug("Keepalive requested!");
 
-        cancelPong();
-        schedulePing(true);
+        keepaliveMonitor.pingNow();
     }
 
     @Override
@@ -191,6 +386,10 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
         LOGGER.debug("Start keepalives requested!");
 
         doKeepalives = true;
+
+        if (isConnected() && !keepaliveMonitor.isRunning()) {
+            keepaliveMonitor.start();
+        }
     }
 
     @Override
@@ -199,11 +398,21 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
         LOGGER.debug("Start keepalives requested!");
 
         doKeepalives = false;
-        cancelPing();
+        keepaliveMonitor.stop();
     }
 
     @Override
     public void send(SerializingCommand command) {
+
+        if (compressionEnabled && command instanceof ConnectCommand) {
+            ((ConnectCommand) command).setCompression(SignalCompression.DEFLATE);
+        }
+
+        metrics.frameSent();
+
+        // Writing keeps the connection alive as well as reading does, push back the next PING
+        keepaliveMonitor.activity();
+
         // send this over the wire.
         channel.write(command);
     }
@@ -296,6 +505,38 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
         this.reconnectStrategy.setSignalConnection(this);
     }
 
+    @Override
+    public SignalMetrics getSignalMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void setSignalMetrics(SignalMetrics metrics) {
+        this.metrics = metrics;
+        this.keepaliveMonitor.setMetrics(metrics);
+    }
+
+    public AdaptiveKeepalive getAdaptiveKeepalive() {
+        return adaptiveKeepalive;
+    }
+
+    /**
+     * Learn how long this connection may be idle on the network it is on rather than PINGing every {@code pingTimeout}.
+     * On every connect the PING interval is set to what the {@code AdaptiveKeepalive} knows about the network, and it
+     * is changed as more is learned. Each change is announced as {@code PING_INTERVAL_CHANGED}. Share one across
+     * connections so that they share what they learn, see {@link AdaptiveKeepalive#getInstance()}.
+     *
+     * @param adaptiveKeepalive What to learn the PING interval from, or null to PING every {@code pingTimeout}.
+     */
+    public void setAdaptiveKeepalive(AdaptiveKeepalive adaptiveKeepalive) {
+
+        this.adaptiveKeepalive = adaptiveKeepalive;
+
+        if (adaptiveKeepalive == null) {
+            keepaliveMonitor.setEstimate(null);
+        }
+    }
+
     public Runnable getOnSocketActivity() {
         return onSocketActivity;
     }
@@ -304,15 +545,226 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
         this.onSocketActivity = onSocketActivity;
     }
 
+    public List<String> getFallbackHosts() {
+        return fallbackHosts;
+    }
+
+    /**
+     * Set the hosts to race alongside the host when connecting with an {@code AddressRacer}.
+     * The host, which a {@code DisconnectCommand} may have redirected, always comes first.
+     *
+     * @param fallbackHosts The other hosts of the SignalServer, in order of preference.
+     */
+    public void setFallbackHosts(List<String> fallbackHosts) {
+        this.fallbackHosts = fallbackHosts == null ? Collections.<String>emptyList() : fallbackHosts;
+    }
+
+    public AddressRacer getAddressRacer() {
+        return addressRacer;
+    }
+
+    /**
+     * Connect by racing every address of the host and the fallback hosts rather than the first address of the host.
+     * The racer remembers how fast each address connected, share one across connections to share what it learned.
+     *
+     * @param addressRacer The racer to connect with, or null to connect to the host alone.
+     */
+    public void setAddressRacer(AddressRacer addressRacer) {
+        this.addressRacer = addressRacer;
+    }
+
+    /**
+     * @return The address of the current connection, null if there is none.
+     */
+    public InetSocketAddress getRemoteAddress() {
+        Channel current = channel;
+        return current == null ? null : (InetSocketAddress) current.getRemoteAddress();
+    }
+
+    public int getPingEventSampling() {
+        return keepaliveMonitor.getPingEventSampling();
+    }
+
+    /**
+     * Set how often the routine {@code PingEvent}s are announced, 1 for every one, {@code n} for those of every
+     * {@code n}th keepalive cycle and 0 for none. A PONG timeout is always announced.
+     *
+     * @param pingEventSampling The sampling rate of the routine {@code PingEvent}s.
+     */
+    public void setPingEventSampling(int pingEventSampling) {
+        keepaliveMonitor.setPingEventSampling(pingEventSampling);
+    }
+
+    public int getFlushWindow() {
+        return flushWindow;
+    }
+
+    /**
+     * Set how many milliseconds an outbound command may wait for others to be written with it in one flush.
+     * The default of 0 never delays a write, only commands sent while a flush is in progress are coalesced.
+     * Takes effect on the next connect.
+     *
+     * @param flushWindow The flush window in milliseconds.
+     */
+    public void setFlushWindow(int flushWindow) {
+        this.flushWindow = flushWindow;
+    }
+
+    public int getMaxFlushBytes() {
+        return maxFlushBytes;
+    }
+
+    /**
+     * Set how many bytes may be pending before a flush is started regardless of the flush window.
+     * Takes effect on the next connect.
+     *
+     * @param maxFlushBytes The size cap of a single flush.
+     */
+    public void setMaxFlushBytes(int maxFlushBytes) {
+        this.maxFlushBytes = maxFlushBytes;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Set the largest frame that will be accepted from the SignalServer. A longer frame is discarded and
+     * reported as an exception. Takes effect on the next connect.
+     *
+     * @param maxFrameSize The hard ceiling on the size of a frame in bytes.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public boolean isLazySignalContent() {
+        return lazySignalContent;
+    }
+
+    /**
+     * Set whether the DTO of each signal received is built when it is parsed or the first time its content is asked
+     * for. Lazily, a signal that is dropped on its type or uuid never pays for it. Takes effect on the next connect.
+     *
+     * @param lazySignalContent True to build the DTOs lazily.
+     */
+    public void setLazySignalContent(boolean lazySignalContent) {
+        this.lazySignalContent = lazySignalContent;
+    }
+
+    /**
+     * Set whether to ask the SignalServer to deflate what it sends, see {@link SignalCompression}.
+     * If the server does not accept the stream stays plain. Takes effect on the next connect.
+     *
+     * @param compressionEnabled True to ask for compression in the CONNECT handshake.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public SignalTls getTls() {
+        return tls;
+    }
+
+    /**
+     * Connect to the SignalServer over TLS. Every connect after the first resumes the TLS session of an earlier one
+     * to the same host and port if the {@code SignalTls} still has it cached. Takes effect on the next connect.
+     *
+     * @param tls Where the sessions are cached, share one across connections to share them, see
+     *            {@link SignalTls#getInstance()}. Null to connect in the clear.
+     */
+    public void setTls(SignalTls tls) {
+        this.tls = tls;
+    }
+
+    /**
+     * @return True if the current connection resumed a cached TLS session rather than negotiating a new one.
+     */
+    public boolean isTlsResumed() {
+
+        Channel current = channel;
+
+        if (current == null) {
+            return false;
+        }
+
+        TlsHandshakeHandler handshake = current.getPipeline().get(TlsHandshakeHandler.class);
+
+        return handshake != null && handshake.isResumed();
+    }
+
+    /**
+     * @return True if the SignalServer accepted compression on the current connection.
+     */
+    public boolean isCompressed() {
+
+        Channel current = channel;
+
+        if (current == null) {
+            return false;
+        }
+
+        CompressionHandshakeHandler handshake = current.getPipeline().get(CompressionHandshakeHandler.class);
+
+        return handshake != null && handshake.isCompressed();
+    }
+
+    /**
+     * @return The distribution of the sizes of the frames received, over the life of this connection.
+     */
+    public SignalFrameDecoder.Statistics getFrameStatistics() {
+        return frameStatistics;
+    }
+
+    /**
+     * @return The dispatcher that notifies this connection's observers, for its queue depth and lag.
+     */
+    public SignalEventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return The number of commands written and flushes they went out in, over the life of this connection.
+     */
+    public WriteCoalescingHandler.Statistics getWriteStatistics() {
+        return writeStatistics;
+    }
+
+    /**
+     * Get the JVM wide NIO {@code ChannelFactory}. All connections created with this factory
+     * share one boss thread and a small pool of worker threads rather than a thread per socket.
+     *
+     * @return The shared NIO {@code ChannelFactory}.
+     */
+    public static synchronized ChannelFactory getSharedNioChannelFactory() {
+
+        if (sharedNioChannelFactory == null) {
+            sharedNioChannelFactory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+        }
+
+        return sharedNioChannelFactory;
+    }
+
+    private JsonSignalCommandParser commandParser() {
+
+        JsonSignalCommandParser parser = new JsonSignalCommandParser();
+        parser.setLazySignalContent(lazySignalContent);
+
+        return parser;
+    }
+
     @Override
     public ChannelPipeline getPipeline() throws Exception {
 
-        return Channels.pipeline(
-                // Second arg must be set to false. This tells Netty not to strip the frame delimiter so we can recognise PONGs upstream.
-                new DelimiterBasedFrameDecoder(MAX_FRAME_SIZE, false, copiedBuffer(StringToChannelBuffer.CRLF, Charset.defaultCharset())),
+        ChannelPipeline pipeline = Channels.pipeline(
+                new WriteCoalescingHandler(flushWindow, maxFlushBytes, writeStatistics, timer),
+                new SignalFrameDecoder(maxFrameSize, SignalFrameDecoder.DEFAULT_LARGE_FRAME_THRESHOLD, frameStatistics, PingPongCommand.getShortformInstance()),
                 new StringToChannelBuffer(),
-                new StringDecoder(),
-                new MessageDecoder(),
+                new MessageDecoder(commandParser(), metrics),
                 new SignalCommandEncoder(),
                 new SimpleChannelHandler() {
 
@@ -334,24 +786,22 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
 
                             return;
 
-                        } else if (msg instanceof PingPongCommand) {
+                        }
+
+                        // We have activity on the wire, push back the next PING
+                        keepaliveMonitor.activity();
+
+                        if (msg instanceof PingPongCommand) {
 
                             // We received a PONG, cancel the PONG timeout.
                             receivePong((PingPongCommand) msg);
 
                             return;
-
-                        } else {
-
-                            // We have activity on the wire, reschedule the next PING
-                            if (doKeepalives) {
-                                schedulePing(false);
-                            }
                         }
 
                         Command command = (Command) msg;
 
-                        receiveEvent.notifyObservers(this, command);
+                        dispatcher.publish(receiveEvent, this, command);
                     }
 
                     @Override
@@ -359,9 +809,26 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
 
                         LOGGER.debug("channelConnected");
 
+                        if (connectedBefore) {
+                            metrics.reconnected();
+                        }
+
+                        connectedBefore = true;
+
+                        AdaptiveKeepalive adaptive = adaptiveKeepalive;
+
+                        if (adaptive != null) {
+                            keepaliveMonitor.setEstimate(adaptive.getEstimate(AdaptiveKeepalive.network(ctx.getChannel().getLocalAddress(), ctx.getChannel().getRemoteAddress())));
+                        }
+
                         reconnectStrategy.start();
 
-                        connectEvent.notifyObservers(this, true);
+                        if (doKeepalives) {
+                            keepaliveMonitor.start();
+                        }
+
+                        // Only received commands may be dropped, the observers must always learn of the state changes
+                        dispatcher.publish(connectEvent, this, true, SignalEventDispatcher.OverflowPolicy.BLOCK);
 
                         super.channelConnected(ctx, e);
                     }
@@ -373,7 +840,7 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
 
                         disconnect(true);
 
-                        disconnectEvent.notifyObservers(this, networkDisconnect);
+                        dispatcher.publish(disconnectEvent, this, networkDisconnect, SignalEventDispatcher.OverflowPolicy.BLOCK);
 
                         super.channelClosed(ctx, e);
                     }
@@ -383,65 +850,46 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
 
                         LOGGER.error(e.toString());
 
-                        exceptionEvent.notifyObservers(this, e.toString());
+                        dispatcher.publish(exceptionEvent, this, e.toString(), SignalEventDispatcher.OverflowPolicy.BLOCK);
                     }
                 }
         );
-    }
 
-    @Override
-    protected void onDestroy() {
-
-        if (isConnected()) {
-            disconnect();
+        // The inflater is added in front of it once the CONNECT reply accepts compression
+        if (compressionEnabled) {
+            pipeline.addFirst("compressionHandshake", new CompressionHandshakeHandler());
         }
 
-        if (channelFactory != null) {
-            channelFactory.releaseExternalResources();
+        // Between the wire and the compression handshake, the inflater works on what was decrypted
+        if (tls != null) {
+            pipeline.addFirst("tlsHandshake", new TlsHandshakeHandler(tls, metrics));
         }
 
-        if (pingTimeoutFuture != null) {
-            pingTimeoutFuture.cancel(true);
+        // Only the patched OIO worker knows about onSocketActivity, for any other transport we hook it up here.
+        if (onSocketActivity != null && !(channelFactory instanceof OioClientSocketChannelFactory)) {
+            pipeline.addFirst("socketActivity", new SocketActivityHandler(onSocketActivity));
         }
 
-        if (pongTimeoutFuture != null) {
-            pongTimeoutFuture.cancel(true);
+        // In front of everything, so it counts the bytes that are on the wire
+        if (metrics.isEnabled()) {
+            pipeline.addFirst("metrics", new SignalMetricsHandler(metrics));
         }
 
-        if (scheduledExecutor != null) {
-            scheduledExecutor.shutdownNow();
-        }
+        return pipeline;
     }
 
-    private void schedulePing(boolean now) {
-
-        cancelPing();
-
-        LOGGER.debug("Scheduling a PING");
-        pingEvent.notifyObservers(this, PingEvent.PING_SCHEDULED);
-
-        pingTimeoutFuture = scheduledExecutor.schedule(new Runnable() {
-            @Override
-            public void run() {
-
-                LOGGER.debug("Sending a PING");
-                pingEvent.notifyObservers(this, PingEvent.PING_SENT);
-
-                send(PingPongCommand.getShortformInstance());
-
-                pongTimeoutFuture = scheduledExecutor.schedule(new Runnable() {
-                    @Override
-                    public void run() {
+    @Override
+    protected void onDestroy() {
 
-                        LOGGER.warn("PONG timeout, disconnecting...");
-                        pingEvent.notifyObservers(this, PingEvent.PONG_TIMEOUT);
+        if (isConnected()) {
+            disconnect();
+        }
 
-                        disconnect(true);
-                    }
-                }, pongTimeout, TimeUnit.MILLISECONDS);
+        if (channelFactory != null && ownsChannelFactory) {
+            channelFactory.releaseExternalResources();
+        }
 
-            }
-        }, now ? 0 : pingTimeout, TimeUnit.MILLISECONDS);
+        keepaliveMonitor.stop();
     }
 
     private void receivePong(PingPongCommand command) {
@@ -450,48 +898,15 @@ public class NettySignalConnection extends CascadingDestroyableBase implements S
 
             LOGGER.debug("Received a REVERSE PING");
 
-            PingPongCommand reversePong = PingPongCommand.getNewLongformInstance();
-            reversePong.setTimestamp(command.getTimestamp());
-            reversePong.setToken(command.getToken());
+            // Answer with the request itself, it already carries the timestamp and token to echo
+            command.setRequest(false);
 
             LOGGER.debug("Sending a REVERSE PONG");
-            send(reversePong);
+            send(command);
 
         } else {
 
-            LOGGER.debug("Received a PONG");
-            pingEvent.notifyObservers(this, PingEvent.PONG_RECEIVED);
-        }
-
-        cancelPong();
-
-        if (doKeepalives) {
-            schedulePing(false);
-        }
-    }
-
-    private void cancelPing() {
-
-        if (pingTimeoutFuture != null && !pingTimeoutFuture.isCancelled()) {
-
-            if (pingTimeoutFuture != null) {
-
-                LOGGER.debug("Resetting scheduled PING");
-                pingEvent.notifyObservers(this, PingEvent.PING_CANCELLED);
-
-                pingTimeoutFuture.cancel(false);
-            }
-        }
-    }
-
-    private void cancelPong() {
-
-        if (pongTimeoutFuture != null && !pongTimeoutFuture.isCancelled()) {
-
-            LOGGER.debug("Resetting timeout PONG");
-
-            pingEvent.notifyObservers(this, PingEvent.PONG_CANCELLED);
-            pongTimeoutFuture.cancel(false);
+            keepaliveMonitor.pongReceived();
         }
     }
 
@@ -0,0 +1,106 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Netty {@code TimerTask}s on a {@code ScheduledExecutorService}, such as the timer of the
+ * {@code ExecutionResources}, so that the timeouts of the signal connections need no thread of their own.
+ * <p/>
+ * The executor belongs to whoever gave it, stopping this timer does not shut it down.
+ */
+class ScheduledExecutorTimer implements Timer {
+
+    private static final Logger LOGGER = Logger.getLogger(ScheduledExecutorTimer.class);
+
+    private final ScheduledExecutorService executor;
+
+    ScheduledExecutorTimer(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+
+        ScheduledTimeout timeout = new ScheduledTimeout(task);
+        timeout.future = executor.schedule(timeout, delay, unit);
+
+        return timeout;
+    }
+
+    @Override
+    public Set<Timeout> stop() {
+        return Collections.emptySet();
+    }
+
+    private class ScheduledTimeout implements Timeout, Runnable {
+
+        private final TimerTask task;
+
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean expired;
+        private volatile boolean cancelled;
+
+        ScheduledTimeout(TimerTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+
+            if (cancelled) {
+                return;
+            }
+
+            expired = true;
+
+            try {
+                task.run(this);
+            } catch (Throwable t) {
+                LOGGER.warn("A timer task threw", t);
+            }
+        }
+
+        @Override
+        public Timer getTimer() {
+            return ScheduledExecutorTimer.this;
+        }
+
+        @Override
+        public TimerTask getTask() {
+            return task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return expired;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void cancel() {
+
+            cancelled = true;
+
+            ScheduledFuture<?> scheduled = future;
+
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+    }
+
+}
@@ -1,16 +1,38 @@
 package com.zipwhip.api.signals.sockets.netty;
 
+import com.zipwhip.api.signals.commands.PingPongCommand;
 import com.zipwhip.api.signals.commands.SerializingCommand;
+import com.zipwhip.util.StringUtil;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
+/**
+ * Serializes each {@code SerializingCommand} for the wire.
+ * <p/>
+ * Keepalives skip serializing altogether. The short form PING is written from one preallocated CRLF buffer that
+ * every connection shares, nothing between here and the socket moves its reader index. A PONG is written straight
+ * into a buffer of exactly its size, with no {@code JSONObject} or {@code String} on the way.
+ */
 public final class SignalCommandEncoder extends OneToOneEncoder implements ChannelHandler {
 
+    private static final ChannelBuffer SHORTFORM = ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(new byte[] { 13, 10 }));
+
+    private static final byte[] PONG_START = ascii("{");
+    private static final byte[] PONG_TIMESTAMP = ascii("\"timestamp\":");
+    private static final byte[] PONG_TOKEN = ascii("\"token\":\"");
+    private static final byte[] PONG_END = ascii("\"action\":\"PONG\"}\r\n");
+
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
 
+        if (msg instanceof PingPongCommand) {
+            return encode((PingPongCommand) msg);
+        }
+
         if (msg instanceof SerializingCommand) {
             SerializingCommand cmd = (SerializingCommand) msg;
             return cmd.serialize();
@@ -19,4 +41,109 @@ public final class SignalCommandEncoder extends OneToOneEncoder implements Chann
         return null;
     }
 
-}
\ No newline at end of file
+    /**
+     * Encode a PING or PONG with its CRLF, the same bytes {@code StringToChannelBuffer} would write for
+     * {@code command.serialize()}.
+     *
+     * @param command The command to encode.
+     * @return A buffer holding the command. The short form buffer is shared and must not be read from, only written.
+     */
+    public static ChannelBuffer encode(PingPongCommand command) {
+
+        if (command.isShortForm()) {
+            return SHORTFORM;
+        }
+
+        String token = command.getToken();
+        boolean hasToken = StringUtil.exists(token);
+
+        if (hasToken && !isPlainAscii(token)) {
+            // Needs escaping, leave that to the JSON library
+            return StringToChannelBuffer.encode(command.serialize());
+        }
+
+        long timestamp = command.getTimestamp();
+
+        // Members in the order JSONObject writes them
+        int length = PONG_START.length + PONG_END.length;
+
+        if (timestamp > 0) {
+            length += PONG_TIMESTAMP.length + digits(timestamp) + 1;
+        }
+
+        if (hasToken) {
+            length += PONG_TOKEN.length + token.length() + 2;
+        }
+
+        byte[] bytes = new byte[length];
+        int index = put(bytes, 0, PONG_START);
+
+        if (timestamp > 0) {
+            index = put(bytes, index, PONG_TIMESTAMP);
+            int end = index + digits(timestamp);
+            long value = timestamp;
+            for (int i = end - 1; i >= index; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            index = end;
+            bytes[index++] = ',';
+        }
+
+        if (hasToken) {
+            index = put(bytes, index, PONG_TOKEN);
+            for (int i = 0; i < token.length(); i++) {
+                bytes[index++] = (byte) token.charAt(i);
+            }
+            bytes[index++] = '"';
+            bytes[index++] = ',';
+        }
+
+        put(bytes, index, PONG_END);
+
+        return ChannelBuffers.wrappedBuffer(bytes);
+    }
+
+    private static int put(byte[] target, int index, byte[] source) {
+        System.arraycopy(source, 0, target, index, source.length);
+        return index + source.length;
+    }
+
+    private static int digits(long value) {
+
+        int digits = 1;
+
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+
+        return digits;
+    }
+
+    private static boolean isPlainAscii(String text) {
+
+        for (int i = 0; i < text.length(); i++) {
+
+            char c = text.charAt(i);
+
+            if (c < 0x20 || c >= 0x7F || c == '"' || c == '\\' || c == '/') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static byte[] ascii(String text) {
+
+        byte[] bytes = new byte[text.length()];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+
+        return bytes;
+    }
+
+}
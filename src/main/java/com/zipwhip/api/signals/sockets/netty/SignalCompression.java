@@ -0,0 +1,73 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.jboss.netty.handler.codec.compression.ZlibEncoder;
+
+/**
+ * The deflate mode of the signal socket.
+ * <p/>
+ * A client that wants it sends {@code "compression":"deflate"} in its CONNECT. A server that accepts answers
+ * with the same member in its CONNECT reply. The reply itself is plain, everything the server sends after the
+ * CRLF that ends it is one zlib stream, flushed at the end of every write. Commands from the client stay plain,
+ * they are few and small. If the reply does not accept, nothing changes.
+ * <p/>
+ * Both ends prime the stream with {@link #DICTIONARY}, the field names and values that every message signal
+ * repeats, so even the first frame compresses well. The dictionary is part of the mode, changing it means a new mode.
+ * The stream is never reset, so each frame can also refer back to the ones before it.
+ */
+public final class SignalCompression {
+
+    /**
+     * The value of the {@code compression} member of CONNECT that asks for and accepts this mode.
+     */
+    public static final String DEFLATE = "deflate";
+
+    public static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * The most common strings come last, deflate finds the nearest match and nearer ones cost fewer bits.
+     */
+    private static final String DICTIONARY_TEXT =
+            "\"presence\":[{\"category\":\"Phone\",\"userAgent\":{\"makeModel\":\"\",\"build\":\"\",\"product\":{\"name\":\"\",\"version\":\"\",\"build\":\"\"}}," +
+            "\"address\":{\"clientId\":\"\"},\"presenceStatus\":\"ONLINE\",\"connected\":true,\"subscriptionId\":\"\",\"ip\":\"\"}]" +
+            "{\"action\":\"PONG\",\"timestamp\":,\"request\":false,\"token\":\"\"}" +
+            "\"lastContactFirstName\":\"\",\"lastContactLastName\":\"\",\"lastContactDeviceId\":,\"lastContactId\":," +
+            "\"lastContactMobileNumber\":\"\",\"lastMessageBody\":\"\",\"lastMessageDate\":\"\",\"lastNonDeletedMessageDate\":\"\"," +
+            "\"unreadCount\":0,\"deviceAddress\":\"device:/\",\"class\":\"com.zipwhip.website.data.dto.Conversation\"," +
+            "\"firstName\":\"\",\"lastName\":\"\",\"mobileNumber\":\"\",\"phoneKey\":\"\",\"thread\":\"\",\"fwd\":\"\",\"loc\":\"\"," +
+            "\"latlong\":\"\",\"UDH\":\"\",\"DCSId\":\"\",\"messageConsoleLog\":\"\",\"statusDesc\":\"\",\"subject\":\"\",\"cc\":\"\",\"bcc\":\"\"," +
+            "\"carbonedMessageId\":-1,\"deliveryReceipt\":null,\"dishedToOpenMarket\":null,\"transferedToCarrierReceipt\":null," +
+            "\"scheduledDate\":null,\"expectDeliveryReceipt\":false,\"smartForwardingCandidate\":false,\"smartForwarded\":false," +
+            "\"isInFinalState\":false,\"errorState\":false,\"isParent\":false,\"isSelf\":false,\"isRead\":true,\"encoded\":true," +
+            "\"advertisement\":\"\\n\\nSent via T-Mobile Messaging\",\"carrier\":\"\",\"openMarketMessageId\":\"\",\"fingerprint\":\"\"," +
+            "\"transmissionState\":{\"name\":\"QUEUED\",\"enumType\":\"com.zipwhip.outgoing.TransmissionState\"}," +
+            "\"contactDeviceId\":,\"contactId\":,\"creatorId\":,\"deviceId\":,\"dtoParentId\":,\"parentId\":0,\"metaDataId\":," +
+            "\"sourceAddress\":\"\",\"destAddress\":\"\",\"address\":\"ptn:/\",\"statusCode\":1,\"visible\":true,\"deleted\":false,\"new\":false," +
+            "\"lastUpdated\":\"T:-07:00\",\"dateCreated\":\"T:-07:00\",\"class\":\"com.zipwhip.website.data.dto.Message\"," +
+            "\"body\":\"\",\"bodySize\":,\"to\":\"\",\"fromName\":\"\",\"type\":\"ZO\",\"version\":1,\"id\":,\"uuid\":\"\"}," +
+            "\"id\":\"\",\"scope\":\"device\",\"reason\":null,\"event\":\"send\",\"tag\":null,\"class\":\"com.zipwhip.signals.Signal\"," +
+            "\"uuid\":\"\",\"type\":\"message\",\"uri\":\"/signal/message/send\"},\"channel\":\"/device/\",\"version\":}" +
+            "{\"versionKey\":\"subscription__version_{class:ChannelAddress,channel:/device/}\",\"action\":\"SIGNAL\",\"signal\":{\"content\":{";
+
+    /**
+     * The preset dictionary both ends prime the stream with.
+     */
+    public static final byte[] DICTIONARY = StringToChannelBuffer.encode(DICTIONARY_TEXT).array();
+
+    private SignalCompression() {
+    }
+
+    /**
+     * @return A new stage that compresses everything written after it is added to a pipeline.
+     */
+    public static ZlibEncoder newEncoder() {
+        return new ZlibEncoder(DEFAULT_LEVEL, DICTIONARY);
+    }
+
+    /**
+     * @return A new stage that inflates a stream produced by {@link #newEncoder()}.
+     */
+    public static SignalInflater newDecoder() {
+        return new SignalInflater(DICTIONARY);
+    }
+
+}
@@ -0,0 +1,382 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.events.ObservableHelper;
+import com.zipwhip.lifecycle.DestroyableBase;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands events from the socket I/O threads to observers on a dispatch thread of its own, so that a slow
+ * observer can never stall reads or PONG handling.
+ * <p/>
+ * Events are published into a preallocated ring of slots and notified in the order they were published.
+ * Publishing is serialized so the ring has exactly one producer at a time. In practice that is the I/O thread,
+ * and it never contends with anyone. One dispatcher can be shared by many connections, each connection's events stay in order.
+ * <p/>
+ * How the dispatch thread waits for events is set by the {@link WaitStrategy}. What happens when the ring is
+ * full is set by the {@link OverflowPolicy}, which a publish can override for events that must not be lost.
+ * The dispatch thread is started on the first publish.
+ */
+public class SignalEventDispatcher extends DestroyableBase {
+
+    private static final Logger LOGGER = Logger.getLogger(SignalEventDispatcher.class);
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * How the dispatch thread waits when the ring is empty.
+     */
+    public enum WaitStrategy {
+        /**
+         * Park on a condition until an event is published, lowest CPU use and the default.
+         */
+        BLOCKING,
+        /**
+         * Spin briefly, then yield, then park for short intervals.
+         */
+        SLEEPING,
+        /**
+         * Spin and yield the processor, low latency at the cost of a busy core.
+         */
+        YIELDING,
+        /**
+         * Spin without yielding, lowest latency, dedicates a core to the dispatch thread.
+         */
+        BUSY_SPIN
+    }
+
+    /**
+     * What a publish does when the ring is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for the dispatch thread to make room, nothing is lost but the I/O thread stops reading meanwhile.
+         */
+        BLOCK,
+        /**
+         * Drop the event being published and count it, unless the publish overrides the policy.
+         */
+        DROP
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Object producerLock = new Object();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+
+    /**
+     * The sequence of the last published slot, written only by the producer.
+     */
+    private volatile long cursor = -1;
+
+    /**
+     * The sequence of the last dispatched slot, written only by the dispatch thread.
+     */
+    private volatile long dispatched = -1;
+
+    private volatile boolean consumerWaiting;
+    private volatile boolean running = true;
+
+    private volatile long dropped;
+    private volatile long totalLagNanos;
+    private volatile long maxLagNanos;
+
+    private Thread thread;
+
+    /**
+     * Create a new {@code SignalEventDispatcher} of {@link #DEFAULT_CAPACITY} that blocks on overflow.
+     */
+    public SignalEventDispatcher() {
+        this(DEFAULT_CAPACITY, WaitStrategy.BLOCKING, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Create a new {@code SignalEventDispatcher}.
+     *
+     * @param capacity The number of slots in the ring, rounded up to a power of two.
+     * @param waitStrategy How the dispatch thread waits for events.
+     * @param overflowPolicy What a publish does when the ring is full.
+     */
+    public SignalEventDispatcher(int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) {
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.overflowPolicy = overflowPolicy;
+
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Publish an event to be notified to the observers of {@code event} on the dispatch thread.
+     *
+     * @param event The observers to notify.
+     * @param sender The sender to notify them with.
+     * @param item The item to notify them with.
+     * @return False if the event was dropped because the ring was full or the dispatcher is destroyed.
+     */
+    public <T> boolean publish(ObservableHelper<T> event, Object sender, T item) {
+        return publish(event, sender, item, overflowPolicy);
+    }
+
+    /**
+     * Publish an event with an overflow policy of its own, such as {@link OverflowPolicy#BLOCK} for a connect or
+     * disconnect that must not be dropped however busy the ring is. It still waits its turn behind the events
+     * published before it.
+     *
+     * @param event The observers to notify.
+     * @param sender The sender to notify them with.
+     * @param item The item to notify them with.
+     * @param overflowPolicy What to do if the ring is full, in place of the policy of this dispatcher.
+     * @return False if the event was dropped because the ring was full or the dispatcher is destroyed.
+     */
+    public <T> boolean publish(ObservableHelper<T> event, Object sender, T item, OverflowPolicy overflowPolicy) {
+
+        boolean inline = false;
+
+        synchronized (producerLock) {
+
+            if (!running) {
+                return false;
+            }
+
+            if (thread == null) {
+                start();
+            }
+
+            long next = cursor + 1;
+
+            while (next - dispatched > slots.length && !inline) {
+
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    dropped++;
+                    LOGGER.warn("Dispatch ring is full, dropping " + item);
+                    return false;
+                }
+
+                if (!running) {
+                    return false;
+                }
+
+                if (Thread.currentThread() == thread) {
+                    // An observer is publishing, waiting for ourselves to make room would never end
+                    inline = true;
+                } else {
+                    LockSupport.parkNanos(100000);
+                }
+            }
+
+            if (!inline) {
+
+                Slot slot = slots[(int) (next & mask)];
+                slot.event = event;
+                slot.sender = sender;
+                slot.item = item;
+                slot.publishedNanos = System.nanoTime();
+
+                cursor = next;
+            }
+        }
+
+        if (inline) {
+            event.notifyObservers(sender, item);
+            return true;
+        }
+
+        if (consumerWaiting) {
+            lock.lock();
+            try {
+                published.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The number of events published but not yet dispatched.
+     */
+    public int getDepth() {
+        return (int) (cursor - dispatched);
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return The number of events published since this dispatcher was created.
+     */
+    public long getPublished() {
+        return cursor + 1;
+    }
+
+    /**
+     * @return The number of events dispatched since this dispatcher was created.
+     */
+    public long getDispatched() {
+        return dispatched + 1;
+    }
+
+    /**
+     * @return The number of events dropped because the ring was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The average time between an event being published and its observers being notified.
+     */
+    public long getAverageLagNanos() {
+        long count = dispatched + 1;
+        return count == 0 ? 0 : totalLagNanos / count;
+    }
+
+    /**
+     * @return The longest time between an event being published and its observers being notified.
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    private void start() {
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "SignalEventDispatcher-" + THREAD_NUMBER.incrementAndGet());
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch() {
+
+        long next = dispatched + 1;
+
+        while (running) {
+
+            long available = cursor;
+
+            if (available < next) {
+                await(next);
+                continue;
+            }
+
+            for (; next <= available; next++) {
+
+                Slot slot = slots[(int) (next & mask)];
+
+                ObservableHelper<Object> event = (ObservableHelper<Object>) slot.event;
+                Object sender = slot.sender;
+                Object item = slot.item;
+                long lag = System.nanoTime() - slot.publishedNanos;
+
+                slot.event = null;
+                slot.sender = null;
+                slot.item = null;
+
+                totalLagNanos += lag;
+                if (lag > maxLagNanos) {
+                    maxLagNanos = lag;
+                }
+
+                // Free the slot before notifying so a slow observer does not hold up the producer any longer than needed
+                dispatched = next;
+
+                try {
+                    event.notifyObservers(sender, item);
+                } catch (Throwable t) {
+                    LOGGER.error("An observer of " + item + " threw", t);
+                }
+            }
+        }
+    }
+
+    private void await(long sequence) {
+
+        switch (waitStrategy) {
+
+            case BUSY_SPIN:
+                break;
+
+            case YIELDING:
+                Thread.yield();
+                break;
+
+            case SLEEPING:
+                for (int i = 0; i < 100 && cursor < sequence; i++) {
+                    Thread.yield();
+                }
+                if (cursor < sequence) {
+                    LockSupport.parkNanos(50000);
+                }
+                break;
+
+            default:
+                lock.lock();
+                try {
+                    consumerWaiting = true;
+                    while (running && cursor < sequence) {
+                        published.await();
+                    }
+                } catch (InterruptedException e) {
+                    // Destroyed, the loop will exit
+                } finally {
+                    consumerWaiting = false;
+                    lock.unlock();
+                }
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+
+        running = false;
+
+        synchronized (producerLock) {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private static final class Slot {
+        private ObservableHelper<?> event;
+        private Object sender;
+        private Object item;
+        private long publishedNanos;
+    }
+
+}
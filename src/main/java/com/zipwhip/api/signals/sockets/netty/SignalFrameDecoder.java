@@ -0,0 +1,372 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.util.StringUtil;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Splits the inbound stream on CRLF and decodes each frame into a {@code String} in a single pass.
+ * <p/>
+ * The frame is decoded straight out of the receive buffer without copying it into a frame buffer first.
+ * Frames that are pure ASCII, which is nearly all signal traffic, are widened byte for byte. Anything else is decoded as UTF-8.
+ * The CRLF is not part of the decoded frame, so a short form PONG comes out as an empty {@code String}, or as whatever
+ * empty frame object the decoder was given. A bare CRLF is recognized from its two bytes before any searching, so
+ * a keepalive costs nothing to decode.
+ * <p/>
+ * Bytes that have already been searched for the delimiter are not searched again when the rest of a partial frame arrives.
+ * <p/>
+ * A frame that grows past the large frame threshold without a delimiter in sight is moved out of the receive buffer
+ * into a {@link LargeFrame}. From then on each read is appended to it as it arrives rather than accumulated in the
+ * receive buffer, which would be copied every time it had to grow. The finished frame is passed on as the
+ * {@code LargeFrame} itself, not a {@code String}, so it can be parsed without one contiguous copy of the text.
+ * No frame may be longer than {@code maxFrameLength}, the hard ceiling.
+ */
+public class SignalFrameDecoder extends FrameDecoder {
+
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    /**
+     * Frames up to this size are decoded into a {@code String}.
+     */
+    public static final int DEFAULT_LARGE_FRAME_THRESHOLD = 64 * 1024;
+
+    private final int maxFrameLength;
+    private final int largeFrameThreshold;
+    private final Statistics statistics;
+    private final Object emptyFrame;
+
+    /**
+     * The frame being accumulated once it has grown past the large frame threshold.
+     */
+    private LargeFrame largeFrame;
+
+    /**
+     * How many bytes past the reader index have been searched without finding a delimiter.
+     */
+    private int scanned;
+
+    /**
+     * True while skipping the remainder of a frame that was too long.
+     */
+    private boolean discarding;
+
+    /**
+     * True if the last byte discarded was a CR, so an LF at the start of the next read ends the frame.
+     */
+    private boolean discardedCR;
+
+    public SignalFrameDecoder(int maxFrameLength) {
+        this(maxFrameLength, DEFAULT_LARGE_FRAME_THRESHOLD, new Statistics());
+    }
+
+    /**
+     * Create a new {@code SignalFrameDecoder}.
+     *
+     * @param maxFrameLength The hard ceiling, a longer frame is discarded and fails with a {@code TooLongFrameException}.
+     * @param largeFrameThreshold The size past which a frame is accumulated as a {@link LargeFrame}.
+     * @param statistics Where to record the frame sizes, may be shared across channels.
+     */
+    public SignalFrameDecoder(int maxFrameLength, int largeFrameThreshold, Statistics statistics) {
+        this(maxFrameLength, largeFrameThreshold, statistics, StringUtil.EMPTY_STRING);
+    }
+
+    /**
+     * Create a new {@code SignalFrameDecoder} that passes on a given object for every empty frame.
+     *
+     * @param maxFrameLength The hard ceiling, a longer frame is discarded and fails with a {@code TooLongFrameException}.
+     * @param largeFrameThreshold The size past which a frame is accumulated as a {@link LargeFrame}.
+     * @param statistics Where to record the frame sizes, may be shared across channels.
+     * @param emptyFrame What to pass on for a bare CRLF, such as the short form PONG command itself.
+     */
+    public SignalFrameDecoder(int maxFrameLength, int largeFrameThreshold, Statistics statistics, Object emptyFrame) {
+        this.maxFrameLength = maxFrameLength;
+        this.largeFrameThreshold = largeFrameThreshold;
+        this.statistics = statistics;
+        this.emptyFrame = emptyFrame;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+
+        if (largeFrame != null) {
+            return decodeLargeFrame(ctx, buffer);
+        }
+
+        int start = buffer.readerIndex();
+        int end = buffer.writerIndex();
+
+        if (scanned == 0 && !discarding && end - start >= 2 && buffer.getByte(start) == CR && buffer.getByte(start + 1) == LF) {
+            buffer.readerIndex(start + 2);
+            statistics.record(0, false);
+            return emptyFrame;
+        }
+
+        int from = start + scanned;
+
+        while (true) {
+
+            int lf = buffer.indexOf(from, end, LF);
+
+            if (lf < 0) {
+
+                if (discarding) {
+                    discard(buffer);
+                    return null;
+                }
+
+                scanned = end - start;
+
+                if (scanned > maxFrameLength) {
+                    discarding = true;
+                    discard(buffer);
+                    fail(ctx, "frame length exceeds " + maxFrameLength);
+                }
+
+                if (scanned > largeFrameThreshold) {
+                    largeFrame = new LargeFrame();
+                    largeFrame.append(buffer, start, scanned);
+                    buffer.readerIndex(end);
+                    scanned = 0;
+                }
+
+                return null;
+            }
+
+            boolean delimiter = lf > start ? buffer.getByte(lf - 1) == CR : discarding && discardedCR;
+
+            if (!delimiter) {
+                // A bare LF is part of the frame
+                from = lf + 1;
+                continue;
+            }
+
+            int length = lf - 1 - start;
+
+            buffer.readerIndex(lf + 1);
+            scanned = 0;
+
+            if (discarding) {
+                discarding = false;
+                discardedCR = false;
+                start = lf + 1;
+                from = start;
+                continue;
+            }
+
+            if (length > maxFrameLength) {
+                fail(ctx, "frame length " + length + " exceeds " + maxFrameLength);
+            }
+
+            statistics.record(length, false);
+
+            return length == 0 ? emptyFrame : decodeFrame(buffer, start, length);
+        }
+    }
+
+    private Object decodeLargeFrame(ChannelHandlerContext ctx, ChannelBuffer buffer) throws Exception {
+
+        int start = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        int from = start;
+
+        while (true) {
+
+            int lf = buffer.indexOf(from, end, LF);
+
+            if (lf < 0) {
+
+                largeFrame.append(buffer, start, end - start);
+                buffer.readerIndex(end);
+
+                if (largeFrame.getByteLength() > maxFrameLength) {
+                    discardedCR = largeFrame.getLastByte() == CR;
+                    largeFrame = null;
+                    discarding = true;
+                    fail(ctx, "frame length exceeds " + maxFrameLength);
+                }
+
+                return null;
+            }
+
+            byte previous = lf > start ? buffer.getByte(lf - 1) : largeFrame.getLastByte();
+
+            if (previous != CR) {
+                // A bare LF is part of the frame
+                from = lf + 1;
+                continue;
+            }
+
+            largeFrame.append(buffer, start, lf - start);
+            largeFrame.truncate(1);
+            buffer.readerIndex(lf + 1);
+
+            LargeFrame frame = largeFrame;
+            largeFrame = null;
+
+            if (frame.getByteLength() > maxFrameLength) {
+                fail(ctx, "frame length " + frame.getByteLength() + " exceeds " + maxFrameLength);
+            }
+
+            statistics.record(frame.getByteLength(), true);
+
+            return frame.finish();
+        }
+    }
+
+    /**
+     * Decode {@code length} bytes of {@code buffer} starting at {@code index}.
+     *
+     * @param buffer The buffer holding the frame.
+     * @param index The absolute index of the first byte.
+     * @param length The number of bytes in the frame.
+     * @return The decoded frame.
+     */
+    public static String decodeFrame(ChannelBuffer buffer, int index, int length) {
+
+        if (length == 0) {
+            return StringUtil.EMPTY_STRING;
+        }
+
+        if (buffer.hasArray()) {
+            return decode(buffer.array(), buffer.arrayOffset() + index, length);
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.getBytes(index, bytes);
+
+        return decode(bytes, 0, length);
+    }
+
+    /**
+     * Decode UTF-8 bytes, widening them directly when they are all ASCII.
+     *
+     * @param bytes The bytes to decode.
+     * @param offset The index of the first byte.
+     * @param length The number of bytes.
+     * @return The decoded text.
+     */
+    @SuppressWarnings("deprecation")
+    public static String decode(byte[] bytes, int offset, int length) {
+
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] < 0) {
+                return new String(bytes, offset, length, UTF_8);
+            }
+        }
+
+        // Every byte is ASCII so the high byte of each char is zero, this skips the charset decoder entirely
+        return new String(bytes, 0, offset, length);
+    }
+
+    /**
+     * Skip everything readable, the whole of it is part of a frame that is too long.
+     * Nothing is left in the buffer because it is dropped when the frame fails.
+     */
+    private void discard(ChannelBuffer buffer) {
+
+        int end = buffer.writerIndex();
+
+        if (end > buffer.readerIndex()) {
+            discardedCR = buffer.getByte(end - 1) == CR;
+        }
+
+        buffer.readerIndex(end);
+        scanned = 0;
+    }
+
+    private void fail(ChannelHandlerContext ctx, String message) throws TooLongFrameException {
+        throw new TooLongFrameException(message + " on " + ctx.getChannel());
+    }
+
+    /**
+     * The distribution of decoded frame sizes, in power of two buckets.
+     */
+    public static class Statistics {
+
+        private final AtomicLongArray histogram = new AtomicLongArray(33);
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong largeFrames = new AtomicLong();
+        private final AtomicLong maxFrameSize = new AtomicLong();
+
+        void record(int size, boolean large) {
+
+            histogram.incrementAndGet(32 - Integer.numberOfLeadingZeros(size));
+            frames.incrementAndGet();
+            bytes.addAndGet(size);
+
+            if (large) {
+                largeFrames.incrementAndGet();
+            }
+
+            long max;
+            while ((max = maxFrameSize.get()) < size && !maxFrameSize.compareAndSet(max, size)) {
+                // Lost the race, try again
+            }
+        }
+
+        public long getFrames() {
+            return frames.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return The number of frames that were accumulated as a {@link LargeFrame}.
+         */
+        public long getLargeFrames() {
+            return largeFrames.get();
+        }
+
+        public long getMaxFrameSize() {
+            return maxFrameSize.get();
+        }
+
+        /**
+         * @return The frame counts by size, bucket 0 holds empty frames and bucket {@code n} frames of
+         *         at least 2<sup>n-1</sup> and less than 2<sup>n</sup> bytes.
+         */
+        public long[] getHistogram() {
+
+            long[] counts = new long[histogram.length()];
+
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram.get(i);
+            }
+
+            return counts;
+        }
+
+        @Override
+        public String toString() {
+
+            StringBuilder builder = new StringBuilder();
+            builder.append(frames.get()).append(" frames, ").append(largeFrames.get()).append(" large, max ").append(maxFrameSize.get()).append(" bytes");
+
+            for (int i = 0; i < histogram.length(); i++) {
+                long count = histogram.get(i);
+                if (count > 0) {
+                    builder.append(", <").append(1L << i).append(": ").append(count);
+                }
+            }
+
+            return builder.toString();
+        }
+
+    }
+
+}
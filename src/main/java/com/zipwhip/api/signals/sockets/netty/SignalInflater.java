@@ -0,0 +1,96 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.compression.CompressionException;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates a zlib stream that was primed with a preset dictionary, see {@link SignalCompression}.
+ * <p/>
+ * Netty's own {@code ZlibDecoder} cannot be used here, in this version its dictionary constructor fails before
+ * it has seen a byte. This uses the JDK {@code Inflater}, which asks for the dictionary when the stream header
+ * names one.
+ * <p/>
+ * The output is inflated into one reused block and sent upstream a block at a time, the same way the OIO worker
+ * reads off the socket, so the next handler must copy what it keeps. The {@code SignalFrameDecoder} does.
+ */
+public class SignalInflater extends SimpleChannelUpstreamHandler {
+
+    private static final int BLOCK_SIZE = 1024 * 16;
+
+    private final byte[] dictionary;
+    private final Inflater inflater = new Inflater();
+
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final ChannelBuffer output = ChannelBuffers.wrappedBuffer(block);
+
+    private byte[] input = new byte[BLOCK_SIZE];
+
+    public SignalInflater(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+        if (!(e.getMessage() instanceof ChannelBuffer)) {
+            super.messageReceived(ctx, e);
+            return;
+        }
+
+        ChannelBuffer compressed = (ChannelBuffer) e.getMessage();
+        int length = compressed.readableBytes();
+
+        if (length == 0) {
+            return;
+        }
+
+        // The Inflater keeps a reference to its input until it is consumed, which is before this returns
+        if (compressed.hasArray()) {
+            inflater.setInput(compressed.array(), compressed.arrayOffset() + compressed.readerIndex(), length);
+        } else {
+            if (input.length < length) {
+                input = new byte[Math.max(length, input.length * 2)];
+            }
+            compressed.getBytes(compressed.readerIndex(), input, 0, length);
+            inflater.setInput(input, 0, length);
+        }
+
+        compressed.skipBytes(length);
+
+        try {
+            while (true) {
+
+                int n = inflater.inflate(block);
+
+                if (n > 0) {
+                    output.setIndex(0, n);
+                    Channels.fireMessageReceived(ctx, output, e.getRemoteAddress());
+                } else if (inflater.needsDictionary()) {
+                    inflater.setDictionary(dictionary);
+                } else {
+                    break;
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new CompressionException("The compressed stream is corrupt", ex);
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+
+        inflater.end();
+
+        super.channelClosed(ctx, e);
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.SignalMetrics;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+
+/**
+ * Reports the bytes read off and written to the socket to a {@code SignalMetrics}. It must sit at the head of the
+ * pipeline, in front of the inflater, so that it counts what was on the wire.
+ */
+public final class SignalMetricsHandler extends SimpleChannelHandler {
+
+    private final SignalMetrics metrics;
+
+    public SignalMetricsHandler(SignalMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+        if (e.getMessage() instanceof ChannelBuffer) {
+            metrics.bytesReceived(((ChannelBuffer) e.getMessage()).readableBytes());
+        }
+
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+        if (e.getMessage() instanceof ChannelBuffer) {
+            metrics.bytesSent(((ChannelBuffer) e.getMessage()).readableBytes());
+        }
+
+        super.writeRequested(ctx, e);
+    }
+
+}
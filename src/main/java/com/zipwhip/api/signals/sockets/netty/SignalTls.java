@@ -0,0 +1,369 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.handler.ssl.SslHandler;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts the signal socket inside TLS, and lets a connection resume the TLS session of an earlier one to the same
+ * host and port rather than go through a full handshake. A resumed handshake skips the certificate exchange and the
+ * key agreement, which is most of what a reconnect storm would otherwise spend its CPU on.
+ * <p/>
+ * The sessions are cached in the {@code SSLContext}, by host and port. A connection keeps its {@code SignalTls}
+ * across reconnects, so it resumes its own session. Share one across connections, see {@link #getInstance()}, so that
+ * any of them can resume a session another one negotiated.
+ * <p/>
+ * The SignalServer's certificate is checked against the trust store of the context and its host name is verified.
+ * On a JVM that can, the engine verifies the host name during the handshake. On one that predates that, see
+ * {@link #isEndpointIdentified()}, the connection checks it against the certificate once the handshake is done,
+ * see {@link #verifyHost(SSLSession, String)}.
+ */
+public class SignalTls {
+
+    private static final Logger LOGGER = Logger.getLogger(SignalTls.class);
+
+    /*
+     * SSLParameters.setEndpointIdentificationAlgorithm(String), looked up reflectively since this library is built
+     * for JVMs that predate it. Null if this JVM has none.
+     */
+    private static final Method SET_ENDPOINT_IDENTIFICATION = endpointIdentification();
+
+    private static final int SAN_DNS = 2;
+    private static final int SAN_IP = 7;
+
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 1000;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 60 * 60 * 24;
+
+    private static SignalTls instance;
+
+    private final SSLContext context;
+    private final Statistics statistics = new Statistics();
+
+    /**
+     * Create a {@code SignalTls} with a session cache of its own that trusts the JVM's default trust store.
+     *
+     * @throws GeneralSecurityException If the JVM has no TLS.
+     */
+    public SignalTls() throws GeneralSecurityException {
+
+        this(SSLContext.getInstance("TLS"));
+
+        context.init(null, null, null);
+
+        SSLSessionContext sessions = context.getClientSessionContext();
+        sessions.setSessionCacheSize(DEFAULT_SESSION_CACHE_SIZE);
+        sessions.setSessionTimeout(DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Create a {@code SignalTls} on a context of your own, for its trust store. Its client session context is the
+     * session cache, its size and timeout are left as they are.
+     *
+     * @param context An initialised {@code SSLContext}.
+     */
+    public SignalTls(SSLContext context) {
+
+        if (context == null) {
+            throw new IllegalArgumentException("The SSLContext is required");
+        }
+
+        this.context = context;
+    }
+
+    /**
+     * Get the JVM wide instance, whose session cache every connection that uses it shares.
+     *
+     * @return The shared {@code SignalTls}.
+     */
+    public static synchronized SignalTls getInstance() {
+
+        if (instance == null) {
+            try {
+                instance = new SignalTls();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("TLS is not available", e);
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Create the handler for a new connection. Its engine is created for the host and port so that it resumes a
+     * session cached for them, if there is one.
+     *
+     * @param host The host name of the SignalServer, its certificate must be for it.
+     * @param port The port of the SignalServer.
+     * @return A client {@code SslHandler}, its handshake not yet started.
+     */
+    public SslHandler newHandler(String host, int port) {
+
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+
+        if (SET_ENDPOINT_IDENTIFICATION != null) {
+
+            SSLParameters parameters = engine.getSSLParameters();
+
+            try {
+                SET_ENDPOINT_IDENTIFICATION.invoke(parameters, "HTTPS");
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not turn on host name verification", e);
+            }
+
+            engine.setSSLParameters(parameters);
+        }
+
+        return new SslHandler(engine);
+    }
+
+    /**
+     * @return True if the engine verifies the host name during the handshake, otherwise
+     * {@link #verifyHost(SSLSession, String)} must be called once it is done.
+     */
+    public static boolean isEndpointIdentified() {
+        return SET_ENDPOINT_IDENTIFICATION != null;
+    }
+
+    /**
+     * Check the host name against the certificate of a completed handshake, as the engine does itself on a JVM that
+     * can. The names in the certificate's subject alternative names are matched, a wildcard matching one label, or
+     * failing any its common name. An address is matched against the addresses in it.
+     *
+     * @param session The session of the completed handshake.
+     * @param host The host name or address that was connected to.
+     * @throws SSLPeerUnverifiedException If the certificate is not for the host.
+     */
+    public static void verifyHost(SSLSession session, String host) throws SSLPeerUnverifiedException {
+
+        Certificate[] certificates = session.getPeerCertificates();
+
+        if (certificates.length == 0 || !(certificates[0] instanceof X509Certificate)) {
+            throw new SSLPeerUnverifiedException("The SignalServer did not present an X.509 certificate");
+        }
+
+        if (!matches((X509Certificate) certificates[0], host)) {
+            throw new SSLPeerUnverifiedException("The SignalServer's certificate is not for " + host);
+        }
+    }
+
+    static boolean matches(X509Certificate certificate, String host) {
+
+        boolean address = isAddress(host);
+        boolean named = false;
+
+        Collection<List<?>> alternatives;
+
+        try {
+            alternatives = certificate.getSubjectAlternativeNames();
+        } catch (CertificateParsingException e) {
+            LOGGER.warn("Could not parse the subject alternative names", e);
+            return false;
+        }
+
+        if (alternatives != null) {
+            for (List<?> alternative : alternatives) {
+
+                int type = (Integer) alternative.get(0);
+                String name = (String) alternative.get(1);
+
+                if (type == SAN_DNS) {
+                    named = true;
+                    if (!address && matchesName(name, host)) {
+                        return true;
+                    }
+                } else if (type == SAN_IP && address && sameAddress(name, host)) {
+                    return true;
+                }
+            }
+        }
+
+        if (address || named) {
+            return false;
+        }
+
+        String common = commonName(certificate);
+
+        return common != null && matchesName(common, host);
+    }
+
+    private static boolean matchesName(String pattern, String host) {
+
+        pattern = pattern.toLowerCase(Locale.US);
+        host = host.toLowerCase(Locale.US);
+
+        if (!pattern.startsWith("*.")) {
+            return pattern.equals(host);
+        }
+
+        // The wildcard stands for exactly one label, the leftmost
+        int dot = host.indexOf('.');
+
+        return dot > 0 && host.substring(dot).equals(pattern.substring(1));
+    }
+
+    private static boolean isAddress(String host) {
+        return host.indexOf(':') >= 0 || host.matches("[0-9]+(\\.[0-9]+){3}");
+    }
+
+    /*
+     * Both are literals, so neither is looked up
+     */
+    private static boolean sameAddress(String a, String b) {
+        try {
+            return InetAddress.getByName(a).equals(InetAddress.getByName(b));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static String commonName(X509Certificate certificate) {
+
+        try {
+            List<Rdn> rdns = new LdapName(certificate.getSubjectX500Principal().getName()).getRdns();
+
+            // The most specific is last
+            for (int i = rdns.size() - 1; i >= 0; i--) {
+                if ("CN".equalsIgnoreCase(rdns.get(i).getType())) {
+                    return rdns.get(i).getValue().toString();
+                }
+            }
+        } catch (InvalidNameException e) {
+            LOGGER.warn("Could not parse the subject of the certificate", e);
+        }
+
+        return null;
+    }
+
+    private static Method endpointIdentification() {
+        try {
+            return SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+        } catch (NoSuchMethodException e) {
+            LOGGER.debug("The engine cannot verify host names, the certificate is checked after the handshake");
+            return null;
+        }
+    }
+
+    /**
+     * Record a handshake that completed.
+     *
+     * @param session The session it negotiated or resumed.
+     * @param started When the handshake started, in milliseconds.
+     * @return True if the session was resumed, it was created before the handshake started.
+     */
+    public boolean handshaken(SSLSession session, long started) {
+
+        boolean resumed = session.getCreationTime() < started;
+
+        if (resumed) {
+            statistics.resumed.incrementAndGet();
+        } else {
+            statistics.full.incrementAndGet();
+        }
+
+        return resumed;
+    }
+
+    /**
+     * Record a handshake that failed.
+     */
+    public void failed() {
+        statistics.failed.incrementAndGet();
+    }
+
+    public SSLContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return The handshakes of every connection using this {@code SignalTls}.
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Name the host a connection went to without a reverse lookup. If it was connected to by name that name is
+     * kept in the address, otherwise the address is the host.
+     *
+     * @param address The remote address of the connection.
+     * @return The host name, or the address as text.
+     */
+    public static String host(InetSocketAddress address) {
+
+        if (address.getAddress() == null) {
+            return address.getHostName();
+        }
+
+        // The text is "name/address", name being empty if the address was not looked up by one
+        String text = address.getAddress().toString();
+        int slash = text.indexOf('/');
+
+        return slash > 0 ? text.substring(0, slash) : address.getAddress().getHostAddress();
+    }
+
+    /**
+     * Counts the full handshakes, the resumed ones and those that failed.
+     */
+    public static class Statistics {
+
+        private final AtomicLong full = new AtomicLong();
+        private final AtomicLong resumed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        /**
+         * @return The handshakes that negotiated a new session.
+         */
+        public long getFull() {
+            return full.get();
+        }
+
+        /**
+         * @return The handshakes that resumed a cached session.
+         */
+        public long getResumed() {
+            return resumed.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return The fraction of the completed handshakes that were resumed.
+         */
+        public double getResumeRate() {
+            long resumed = this.resumed.get();
+            long completed = resumed + full.get();
+            return completed == 0 ? 0 : (double) resumed / completed;
+        }
+
+        @Override
+        public String toString() {
+            return full.get() + " full, " + resumed.get() + " resumed, " + failed.get() + " failed";
+        }
+
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+
+/**
+ * Runs the {@code onSocketActivity} callback every time bytes are read off the socket.
+ * <p/>
+ * The patched OIO worker does this itself, this handler does the same job for transports
+ * that do not know about {@code onSocketActivity} such as NIO. It must sit at the head of the pipeline.
+ */
+public final class SocketActivityHandler extends SimpleChannelUpstreamHandler {
+
+    private final Runnable onSocketActivity;
+
+    public SocketActivityHandler(Runnable onSocketActivity) {
+        this.onSocketActivity = onSocketActivity;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+        if (onSocketActivity != null) {
+            onSocketActivity.run();
+        }
+
+        super.messageReceived(ctx, e);
+    }
+
+}
@@ -1,14 +1,13 @@
 package com.zipwhip.api.signals.sockets.netty;
 
 import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
-import java.nio.charset.Charset;
-
 public final class StringToChannelBuffer extends OneToOneEncoder implements ChannelHandler {
 
     private static Logger logger = Logger.getLogger(StringToChannelBuffer.class);
@@ -22,11 +21,40 @@ public final class StringToChannelBuffer extends OneToOneEncoder implements Chan
             return msg;
         }
 
-        msg = msg + CRLF;
+        if (logger.isDebugEnabled()) {
+            logger.debug("StringToChannelBuffer.encode: " + msg);
+        }
+
+        return encode((String) msg);
+    }
+
+    /**
+     * Encode a frame as UTF-8 with the CRLF appended, in a single buffer.
+     * Frames that are pure ASCII, which is nearly all of them, are narrowed char by char without a charset encoder.
+     *
+     * @param frame The frame without its CRLF.
+     * @return A buffer holding the frame and the CRLF.
+     */
+    public static ChannelBuffer encode(String frame) {
+
+        int length = frame.length();
+        byte[] bytes = new byte[length + 2];
+
+        for (int i = 0; i < length; i++) {
+
+            char c = frame.charAt(i);
+
+            if (c >= 0x80) {
+                return ChannelBuffers.wrappedBuffer(frame.concat(CRLF).getBytes(SignalFrameDecoder.UTF_8));
+            }
+
+            bytes[i] = (byte) c;
+        }
 
-        logger.debug("StringToChannelBuffer.encode: " + msg);
+        bytes[length] = 13;
+        bytes[length + 1] = 10;
 
-        return ChannelBuffers.copiedBuffer((String) msg, Charset.defaultCharset());
+        return ChannelBuffers.wrappedBuffer(bytes);
     }
 
 }
@@ -0,0 +1,171 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.SignalMetrics;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.handler.ssl.SslHandler;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts TLS on the socket. An {@code SslHandler} for the host and port being connected to is added in front of
+ * this handler as the connect goes out, so that it can resume a session cached for them and so that nothing is ever
+ * written in the clear. Once the socket is connected the handshake starts, and until it is done the connect is held
+ * back from the rest of the pipeline and whatever is written is queued here. The {@code SslHandler} is not safe to
+ * write to while it is handshaking on another thread. If the handshake fails the socket is closed and the queued
+ * writes fail. So it does if the engine could not verify the host name, on a JVM that predates that, and the
+ * certificate turns out not to be for it.
+ * <p/>
+ * It must sit behind whatever counts the bytes on the wire and in front of the {@code CompressionHandshakeHandler}
+ * and the {@code SignalFrameDecoder}. A new one is needed for every connection.
+ */
+public class TlsHandshakeHandler extends SimpleChannelHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(TlsHandshakeHandler.class);
+
+    private final SignalTls tls;
+    private final SignalMetrics metrics;
+
+    private final List<MessageEvent> pending = new ArrayList<MessageEvent>();
+
+    private volatile SslHandler ssl;
+    private volatile String host;
+    private volatile boolean handshaken;
+    private volatile boolean resumed;
+
+    /**
+     * @param tls Creates the {@code SslHandler} and caches the sessions.
+     * @param metrics Where to report the handshake.
+     */
+    public TlsHandshakeHandler(SignalTls tls, SignalMetrics metrics) {
+        this.tls = tls;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void connectRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+
+        InetSocketAddress remote = (InetSocketAddress) e.getValue();
+
+        host = SignalTls.host(remote);
+        ssl = tls.newHandler(host, remote.getPort());
+
+        ctx.getPipeline().addBefore(ctx.getName(), "tls", ssl);
+
+        super.connectRequested(ctx, e);
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+        synchronized (pending) {
+            if (!handshaken) {
+                pending.add(e);
+                return;
+            }
+        }
+
+        super.writeRequested(ctx, e);
+    }
+
+    @Override
+    public void channelConnected(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+
+        final SslHandler ssl = this.ssl;
+
+        final long started = System.currentTimeMillis();
+        final long start = System.nanoTime();
+
+        ssl.handshake().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+
+                Throwable cause = future.getCause();
+                SSLSession session = ssl.getEngine().getSession();
+
+                if (future.isSuccess() && !SignalTls.isEndpointIdentified()) {
+                    try {
+                        SignalTls.verifyHost(session, host);
+                    } catch (SSLPeerUnverifiedException ex) {
+                        cause = ex;
+                    }
+                }
+
+                if (cause != null) {
+
+                    LOGGER.warn("The TLS handshake failed, closing the connection", cause);
+
+                    tls.failed();
+                    fail(cause);
+                    future.getChannel().close();
+
+                    return;
+                }
+
+                long nanos = System.nanoTime() - start;
+
+                resumed = tls.handshaken(session, started);
+
+                LOGGER.debug((resumed ? "Resumed" : "Negotiated") + " a TLS session in " + nanos / 1000 + "us");
+
+                metrics.tlsHandshake(resumed, nanos);
+
+                flush(ctx);
+
+                ctx.sendUpstream(e);
+            }
+        });
+    }
+
+    /**
+     * @return True once the handshake is done.
+     */
+    public boolean isHandshaken() {
+        return handshaken;
+    }
+
+    /**
+     * @return True if the handshake resumed a cached session.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /*
+     * A write that comes in while this runs waits for it, so it cannot overtake the ones queued before it
+     */
+    private void flush(ChannelHandlerContext ctx) {
+
+        synchronized (pending) {
+
+            for (MessageEvent event : pending) {
+                ctx.sendDownstream(event);
+            }
+
+            pending.clear();
+            handshaken = true;
+        }
+    }
+
+    private void fail(Throwable cause) {
+
+        synchronized (pending) {
+
+            for (MessageEvent event : pending) {
+                event.getFuture().setFailure(cause);
+            }
+
+            pending.clear();
+        }
+    }
+
+}
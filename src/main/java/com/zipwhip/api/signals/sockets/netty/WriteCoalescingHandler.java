@@ -0,0 +1,261 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues outbound {@code ChannelBuffer}s and writes whatever is pending as one composite buffer per flush,
+ * so a burst of commands costs one write to the socket instead of one per command.
+ * <p/>
+ * With a flush window of 0 nothing is delayed: the first writer flushes right away and anything that is
+ * written while that flush is in progress goes out together in the next one. With a window greater than 0
+ * a write waits up to that many milliseconds for others to join it. Either way a flush starts as soon as
+ * {@code maxFlushBytes} are pending and no composite grows past that size unless a single buffer is larger.
+ * <p/>
+ * Every original write future completes when the composite it went out in does. Closing or disconnecting
+ * the channel flushes first, so nothing that was sent before the close is lost.
+ * <p/>
+ * It only coalesces {@code ChannelBuffer}s, so it must sit behind the encoders, nearer the socket than they are, to
+ * see the encoded commands. It must also be in front of any handler that frames, compresses or encrypts the bytes,
+ * such as the deflater and the {@code SslHandler}, so that those see one composite per flush rather than one small
+ * buffer per command.
+ */
+public class WriteCoalescingHandler extends SimpleChannelDownstreamHandler {
+
+    private final long flushWindowMillis;
+    private final int maxFlushBytes;
+    private final Statistics statistics;
+    private final ScheduledExecutorService scheduler;
+
+    private final List<MessageEvent> pending = new ArrayList<MessageEvent>();
+    private int pendingBytes;
+    private boolean flushing;
+    private boolean flushScheduled;
+
+    /**
+     * Create a new {@code WriteCoalescingHandler}.
+     *
+     * @param flushWindowMillis How long a write may wait for others to join it, 0 to never wait.
+     * @param maxFlushBytes The size a flush is started at and that a composite is capped to.
+     * @param statistics Where to count the writes and flushes, may be shared across channels.
+     */
+    public WriteCoalescingHandler(long flushWindowMillis, int maxFlushBytes, Statistics statistics) {
+        this(flushWindowMillis, maxFlushBytes, statistics, null);
+    }
+
+    /**
+     * Create a new {@code WriteCoalescingHandler} whose delayed flushes run on the given scheduler.
+     *
+     * @param flushWindowMillis How long a write may wait for others to join it, 0 to never wait.
+     * @param maxFlushBytes The size a flush is started at and that a composite is capped to.
+     * @param statistics Where to count the writes and flushes, may be shared across channels.
+     * @param scheduler Runs the delayed flushes, or null to run them on a JVM wide thread. It is not shut down.
+     */
+    public WriteCoalescingHandler(long flushWindowMillis, int maxFlushBytes, Statistics statistics, ScheduledExecutorService scheduler) {
+        this.flushWindowMillis = flushWindowMillis;
+        this.maxFlushBytes = maxFlushBytes;
+        this.statistics = statistics;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void writeRequested(final ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+        if (!(e.getMessage() instanceof ChannelBuffer)) {
+            flush(ctx);
+            ctx.sendDownstream(e);
+            return;
+        }
+
+        boolean flushNow;
+
+        synchronized (this) {
+
+            pending.add(e);
+            pendingBytes += ((ChannelBuffer) e.getMessage()).readableBytes();
+
+            flushNow = flushWindowMillis <= 0 || pendingBytes >= maxFlushBytes;
+
+            if (!flushNow && !flushScheduled) {
+
+                flushScheduled = true;
+
+                (scheduler == null ? Flusher.SCHEDULER : scheduler).schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(ctx);
+                    }
+                }, flushWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (flushNow) {
+            flush(ctx);
+        }
+    }
+
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+
+        if (e instanceof ChannelStateEvent) {
+            flush(ctx);
+        }
+
+        super.handleDownstream(ctx, e);
+    }
+
+    /**
+     * Write everything that is pending. Only one thread flushes at a time, a caller that finds a flush
+     * in progress returns immediately and its writes are picked up by the thread that is flushing.
+     *
+     * @param ctx The context of this handler.
+     */
+    public void flush(ChannelHandlerContext ctx) {
+
+        while (true) {
+
+            List<MessageEvent> batch;
+
+            synchronized (this) {
+
+                flushScheduled = false;
+
+                if (flushing || pending.isEmpty()) {
+                    return;
+                }
+
+                flushing = true;
+
+                batch = new ArrayList<MessageEvent>(pending);
+                pending.clear();
+                pendingBytes = 0;
+            }
+
+            try {
+                write(ctx, batch);
+            } finally {
+                synchronized (this) {
+                    flushing = false;
+                }
+            }
+        }
+    }
+
+    private void write(ChannelHandlerContext ctx, List<MessageEvent> batch) {
+
+        int from = 0;
+        int bytes = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+
+            int size = ((ChannelBuffer) batch.get(i).getMessage()).readableBytes();
+
+            if (i > from && bytes + size > maxFlushBytes) {
+                writeComposite(ctx, batch.subList(from, i));
+                from = i;
+                bytes = 0;
+            }
+
+            bytes += size;
+        }
+
+        writeComposite(ctx, batch.subList(from, batch.size()));
+    }
+
+    private void writeComposite(ChannelHandlerContext ctx, final List<MessageEvent> events) {
+
+        statistics.record(events.size());
+
+        if (events.size() == 1) {
+            ctx.sendDownstream(events.get(0));
+            return;
+        }
+
+        ChannelBuffer[] buffers = new ChannelBuffer[events.size()];
+
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = (ChannelBuffer) events.get(i).getMessage();
+        }
+
+        ChannelFuture future = Channels.future(ctx.getChannel());
+
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                for (MessageEvent event : events) {
+                    if (future.isSuccess()) {
+                        event.getFuture().setSuccess();
+                    } else {
+                        event.getFuture().setFailure(future.getCause());
+                    }
+                }
+            }
+        });
+
+        Channels.write(ctx, future, ChannelBuffers.wrappedBuffer(buffers));
+    }
+
+    /**
+     * Counts the writes that were requested and the flushes they went out in.
+     */
+    public static class Statistics {
+
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong flushes = new AtomicLong();
+
+        void record(int count) {
+            messages.addAndGet(count);
+            flushes.incrementAndGet();
+        }
+
+        public long getMessages() {
+            return messages.get();
+        }
+
+        public long getFlushes() {
+            return flushes.get();
+        }
+
+        /**
+         * @return The average number of writes per flush, 1.0 means nothing was coalesced.
+         */
+        public double getCoalescingRatio() {
+            long count = flushes.get();
+            return count == 0 ? 1.0 : (double) messages.get() / count;
+        }
+
+    }
+
+    /**
+     * Only started once a flush window is in use.
+     */
+    private static class Flusher {
+
+        static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SignalWriteFlusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    }
+
+}
@@ -0,0 +1,474 @@
+package com.zipwhip.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A pull tokenizer for JSON text that does not build a tree.
+ * <p/>
+ * Call {@link #next()} to advance one token at a time, or {@link #skipValue()} to step over a whole value
+ * without materializing it. The positions of the current token are available so a caller can come back
+ * to a value later, or cut its raw text out of the input.
+ * <p/>
+ * Scalars come back exactly as {@code org.json} would hold them: quoted text as a {@code String}, anything else
+ * through {@link JSONObject#stringToValue(String)}. That makes the {@code opt*} conversions below behave the same
+ * as the ones on {@code JSONObject}. Separators are not validated, the input is expected to come from the SignalServer.
+ * <p/>
+ * The input can be any {@code CharSequence}, so text that is not held in a single {@code String} can be read in place.
+ */
+public class JsonPullParser {
+
+    public enum Token {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, NAME, VALUE, END_DOCUMENT
+    }
+
+    private static final String UNQUOTED_TERMINATORS = ",:]}/\\\"[{;=#";
+
+    private final CharSequence input;
+    private final int end;
+
+    private int position;
+    private int tokenStart;
+
+    /**
+     * One entry per open container, true for an object and false for an array.
+     */
+    private boolean[] containers = new boolean[16];
+    private int depth;
+
+    private boolean expectName;
+
+    private String name;
+    private Object value;
+
+    public JsonPullParser(CharSequence input) {
+        this(input, 0, input.length());
+    }
+
+    /**
+     * Tokenize the value that lies between {@code start} and {@code end} of {@code input}.
+     *
+     * @param input The JSON text.
+     * @param start The index of the first character to read.
+     * @param end The index after the last character to read.
+     */
+    public JsonPullParser(CharSequence input, int start, int end) {
+        this.input = input;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * Advance to the next token.
+     *
+     * @return The token that was read.
+     * @throws JSONException If the input is malformed.
+     */
+    public Token next() throws JSONException {
+
+        skipSeparators();
+
+        tokenStart = position;
+
+        if (position >= end) {
+            return Token.END_DOCUMENT;
+        }
+
+        char c = input.charAt(position);
+
+        switch (c) {
+            case '{':
+                position++;
+                push(true);
+                expectName = true;
+                return Token.START_OBJECT;
+            case '[':
+                position++;
+                push(false);
+                return Token.START_ARRAY;
+            case '}':
+                position++;
+                pop(true);
+                return Token.END_OBJECT;
+            case ']':
+                position++;
+                pop(false);
+                return Token.END_ARRAY;
+        }
+
+        if (depth > 0 && containers[depth - 1] && expectName) {
+            name = c == '"' || c == '\'' ? readString(c) : readUnquoted().toString();
+            expectName = false;
+            return Token.NAME;
+        }
+
+        value = c == '"' || c == '\'' ? readString(c) : readUnquoted();
+        afterValue();
+
+        return Token.VALUE;
+    }
+
+    /**
+     * Step over the next value, including everything nested inside it, without tokenizing it.
+     * Afterwards {@link #getTokenStart()} and {@link #getPosition()} delimit the raw text of the value.
+     *
+     * @throws JSONException If the input ends inside the value.
+     */
+    public void skipValue() throws JSONException {
+
+        skipSeparators();
+
+        tokenStart = position;
+
+        if (position >= end) {
+            throw syntaxError("Missing value");
+        }
+
+        char c = input.charAt(position);
+
+        if (c == '{' || c == '[') {
+
+            int nesting = 0;
+
+            while (position < end) {
+
+                c = input.charAt(position);
+
+                if (c == '"' || c == '\'') {
+                    skipString(c);
+                    continue;
+                }
+
+                position++;
+
+                if (c == '{' || c == '[') {
+                    nesting++;
+                } else if ((c == '}' || c == ']') && --nesting == 0) {
+                    afterValue();
+                    return;
+                }
+            }
+
+            throw syntaxError("Unterminated " + (input.charAt(tokenStart) == '{' ? "object" : "array"));
+        }
+
+        if (c == '"' || c == '\'') {
+            skipString(c);
+        } else {
+            readUnquoted();
+        }
+
+        afterValue();
+    }
+
+    /**
+     * Look at the first character of the next token without consuming it.
+     *
+     * @return The character, or 0 at the end of the input.
+     */
+    public char peek() {
+
+        skipSeparators();
+
+        return position < end ? input.charAt(position) : 0;
+    }
+
+    /**
+     * @return The name of the last {@link Token#NAME}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The value of the last {@link Token#VALUE}, {@code JSONObject.NULL} for a JSON null.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * @return The index in the input where the last token or skipped value started.
+     */
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * @return The index in the input just after the last token or skipped value.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public CharSequence getInput() {
+        return input;
+    }
+
+    /**
+     * Same as {@code JSONObject.optString}.
+     */
+    public static String optString(Object value, String defaultValue) {
+        return value != null ? value.toString() : defaultValue;
+    }
+
+    /**
+     * Same as {@code JSONObject.optLong}.
+     */
+    public static long optLong(Object value, long defaultValue) {
+        try {
+            return value instanceof Number ? ((Number) value).longValue() : (long) Double.valueOf((String) value).doubleValue();
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Same as {@code JSONObject.optInt}.
+     */
+    public static int optInt(Object value, int defaultValue) {
+        try {
+            return value instanceof Number ? ((Number) value).intValue() : (int) Double.valueOf((String) value).doubleValue();
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Same as {@code JSONObject.optBoolean}.
+     */
+    /**
+     * Cut the raw text of one member's value out of a JSON object, without parsing the rest of it.
+     *
+     * @param input The JSON text.
+     * @param start The index where the object starts.
+     * @param end The index after the end of the object.
+     * @param name The name of the member.
+     * @return The text of the value as it is in the input, or null if the object has no such member.
+     * @throws JSONException If the input is malformed.
+     */
+    public static String optMemberText(CharSequence input, int start, int end, String name) throws JSONException {
+
+        JsonPullParser parser = new JsonPullParser(input, start, end);
+
+        if (parser.next() != Token.START_OBJECT) {
+            return null;
+        }
+
+        while (parser.next() == Token.NAME) {
+
+            boolean found = name.equals(parser.getName());
+
+            parser.skipValue();
+
+            if (found) {
+                return input.subSequence(parser.getTokenStart(), parser.getPosition()).toString();
+            }
+        }
+
+        return null;
+    }
+
+    public static String optMemberText(CharSequence input, String name) throws JSONException {
+        return optMemberText(input, 0, input.length(), name);
+    }
+
+    public static boolean optBoolean(Object value, boolean defaultValue) {
+
+        if (Boolean.FALSE.equals(value) || (value instanceof String && "false".equalsIgnoreCase((String) value))) {
+            return false;
+        }
+
+        if (Boolean.TRUE.equals(value) || (value instanceof String && "true".equalsIgnoreCase((String) value))) {
+            return true;
+        }
+
+        return defaultValue;
+    }
+
+    private void skipSeparators() {
+
+        while (position < end) {
+
+            char c = input.charAt(position);
+
+            if (c == ',' || c == ':' || c <= ' ') {
+                position++;
+            } else if (c == '=' && position + 1 < end && input.charAt(position + 1) == '>') {
+                position += 2;
+            } else if (c == '=' || c == ';') {
+                position++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private String readString(char quote) throws JSONException {
+
+        int start = ++position;
+
+        // Fast path, no escapes means the text can be cut straight out of the input
+        while (position < end) {
+
+            char c = input.charAt(position);
+
+            if (c == quote) {
+                return input.subSequence(start, position++).toString();
+            }
+
+            if (c == '\\') {
+                break;
+            }
+
+            if (c == '\n' || c == '\r') {
+                throw syntaxError("Unterminated string");
+            }
+
+            position++;
+        }
+
+        StringBuilder builder = new StringBuilder(position - start + 16);
+        builder.append(input, start, position);
+
+        while (position < end) {
+
+            char c = input.charAt(position++);
+
+            if (c == quote) {
+                return builder.toString();
+            }
+
+            if (c == '\n' || c == '\r') {
+                throw syntaxError("Unterminated string");
+            }
+
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+
+            if (position >= end) {
+                break;
+            }
+
+            c = input.charAt(position++);
+
+            switch (c) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 'u':
+                    if (position + 4 > end) {
+                        throw syntaxError("Substring bounds error");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(input.subSequence(position, position + 4).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Illegal escape.");
+                    }
+                    position += 4;
+                    break;
+                case '"':
+                case '\'':
+                case '\\':
+                case '/':
+                    builder.append(c);
+                    break;
+                default:
+                    throw syntaxError("Illegal escape.");
+            }
+        }
+
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipString(char quote) throws JSONException {
+
+        position++;
+
+        while (position < end) {
+
+            char c = input.charAt(position++);
+
+            if (c == quote) {
+                return;
+            }
+
+            if (c == '\\') {
+                position++;
+            }
+        }
+
+        throw syntaxError("Unterminated string");
+    }
+
+    private Object readUnquoted() throws JSONException {
+
+        int start = position;
+
+        while (position < end) {
+
+            char c = input.charAt(position);
+
+            if (c < ' ' || UNQUOTED_TERMINATORS.indexOf(c) >= 0) {
+                break;
+            }
+
+            position++;
+        }
+
+        String text = input.subSequence(start, position).toString().trim();
+
+        if (text.length() == 0) {
+            throw syntaxError("Missing value");
+        }
+
+        return JSONObject.stringToValue(text);
+    }
+
+    private void push(boolean object) {
+
+        if (depth == containers.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(containers, 0, grown, 0, depth);
+            containers = grown;
+        }
+
+        containers[depth++] = object;
+    }
+
+    private void pop(boolean object) throws JSONException {
+
+        if (depth == 0 || containers[depth - 1] != object) {
+            throw syntaxError("Unexpected '" + input.charAt(tokenStart) + "'");
+        }
+
+        depth--;
+        afterValue();
+    }
+
+    private void afterValue() {
+        // Inside an object a value is always followed by the next name
+        if (depth > 0 && containers[depth - 1]) {
+            expectName = true;
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + position);
+    }
+
+}
@@ -24,6 +24,7 @@ import java.nio.channels.ClosedChannelException;
 import java.util.regex.Pattern;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 
@@ -39,6 +40,13 @@ import javax.security.auth.callback.Callback;
  */
 class OioWorker implements Runnable {
 
+    /**
+     * The size of the buffer each channel reads into. The same buffer is handed to the pipeline on every
+     * read, so a handler must consume or copy what it needs before {@code messageReceived} returns.
+     * {@code FrameDecoder} already copies any partial frame into its own cumulation.
+     */
+    static final int READ_BUFFER_SIZE = 16 * 1024;
+
     private static final Pattern SOCKET_CLOSED_MESSAGE = Pattern.compile(
             "^.*(?:Socket.*closed).*$", Pattern.CASE_INSENSITIVE);
 
@@ -53,6 +61,11 @@ class OioWorker implements Runnable {
         channel.workerThread = Thread.currentThread();
         final PushbackInputStream in = channel.getInputStream();
 
+        // One buffer for the life of the channel, handed upstream again on every read.
+        final byte[] buf = new byte[READ_BUFFER_SIZE];
+        final ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(
+                channel.getConfig().getBufferFactory().getDefaultOrder(), buf);
+
         while (channel.isOpen()) {
             synchronized (channel.interestOpsLock) {
                 while (!channel.isReadable()) {
@@ -68,20 +81,13 @@ class OioWorker implements Runnable {
                 }
             }
 
-            byte[] buf;
             int readBytes;
             try {
-                int bytesToRead = in.available();
-                if (bytesToRead > 0) {
-                    buf = new byte[bytesToRead];
-                    readBytes = in.read(buf);
-                } else {
-                    int b = in.read();
-                    if (b < 0) {
-                        break;
-                    }
-                    in.unread(b);
-                    continue;
+                // Blocks until at least one byte is available and then takes whatever else is there,
+                // one read per chunk instead of a blocking peek followed by a second read.
+                readBytes = in.read(buf, 0, buf.length);
+                if (readBytes < 0) {
+                    break;
                 }
             } catch (Throwable t) {
                 if (!channel.socket.isClosed()) {
@@ -90,14 +96,17 @@ class OioWorker implements Runnable {
                 break;
             }
 
+            if (readBytes == 0) {
+                continue;
+            }
+
             if(channel.getOnSocketActivity() != null) {
 
                 channel.getOnSocketActivity().run();
             }
 
-            fireMessageReceived(
-                    channel,
-                    channel.getConfig().getBufferFactory().getBuffer(buf, 0, readBytes));
+            buffer.setIndex(0, readBytes);
+            fireMessageReceived(channel, buffer);
         }
 
         // Setting the workerThread to null will prevent any channel
@@ -124,7 +133,14 @@ class OioWorker implements Runnable {
             ChannelBuffer a = (ChannelBuffer) message;
             int length = a.readableBytes();
             synchronized (out) {
-                a.getBytes(a.readerIndex(), out, length);
+                if (a.hasArray()) {
+                    a.getBytes(a.readerIndex(), out, length);
+                } else {
+                    // A composite would be written one component at a time, gather it so it is a single write
+                    byte[] gathered = new byte[length];
+                    a.getBytes(a.readerIndex(), gathered);
+                    out.write(gathered);
+                }
             }
             fireWriteComplete(channel, length);
             future.setSuccess();
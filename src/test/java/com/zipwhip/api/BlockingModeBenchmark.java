@@ -0,0 +1,175 @@
+package com.zipwhip.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.zipwhip.api.signals.SignalProvider;
+import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
+import com.zipwhip.api.signals.sockets.SocketSignalProvider;
+import com.zipwhip.api.signals.sockets.netty.NettySignalConnection;
+import com.zipwhip.api.signals.sockets.netty.StandInSignalServer;
+import com.zipwhip.concurrent.NetworkFuture;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput and the platform threads of the two {@link ExecutionResources.BlockingMode}s, for HTTP
+ * requests against a local server that takes 200ms to answer each, and for signal connects against a
+ * {@link StandInSignalServer}.
+ * <p/>
+ * POOLED runs the requests in the io pool, so they go through a few at a time. THREAD_PER_TASK starts a thread per
+ * request, a virtual one on a JVM that has them. On an older JVM the platform thread count shows the cost of that.
+ * <p/>
+ * This is not a unit test, run it by hand. The request count can be passed as an argument, the default is 1000.
+ */
+public class BlockingModeBenchmark {
+
+    private static final int SERVER_DELAY_MILLIS = 200;
+
+    public static void main(String[] args) throws Exception {
+
+        int count = args.length == 0 ? 1000 : Integer.parseInt(args[0]);
+
+        System.out.println("Virtual threads " + (ThreadPerTaskExecutor.isVirtualThreadsAvailable() ? "available" : "not available, THREAD_PER_TASK runs on platform threads"));
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) {
+                try {
+                    Thread.sleep(SERVER_DELAY_MILLIS);
+                    byte[] body = "{\"success\":true}".getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (Exception e) {
+                    exchange.close();
+                }
+            }
+        });
+        ExecutorService serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        String host = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        StandInSignalServer signalServer = new StandInSignalServer(false);
+
+        for (ExecutionResources.BlockingMode mode : ExecutionResources.BlockingMode.values()) {
+            http(mode, count, host);
+        }
+
+        for (ExecutionResources.BlockingMode mode : ExecutionResources.BlockingMode.values()) {
+            connects(mode, count / 10, signalServer.getPort());
+        }
+
+        signalServer.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private static void http(ExecutionResources.BlockingMode mode, int count, String host) throws Exception {
+
+        ExecutionResources resources = new ExecutionResources(mode);
+        HttpConnection connection = new HttpConnection(resources);
+        connection.setHost(host);
+        connection.setSessionKey("benchmark");
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        List<NetworkFuture<String>> futures = new ArrayList<NetworkFuture<String>>(count);
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            futures.add(connection.send("benchmark", new HashMap<String, Object>()));
+        }
+
+        int succeeded = 0;
+
+        for (NetworkFuture<String> future : futures) {
+            future.awaitUninterruptibly();
+            if (future.isSuccess()) {
+                succeeded++;
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+
+        System.out.println(String.format("HTTP     %-15s %6d requests: %6d succeeded in %6d ms, %8.1f/s, peak %5d platform threads (+%d)",
+                mode, count, succeeded, elapsed, count * 1000.0 / elapsed, threads.getPeakThreadCount(), threads.getPeakThreadCount() - threadsBefore));
+
+        connection.destroy();
+        resources.destroy();
+    }
+
+    private static void connects(ExecutionResources.BlockingMode mode, int count, int port) throws Exception {
+
+        ExecutionResources resources = new ExecutionResources(mode);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        List<SignalProvider> providers = new ArrayList<SignalProvider>(count);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(count);
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+
+            NettySignalConnection connection = new NettySignalConnection(new DefaultReconnectStrategy(), resources);
+            connection.setHost("127.0.0.1");
+            connection.setPort(port);
+            connection.stopKeepalives();
+
+            SignalProvider provider = new SocketSignalProvider(connection, resources);
+
+            providers.add(provider);
+            futures.add(provider.connect());
+        }
+
+        int connected = 0;
+
+        for (Future<Boolean> future : futures) {
+            try {
+                if (future.get(NettySignalConnection.CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    connected++;
+                }
+            } catch (Exception e) {
+                // counted as not connected
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+
+        System.out.println(String.format("CONNECT  %-15s %6d connects: %6d connected in %6d ms, %8.1f/s, peak %5d platform threads (+%d)",
+                mode, count, connected, elapsed, count * 1000.0 / elapsed, threads.getPeakThreadCount(), threads.getPeakThreadCount() - threadsBefore));
+
+        // The channels must be closed before the NIO event loop can be released
+        for (SignalProvider provider : providers) {
+            try {
+                provider.disconnect().get(NettySignalConnection.CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                // destroyed regardless
+            }
+            provider.destroy();
+        }
+
+        resources.destroy();
+    }
+
+}
@@ -0,0 +1,269 @@
+package com.zipwhip.api;
+
+import com.zipwhip.api.signals.SignalProvider;
+import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
+import com.zipwhip.api.signals.sockets.SocketSignalProvider;
+import com.zipwhip.api.signals.sockets.netty.NettySignalConnection;
+import com.zipwhip.api.signals.sockets.netty.StandInSignalServer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ExecutionResourcesTest {
+
+    private ExecutionResources resources;
+
+    @Before
+    public void setUp() throws Exception {
+        resources = new ExecutionResources(4, 2, 2, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resources.destroy();
+    }
+
+    @Test
+    public void testPoolsAreBoundedAndNamed() throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(2);
+        final StringBuffer names = new StringBuffer();
+
+        for (int i = 0; i < 10; i++) {
+            resources.getCpuExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    names.append(Thread.currentThread().getName()).append(' ');
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // destroyed
+                    }
+                }
+            });
+        }
+
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        ExecutionResources.Statistics statistics = resources.getCpuStatistics();
+
+        Assert.assertEquals(2, statistics.getThreads());
+        Assert.assertEquals(2, statistics.getActive());
+        Assert.assertEquals(8, statistics.getQueued());
+        Assert.assertEquals(5.0, statistics.getSaturation(), 0.001);
+        Assert.assertTrue(names.toString().startsWith("zipwhip-cpu-"));
+
+        release.countDown();
+    }
+
+    @Test
+    public void testComponentsCannotShutDownSharedPools() throws Exception {
+
+        resources.getIoExecutor().shutdownNow();
+        resources.getTimer().shutdown();
+
+        final CountDownLatch ran = new CountDownLatch(2);
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        };
+
+        resources.getIoExecutor().execute(task);
+        resources.getTimer().schedule(task, 10, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(resources.getIoExecutor().isShutdown());
+    }
+
+    @Test
+    public void testNingConnectionOnSharedPoolsCanBeDestroyed() throws Exception {
+
+        final NingHttpConnection connection = new NingHttpConnection(resources);
+
+        Thread destroy = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                connection.destroy();
+            }
+        });
+
+        destroy.setDaemon(true);
+        destroy.start();
+        destroy.join(5000);
+
+        Assert.assertFalse(destroy.isAlive());
+        Assert.assertFalse(resources.getNioExecutor().isShutdown());
+    }
+
+    @Test
+    public void testSignalProvidersRunOnTheSharedPools() throws Exception {
+
+        StandInSignalServer server = new StandInSignalServer(false);
+
+        SignalProvider first = provider(server);
+        SignalProvider second = provider(server);
+
+        try {
+            Assert.assertTrue(first.connect().get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(second.connect().get(5, TimeUnit.SECONDS));
+
+            // The pool is bounded however many connections there are
+            Assert.assertTrue(resources.getIoStatistics().getThreads() <= 4);
+            Assert.assertTrue(resources.getIoStatistics().getCompleted() > 0);
+
+        } finally {
+            first.disconnect().get(5, TimeUnit.SECONDS);
+            second.disconnect().get(5, TimeUnit.SECONDS);
+            first.destroy();
+            second.destroy();
+            server.close();
+        }
+
+        // The providers did not shut down what they share
+        Assert.assertFalse(resources.getIoExecutor().isShutdown());
+    }
+
+    @Test
+    public void testConnectStormLargerThanTheIoPool() throws Exception {
+
+        StandInSignalServer server = new StandInSignalServer(false);
+
+        // Each connect holds an io thread until its socket connects, twice as many as the pool has
+        List<SignalProvider> providers = new ArrayList<SignalProvider>();
+        List<Future<Boolean>> connects = new ArrayList<Future<Boolean>>();
+
+        try {
+            for (int i = 0; i < 8; i++) {
+                providers.add(provider(server));
+            }
+
+            for (SignalProvider provider : providers) {
+                connects.add(provider.connect());
+            }
+
+            // The NIO boss is not queued behind the connects waiting on it
+            for (Future<Boolean> connect : connects) {
+                Assert.assertTrue(connect.get(10, TimeUnit.SECONDS));
+            }
+
+            Assert.assertTrue(resources.getIoStatistics().getThreads() <= 4);
+            Assert.assertTrue(resources.getNioStatistics().getThreads() > 0);
+
+        } finally {
+            for (SignalProvider provider : providers) {
+                provider.disconnect().get(5, TimeUnit.SECONDS);
+                provider.destroy();
+            }
+            server.close();
+        }
+    }
+
+    @Test
+    public void testKeepalivesRunOnTheSharedTimer() throws Exception {
+
+        StandInSignalServer server = new StandInSignalServer(false);
+
+        NettySignalConnection connection = new NettySignalConnection(new DefaultReconnectStrategy(), resources);
+        connection.setHost("127.0.0.1");
+        connection.setPort(server.getPort());
+
+        try {
+            Assert.assertEquals(0, resources.getTimerStatistics().getQueued());
+
+            Assert.assertTrue(connection.connect().get(5, TimeUnit.SECONDS));
+
+            // The first PING is scheduled as soon as the socket is up
+            long deadline = System.currentTimeMillis() + 5000;
+            while (resources.getTimerStatistics().getQueued() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertEquals(1, resources.getTimerStatistics().getQueued());
+
+        } finally {
+            connection.disconnect().get(5, TimeUnit.SECONDS);
+            connection.destroy();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testDestroyShutsDownThePools() throws Exception {
+
+        NettySignalConnection connection = new NettySignalConnection(new DefaultReconnectStrategy(), resources);
+        connection.destroy();
+
+        Assert.assertFalse(resources.getIoExecutor().isShutdown());
+
+        resources.destroy();
+
+        Assert.assertTrue(resources.getIoExecutor().isShutdown());
+        Assert.assertTrue(resources.getTimer().isShutdown());
+    }
+
+    @Test
+    public void testThreadPerTaskRunsEveryBlockedTaskAtOnce() throws Exception {
+
+        ExecutionResources perTask = new ExecutionResources(4, 2, 2, 1, ExecutionResources.BlockingMode.THREAD_PER_TASK);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(20);
+
+        try {
+            // Far more than the io pool would run at once
+            for (int i = 0; i < 20; i++) {
+                perTask.getBlockingExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            // destroyed
+                        }
+                    }
+                });
+            }
+
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(20, perTask.getBlockingStatistics().getActive());
+            Assert.assertEquals(0, perTask.getBlockingStatistics().getQueued());
+            Assert.assertEquals(0, perTask.getIoStatistics().getThreads());
+
+            release.countDown();
+
+        } finally {
+            perTask.destroy();
+        }
+
+        Assert.assertTrue(perTask.getBlockingExecutor().isShutdown());
+    }
+
+    @Test
+    public void testPooledBlockingWorkRunsInTheIoPool() throws Exception {
+        Assert.assertSame(resources.getIoExecutor(), resources.getBlockingExecutor());
+    }
+
+    private SignalProvider provider(StandInSignalServer server) {
+
+        NettySignalConnection connection = new NettySignalConnection(new DefaultReconnectStrategy(), resources);
+        connection.setHost("127.0.0.1");
+        connection.setPort(server.getPort());
+        connection.stopKeepalives();
+
+        return new SocketSignalProvider(connection, resources);
+    }
+
+}
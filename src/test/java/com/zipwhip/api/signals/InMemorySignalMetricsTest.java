@@ -0,0 +1,142 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.ConnectCommand;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParserTest;
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.api.signals.sockets.SocketSignalProvider;
+import com.zipwhip.api.signals.sockets.netty.NettySignalConnection;
+import com.zipwhip.api.signals.sockets.netty.StandInSignalServer;
+import com.zipwhip.events.Observer;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class InMemorySignalMetricsTest {
+
+    @Test
+    public void testSnapshotIsACopy() throws Exception {
+
+        InMemorySignalMetrics metrics = new InMemorySignalMetrics();
+
+        metrics.bytesReceived(100);
+        metrics.frameReceived();
+        metrics.commandDecoded(SignalCommand.class, TimeUnit.MICROSECONDS.toNanos(10));
+
+        InMemorySignalMetrics.Snapshot snapshot = metrics.snapshot();
+
+        metrics.bytesReceived(100);
+        metrics.commandDecoded(SignalCommand.class, TimeUnit.MICROSECONDS.toNanos(10));
+
+        Assert.assertEquals(100, snapshot.getBytesReceived());
+        Assert.assertEquals(1, snapshot.getFramesReceived());
+        Assert.assertEquals(1, snapshot.getDecode().get("SignalCommand").getCount());
+        Assert.assertEquals(2, metrics.snapshot().getDecode().get("SignalCommand").getCount());
+    }
+
+    @Test
+    public void testPercentilesAreWithinABucket() throws Exception {
+
+        InMemorySignalMetrics metrics = new InMemorySignalMetrics();
+
+        for (int i = 0; i < 99; i++) {
+            metrics.pingRoundTrip(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        metrics.pingRoundTrip(TimeUnit.MILLISECONDS.toNanos(100));
+
+        InMemorySignalMetrics.Latency latency = metrics.snapshot().getPingRoundTrip();
+
+        Assert.assertEquals(100, latency.getCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), latency.getMaxNanos());
+
+        // 1000us falls in the bucket below 1024us
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(1024), latency.getPercentileNanos(50));
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(1024), latency.getPercentileNanos(99));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), latency.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testNoopIsNotEnabled() throws Exception {
+        Assert.assertFalse(NoopSignalMetrics.INSTANCE.isEnabled());
+        Assert.assertSame(NoopSignalMetrics.INSTANCE, new NettySignalConnection().getSignalMetrics());
+    }
+
+    @Test
+    public void testProviderReportsItsSession() throws Exception {
+
+        StandInSignalServer server = new StandInSignalServer(false);
+
+        NettySignalConnection connection = new NettySignalConnection();
+        connection.setHost("127.0.0.1");
+        connection.setPort(server.getPort());
+        connection.stopKeepalives();
+
+        SocketSignalProvider provider = new SocketSignalProvider(connection);
+
+        InMemorySignalMetrics metrics = new InMemorySignalMetrics();
+        provider.setSignalMetrics(metrics);
+
+        final CountDownLatch signalled = new CountDownLatch(1);
+
+        provider.onSignalReceived(new Observer<List<Signal>>() {
+            @Override
+            public void notify(Object sender, List<Signal> item) {
+                signalled.countDown();
+            }
+        });
+
+        try {
+            Assert.assertTrue(provider.connect().get(5, TimeUnit.SECONDS));
+
+            server.send(JsonSignalCommandParserTest.SIGNAL);
+            Assert.assertTrue(signalled.await(5, TimeUnit.SECONDS));
+
+            // PING, and PONG once the server has it
+            connection.keepalive();
+            awaitReceived(server, "");
+            server.send("");
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (metrics.snapshot().getPingRoundTrip().getCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            InMemorySignalMetrics.Snapshot snapshot = metrics.snapshot();
+
+            Assert.assertEquals(1, snapshot.getPingRoundTrip().getCount());
+            Assert.assertEquals(1, snapshot.getNegotiation().getCount());
+            Assert.assertTrue(snapshot.getNegotiation().getMaxNanos() > 0);
+
+            // CONNECT and PING out, the CONNECT reply, SIGNAL and PONG in
+            Assert.assertEquals(2, snapshot.getFramesSent());
+            Assert.assertEquals(3, snapshot.getFramesReceived());
+            Assert.assertEquals(server.getBytesWritten(), snapshot.getBytesReceived());
+            Assert.assertTrue(snapshot.getBytesSent() > 0);
+
+            Assert.assertEquals(1, snapshot.getDecode().get(ConnectCommand.class.getSimpleName()).getCount());
+            Assert.assertEquals(1, snapshot.getDecode().get(SignalCommand.class.getSimpleName()).getCount());
+            Assert.assertEquals(1, snapshot.getDispatch().get(SignalCommand.class.getSimpleName()).getCount());
+            Assert.assertEquals(0, snapshot.getReconnects());
+
+        } finally {
+            provider.disconnect().get(5, TimeUnit.SECONDS);
+            provider.destroy();
+            server.close();
+        }
+    }
+
+    private void awaitReceived(StandInSignalServer server, String frame) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (!server.getReceived().contains(frame) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertTrue(server.getReceived().contains(frame));
+    }
+
+}
@@ -62,4 +62,38 @@ public class JsonSignalParserTest {
 
     }
 
+    @Test
+    public void testLazyContentIsBuiltOnFirstAccess() throws Exception {
+
+        Signal eager = parser.parseSignal(new JSONObject(MESSAGE));
+
+        parser.setLazyContent(true);
+        Signal lazy = parser.parseSignal(new JSONObject(MESSAGE));
+
+        Assert.assertFalse(lazy.isContentMaterialized());
+        Assert.assertEquals(eager.getType(), lazy.getType());
+
+        Object content = lazy.getContent();
+
+        Assert.assertTrue(lazy.isContentMaterialized());
+        Assert.assertTrue(content instanceof Message);
+        Assert.assertEquals(((Message) eager.getContent()).getId(), ((Message) content).getId());
+        Assert.assertEquals(((Message) eager.getContent()).getBody(), ((Message) content).getBody());
+
+        // Built once
+        Assert.assertSame(content, lazy.getContent());
+    }
+
+    @Test
+    public void testSetContentReplacesLazyContent() throws Exception {
+
+        parser.setLazyContent(true);
+        Signal lazy = parser.parseSignal(new JSONObject(MESSAGE));
+
+        lazy.setContent("replaced");
+
+        Assert.assertTrue(lazy.isContentMaterialized());
+        Assert.assertEquals("replaced", lazy.getContent());
+    }
+
 }
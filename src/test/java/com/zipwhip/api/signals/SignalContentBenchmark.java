@@ -0,0 +1,59 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.JsonSignalCommandParserTest;
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.api.signals.commands.StreamingSignalCommandParser;
+
+/**
+ * Compares building the DTO of every signal as it is parsed with building it only when its content is asked for.
+ * Most signals are passed over on their type or uuid, only one in {@code READ_EVERY} has its content read.
+ * <p/>
+ * This is not a unit test, run it by hand. How often the content is read can be passed as the argument, the default
+ * is every 10th signal.
+ */
+public class SignalContentBenchmark {
+
+    private static final int SIGNALS = 100000;
+
+    public static void main(String[] args) throws Exception {
+
+        int readEvery = args.length == 0 ? 10 : Integer.parseInt(args[0]);
+
+        // Warm up both, then measure
+        run(false, readEvery);
+        run(true, readEvery);
+
+        long eager = run(false, readEvery);
+        long lazy = run(true, readEvery);
+
+        System.out.println("content read 1 in " + readEvery + ": eager " + eager / SIGNALS + "ns/signal, lazy " + lazy / SIGNALS + "ns/signal");
+    }
+
+    private static long run(boolean lazyContent, int readEvery) throws Exception {
+
+        StreamingSignalCommandParser parser = new StreamingSignalCommandParser();
+        parser.setLazySignalContent(lazyContent);
+
+        int read = 0;
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < SIGNALS; i++) {
+
+            Signal signal = ((SignalCommand) parser.parse(JsonSignalCommandParserTest.SIGNAL)).getSignal();
+
+            if (i % readEvery == 0 && signal.getContent() != null) {
+                read++;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        if (read != (SIGNALS + readEvery - 1) / readEvery) {
+            throw new IllegalStateException("Read " + read + " contents");
+        }
+
+        return elapsed;
+    }
+
+}
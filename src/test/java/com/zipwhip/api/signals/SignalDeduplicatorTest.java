@@ -0,0 +1,82 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.SignalCommand;
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class SignalDeduplicatorTest {
+
+    private static final String VERSION_KEY = "subscription__version_{class:ChannelAddress,channel:/device/5211ae17}";
+
+    @Test
+    public void testSameVersionIsADuplicate() throws Exception {
+
+        SignalDeduplicator deduplicator = new SignalDeduplicator();
+
+        Assert.assertFalse(deduplicator.isDuplicate(command("5211ae17", 25)));
+        Assert.assertTrue(deduplicator.isDuplicate(command("5211ae17", 25)));
+
+        // The uuid is the subscriber's, only the version tells signals apart
+        Assert.assertFalse(deduplicator.isDuplicate(command("5211ae17", 26)));
+
+        Assert.assertEquals(3, deduplicator.getStatistics().getChecked());
+        Assert.assertEquals(1, deduplicator.getStatistics().getDuplicates());
+        Assert.assertEquals(1.0 / 3, deduplicator.getStatistics().getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testUnversionedSignalsAreNotChecked() throws Exception {
+
+        SignalDeduplicator deduplicator = new SignalDeduplicator();
+
+        Assert.assertFalse(deduplicator.isDuplicate(command("5211ae17", -1)));
+        Assert.assertFalse(deduplicator.isDuplicate(command("5211ae17", -1)));
+        Assert.assertFalse(deduplicator.isDuplicate(command(null, 25)));
+        Assert.assertFalse(deduplicator.isDuplicate(command(null, 25)));
+
+        Assert.assertEquals(0, deduplicator.getStatistics().getChecked());
+        Assert.assertEquals(0, deduplicator.size());
+    }
+
+    @Test
+    public void testLeastRecentlySeenIsEvicted() throws Exception {
+
+        SignalDeduplicator deduplicator = new SignalDeduplicator(2, SignalDeduplicator.DEFAULT_MAX_AGE);
+
+        deduplicator.isDuplicate(command("5211ae17", 1));
+        deduplicator.isDuplicate(command("5211ae17", 2));
+
+        // Seeing 1 again makes 2 the least recently seen
+        Assert.assertTrue(deduplicator.isDuplicate(command("5211ae17", 1)));
+        deduplicator.isDuplicate(command("5211ae17", 3));
+
+        Assert.assertEquals(2, deduplicator.size());
+        Assert.assertEquals(1, deduplicator.getStatistics().getEvicted());
+        Assert.assertTrue(deduplicator.isDuplicate(command("5211ae17", 1)));
+        Assert.assertFalse(deduplicator.isDuplicate(command("5211ae17", 2)));
+    }
+
+    @Test
+    public void testOldSignalsExpire() throws Exception {
+
+        SignalDeduplicator deduplicator = new SignalDeduplicator(10, 50);
+
+        deduplicator.isDuplicate(command("5211ae17", 1));
+        Thread.sleep(100);
+
+        Assert.assertFalse(deduplicator.isDuplicate(command("5211ae17", 1)));
+        Assert.assertEquals(1, deduplicator.getStatistics().getExpired());
+    }
+
+    private static SignalCommand command(String uuid, long version) {
+
+        Signal signal = new Signal();
+        signal.setUuid(uuid);
+
+        SignalCommand command = new SignalCommand(signal);
+        command.setVersion(new VersionMapEntry(VERSION_KEY, version));
+
+        return command;
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.events.ObservableHelper;
+import com.zipwhip.events.Observer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares notifying every observer with every signal, each observer picking out the signals it wants, with
+ * routing the signals through a {@code SignalRouter} that notifies only the observers that want them. Each observer
+ * wants one device's messages, the way a vendor hosting many devices would subscribe.
+ * <p/>
+ * This is not a unit test, run it by hand. The observer counts can be passed as arguments, the default is 10, 100
+ * and 1000.
+ */
+public class SignalRouterBenchmark {
+
+    private static final int SIGNALS = 200000;
+
+    public static void main(String[] args) throws Exception {
+
+        int[] counts = args.length == 0 ? new int[]{10, 100, 1000} : new int[args.length];
+
+        for (int i = 0; i < args.length; i++) {
+            counts[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int count : counts) {
+
+            List<List<Signal>> signals = signals(count);
+
+            // Warm up both, then measure
+            broadcast(count, signals);
+            route(count, signals);
+
+            long broadcast = broadcast(count, signals);
+            long routed = route(count, signals);
+
+            System.out.println(count + " observers: broadcast " + broadcast / SIGNALS + "ns/signal, routed " + routed / SIGNALS + "ns/signal");
+        }
+    }
+
+    private static long broadcast(int count, List<List<Signal>> signals) {
+
+        ObservableHelper<List<Signal>> signalEvent = new ObservableHelper<List<Signal>>();
+        final AtomicLong matched = new AtomicLong();
+
+        for (int i = 0; i < count; i++) {
+
+            final String device = device(i);
+
+            signalEvent.addObserver(new Observer<List<Signal>>() {
+                @Override
+                public void notify(Object sender, List<Signal> item) {
+                    for (Signal signal : item) {
+                        if (SignalObserverAdapter.SignalType.toSignalType(signal.getType()) == SignalObserverAdapter.SignalType.MESSAGE
+                                && device.equals(signal.getUuid())) {
+                            matched.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+
+        for (List<Signal> list : signals) {
+            signalEvent.notifyObservers(null, list);
+        }
+
+        return check(System.nanoTime() - start, matched);
+    }
+
+    private static long route(int count, List<List<Signal>> signals) {
+
+        SignalRouter router = new SignalRouter();
+        final AtomicLong matched = new AtomicLong();
+
+        for (int i = 0; i < count; i++) {
+            router.subscribe(SignalFilter.any().address(device(i)).type("message"), new Observer<List<Signal>>() {
+                @Override
+                public void notify(Object sender, List<Signal> item) {
+                    matched.addAndGet(item.size());
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+
+        for (List<Signal> list : signals) {
+            router.notify(null, list);
+        }
+
+        return check(System.nanoTime() - start, matched);
+    }
+
+    private static long check(long elapsed, AtomicLong matched) {
+
+        if (matched.get() != SIGNALS / 2) {
+            throw new IllegalStateException("Matched " + matched.get() + " of " + SIGNALS / 2);
+        }
+
+        return elapsed;
+    }
+
+    /*
+     * Half messages, half conversation changes, spread over the devices, one signal per list as they arrive live.
+     */
+    private static List<List<Signal>> signals(int count) {
+
+        List<List<Signal>> signals = new ArrayList<List<Signal>>(SIGNALS);
+
+        for (int i = 0; i < SIGNALS; i++) {
+
+            Signal signal = new Signal();
+            signal.setType(i % 2 == 0 ? "message" : "conversation");
+            signal.setEvent(i % 2 == 0 ? "receive" : "change");
+            signal.setScope("device");
+            signal.setUri("/signal/" + signal.getType() + "/" + signal.getEvent());
+            signal.setUuid(device(i % count));
+
+            signals.add(Collections.singletonList(signal));
+        }
+
+        return signals;
+    }
+
+    private static String device(int i) {
+        return "device-" + i;
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.events.Observer;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SignalRouterTest {
+
+    private static final String DEVICE = "5211ae17-d07f-465a-9cb4-0982d3c91952";
+
+    private SignalRouter router;
+
+    private Signal received;
+    private Signal sent;
+    private Signal conversation;
+    private Signal other;
+
+    @Before
+    public void setUp() throws Exception {
+
+        router = new SignalRouter();
+
+        received = signal("message", "receive", "device", "/signal/message/receive", DEVICE);
+        sent = signal("message", "send", "device", "/signal/message/send", DEVICE);
+        conversation = signal("conversation", "change", "device", "/signal/conversation/change", DEVICE);
+        other = signal("contact", "change", "device", "/signal/contact/change", "elsewhere");
+    }
+
+    @Test
+    public void testEachObserverGetsOnlyWhatItMatched() throws Exception {
+
+        Recorder messages = subscribe(SignalFilter.any().type("MESSAGE"));
+        Recorder receives = subscribe(SignalFilter.any().type(SignalObserverAdapter.SignalType.MESSAGE).event("receive"));
+        Recorder conversations = subscribe(SignalFilter.any().uriPrefix("/signal/conversation/"));
+        Recorder device = subscribe(SignalFilter.any().address(DEVICE));
+        Recorder changes = subscribe(SignalFilter.any().event("change"));
+        Recorder everything = subscribe(SignalFilter.any());
+
+        router.notify(this, Arrays.asList(received, sent, conversation, other));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(received, sent)), messages.lists);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(received)), receives.lists);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(conversation)), conversations.lists);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(received, sent, conversation)), device.lists);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(conversation, other)), changes.lists);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(received, sent, conversation, other)), everything.lists);
+    }
+
+    @Test
+    public void testEveryPartOfTheFilterMustMatch() throws Exception {
+
+        Recorder recorder = subscribe(SignalFilter.any().address(DEVICE).uriPrefix("/signal/message/").scope("device").event("send"));
+        Recorder wrongScope = subscribe(SignalFilter.any().uriPrefix("/signal/").scope("account"));
+
+        router.notify(this, Arrays.asList(received, sent, conversation, other));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(sent)), recorder.lists);
+        Assert.assertTrue(wrongScope.lists.isEmpty());
+    }
+
+    @Test
+    public void testSignalMatchingSeveralFiltersIsDeliveredOnce() throws Exception {
+
+        Recorder recorder = new Recorder();
+
+        router.subscribe(SignalFilter.any().type("message"), recorder);
+        router.subscribe(SignalFilter.any().uriPrefix("/signal/"), recorder);
+
+        router.notify(this, Arrays.asList(received, conversation));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(received, conversation)), recorder.lists);
+        Assert.assertEquals(1, router.getStatistics().getDeliveries());
+    }
+
+    @Test
+    public void testUnsubscribe() throws Exception {
+
+        Recorder recorder = new Recorder();
+
+        router.subscribe(SignalFilter.any().type("message"), recorder);
+        router.subscribe(SignalFilter.any().event("change"), recorder);
+        Assert.assertEquals(2, router.size());
+
+        router.unsubscribe(recorder);
+        Assert.assertEquals(0, router.size());
+
+        router.notify(this, Arrays.asList(received, conversation));
+
+        Assert.assertTrue(recorder.lists.isEmpty());
+        Assert.assertEquals(2, router.getStatistics().getUnmatched());
+    }
+
+    @Test
+    public void testUnmatchedSignalNotifiesNoOne() throws Exception {
+
+        Recorder recorder = subscribe(SignalFilter.any().type("device"));
+
+        router.notify(this, Collections.singletonList(received));
+
+        Assert.assertTrue(recorder.lists.isEmpty());
+        Assert.assertEquals(0, router.getStatistics().getDeliveries());
+        Assert.assertEquals(1, router.getStatistics().getUnmatched());
+    }
+
+    @Test
+    public void testSignalTypeLookup() throws Exception {
+        Assert.assertEquals(SignalObserverAdapter.SignalType.MESSAGE, SignalObserverAdapter.SignalType.toSignalType("message"));
+        Assert.assertEquals(SignalObserverAdapter.SignalType.MESSAGE, SignalObserverAdapter.SignalType.toSignalType("Message"));
+        Assert.assertEquals(SignalObserverAdapter.SignalType.UNKNOWN, SignalObserverAdapter.SignalType.toSignalType("bogus"));
+        Assert.assertEquals(SignalObserverAdapter.SignalType.NOVALUE, SignalObserverAdapter.SignalType.toSignalType(""));
+    }
+
+    private Recorder subscribe(SignalFilter filter) {
+        Recorder recorder = new Recorder();
+        router.subscribe(filter, recorder);
+        return recorder;
+    }
+
+    private static Signal signal(String type, String event, String scope, String uri, String uuid) {
+
+        Signal signal = new Signal();
+        signal.setType(type);
+        signal.setEvent(event);
+        signal.setScope(scope);
+        signal.setUri(uri);
+        signal.setUuid(uuid);
+
+        return signal;
+    }
+
+    private static class Recorder implements Observer<List<Signal>> {
+
+        private final List<List<Signal>> lists = new ArrayList<List<Signal>>();
+
+        @Override
+        public void notify(Object sender, List<Signal> item) {
+            lists.add(item);
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.zipwhip.api.signals;
+
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.events.Observer;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class VersionSequencerTest {
+
+    private static final String KEY = "subscription__version_{class:ChannelAddress,channel:/device/5211ae17}";
+
+    private List<Long> released;
+    private List<VersionMapEntry> gaps;
+
+    @Before
+    public void setUp() throws Exception {
+        released = new CopyOnWriteArrayList<Long>();
+        gaps = new CopyOnWriteArrayList<VersionMapEntry>();
+    }
+
+    @Test
+    public void testInOrderIsReleasedRightAway() throws Exception {
+
+        VersionSequencer sequencer = sequencer(64, 5000);
+
+        sequencer.offer(command(40), 39L);
+        sequencer.offer(command(41), 39L);
+
+        Assert.assertEquals(Arrays.asList(40L, 41L), released);
+        Assert.assertEquals(0, sequencer.getStatistics().getGaps());
+    }
+
+    @Test
+    public void testEarlyArrivalIsHeldUntilTheGapFills() throws Exception {
+
+        VersionSequencer sequencer = sequencer(64, 5000);
+
+        sequencer.offer(command(41), 39L);
+        sequencer.offer(command(42), 39L);
+
+        Assert.assertTrue(released.isEmpty());
+        Assert.assertEquals(2, sequencer.getHeld());
+
+        sequencer.offer(command(40), 39L);
+
+        Assert.assertEquals(Arrays.asList(40L, 41L, 42L), released);
+        Assert.assertEquals(0, sequencer.getHeld());
+        Assert.assertEquals(1, sequencer.getStatistics().getGaps());
+        Assert.assertEquals(2, sequencer.getStatistics().getReordered());
+        Assert.assertTrue(gaps.isEmpty());
+    }
+
+    @Test
+    public void testCommittedElsewhereFillsTheGap() throws Exception {
+
+        VersionSequencer sequencer = sequencer(64, 5000);
+
+        sequencer.offer(command(41), 39L);
+        sequencer.offer(command(43), 39L);
+
+        // A backlog delivers 40 and 41
+        sequencer.committed(new VersionMapEntry(KEY, 40L));
+        sequencer.committed(new VersionMapEntry(KEY, 41L));
+        sequencer.drain();
+
+        Assert.assertTrue(released.isEmpty());
+        Assert.assertEquals(1, sequencer.getHeld());
+
+        sequencer.offer(command(42), 39L);
+
+        Assert.assertEquals(Arrays.asList(42L, 43L), released);
+        Assert.assertEquals(1, sequencer.getStatistics().getStale());
+    }
+
+    @Test
+    public void testOpenGapIsAnnouncedThenGivenUp() throws Exception {
+
+        VersionSequencer sequencer = sequencer(64, 5000);
+
+        sequencer.offer(command(41), 39L);
+
+        long now = System.currentTimeMillis();
+
+        sequencer.expire(now + 5000);
+
+        Assert.assertEquals(1, gaps.size());
+        Assert.assertEquals(KEY, gaps.get(0).getKey());
+        Assert.assertEquals(Long.valueOf(39), gaps.get(0).getValue());
+        Assert.assertTrue(released.isEmpty());
+
+        sequencer.expire(now + 10000);
+
+        Assert.assertEquals(Arrays.asList(41L), released);
+        Assert.assertEquals(1, gaps.size());
+        Assert.assertEquals(1, sequencer.getStatistics().getResyncs());
+        Assert.assertEquals(1, sequencer.getStatistics().getSkipped());
+
+        // Carries on from where it gave up
+        sequencer.offer(command(42), 39L);
+        Assert.assertEquals(Arrays.asList(41L, 42L), released);
+    }
+
+    @Test
+    public void testTooManyHeldGivesUpAtOnce() throws Exception {
+
+        VersionSequencer sequencer = sequencer(2, 5000);
+
+        sequencer.offer(command(42), 39L);
+        sequencer.offer(command(41), 39L);
+        sequencer.offer(command(43), 39L);
+
+        Assert.assertEquals(Arrays.asList(41L, 42L, 43L), released);
+        Assert.assertEquals(1, gaps.size());
+        Assert.assertEquals(Long.valueOf(39), gaps.get(0).getValue());
+        Assert.assertEquals(1, sequencer.getStatistics().getSkipped());
+    }
+
+    @Test
+    public void testGapExpiresOnItsOwn() throws Exception {
+
+        VersionSequencer sequencer = sequencer(64, 50);
+
+        sequencer.offer(command(41), 39L);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (released.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(1, gaps.size());
+        Assert.assertEquals(Arrays.asList(41L), released);
+    }
+
+    @Test
+    public void testStaleAndUnversionedPassThrough() throws Exception {
+
+        VersionSequencer sequencer = sequencer(64, 5000);
+
+        sequencer.offer(command(39), 39L);
+
+        SignalCommand unversioned = new SignalCommand(new Signal());
+        final List<SignalCommand> all = new ArrayList<SignalCommand>();
+
+        sequencer.onRelease(new Observer<SignalCommand>() {
+            @Override
+            public void notify(Object sender, SignalCommand item) {
+                all.add(item);
+            }
+        });
+
+        sequencer.offer(unversioned, null);
+
+        Assert.assertEquals(Arrays.asList(39L), released);
+        Assert.assertSame(unversioned, all.get(0));
+        Assert.assertEquals(1, sequencer.getStatistics().getStale());
+    }
+
+    private VersionSequencer sequencer(int maxHeld, long maxWaitMillis) {
+
+        VersionSequencer sequencer = new VersionSequencer(maxHeld, maxWaitMillis);
+
+        sequencer.onRelease(new Observer<SignalCommand>() {
+            @Override
+            public void notify(Object sender, SignalCommand item) {
+                if (item.getVersion() != null) {
+                    released.add(item.getVersion().getValue());
+                }
+            }
+        });
+
+        sequencer.onGap(new Observer<VersionMapEntry>() {
+            @Override
+            public void notify(Object sender, VersionMapEntry item) {
+                gaps.add(item);
+            }
+        });
+
+        return sequencer;
+    }
+
+    private static SignalCommand command(long version) {
+
+        SignalCommand command = new SignalCommand(new Signal());
+        command.setVersion(new VersionMapEntry(KEY, version));
+
+        return command;
+    }
+
+}
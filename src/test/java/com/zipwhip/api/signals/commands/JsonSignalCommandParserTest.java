@@ -1,5 +1,6 @@
 package com.zipwhip.api.signals.commands;
 
+import com.zipwhip.api.signals.JsonSignal;
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -139,4 +140,28 @@ public class JsonSignalCommandParserTest {
         Assert.assertTrue(pingPongCommand.isRequest());
     }
 
+    @Test
+    public void testSignalsKeepTheirTextAsReceived() throws Exception {
+
+        parser.setLazySignalContent(true);
+
+        String json = ((JsonSignal) ((SignalCommand) parser.parse(SIGNAL)).getSignal()).getJson();
+
+        Assert.assertTrue(json.startsWith("{\"content\":"));
+        Assert.assertTrue(SIGNAL.contains(json));
+
+        int count = 0;
+
+        for (SignalCommand command : (BacklogCommand) parser.parse(BACKLOG)) {
+
+            json = ((JsonSignal) command.getSignal()).getJson();
+
+            Assert.assertTrue(json, BACKLOG.contains(json));
+            Assert.assertNotNull(command.getSignal().getContent());
+            count++;
+        }
+
+        Assert.assertTrue(count > 1);
+    }
+
 }
@@ -0,0 +1,255 @@
+package com.zipwhip.api.signals.commands;
+
+import com.zipwhip.api.dto.Message;
+import com.zipwhip.api.signals.JsonSignal;
+import com.zipwhip.api.signals.Signal;
+import com.zipwhip.api.signals.sockets.netty.SignalFrameDecoder;
+import com.zipwhip.util.Parser;
+import junit.framework.Assert;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Checks that {@code StreamingSignalCommandParser} produces the same commands as {@code JsonSignalCommandParser}.
+ */
+public class StreamingSignalCommandParserTest {
+
+    public static final String DISCONNECT = "{\"action\":\"DISCONNECT\",\"host\":\"signals.zipwhip.com\",\"port\":\"3000\",\"reconnectDelay\":10,\"stop\":\"true\",\"ban\":false}";
+    public static final String ESCAPED_SIGNAL = "{\"versionKey\":\"key\",\"action\":\"SIGNAL\",\"signal\":{\"content\":{\"x\":[1,2,{\"y\":\"}]\"}]},\"id\":\"1\",\"scope\":\"device\",\"reason\":null,\"event\":\"send \\\"quoted\\\" \\u00e9\\n\",\"type\":\"unknown\",\"uuid\":42},\"version\":\"7\"}";
+
+    JsonSignalCommandParser treeParser;
+    StreamingSignalCommandParser parser;
+
+    @Before
+    public void setUp() throws Exception {
+        treeParser = new JsonSignalCommandParser();
+        parser = new StreamingSignalCommandParser();
+    }
+
+    @Test
+    public void testParseCorpus() throws Exception {
+
+        String[] corpus = {
+                JsonSignalCommandParserTest.CONNECT,
+                JsonSignalCommandParserTest.SUB_COMPLETE,
+                JsonSignalCommandParserTest.BACKLOG,
+                JsonSignalCommandParserTest.SIGNAL,
+                JsonSignalCommandParserTest.PRESENCE,
+                JsonSignalCommandParserTest.PING_PONG,
+                JsonSignalCommandParserTest.VERIFY,
+                JsonSignalCommandParserTest.NOOP,
+                DISCONNECT,
+                ESCAPED_SIGNAL,
+                ""
+        };
+
+        for (String frame : corpus) {
+            assertSame(frame, materialize(treeParser.parse(frame)), materialize(parser.parse(frame)));
+        }
+    }
+
+    @Test
+    public void testBacklogIsLazy() throws Exception {
+
+        // The second message is broken, it is only found once the first one has been iterated
+        String frame = "{\"action\":\"BACKLOG\",\"messages\":[" + JsonSignalCommandParserTest.SIGNAL + ",{\"signal\":{\"content\":{\"x\":1}}x}]}";
+
+        Iterator<SignalCommand> iterator = ((BacklogCommand) parser.parse(frame)).iterator();
+
+        Assert.assertTrue(iterator.hasNext());
+        Assert.assertNotNull(iterator.next().getSignal());
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testLazySignalContent() throws Exception {
+
+        parser.setLazySignalContent(true);
+
+        Signal eager = ((SignalCommand) treeParser.parse(JsonSignalCommandParserTest.SIGNAL)).getSignal();
+        Signal lazy = ((SignalCommand) parser.parse(JsonSignalCommandParserTest.SIGNAL)).getSignal();
+
+        Assert.assertFalse(lazy.isContentMaterialized());
+        Assert.assertTrue(lazy.getContent() instanceof Message);
+        Assert.assertEquals(((Message) eager.getContent()).getId(), ((Message) lazy.getContent()).getId());
+        Assert.assertEquals(((Message) eager.getContent()).getBody(), ((Message) lazy.getContent()).getBody());
+    }
+
+    @Test
+    public void testBacklogCanBeIteratedAgain() throws Exception {
+
+        for (Parser<String, Command> each : new Parser[]{treeParser, parser}) {
+
+            BacklogCommand backlog = (BacklogCommand) each.parse(JsonSignalCommandParserTest.BACKLOG);
+
+            // An observer that looks at the backlog before it is delivered does not take the signals away
+            Iterator<SignalCommand> first = backlog.iterator();
+            Assert.assertTrue(first.hasNext());
+            first.next();
+
+            int size = 0;
+            for (SignalCommand ignored : backlog) {
+                size++;
+            }
+
+            Assert.assertTrue(size > 0);
+            Assert.assertEquals(size, backlog.getCommands().size());
+            Assert.assertEquals(size, backlog.getCommands().size());
+
+            // Nothing is kept, each iteration parses its own commands
+            Assert.assertNotSame(backlog.getCommands().get(0), backlog.iterator().next());
+        }
+    }
+
+    @Test
+    public void testParseLargeFrame() throws Exception {
+
+        StringBuilder builder = new StringBuilder("{\"action\":\"BACKLOG\",\"messages\":[");
+        for (int i = 0; i < 100; i++) {
+            builder.append(i == 0 ? "" : ",").append(i % 2 == 0 ? JsonSignalCommandParserTest.SIGNAL : ESCAPED_SIGNAL);
+        }
+        String frame = builder.append("]}").toString();
+
+        // Decode it the way a large frame arrives off the wire, as a CharSequence over blocks
+        DecoderEmbedder<Object> embedder = new DecoderEmbedder<Object>(new SignalFrameDecoder(1024 * 1024, 1024, new SignalFrameDecoder.Statistics()));
+        byte[] bytes = (frame + "\r\n").getBytes("UTF-8");
+        for (int offset = 0; offset < bytes.length; offset += 8192) {
+            embedder.offer(ChannelBuffers.wrappedBuffer(bytes, offset, Math.min(8192, bytes.length - offset)));
+        }
+
+        CharSequence largeFrame = (CharSequence) embedder.poll();
+
+        Assert.assertFalse(largeFrame instanceof String);
+        assertSame(frame, materialize(treeParser.parse(frame)), materialize(parser.parse(largeFrame)));
+    }
+
+    private static Object materialize(Object command) {
+
+        // A backlog holds only its messages, compare what they parse to
+        if (command instanceof BacklogCommand) {
+            return ((BacklogCommand) command).getCommands();
+        }
+
+        return command;
+    }
+
+    @Test
+    public void testParseBytes() throws Exception {
+
+        byte[] bytes = ESCAPED_SIGNAL.getBytes("UTF-8");
+
+        assertSame(ESCAPED_SIGNAL, treeParser.parse(ESCAPED_SIGNAL), parser.parse(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void testRawSignalJson() throws Exception {
+
+        SignalCommand command = (SignalCommand) parser.parse(ESCAPED_SIGNAL);
+
+        String json = ((JsonSignal) command.getSignal()).getJson();
+
+        Assert.assertTrue(json.startsWith("{\"content\":{\"x\":[1,2,{\"y\":\"}]\"}]}"));
+        Assert.assertTrue(json.endsWith("\"uuid\":42}"));
+    }
+
+    @Test
+    public void testUnknownAction() throws Exception {
+
+        try {
+            parser.parse("{\"action\":\"BOGUS\"}");
+            Assert.fail("Expected an exception for an unknown action");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("No parser for bogus was found.", e.getMessage());
+        }
+    }
+
+    private static void assertSame(String path, Object expected, Object actual) throws Exception {
+
+        if (expected == null || actual == null) {
+            Assert.assertEquals(path, expected, actual);
+            return;
+        }
+
+        Assert.assertEquals(path, expected.getClass(), actual.getClass());
+
+        if (expected instanceof JsonSignal) {
+            assertSameJson(path + ".json", new JSONObject(((JsonSignal) expected).getJson()), new JSONObject(((JsonSignal) actual).getJson()));
+        }
+
+        if (expected instanceof JSONObject || expected instanceof JSONArray) {
+            assertSameJson(path, expected, actual);
+            return;
+        }
+
+        if (expected instanceof List) {
+
+            List<?> expectedList = (List<?>) expected;
+            List<?> actualList = (List<?>) actual;
+
+            Assert.assertEquals(path + ".size", expectedList.size(), actualList.size());
+
+            for (int i = 0; i < expectedList.size(); i++) {
+                assertSame(path + "[" + i + "]", expectedList.get(i), actualList.get(i));
+            }
+
+            return;
+        }
+
+        if (expected.getClass().getName().startsWith("java.") || expected.getClass().isEnum()) {
+            Assert.assertEquals(path, expected, actual);
+            return;
+        }
+
+        for (Class<?> type = expected.getClass(); type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+
+                if (Modifier.isStatic(field.getModifiers()) || (type == JsonSignal.class && field.getName().equals("json"))) {
+                    continue;
+                }
+
+                field.setAccessible(true);
+                assertSame(path + "." + field.getName(), field.get(expected), field.get(actual));
+            }
+        }
+    }
+
+    private static void assertSameJson(String path, Object expected, Object actual) throws Exception {
+
+        if (expected instanceof JSONObject) {
+
+            JSONObject expectedObject = (JSONObject) expected;
+            JSONObject actualObject = (JSONObject) actual;
+
+            Assert.assertEquals(path + ".length", expectedObject.length(), actualObject.length());
+
+            for (Iterator<?> keys = expectedObject.keys(); keys.hasNext(); ) {
+                String key = (String) keys.next();
+                assertSameJson(path + "." + key, expectedObject.get(key), actualObject.get(key));
+            }
+
+        } else if (expected instanceof JSONArray) {
+
+            JSONArray expectedArray = (JSONArray) expected;
+            JSONArray actualArray = (JSONArray) actual;
+
+            Assert.assertEquals(path + ".length", expectedArray.length(), actualArray.length());
+
+            for (int i = 0; i < expectedArray.length(); i++) {
+                assertSameJson(path + "[" + i + "]", expectedArray.get(i), actualArray.get(i));
+            }
+
+        } else {
+            Assert.assertEquals(path, expected, actual);
+        }
+    }
+
+}
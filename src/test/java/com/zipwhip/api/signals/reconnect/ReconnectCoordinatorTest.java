@@ -0,0 +1,116 @@
+package com.zipwhip.api.signals.reconnect;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReconnectCoordinatorTest {
+
+    @Test
+    public void testDelayIsHonored() throws Exception {
+
+        ReconnectCoordinator coordinator = new ReconnectCoordinator();
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        coordinator.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 200);
+
+        Assert.assertEquals(1, coordinator.getQueueDepth());
+        Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        Assert.assertEquals(0, coordinator.getQueueDepth());
+    }
+
+    @Test
+    public void testAdmissionIsRateLimited() throws Exception {
+
+        // A burst of 2, then one every 100ms
+        ReconnectCoordinator coordinator = new ReconnectCoordinator(10, 2);
+
+        final List<Long> times = new CopyOnWriteArrayList<Long>();
+        final CountDownLatch ran = new CountDownLatch(6);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 6; i++) {
+            coordinator.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    times.add(System.nanoTime());
+                    ran.countDown();
+                }
+            }, 0);
+        }
+
+        Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+        // The four past the burst waited for tokens
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(times.get(5) - start) >= 350);
+        Assert.assertTrue(coordinator.getDeferred() >= 4);
+        Assert.assertEquals(6, coordinator.getAdmitted());
+        Assert.assertEquals(0, coordinator.getQueueDepth());
+    }
+
+    @Test
+    public void testCancelLeavesTheQueue() throws Exception {
+
+        ReconnectCoordinator coordinator = new ReconnectCoordinator();
+
+        final AtomicInteger runs = new AtomicInteger();
+
+        Future<?> future = coordinator.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 100);
+
+        Assert.assertEquals(1, coordinator.getQueueDepth());
+
+        future.cancel(true);
+
+        Assert.assertEquals(0, coordinator.getQueueDepth());
+
+        Thread.sleep(300);
+
+        Assert.assertEquals(0, runs.get());
+        Assert.assertEquals(0, coordinator.getAdmitted());
+    }
+
+    @Test
+    public void testNextBackoffIsJitteredWithinBounds() throws Exception {
+
+        ReconnectCoordinator coordinator = new ReconnectCoordinator();
+
+        Set<Long> seen = new HashSet<Long>();
+
+        for (int i = 0; i < 1000; i++) {
+
+            long backoff = coordinator.nextBackoff(1000, 4000, 2.0, 6000);
+
+            Assert.assertTrue(backoff >= 1000);
+            Assert.assertTrue(backoff <= 6000);
+
+            seen.add(backoff);
+        }
+
+        Assert.assertTrue(seen.size() > 100);
+
+        // A multiplier of 1 is no backoff at all
+        Assert.assertEquals(5000, coordinator.nextBackoff(5000, 5000, 1.0, 10000));
+    }
+
+}
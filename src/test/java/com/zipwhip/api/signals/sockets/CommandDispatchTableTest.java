@@ -0,0 +1,261 @@
+package com.zipwhip.api.signals.sockets;
+
+import com.zipwhip.api.signals.Signal;
+import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.api.signals.commands.NoopCommand;
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.events.Observer;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CommandDispatchTableTest {
+
+    @Test
+    public void testSubclassFallsBackToSuperclassHandler() throws Exception {
+
+        CommandDispatchTable table = new CommandDispatchTable();
+        final List<String> handled = new ArrayList<String>();
+
+        table.register(SignalCommand.class, new Observer<SignalCommand>() {
+            @Override
+            public void notify(Object sender, SignalCommand item) {
+                handled.add("signal");
+            }
+        });
+
+        Assert.assertTrue(table.dispatch(this, new SignalCommand(new Signal())));
+        Assert.assertTrue(table.dispatch(this, new CustomSignalCommand()));
+        Assert.assertEquals(Arrays.asList("signal", "signal"), handled);
+
+        // A handler of its own takes over
+        table.register(CustomSignalCommand.class, new Observer<CustomSignalCommand>() {
+            @Override
+            public void notify(Object sender, CustomSignalCommand item) {
+                handled.add("custom");
+            }
+        });
+
+        table.dispatch(this, new CustomSignalCommand());
+        Assert.assertEquals("custom", handled.get(2));
+
+        table.unregister(CustomSignalCommand.class);
+
+        table.dispatch(this, new CustomSignalCommand());
+        Assert.assertEquals("signal", handled.get(3));
+    }
+
+    @Test
+    public void testUnhandledIsCounted() throws Exception {
+
+        CommandDispatchTable table = new CommandDispatchTable();
+
+        Assert.assertFalse(table.dispatch(this, new NoopCommand()));
+        Assert.assertFalse(table.isRegistered(NoopCommand.class));
+        Assert.assertEquals(1, table.getUnhandled());
+    }
+
+    @Test
+    public void testExecutorBoundTypeRunsInOrderAndDoesNotBlockOthers() throws Exception {
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        try {
+            CommandDispatchTable table = new CommandDispatchTable();
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final List<Integer> slow = new CopyOnWriteArrayList<Integer>();
+            final List<String> fast = new ArrayList<String>();
+
+            table.register(CustomSignalCommand.class, new Observer<CustomSignalCommand>() {
+                @Override
+                public void notify(Object sender, CustomSignalCommand item) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    slow.add(item.number);
+                }
+            }, pool);
+
+            table.register(NoopCommand.class, new Observer<NoopCommand>() {
+                @Override
+                public void notify(Object sender, NoopCommand item) {
+                    fast.add("noop");
+                }
+            });
+
+            for (int i = 0; i < 20; i++) {
+                table.dispatch(this, new CustomSignalCommand(i));
+            }
+
+            table.dispatch(this, new NoopCommand());
+
+            // Handled inline while the others are still held up
+            Assert.assertEquals(Arrays.asList("noop"), fast);
+            Assert.assertTrue(slow.isEmpty());
+
+            release.countDown();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (slow.size() < 20 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int i = 0; i < 20; i++) {
+                expected.add(i);
+            }
+
+            // One at a time and in order, though the pool has four threads
+            Assert.assertEquals(expected, slow);
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBindKeepsTheHandler() throws Exception {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            CommandDispatchTable table = new CommandDispatchTable();
+            final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+            table.register(NoopCommand.class, new Observer<Command>() {
+                @Override
+                public void notify(Object sender, Command item) {
+                    threads.add(Thread.currentThread());
+                }
+            });
+
+            table.dispatch(this, new NoopCommand());
+            table.bind(NoopCommand.class, executor);
+            table.dispatch(this, new NoopCommand());
+
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+            Assert.assertEquals(2, threads.size());
+            Assert.assertSame(Thread.currentThread(), threads.get(0));
+            Assert.assertNotSame(Thread.currentThread(), threads.get(1));
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTypeStillDrainsAfterAnError() throws Exception {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            CommandDispatchTable table = new CommandDispatchTable();
+            final List<Integer> handled = new CopyOnWriteArrayList<Integer>();
+
+            table.register(CustomSignalCommand.class, new Observer<CustomSignalCommand>() {
+                @Override
+                public void notify(Object sender, CustomSignalCommand item) {
+
+                    if (item.number == 0) {
+                        throw new AssertionError("An Error, not an Exception");
+                    }
+
+                    handled.add(item.number);
+                }
+            }, executor);
+
+            table.dispatch(this, new CustomSignalCommand(0));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (handled.isEmpty() && System.currentTimeMillis() < deadline) {
+                table.dispatch(this, new CustomSignalCommand(1));
+                Thread.sleep(50);
+            }
+
+            Assert.assertFalse(handled.isEmpty());
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testChangeRacingALookupIsNotCached() throws Exception {
+
+        final CommandDispatchTable table = new CommandDispatchTable();
+        final List<String> handled = new CopyOnWriteArrayList<String>();
+
+        table.register(SignalCommand.class, new Observer<SignalCommand>() {
+            @Override
+            public void notify(Object sender, SignalCommand item) {
+            }
+        });
+
+        Observer<CustomSignalCommand> custom = new Observer<CustomSignalCommand>() {
+            @Override
+            public void notify(Object sender, CustomSignalCommand item) {
+                handled.add("custom");
+            }
+        };
+
+        for (int i = 0; i < 200; i++) {
+
+            table.unregister(CustomSignalCommand.class);
+
+            final CountDownLatch started = new CountDownLatch(1);
+            final AtomicBoolean stop = new AtomicBoolean();
+
+            Thread dispatcher = new Thread() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    while (!stop.get()) {
+                        table.isRegistered(CustomSignalCommand.class);
+                    }
+                }
+            };
+
+            dispatcher.start();
+            started.await();
+
+            table.register(CustomSignalCommand.class, custom);
+
+            stop.set(true);
+            dispatcher.join();
+
+            // Whatever the lookups racing the register saw, the next dispatch goes to the new handler
+            handled.clear();
+            table.dispatch(this, new CustomSignalCommand());
+            Assert.assertEquals("Round " + i, Arrays.asList("custom"), handled);
+        }
+    }
+
+    private static class CustomSignalCommand extends SignalCommand {
+
+        private final int number;
+
+        CustomSignalCommand() {
+            this(0);
+        }
+
+        CustomSignalCommand(int number) {
+            super(new Signal());
+            this.number = number;
+        }
+    }
+
+}
@@ -1,9 +1,11 @@
 package com.zipwhip.api.signals.sockets;
 
 import com.zipwhip.api.signals.JsonSignal;
+import com.zipwhip.api.signals.NoopSignalMetrics;
 import com.zipwhip.api.signals.PingEvent;
 import com.zipwhip.api.signals.reconnect.ReconnectStrategy;
 import com.zipwhip.api.signals.SignalConnection;
+import com.zipwhip.api.signals.SignalMetrics;
 import com.zipwhip.api.signals.commands.Command;
 import com.zipwhip.api.signals.commands.ConnectCommand;
 import com.zipwhip.api.signals.commands.SerializingCommand;
@@ -30,6 +32,8 @@ public class MockSignalConnection extends DestroyableBase implements SignalConne
     private List<Observer<Boolean>> connectEvent = new ArrayList<Observer<Boolean>>();
     private List<Observer<Boolean>> disconnectEvent = new ArrayList<Observer<Boolean>>();
 
+    private List<SerializingCommand> sent = new CopyOnWriteArrayList<SerializingCommand>();
+
     private boolean isConnected = false;
 
     private static final String SIGNAL_JSON = "{\"versionKey\":\"subscription__version_{class:ChannelAddress,channel:/device/5211ae17-d07f-465a-9cb4-0982d3c91952}\",\"action\":\"SIGNAL\",\"signal\":{\"content\":{\"to\":\"\",\"body\":\"Yo\",\"bodySize\":2,\"visible\":true,\"transmissionState\":{\"name\":\"QUEUED\",\"enumType\":\"com.zipwhip.outgoing.TransmissionState\"},\"type\":\"ZO\",\"metaDataId\":1040324202,\"dtoParentId\":106228502,\"scheduledDate\":null,\"thread\":\"\",\"carrier\":\"Tmo\",\"deviceId\":106228502,\"openMarketMessageId\":\"362c52b8-87ab-4e85-bbb5-f7a725ea0d7c\",\"lastName\":\"\",\"messageConsoleLog\":\"\",\"loc\":\"\",\"lastUpdated\":\"2011-08-25T12:02:41-07:00\",\"isParent\":false,\"class\":\"com.zipwhip.website.data.dto.Message\",\"deleted\":false,\"contactId\":268755902,\"isInFinalState\":false,\"uuid\":\"ce913542-93aa-421e-878a-5e9bad2b3ae6\",\"cc\":\"\",\"statusDesc\":\"\",\"subject\":\"\",\"encoded\":true,\"expectDeliveryReceipt\":false,\"transferedToCarrierReceipt\":null,\"version\":1,\"statusCode\":1,\"id\":13555722602,\"fingerprint\":\"2216445311\",\"parentId\":0,\"phoneKey\":\"\",\"smartForwarded\":false,\"fromName\":\"\",\"isSelf\":false,\"firstName\":\"\",\"sourceAddress\":\"4252466003\",\"deliveryReceipt\":null,\"dishedToOpenMarket\":null,\"errorState\":false,\"creatorId\":209644102,\"advertisement\":\"\\n\\nSent via T-Mobile Messaging\",\"bcc\":\"\",\"fwd\":\"\",\"contactDeviceId\":106228502,\"smartForwardingCandidate\":false,\"destAddress\":\"2069308934\",\"latlong\":\"\",\"DCSId\":\"\",\"new\":false,\"address\":\"ptn:/2069308934\",\"dateCreated\":\"2011-08-25T12:02:41-07:00\",\"UDH\":\"\",\"carbonedMessageId\":-1,\"mobileNumber\":\"2069308934\",\"channel\":\"\",\"isRead\":true},\"id\":\"13555722602\",\"scope\":\"device\",\"reason\":null,\"event\":\"send\",\"tag\":null,\"class\":\"com.zipwhip.signals.Signal\",\"uuid\":\"5211ae17-d07f-465a-9cb4-0982d3c91952\",\"type\":\"message\",\"uri\":\"/signal/message/send\"},\"channel\":\"/device/5211ae17-d07f-465a-9cb4-0982d3c91952\",\"version\":6}";
@@ -93,11 +97,32 @@ public class MockSignalConnection extends DestroyableBase implements SignalConne
     @Override
     public void send(SerializingCommand command) {
 
+        if (command != null) {
+            sent.add(command);
+        }
+
         for (Observer<Command> o : receiveEvent) {
             o.notify(this, new SignalCommand(new JsonSignal(SIGNAL_JSON)));
         }
     }
 
+    /**
+     * @return The commands sent on this connection.
+     */
+    public List<SerializingCommand> getSent() {
+        return sent;
+    }
+
+    /**
+     * Deliver a command to the observers as if it had come from the SignalServer.
+     */
+    public void receive(Command command) {
+
+        for (Observer<Command> o : receiveEvent) {
+            o.notify(this, command);
+        }
+    }
+
     @Override
     public void keepalive() {
 
@@ -184,6 +209,15 @@ public class MockSignalConnection extends DestroyableBase implements SignalConne
     public void setReconnectStrategy(ReconnectStrategy strategy) {
     }
 
+    @Override
+    public SignalMetrics getSignalMetrics() {
+        return NoopSignalMetrics.INSTANCE;
+    }
+
+    @Override
+    public void setSignalMetrics(SignalMetrics metrics) {
+    }
+
     @Override
     protected void onDestroy() {
 
@@ -0,0 +1,79 @@
+package com.zipwhip.api.signals.sockets;
+
+import com.zipwhip.api.ExecutionResources;
+import com.zipwhip.api.signals.SignalProvider;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class SignalConnectionManagerTest {
+
+    private SignalConnectionManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new SignalConnectionManager(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.destroy();
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+
+        SignalProvider first = manager.create();
+        SignalProvider second = manager.create();
+
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertNotSame(first, second);
+        Assert.assertTrue(first instanceof SocketSignalProvider);
+        Assert.assertFalse(first.isConnected());
+
+        first.destroy();
+        second.destroy();
+    }
+
+    @Test
+    public void testCreateDoesNotStartThreads() throws Exception {
+
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+
+        for (int i = 0; i < 100; i++) {
+            manager.create();
+        }
+
+        // Threads that ended meanwhile do not matter, any that started do
+        Set<Thread> started = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+        started.removeAll(before);
+
+        Assert.assertEquals("Started " + started, 0, started.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCreateAfterDestroy() throws Exception {
+        manager.destroy();
+        manager.create();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCreateAfterDestroyOnExecutionResources() throws Exception {
+
+        ExecutionResources resources = new ExecutionResources(4, 2, 2, 1);
+
+        try {
+            SignalConnectionManager shared = new SignalConnectionManager(resources);
+            shared.destroy();
+            shared.create();
+        } finally {
+            resources.destroy();
+        }
+    }
+
+}
@@ -1,15 +1,35 @@
 package com.zipwhip.api.signals.sockets;
 
 import com.zipwhip.api.signals.JsonSignal;
+import com.zipwhip.api.signals.Signal;
 import com.zipwhip.api.signals.SignalConnection;
+import com.zipwhip.api.signals.SignalDeduplicator;
 import com.zipwhip.api.signals.SignalProvider;
+import com.zipwhip.api.signals.VersionMapEntry;
+import com.zipwhip.api.signals.VersionSequencer;
+import com.zipwhip.api.signals.commands.BacklogCommand;
+import com.zipwhip.api.signals.commands.ConnectCommand;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParser;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParserTest;
+import com.zipwhip.api.signals.commands.SerializingCommand;
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.api.signals.commands.StreamingSignalCommandParser;
+import com.zipwhip.api.signals.commands.SubscriptionCompleteCommand;
 import com.zipwhip.events.Observer;
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by IntelliJ IDEA.
@@ -129,4 +149,345 @@ public class SocketSignalProviderTest {
 
     }
 
+    @Test
+    public void testBacklogChunks() throws Exception {
+
+        final List<String> events = new ArrayList<String>();
+
+        ((SocketSignalProvider) provider).setBacklogChunkSize(2);
+
+        provider.onSignalReceived(new Observer<List<com.zipwhip.api.signals.Signal>>() {
+            @Override
+            public void notify(Object sender, List<com.zipwhip.api.signals.Signal> item) {
+                events.add("signals " + item.size());
+            }
+        });
+
+        provider.onVersionChanged(new Observer<VersionMapEntry>() {
+            @Override
+            public void notify(Object sender, VersionMapEntry item) {
+                events.add("version " + item.getValue());
+            }
+        });
+
+        ((MockSignalConnection) connection).receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.BACKLOG));
+
+        // Each chunk is delivered before its versions are committed
+        Assert.assertEquals(Arrays.asList(
+                "signals 2", "version 25", "version 26",
+                "signals 2", "version 27", "version 28",
+                "signals 1", "version 29"), events);
+
+        Assert.assertEquals(Long.valueOf(29), provider.getVersions().values().iterator().next());
+    }
+
+    @Test
+    public void testBacklogWhole() throws Exception {
+
+        final List<Integer> sizes = new ArrayList<Integer>();
+
+        provider.onSignalReceived(new Observer<List<com.zipwhip.api.signals.Signal>>() {
+            @Override
+            public void notify(Object sender, List<com.zipwhip.api.signals.Signal> item) {
+                sizes.add(item.size());
+            }
+        });
+
+        ((MockSignalConnection) connection).receive(new StreamingSignalCommandParser().parse(JsonSignalCommandParserTest.BACKLOG));
+
+        Assert.assertEquals(Collections.singletonList(5), sizes);
+    }
+
+    @Test
+    public void testRedeliveredSignalsAreDropped() throws Exception {
+
+        final List<String> events = new ArrayList<String>();
+
+        SocketSignalProvider provider = (SocketSignalProvider) this.provider;
+        provider.setBacklogChunkSize(2);
+        provider.setSignalDeduplicator(new SignalDeduplicator());
+
+        provider.onSignalReceived(new Observer<List<com.zipwhip.api.signals.Signal>>() {
+            @Override
+            public void notify(Object sender, List<com.zipwhip.api.signals.Signal> item) {
+                events.add("signals " + item.size());
+            }
+        });
+
+        provider.onVersionChanged(new Observer<VersionMapEntry>() {
+            @Override
+            public void notify(Object sender, VersionMapEntry item) {
+                events.add("version " + item.getValue());
+            }
+        });
+
+        ((MockSignalConnection) connection).receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.SIGNAL));
+        ((MockSignalConnection) connection).receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.SIGNAL));
+
+        Assert.assertEquals(Arrays.asList("version 6", "signals 1", "version 6"), events);
+
+        ((MockSignalConnection) connection).receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.BACKLOG));
+        events.clear();
+        ((MockSignalConnection) connection).receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.BACKLOG));
+
+        // The whole backlog again, nothing is delivered but the versions are still committed
+        Assert.assertEquals(Arrays.asList("version 25", "version 26", "version 27", "version 28", "version 29"), events);
+        Assert.assertEquals(6, provider.getSignalDeduplicator().getStatistics().getDuplicates());
+    }
+
+    @Test
+    public void testSignalsAreDeliveredInVersionOrder() throws Exception {
+
+        final List<String> events = new ArrayList<String>();
+
+        SocketSignalProvider provider = (SocketSignalProvider) this.provider;
+        provider.setVersionSequencer(new VersionSequencer());
+        provider.getVersions().put("key", 39L);
+
+        provider.onSignalReceived(new Observer<List<com.zipwhip.api.signals.Signal>>() {
+            @Override
+            public void notify(Object sender, List<com.zipwhip.api.signals.Signal> item) {
+                events.add("signal " + item.get(0).getEvent());
+            }
+        });
+
+        provider.onVersionChanged(new Observer<VersionMapEntry>() {
+            @Override
+            public void notify(Object sender, VersionMapEntry item) {
+                events.add("version " + item.getValue());
+            }
+        });
+
+        ((MockSignalConnection) connection).receive(versioned("key", 41));
+        ((MockSignalConnection) connection).receive(versioned("key", 40));
+
+        Assert.assertEquals(Arrays.asList("version 40", "signal 40", "version 41", "signal 41"), events);
+        Assert.assertEquals(Long.valueOf(41), provider.getVersions().get("key"));
+    }
+
+    @Test
+    public void testSequencedSignalsGoToTheRegisteredHandler() throws Exception {
+
+        final List<String> events = new ArrayList<String>();
+
+        SocketSignalProvider provider = (SocketSignalProvider) this.provider;
+        provider.setVersionSequencer(new VersionSequencer());
+        provider.getVersions().put("key", 39L);
+
+        provider.getCommandDispatchTable().register(SignalCommand.class, new Observer<SignalCommand>() {
+            @Override
+            public void notify(Object sender, SignalCommand item) {
+                events.add("handled " + item.getSignal().getEvent());
+            }
+        });
+
+        provider.onSignalReceived(new Observer<List<com.zipwhip.api.signals.Signal>>() {
+            @Override
+            public void notify(Object sender, List<com.zipwhip.api.signals.Signal> item) {
+                events.add("signal " + item.get(0).getEvent());
+            }
+        });
+
+        ((MockSignalConnection) connection).receive(versioned("key", 41));
+        ((MockSignalConnection) connection).receive(versioned("key", 40));
+
+        Assert.assertEquals(Arrays.asList("handled 40", "handled 41"), events);
+        Assert.assertEquals(Long.valueOf(41), provider.getVersions().get("key"));
+    }
+
+    @Test
+    public void testOpenGapIsAskedForWithoutReconnecting() throws Exception {
+
+        SocketSignalProvider provider = (SocketSignalProvider) this.provider;
+        MockSignalConnection connection = (MockSignalConnection) this.connection;
+
+        Assert.assertTrue(provider.connect().get());
+
+        provider.setVersionSequencer(new VersionSequencer(64, 50));
+        provider.getVersions().put("key", 39L);
+
+        int sent = connection.getSent().size();
+
+        connection.receive(versioned("key", 41));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.getSent().size() == sent && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        SerializingCommand resync = connection.getSent().get(sent);
+
+        Assert.assertTrue(resync instanceof ConnectCommand);
+        Assert.assertTrue(resync.serialize().contains("\"key\":39"));
+        Assert.assertTrue(provider.isConnected());
+        Assert.assertEquals(1, provider.getVersionSequencer().getStatistics().getResyncs());
+    }
+
+    @Test
+    public void testBacklogOnItsOwnExecutorDoesNotHoldUpSubscriptions() throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> events = new CopyOnWriteArrayList<String>();
+
+        SocketSignalProvider provider = (SocketSignalProvider) this.provider;
+        ExecutorService backlogs = Executors.newSingleThreadExecutor();
+
+        try {
+            provider.getCommandDispatchTable().bind(BacklogCommand.class, backlogs);
+
+            provider.onSignalReceived(new Observer<List<com.zipwhip.api.signals.Signal>>() {
+                @Override
+                public void notify(Object sender, List<com.zipwhip.api.signals.Signal> item) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    events.add("signals " + item.size());
+                }
+            });
+
+            provider.onSubscriptionComplete(new Observer<SubscriptionCompleteCommand>() {
+                @Override
+                public void notify(Object sender, SubscriptionCompleteCommand item) {
+                    events.add("subscription");
+                }
+            });
+
+            ((MockSignalConnection) connection).receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.BACKLOG));
+            ((MockSignalConnection) connection).receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.SUB_COMPLETE));
+
+            Assert.assertEquals(Collections.singletonList("subscription"), events);
+
+            release.countDown();
+            backlogs.shutdown();
+            Assert.assertTrue(backlogs.awaitTermination(5, TimeUnit.SECONDS));
+
+            Assert.assertEquals(Arrays.asList("subscription", "signals 5"), events);
+
+        } finally {
+            backlogs.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStandbyIsPromotedWithoutConnectionChange() throws Exception {
+
+        SocketSignalProvider provider = (SocketSignalProvider) this.provider;
+        MockSignalConnection primary = (MockSignalConnection) connection;
+        MockSignalConnection standby = new MockSignalConnection();
+
+        provider.setStandbyConnection(standby);
+
+        final List<Boolean> changes = new CopyOnWriteArrayList<Boolean>();
+
+        provider.onConnectionChanged(new Observer<Boolean>() {
+            @Override
+            public void notify(Object sender, Boolean item) {
+                changes.add(item);
+            }
+        });
+
+        Assert.assertTrue(provider.connect().get());
+        awaitStandby(provider);
+
+        // The standby negotiates as the same client
+        Assert.assertTrue(standby.getSent().get(0).serialize().contains("1234-5678-1234-5678"));
+
+        provider.getVersions().put("subscription__version_test", 42L);
+
+        // Lost to the network
+        primary.disconnect(true).get();
+
+        Assert.assertTrue(provider.isConnected());
+        Assert.assertSame(primary, provider.getStandbyConnection());
+        Assert.assertEquals(1, provider.getFailovers());
+        Assert.assertEquals(Collections.singletonList(true), changes);
+
+        // The versions are replayed on the promoted connection
+        SerializingCommand replay = standby.getSent().get(standby.getSent().size() - 1);
+        Assert.assertTrue(replay instanceof ConnectCommand);
+        Assert.assertTrue(replay.serialize().contains("subscription__version_test"));
+
+        // Signals now come from the promoted connection alone
+        final List<Signal> signals = new CopyOnWriteArrayList<Signal>();
+
+        provider.onSignalReceived(new Observer<List<Signal>>() {
+            @Override
+            public void notify(Object sender, List<Signal> item) {
+                signals.addAll(item);
+            }
+        });
+
+        primary.receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.SIGNAL));
+        Assert.assertEquals(0, signals.size());
+
+        standby.receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.SIGNAL));
+        Assert.assertEquals(1, signals.size());
+    }
+
+    @Test
+    public void testStandbyDeliversNothing() throws Exception {
+
+        SocketSignalProvider provider = (SocketSignalProvider) this.provider;
+        MockSignalConnection standby = new MockSignalConnection();
+
+        provider.setStandbyConnection(standby);
+
+        final List<Signal> signals = new CopyOnWriteArrayList<Signal>();
+
+        provider.onSignalReceived(new Observer<List<Signal>>() {
+            @Override
+            public void notify(Object sender, List<Signal> item) {
+                signals.addAll(item);
+            }
+        });
+
+        Assert.assertTrue(provider.connect().get());
+        awaitStandby(provider);
+
+        int delivered = signals.size();
+
+        standby.receive(new JsonSignalCommandParser().parse(JsonSignalCommandParserTest.SIGNAL));
+
+        Assert.assertEquals(delivered, signals.size());
+    }
+
+    @Test
+    public void testUserDisconnectIsNotFailedOver() throws Exception {
+
+        SocketSignalProvider provider = (SocketSignalProvider) this.provider;
+        MockSignalConnection standby = new MockSignalConnection();
+
+        provider.setStandbyConnection(standby);
+
+        Assert.assertTrue(provider.connect().get());
+        awaitStandby(provider);
+
+        provider.disconnect().get();
+
+        Assert.assertFalse(provider.isConnected());
+        Assert.assertEquals(0, provider.getFailovers());
+    }
+
+    private static void awaitStandby(SocketSignalProvider provider) throws Exception {
+
+        for (int i = 0; i < 50 && !provider.isStandbyReady(); i++) {
+            Thread.sleep(100);
+        }
+
+        Assert.assertTrue(provider.isStandbyReady());
+    }
+
+    private static SignalCommand versioned(String key, long version) {
+
+        com.zipwhip.api.signals.Signal signal = new com.zipwhip.api.signals.Signal();
+        signal.setEvent(String.valueOf(version));
+
+        SignalCommand command = new SignalCommand(signal);
+        command.setVersion(new VersionMapEntry(key, version));
+
+        return command;
+    }
+
 }
@@ -0,0 +1,73 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+public class AdaptiveKeepaliveTest {
+
+    @Test
+    public void testProbesUpToTheMaximum() throws Exception {
+
+        AdaptiveKeepalive.Estimate estimate = new AdaptiveKeepalive(100, 200, 400).getEstimate("test");
+
+        // Too short a silence to prove anything
+        Assert.assertFalse(estimate.survived(150));
+        Assert.assertEquals(200, estimate.getInterval());
+
+        Assert.assertTrue(estimate.survived(200));
+        Assert.assertEquals(300, estimate.getInterval());
+
+        Assert.assertTrue(estimate.survived(300));
+        Assert.assertEquals(400, estimate.getInterval());
+
+        Assert.assertFalse(estimate.survived(400));
+        Assert.assertEquals(400, estimate.getInterval());
+        Assert.assertFalse(estimate.isSettled());
+    }
+
+    @Test
+    public void testSettlesBelowTheShortestFailure() throws Exception {
+
+        AdaptiveKeepalive.Estimate estimate = new AdaptiveKeepalive(100, 200, 400).getEstimate("test");
+
+        estimate.survived(200);
+        estimate.survived(300);
+
+        Assert.assertTrue(estimate.failed(400));
+        Assert.assertTrue(estimate.isSettled());
+        Assert.assertEquals(320, estimate.getInterval());
+        Assert.assertEquals(300, estimate.getLongestSurvived());
+
+        // Settled, no more probing
+        Assert.assertFalse(estimate.survived(320));
+        Assert.assertEquals(320, estimate.getInterval());
+
+        // Never below the minimum
+        estimate.failed(50);
+        Assert.assertEquals(100, estimate.getInterval());
+        Assert.assertEquals(0, estimate.getLongestSurvived());
+    }
+
+    @Test
+    public void testEstimatesAreSharedPerNetwork() throws Exception {
+
+        AdaptiveKeepalive keepalive = new AdaptiveKeepalive();
+
+        String a = AdaptiveKeepalive.network(new InetSocketAddress("127.0.0.1", 50000), new InetSocketAddress("127.0.0.2", 3000));
+        String b = AdaptiveKeepalive.network(new InetSocketAddress("127.0.0.1", 50001), new InetSocketAddress("127.0.0.2", 3000));
+
+        Assert.assertEquals("127.0.0.1->127.0.0.2:3000", a);
+        Assert.assertEquals(a, b);
+        Assert.assertSame(keepalive.getEstimate(a), keepalive.getEstimate(b));
+        Assert.assertNotSame(keepalive.getEstimate(a), keepalive.getEstimate("elsewhere"));
+        Assert.assertEquals(AdaptiveKeepalive.DEFAULT_INITIAL_INTERVAL, keepalive.getEstimate(a).getInterval());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntervalsMustBeInOrder() throws Exception {
+        new AdaptiveKeepalive(200, 100, 400);
+    }
+
+}
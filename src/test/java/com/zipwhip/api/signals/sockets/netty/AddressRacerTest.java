@@ -0,0 +1,273 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
+import com.zipwhip.events.Observer;
+import com.zipwhip.util.Factory;
+import junit.framework.Assert;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AddressRacerTest {
+
+    private ChannelFactory channelFactory;
+    private List<ServerSocket> servers;
+
+    @Before
+    public void setUp() throws Exception {
+        channelFactory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+        servers = new ArrayList<ServerSocket>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        for (ServerSocket server : servers) {
+            server.close();
+        }
+
+        channelFactory.releaseExternalResources();
+    }
+
+    @Test
+    public void testFailedAddressLosesAndIsRemembered() throws Exception {
+
+        InetSocketAddress live = listen("127.0.0.1", 0);
+        InetSocketAddress dead = deadAddress();
+
+        AddressRacer racer = new AddressRacer();
+        Race race = race(racer, Arrays.asList(dead, live));
+
+        Assert.assertEquals(live, race.winner.poll(5, TimeUnit.SECONDS).getRemoteAddress());
+        Assert.assertEquals(2, racer.getAttempts());
+        Assert.assertEquals(1, racer.getFailures());
+        Assert.assertTrue(racer.getLatency(live) > 0);
+        Assert.assertEquals(-1, racer.getLatency(dead));
+
+        // Next time the address that connected goes first
+        Assert.assertEquals(Arrays.asList(live, dead), racer.order(Arrays.asList(dead, live)));
+    }
+
+    @Test
+    public void testOnlyTheWinnerSeesEvents() throws Exception {
+
+        InetSocketAddress first = listen("127.0.0.1", 0);
+        InetSocketAddress second = listen("127.0.0.1", 0);
+
+        AddressRacer racer = new AddressRacer();
+        racer.setStaggerMillis(0);
+
+        Race race = race(racer, Arrays.asList(first, second));
+
+        Channel winner = race.winner.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(winner);
+
+        Thread.sleep(500);
+
+        Assert.assertEquals(2, racer.getAttempts());
+        Assert.assertEquals(1, race.connected.get());
+        Assert.assertEquals(0, race.closed.get());
+        Assert.assertTrue(winner.isConnected());
+
+        winner.close().awaitUninterruptibly();
+        Thread.sleep(100);
+
+        Assert.assertEquals(1, race.closed.get());
+    }
+
+    @Test
+    public void testEveryAddressFails() throws Exception {
+
+        AddressRacer racer = new AddressRacer();
+        Race race = race(racer, Arrays.asList(deadAddress(), deadAddress()));
+
+        Assert.assertTrue(race.done.poll(5, TimeUnit.SECONDS));
+        Assert.assertNull(race.winner.poll());
+        Assert.assertEquals(2, racer.getFailures());
+    }
+
+    @Test
+    public void testLoserIsStillHealthyInTheNextRace() throws Exception {
+
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        servers.add(server);
+
+        InetSocketAddress slow = (InetSocketAddress) server.getLocalSocketAddress();
+        InetSocketAddress live = listen("127.0.0.1", 0);
+
+        AddressRacer racer = new AddressRacer();
+        racer.setStaggerMillis(100);
+
+        Channel first = race(racer, Arrays.asList(slow)).winner.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(first);
+        first.close().awaitUninterruptibly();
+
+        // Nothing accepts, once the backlog is full a connect hangs until it is given up on
+        List<Socket> backlog = new ArrayList<Socket>();
+
+        try {
+            while (backlog.size() < 16) {
+                Socket socket = new Socket();
+                backlog.add(socket);
+                socket.connect(slow, 200);
+            }
+            Assert.fail("The backlog never filled");
+        } catch (SocketTimeoutException e) {
+            // Full
+        }
+
+        try {
+            // The slow address goes first, it connected last time, and is closed once the other wins
+            Race race = race(racer, Arrays.asList(slow, live));
+            Assert.assertEquals(live, race.winner.poll(5, TimeUnit.SECONDS).getRemoteAddress());
+
+            Thread.sleep(500);
+
+            Assert.assertEquals(0, racer.getFailures());
+            Assert.assertTrue(racer.getLatency(slow) > 0);
+
+        } finally {
+            for (Socket socket : backlog) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConnectsRunOnTheGivenExecutor() throws Exception {
+
+        InetSocketAddress live = listen("127.0.0.1", 0);
+
+        final AtomicInteger executed = new AtomicInteger();
+
+        AddressRacer racer = new AddressRacer(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        });
+
+        Race race = race(racer, Arrays.asList(live));
+
+        Assert.assertNotNull(race.winner.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void testConnectionFallsBackToOtherHost() throws Exception {
+
+        // Every 127/8 address is the loopback on Linux, only the second host is listening
+        InetSocketAddress live = listen("127.0.0.2", 0);
+
+        final AtomicInteger connects = new AtomicInteger();
+
+        NettySignalConnection connection = new NettySignalConnection(new DefaultReconnectStrategy(), channelFactory);
+        connection.setHost("127.0.0.1");
+        connection.setPort(live.getPort());
+        connection.setFallbackHosts(Arrays.asList("127.0.0.2"));
+        connection.setAddressRacer(new AddressRacer());
+        connection.stopKeepalives();
+        connection.onConnect(new Observer<Boolean>() {
+            @Override
+            public void notify(Object sender, Boolean item) {
+                connects.incrementAndGet();
+            }
+        });
+
+        try {
+            Assert.assertTrue(connection.connect().get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(connection.isConnected());
+            Assert.assertEquals(live, connection.getRemoteAddress());
+
+            Thread.sleep(200);
+            Assert.assertEquals(1, connects.get());
+
+        } finally {
+            connection.disconnect().get(5, TimeUnit.SECONDS);
+            connection.destroy();
+        }
+    }
+
+    private Race race(AddressRacer racer, List<InetSocketAddress> addresses) {
+
+        final Race race = new Race();
+
+        racer.race(addresses, new Factory<Channel>() {
+            @Override
+            public Channel create() throws Exception {
+                return channelFactory.newChannel(Channels.pipeline(new SimpleChannelUpstreamHandler() {
+                    @Override
+                    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+                        race.connected.incrementAndGet();
+                    }
+
+                    @Override
+                    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+                        race.closed.incrementAndGet();
+                    }
+                }));
+            }
+        }, new Observer<Channel>() {
+            @Override
+            public void notify(Object sender, Channel item) {
+                if (item != null) {
+                    race.winner.add(item);
+                }
+                race.done.add(true);
+            }
+        });
+
+        return race;
+    }
+
+    private InetSocketAddress listen(String host, int port) throws Exception {
+
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(host));
+        servers.add(server);
+
+        return (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    /**
+     * @return An address nothing listens on, connecting to it is refused right away.
+     */
+    private static InetSocketAddress deadAddress() throws Exception {
+
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        InetSocketAddress address = (InetSocketAddress) server.getLocalSocketAddress();
+        server.close();
+
+        return address;
+    }
+
+    private static class Race {
+        private final BlockingQueue<Channel> winner = new LinkedBlockingQueue<Channel>();
+        private final BlockingQueue<Boolean> done = new LinkedBlockingQueue<Boolean>();
+        private final AtomicInteger connected = new AtomicInteger();
+        private final AtomicInteger closed = new AtomicInteger();
+    }
+
+}
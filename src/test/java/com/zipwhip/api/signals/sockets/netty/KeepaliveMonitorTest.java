@@ -0,0 +1,280 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.PingEvent;
+import com.zipwhip.api.signals.commands.PingPongCommand;
+import com.zipwhip.api.signals.commands.SerializingCommand;
+import com.zipwhip.api.signals.sockets.MockSignalConnection;
+import com.zipwhip.events.ObservableHelper;
+import com.zipwhip.events.Observer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+public class KeepaliveMonitorTest {
+
+    private RecordingConnection connection;
+    private KeepaliveMonitor monitor;
+    private List<PingEvent> events;
+
+    @Before
+    public void setUp() throws Exception {
+
+        connection = new RecordingConnection();
+        events = new CopyOnWriteArrayList<PingEvent>();
+
+        ObservableHelper<PingEvent> pingEvent = new ObservableHelper<PingEvent>();
+        pingEvent.addObserver(new Observer<PingEvent>() {
+            @Override
+            public void notify(Object sender, PingEvent item) {
+                events.add(item);
+            }
+        });
+
+        monitor = new KeepaliveMonitor(connection, pingEvent);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        monitor.stop();
+    }
+
+    @Test
+    public void testPingAfterInactivity() throws Exception {
+
+        connection.setPingTimeout(200);
+        connection.setPongTimeout(5000);
+
+        monitor.start();
+        Thread.sleep(600);
+
+        Assert.assertEquals(1, connection.sent.size());
+        Assert.assertSame(PingPongCommand.getShortformInstance(), connection.sent.get(0));
+        Assert.assertTrue(events.contains(PingEvent.PING_SENT));
+    }
+
+    @Test
+    public void testActivityPushesBackPing() throws Exception {
+
+        connection.setPingTimeout(500);
+        connection.setPongTimeout(5000);
+
+        monitor.start();
+
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(100);
+            monitor.activity();
+        }
+
+        Assert.assertTrue(connection.sent.isEmpty());
+        Assert.assertTrue(monitor.isRunning());
+    }
+
+    @Test
+    public void testPongTimeoutDisconnects() throws Exception {
+
+        connection.setPingTimeout(100);
+        connection.setPongTimeout(200);
+
+        monitor.start();
+        Thread.sleep(800);
+
+        Assert.assertEquals(1, connection.sent.size());
+        Assert.assertTrue(connection.networkDisconnect);
+        Assert.assertTrue(events.contains(PingEvent.PONG_TIMEOUT));
+        Assert.assertFalse(monitor.isRunning());
+    }
+
+    @Test
+    public void testPongReceived() throws Exception {
+
+        connection.setPingTimeout(5000);
+        connection.setPongTimeout(300);
+
+        monitor.start();
+        monitor.pingNow();
+        monitor.pongReceived();
+
+        Thread.sleep(600);
+
+        Assert.assertEquals(1, connection.sent.size());
+        Assert.assertFalse(connection.networkDisconnect);
+        Assert.assertTrue(events.contains(PingEvent.PONG_RECEIVED));
+        Assert.assertTrue(monitor.isRunning());
+    }
+
+    @Test
+    public void testStop() throws Exception {
+
+        connection.setPingTimeout(100);
+        connection.setPongTimeout(5000);
+
+        monitor.start();
+        monitor.stop();
+
+        Thread.sleep(400);
+
+        Assert.assertTrue(connection.sent.isEmpty());
+        Assert.assertTrue(events.contains(PingEvent.PING_CANCELLED));
+    }
+
+    @Test
+    public void testPingEventSampling() throws Exception {
+
+        connection.setPingTimeout(5000);
+        connection.setPongTimeout(5000);
+
+        monitor.setPingEventSampling(2);
+        monitor.start();
+
+        for (int i = 0; i < 4; i++) {
+            monitor.pingNow();
+            monitor.pongReceived();
+        }
+
+        // The events of the start and of cycles 2 and 4
+        Assert.assertEquals(4, connection.sent.size());
+        Assert.assertEquals(5, events.size());
+        Assert.assertEquals(PingEvent.PING_SCHEDULED, events.get(0));
+        Assert.assertEquals(PingEvent.PING_SENT, events.get(1));
+        Assert.assertEquals(PingEvent.PONG_RECEIVED, events.get(2));
+        Assert.assertEquals(PingEvent.PING_SENT, events.get(3));
+        Assert.assertEquals(PingEvent.PONG_RECEIVED, events.get(4));
+    }
+
+    @Test
+    public void testPongTimeoutIsAlwaysAnnounced() throws Exception {
+
+        connection.setPingTimeout(100);
+        connection.setPongTimeout(200);
+
+        monitor.setPingEventSampling(0);
+        monitor.start();
+        Thread.sleep(800);
+
+        Assert.assertTrue(connection.networkDisconnect);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(PingEvent.PONG_TIMEOUT, events.get(0));
+    }
+
+    @Test
+    public void testAnsweredProbeLengthensInterval() throws Exception {
+
+        AdaptiveKeepalive.Estimate estimate = new AdaptiveKeepalive(100, 200, 400).getEstimate("test");
+
+        connection.setPongTimeout(5000);
+
+        monitor.setEstimate(estimate);
+        Assert.assertEquals(200, connection.getPingTimeout());
+
+        monitor.start();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (connection.sent.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        monitor.pongReceived();
+
+        Assert.assertEquals(300, estimate.getInterval());
+        Assert.assertEquals(300, connection.getPingTimeout());
+        Assert.assertTrue(events.contains(PingEvent.PING_INTERVAL_CHANGED));
+    }
+
+    @Test
+    public void testPongTimeoutSettlesInterval() throws Exception {
+
+        AdaptiveKeepalive.Estimate estimate = new AdaptiveKeepalive(100, 200, 400).getEstimate("test");
+
+        connection.setPongTimeout(100);
+
+        monitor.setEstimate(estimate);
+        monitor.start();
+        Thread.sleep(600);
+
+        Assert.assertTrue(connection.networkDisconnect);
+        Assert.assertTrue(estimate.isSettled());
+        Assert.assertEquals((int) (estimate.getShortestFailed() * AdaptiveKeepalive.SETTLE_FACTOR), estimate.getInterval());
+        Assert.assertEquals(estimate.getInterval(), connection.getPingTimeout());
+        Assert.assertTrue(events.contains(PingEvent.PING_INTERVAL_CHANGED));
+    }
+
+    @Test
+    public void testPingNowIsNotAProbe() throws Exception {
+
+        AdaptiveKeepalive.Estimate estimate = new AdaptiveKeepalive(100, 200, 400).getEstimate("test");
+
+        connection.setPongTimeout(5000);
+
+        monitor.setEstimate(estimate);
+        monitor.start();
+        monitor.pingNow();
+        monitor.pongReceived();
+
+        Assert.assertEquals(200, estimate.getInterval());
+        Assert.assertFalse(events.contains(PingEvent.PING_INTERVAL_CHANGED));
+    }
+
+    @Test
+    public void testPingNowWhenNotConnected() throws Exception {
+
+        connection.setPongTimeout(5000);
+        connection.connected = false;
+
+        monitor.pingNow();
+
+        Assert.assertTrue(connection.sent.isEmpty());
+        Assert.assertFalse(monitor.isRunning());
+        Assert.assertFalse(events.contains(PingEvent.PING_SENT));
+    }
+
+    private static class RecordingConnection extends MockSignalConnection {
+
+        private List<SerializingCommand> sent = new CopyOnWriteArrayList<SerializingCommand>();
+        private volatile boolean networkDisconnect;
+        private volatile boolean connected = true;
+        private int pingTimeout;
+        private int pongTimeout;
+
+        @Override
+        public void send(SerializingCommand command) {
+            sent.add(command);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public Future<Void> disconnect(boolean network) {
+            networkDisconnect = network;
+            return null;
+        }
+
+        @Override
+        public int getPingTimeout() {
+            return pingTimeout;
+        }
+
+        @Override
+        public void setPingTimeout(int pingTimeout) {
+            this.pingTimeout = pingTimeout;
+        }
+
+        @Override
+        public int getPongTimeout() {
+            return pongTimeout;
+        }
+
+        @Override
+        public void setPongTimeout(int pongTimeout) {
+            this.pongTimeout = pongTimeout;
+        }
+    }
+
+}
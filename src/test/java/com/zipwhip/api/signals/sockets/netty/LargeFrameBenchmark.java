@@ -0,0 +1,178 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.commands.BacklogCommand;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParser;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParserTest;
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.api.signals.commands.StreamingSignalCommandParser;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.string.StringDecoder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the peak heap of decoding one multi-megabyte backlog frame and delivering its signals.
+ * <p/>
+ * The old chain frames it with {@code DelimiterBasedFrameDecoder} and {@code StringDecoder}, parses it with
+ * {@code JsonSignalCommandParser} and holds every signal at once. The new stage accumulates it as a {@code LargeFrame},
+ * parses it in place with {@code StreamingSignalCommandParser} and holds one chunk of 100 signals at a time.
+ * <p/>
+ * Peak heap counts garbage that has not been collected yet, so the clearer comparison is the smallest {@code -Xmx}
+ * each one survives in. Pass {@code old} or {@code new} as the second argument to run only one of them.
+ * <p/>
+ * This is not a unit test, run it by hand. The size of the backlog in megabytes can be passed as the first argument,
+ * the default is 8.
+ */
+public class LargeFrameBenchmark {
+
+    private static final int READ_SIZE = 8192;
+    private static final int CHUNK_SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+
+        int megabytes = args.length == 0 ? 8 : Integer.parseInt(args[0]);
+
+        List<ChannelBuffer> reads = reads(megabytes * 1024 * 1024);
+
+        String only = args.length < 2 ? null : args[1];
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + (round + 1));
+            if (only == null || only.equals("old")) {
+                run("old chain", reads, false);
+            }
+            if (only == null || only.equals("new")) {
+                run("new stage", reads, true);
+            }
+        }
+    }
+
+    private static void run(String name, List<ChannelBuffer> reads, boolean large) throws Exception {
+        try {
+            decode(name, reads, large);
+        } catch (OutOfMemoryError e) {
+            System.out.println("  " + name + ": out of memory");
+        } catch (RuntimeException e) {
+            // The embedder wraps whatever the pipeline throws
+            if (!(e.getCause() instanceof OutOfMemoryError)) {
+                throw e;
+            }
+            System.out.println("  " + name + ": out of memory");
+        }
+    }
+
+    private static void decode(String name, List<ChannelBuffer> reads, boolean large) throws Exception {
+
+        DecoderEmbedder<Object> embedder;
+
+        if (large) {
+            embedder = new DecoderEmbedder<Object>(
+                    new SignalFrameDecoder(Integer.MAX_VALUE, SignalFrameDecoder.DEFAULT_LARGE_FRAME_THRESHOLD, new SignalFrameDecoder.Statistics()),
+                    new MessageDecoder(new StreamingSignalCommandParser()));
+        } else {
+            embedder = new DecoderEmbedder<Object>(
+                    new DelimiterBasedFrameDecoder(Integer.MAX_VALUE, true, ChannelBuffers.copiedBuffer(StringToChannelBuffer.CRLF, Charset.defaultCharset())),
+                    new StringDecoder(),
+                    new MessageDecoder(new JsonSignalCommandParser()));
+        }
+
+        long baseline = resetPeak();
+        long start = System.nanoTime();
+
+        for (ChannelBuffer read : reads) {
+            embedder.offer(read.duplicate());
+        }
+
+        BacklogCommand backlog = (BacklogCommand) embedder.poll();
+        int signals = 0;
+
+        if (large) {
+
+            List<SignalCommand> chunk = new ArrayList<SignalCommand>(CHUNK_SIZE);
+
+            for (SignalCommand command : backlog) {
+
+                chunk.add(command);
+                signals++;
+
+                if (chunk.size() == CHUNK_SIZE) {
+                    chunk = new ArrayList<SignalCommand>(CHUNK_SIZE);
+                }
+            }
+
+        } else {
+            signals = backlog.getCommands().size();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long peak = peak() - baseline;
+
+        System.out.println(String.format("  %s: %6d signals in %5d ms, peak heap %6d KB above baseline",
+                name, signals, elapsed / 1000000, peak / 1024));
+    }
+
+    private static List<ChannelBuffer> reads(int size) throws Exception {
+
+        byte[] signal = JsonSignalCommandParserTest.SIGNAL.getBytes("UTF-8");
+
+        ChannelBuffer stream = ChannelBuffers.buffer(size + signal.length + 64);
+        stream.writeBytes("{\"action\":\"BACKLOG\",\"messages\":[".getBytes("UTF-8"));
+
+        for (int i = 0; stream.writerIndex() < size; i++) {
+            if (i > 0) {
+                stream.writeByte(',');
+            }
+            stream.writeBytes(signal);
+        }
+
+        stream.writeBytes("]}\r\n".getBytes("UTF-8"));
+
+        // Slices share the one array, so the input costs the heap no more than its own size
+        List<ChannelBuffer> reads = new ArrayList<ChannelBuffer>();
+
+        while (stream.readable()) {
+            reads.add(stream.readSlice(Math.min(READ_SIZE, stream.readableBytes())));
+        }
+
+        return reads;
+    }
+
+    private static long resetPeak() throws Exception {
+
+        System.gc();
+        Thread.sleep(100);
+
+        long used = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+
+        return used;
+    }
+
+    private static long peak() {
+
+        long peak = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return peak;
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.commands.PingPongCommand;
+import junit.framework.Assert;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+public class SignalCommandEncoderTest {
+
+    @Test
+    public void testShortformIsShared() throws Exception {
+
+        ChannelBuffer ping = SignalCommandEncoder.encode(PingPongCommand.getShortformInstance());
+
+        Assert.assertSame(ping, SignalCommandEncoder.encode(PingPongCommand.getShortformInstance()));
+        Assert.assertEquals(StringToChannelBuffer.encode(""), ping);
+    }
+
+    @Test
+    public void testPongMatchesSerialize() throws Exception {
+
+        PingPongCommand pong = PingPongCommand.getNewLongformInstance();
+        assertEncoded(pong);
+
+        pong.setTimestamp(1234567890123L);
+        assertEncoded(pong);
+
+        pong.setToken("a-token_1");
+        assertEncoded(pong);
+
+        pong.setTimestamp(0);
+        assertEncoded(pong);
+
+        pong.setTimestamp(7);
+        pong.setToken("needs \"escaping\" \u00e9");
+        assertEncoded(pong);
+    }
+
+    private static void assertEncoded(PingPongCommand command) throws Exception {
+
+        ChannelBuffer encoded = SignalCommandEncoder.encode(command);
+        String text = encoded.toString(SignalFrameDecoder.UTF_8);
+
+        Assert.assertTrue(text.endsWith("\r\n"));
+
+        // Compare as JSON, the order JSONObject writes its members in depends on the JVM
+        JSONObject expected = new JSONObject(command.serialize());
+        JSONObject actual = new JSONObject(text.substring(0, text.length() - 2));
+
+        Assert.assertEquals(expected.length(), actual.length());
+
+        for (Iterator<?> keys = expected.keys(); keys.hasNext(); ) {
+            String key = (String) keys.next();
+            Assert.assertEquals(expected.get(key), actual.get(key));
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.commands.JsonSignalCommandParserTest;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.compression.ZlibEncoder;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares the bytes on the wire and the CPU time per signal of the plain stream, deflate without a dictionary
+ * and deflate with the {@link SignalCompression} dictionary.
+ * <p/>
+ * Each signal is written as its own flush the way the SignalServer writes them, and each gets a fresh uuid so
+ * the stream is not unrealistically repetitive. Encode is the server's cost, decode is ours. Over a long stream
+ * deflate finds nearly everything in the frames before, the dictionary pays off in the first few frames after
+ * a connect, which is what the first signal column shows.
+ * <p/>
+ * This is not a unit test, run it by hand. The number of signals can be passed as the first argument, the default is 20000.
+ */
+public class SignalCompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int count = args.length == 0 ? 20000 : Integer.parseInt(args[0]);
+
+        List<String> frames = frames(count);
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + (round + 1));
+            run("plain          ", frames, null, null);
+            run("deflate        ", frames, new ZlibEncoder(SignalCompression.DEFAULT_LEVEL), new SignalInflater(null));
+            run("deflate + dict ", frames, SignalCompression.newEncoder(), SignalCompression.newDecoder());
+        }
+    }
+
+    private static void run(String name, List<String> frames, ChannelDownstreamHandler encoder, ChannelUpstreamHandler decoder) {
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long plainBytes = 0;
+        long wireBytes = 0;
+        long firstBytes = -1;
+
+        List<ChannelBuffer> wire = new ArrayList<ChannelBuffer>(frames.size());
+
+        EncoderEmbedder<ChannelBuffer> encoding = encoder == null ? null : new EncoderEmbedder<ChannelBuffer>(encoder);
+
+        long start = threads.getCurrentThreadCpuTime();
+
+        for (String frame : frames) {
+
+            ChannelBuffer buffer = StringToChannelBuffer.encode(frame);
+            plainBytes += buffer.readableBytes();
+
+            if (encoding != null) {
+                encoding.offer(buffer);
+                buffer = encoding.poll();
+            }
+
+            wireBytes += buffer.readableBytes();
+
+            if (firstBytes < 0) {
+                firstBytes = buffer.readableBytes();
+            }
+            wire.add(buffer);
+        }
+
+        long encodeNanos = threads.getCurrentThreadCpuTime() - start;
+
+        DecoderEmbedder<String> decoding = decoder == null
+                ? new DecoderEmbedder<String>(new SignalFrameDecoder(1024 * 1024))
+                : new DecoderEmbedder<String>(decoder, new SignalFrameDecoder(1024 * 1024));
+
+        start = threads.getCurrentThreadCpuTime();
+
+        int decoded = 0;
+
+        for (ChannelBuffer buffer : wire) {
+            decoding.offer(buffer);
+            while (decoding.poll() != null) {
+                decoded++;
+            }
+        }
+
+        long decodeNanos = threads.getCurrentThreadCpuTime() - start;
+
+        if (decoded != frames.size()) {
+            throw new IllegalStateException(name + " decoded " + decoded + " of " + frames.size() + " frames");
+        }
+
+        System.out.println(String.format("  %s: first signal %5d bytes, %6.1f bytes/signal (%5.1f%% of plain), encode %6d ns/signal, decode %6d ns/signal",
+                name, firstBytes, (double) wireBytes / frames.size(), 100.0 * wireBytes / plainBytes,
+                encodeNanos / frames.size(), decodeNanos / frames.size()));
+    }
+
+    private static List<String> frames(int count) {
+
+        List<String> frames = new ArrayList<String>(count);
+
+        for (int i = 0; i < count; i++) {
+
+            String frame = i % 4 == 3 ? JsonSignalCommandParserTest.PRESENCE : JsonSignalCommandParserTest.SIGNAL;
+
+            frames.add(frame.replace("ce913542-93aa-421e-878a-5e9bad2b3ae6", UUID.randomUUID().toString()));
+        }
+
+        return frames;
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.api.signals.commands.ConnectCommand;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParserTest;
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.events.Observer;
+import junit.framework.Assert;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class SignalCompressionTest {
+
+    private static final String ACCEPT = "{\"action\":\"CONNECT\",\"clientId\":\"abc\",\"compression\":\"deflate\"}";
+    private static final String DECLINE = "{\"action\":\"CONNECT\",\"clientId\":\"abc\"}";
+
+    private StandInSignalServer server;
+    private NettySignalConnection connection;
+
+    @After
+    public void tearDown() throws Exception {
+
+        if (connection != null) {
+            connection.disconnect().get(5, TimeUnit.SECONDS);
+            connection.destroy();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testInflatesAfterAcceptingReply() throws Exception {
+
+        CompressionHandshakeHandler handshake = new CompressionHandshakeHandler();
+        DecoderEmbedder<String> embedder = new DecoderEmbedder<String>(handshake, new SignalFrameDecoder(1024 * 1024));
+
+        // The plain reply and the start of the compressed stream arrive in the same read
+        ChannelBuffer compressed = deflate(JsonSignalCommandParserTest.SIGNAL, JsonSignalCommandParserTest.SIGNAL);
+        embedder.offer(ChannelBuffers.wrappedBuffer(StringToChannelBuffer.encode(ACCEPT), compressed));
+
+        Assert.assertTrue(handshake.isNegotiated());
+        Assert.assertTrue(handshake.isCompressed());
+        Assert.assertEquals(ACCEPT, embedder.poll());
+        Assert.assertEquals(JsonSignalCommandParserTest.SIGNAL, embedder.poll());
+        Assert.assertEquals(JsonSignalCommandParserTest.SIGNAL, embedder.poll());
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testPassesThroughAfterDecliningReply() throws Exception {
+
+        CompressionHandshakeHandler handshake = new CompressionHandshakeHandler();
+        DecoderEmbedder<String> embedder = new DecoderEmbedder<String>(handshake, new SignalFrameDecoder(1024 * 1024));
+
+        // Split inside the reply
+        ChannelBuffer reply = StringToChannelBuffer.encode(DECLINE);
+        embedder.offer(reply.slice(0, 10));
+        Assert.assertFalse(handshake.isNegotiated());
+
+        embedder.offer(ChannelBuffers.wrappedBuffer(reply.slice(10, reply.readableBytes() - 10), StringToChannelBuffer.encode("{\"action\":\"NOOP\"}")));
+
+        Assert.assertTrue(handshake.isNegotiated());
+        Assert.assertFalse(handshake.isCompressed());
+        Assert.assertEquals(DECLINE, embedder.poll());
+        Assert.assertEquals("{\"action\":\"NOOP\"}", embedder.poll());
+    }
+
+    @Test
+    public void testConnectAsksForCompression() throws Exception {
+
+        ConnectCommand command = new ConnectCommand("abc");
+        command.setCompression(SignalCompression.DEFLATE);
+
+        Assert.assertTrue(command.serialize().contains("\"compression\":\"deflate\""));
+        Assert.assertFalse(new ConnectCommand("abc").serialize().contains("compression"));
+    }
+
+    @Test
+    public void testCompressedStreamFromServer() throws Exception {
+
+        server = new StandInSignalServer(true);
+        BlockingQueue<Command> received = connect();
+
+        ConnectCommand reply = (ConnectCommand) received.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(reply);
+        Assert.assertEquals(SignalCompression.DEFLATE, reply.getCompression());
+        Assert.assertTrue(connection.isCompressed());
+
+        server.resetBytesWritten();
+
+        for (int i = 0; i < 10; i++) {
+            server.send(JsonSignalCommandParserTest.SIGNAL);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(received.poll(5, TimeUnit.SECONDS) instanceof SignalCommand);
+        }
+
+        long plain = 10 * (JsonSignalCommandParserTest.SIGNAL.length() + 2);
+        Assert.assertTrue("Wrote " + server.getBytesWritten() + " bytes for " + plain, server.getBytesWritten() * 4 < plain);
+    }
+
+    @Test
+    public void testServerWithoutCompression() throws Exception {
+
+        server = new StandInSignalServer(false);
+        BlockingQueue<Command> received = connect();
+
+        ConnectCommand reply = (ConnectCommand) received.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(reply);
+        Assert.assertNull(reply.getCompression());
+        Assert.assertFalse(connection.isCompressed());
+
+        server.resetBytesWritten();
+        server.send(JsonSignalCommandParserTest.SIGNAL);
+
+        Assert.assertTrue(received.poll(5, TimeUnit.SECONDS) instanceof SignalCommand);
+        Assert.assertEquals(JsonSignalCommandParserTest.SIGNAL.length() + 2, server.getBytesWritten());
+    }
+
+    private BlockingQueue<Command> connect() throws Exception {
+
+        final BlockingQueue<Command> received = new LinkedBlockingQueue<Command>();
+
+        connection = new NettySignalConnection();
+        connection.setHost("127.0.0.1");
+        connection.setPort(server.getPort());
+        connection.setCompressionEnabled(true);
+        connection.stopKeepalives();
+        connection.onMessageReceived(new Observer<Command>() {
+            @Override
+            public void notify(Object sender, Command item) {
+                received.add(item);
+            }
+        });
+
+        Assert.assertTrue(connection.connect().get(5, TimeUnit.SECONDS));
+
+        connection.send(new ConnectCommand(null));
+
+        return received;
+    }
+
+    private static ChannelBuffer deflate(String... frames) {
+
+        EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(SignalCompression.newEncoder());
+
+        for (String frame : frames) {
+            embedder.offer(StringToChannelBuffer.encode(frame));
+        }
+
+        ChannelBuffer compressed = ChannelBuffers.dynamicBuffer();
+        ChannelBuffer buffer;
+
+        while ((buffer = embedder.poll()) != null) {
+            compressed.writeBytes(buffer);
+        }
+
+        return compressed;
+    }
+
+}
@@ -0,0 +1,249 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.api.signals.commands.ConnectCommand;
+import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
+import com.zipwhip.events.ObservableHelper;
+import com.zipwhip.events.Observer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SignalEventDispatcherTest {
+
+    private SignalEventDispatcher dispatcher;
+
+    @After
+    public void tearDown() throws Exception {
+        if (dispatcher != null) {
+            dispatcher.destroy();
+        }
+    }
+
+    @Test
+    public void testDispatchInOrderOffThePublishingThread() throws Exception {
+
+        for (SignalEventDispatcher.WaitStrategy waitStrategy : SignalEventDispatcher.WaitStrategy.values()) {
+
+            dispatcher = new SignalEventDispatcher(16, waitStrategy, SignalEventDispatcher.OverflowPolicy.BLOCK);
+
+            final List<Integer> items = new CopyOnWriteArrayList<Integer>();
+            final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+            final CountDownLatch latch = new CountDownLatch(100);
+
+            ObservableHelper<Integer> event = new ObservableHelper<Integer>();
+            event.addObserver(new Observer<Integer>() {
+                @Override
+                public void notify(Object sender, Integer item) {
+                    items.add(item);
+                    threads.add(Thread.currentThread());
+                    latch.countDown();
+                }
+            });
+
+            for (int i = 0; i < 100; i++) {
+                Assert.assertTrue(dispatcher.publish(event, this, i));
+            }
+
+            Assert.assertTrue(waitStrategy.name(), latch.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(Integer.valueOf(i), items.get(i));
+                Assert.assertNotSame(Thread.currentThread(), threads.get(i));
+            }
+
+            Assert.assertEquals(100, dispatcher.getPublished());
+            Assert.assertEquals(100, dispatcher.getDispatched());
+            Assert.assertEquals(0, dispatcher.getDepth());
+            Assert.assertTrue(dispatcher.getMaxLagNanos() > 0);
+
+            dispatcher.destroy();
+        }
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+
+        dispatcher = new SignalEventDispatcher(4, SignalEventDispatcher.WaitStrategy.BLOCKING, SignalEventDispatcher.OverflowPolicy.DROP);
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        ObservableHelper<Integer> event = new ObservableHelper<Integer>();
+        event.addObserver(new Observer<Integer>() {
+            @Override
+            public void notify(Object sender, Integer item) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Destroyed
+                }
+            }
+        });
+
+        // The first one is taken by the stuck observer, the next 4 fill the ring
+        Assert.assertTrue(dispatcher.publish(event, this, 0));
+        Thread.sleep(100);
+
+        for (int i = 1; i <= 4; i++) {
+            Assert.assertTrue(dispatcher.publish(event, this, i));
+        }
+
+        Assert.assertEquals(4, dispatcher.getDepth());
+        Assert.assertFalse(dispatcher.publish(event, this, 5));
+        Assert.assertEquals(1, dispatcher.getDropped());
+
+        release.countDown();
+    }
+
+    @Test
+    public void testBlockingPublishIsNotDroppedWhenFull() throws Exception {
+
+        dispatcher = new SignalEventDispatcher(4, SignalEventDispatcher.WaitStrategy.BLOCKING, SignalEventDispatcher.OverflowPolicy.DROP);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> items = new CopyOnWriteArrayList<Integer>();
+
+        final ObservableHelper<Integer> event = new ObservableHelper<Integer>();
+        event.addObserver(new Observer<Integer>() {
+            @Override
+            public void notify(Object sender, Integer item) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Destroyed
+                }
+                items.add(item);
+            }
+        });
+
+        Assert.assertTrue(dispatcher.publish(event, this, 0));
+        Thread.sleep(100);
+
+        for (int i = 1; i <= 4; i++) {
+            Assert.assertTrue(dispatcher.publish(event, this, i));
+        }
+
+        Assert.assertFalse(dispatcher.publish(event, this, 5));
+
+        Thread publisher = new Thread() {
+            @Override
+            public void run() {
+                dispatcher.publish(event, this, 6, SignalEventDispatcher.OverflowPolicy.BLOCK);
+            }
+        };
+
+        publisher.start();
+        Thread.sleep(100);
+        Assert.assertTrue(publisher.isAlive());
+
+        release.countDown();
+        publisher.join(5000);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (items.size() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Only the one published under the ring's own policy was lost, the blocking one came last
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 6), items);
+        Assert.assertEquals(1, dispatcher.getDropped());
+    }
+
+    @Test
+    public void testDisconnectIsDeliveredWhenFull() throws Exception {
+
+        dispatcher = new SignalEventDispatcher(4, SignalEventDispatcher.WaitStrategy.BLOCKING, SignalEventDispatcher.OverflowPolicy.DROP);
+
+        StandInSignalServer server = new StandInSignalServer(false);
+        NettySignalConnection connection = new NettySignalConnection(new DefaultReconnectStrategy(), NettySignalConnection.getSharedNioChannelFactory(), null, dispatcher);
+
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch received = new CountDownLatch(1);
+            final CountDownLatch disconnected = new CountDownLatch(1);
+
+            connection.setHost("127.0.0.1");
+            connection.setPort(server.getPort());
+            connection.stopKeepalives();
+            connection.onMessageReceived(new Observer<Command>() {
+                @Override
+                public void notify(Object sender, Command item) {
+                    received.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Destroyed
+                    }
+                }
+            });
+            connection.onDisconnect(new Observer<Boolean>() {
+                @Override
+                public void notify(Object sender, Boolean item) {
+                    disconnected.countDown();
+                }
+            });
+
+            Assert.assertTrue(connection.connect().get(5, TimeUnit.SECONDS));
+
+            // The reply to the CONNECT holds up the observer from here on
+            connection.send(new ConnectCommand(null));
+            Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (dispatcher.getDropped() == 0 && System.currentTimeMillis() < deadline) {
+                server.send("{\"action\":\"NOOP\"}");
+            }
+
+            Assert.assertTrue(dispatcher.getDropped() > 0);
+
+            // The ring is still full when the server goes away
+            server.close();
+            Thread.sleep(200);
+
+            release.countDown();
+
+            Assert.assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+
+        } finally {
+            connection.destroy();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testBlockWhenFull() throws Exception {
+
+        dispatcher = new SignalEventDispatcher(2, SignalEventDispatcher.WaitStrategy.BLOCKING, SignalEventDispatcher.OverflowPolicy.BLOCK);
+
+        final List<Integer> items = new CopyOnWriteArrayList<Integer>();
+
+        ObservableHelper<Integer> event = new ObservableHelper<Integer>();
+        event.addObserver(new Observer<Integer>() {
+            @Override
+            public void notify(Object sender, Integer item) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    // Destroyed
+                }
+                items.add(item);
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(dispatcher.publish(event, this, i));
+        }
+
+        Thread.sleep(500);
+
+        Assert.assertEquals(10, items.size());
+        Assert.assertEquals(0, dispatcher.getDropped());
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParser;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParserTest;
+import com.zipwhip.api.signals.commands.StreamingSignalCommandParser;
+import com.zipwhip.util.Parser;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.string.StringDecoder;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the throughput and bytes allocated per frame of the old inbound chain
+ * ({@code DelimiterBasedFrameDecoder}, {@code StringDecoder}) against {@code SignalFrameDecoder},
+ * once for framing alone and once with {@code MessageDecoder} parsing the commands with
+ * {@code JsonSignalCommandParser} or {@code StreamingSignalCommandParser}.
+ * <p/>
+ * The input is the {@code JsonSignalCommandParserTest} corpus plus short form PONGs, cut into 8KB reads the way a socket delivers them.
+ * <p/>
+ * This is not a unit test, run it by hand. The number of frames can be passed as an argument, the default is 200000.
+ * Allocations are measured with the HotSpot {@code ThreadMXBean} and are reported as -1 where it is not available.
+ */
+public class SignalFrameDecoderBenchmark {
+
+    private static final int READ_SIZE = 8192;
+
+    private static final String[] CORPUS = {
+            JsonSignalCommandParserTest.CONNECT,
+            JsonSignalCommandParserTest.SIGNAL,
+            JsonSignalCommandParserTest.PRESENCE,
+            JsonSignalCommandParserTest.NOOP,
+            ""
+    };
+
+    public static void main(String[] args) throws Exception {
+
+        int frames = args.length == 0 ? 200000 : Integer.parseInt(args[0]);
+
+        List<ChannelBuffer> reads = reads(frames);
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + (round + 1));
+            run("old chain, framing  ", frames, reads, false, null);
+            run("new stage, framing  ", frames, reads, true, null);
+            run("old chain, parsing  ", frames, reads, false, new JsonSignalCommandParser());
+            run("new stage, parsing  ", frames, reads, true, new JsonSignalCommandParser());
+            run("new stage, streaming", frames, reads, true, new StreamingSignalCommandParser());
+        }
+    }
+
+    private static void run(String name, int frames, List<ChannelBuffer> reads, boolean single, Parser<String, Command> parser) {
+
+        DecoderEmbedder<Object> embedder = new DecoderEmbedder<Object>(handlers(single, parser));
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        int decoded = 0;
+
+        for (ChannelBuffer read : reads) {
+
+            embedder.offer(read.duplicate());
+
+            while (embedder.poll() != null) {
+                decoded++;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBefore < 0 ? -1 : (allocatedBytes() - allocatedBefore) / frames;
+
+        if (decoded != frames) {
+            throw new IllegalStateException(name + " decoded " + decoded + " of " + frames + " frames");
+        }
+
+        System.out.println(String.format("  %s: %8.0f frames/s, %6d bytes allocated/frame",
+                name, frames / (elapsed / 1e9), allocated));
+    }
+
+    private static ChannelUpstreamHandler[] handlers(boolean single, Parser<String, Command> parser) {
+
+        List<ChannelUpstreamHandler> handlers = new ArrayList<ChannelUpstreamHandler>();
+
+        if (single) {
+            handlers.add(new SignalFrameDecoder(65535));
+        } else {
+            handlers.add(new DelimiterBasedFrameDecoder(65535, false, ChannelBuffers.copiedBuffer(StringToChannelBuffer.CRLF, Charset.defaultCharset())));
+            handlers.add(new StringDecoder());
+        }
+
+        if (parser != null) {
+            handlers.add(new MessageDecoder(parser));
+        }
+
+        return handlers.toArray(new ChannelUpstreamHandler[handlers.size()]);
+    }
+
+    private static List<ChannelBuffer> reads(int frames) throws Exception {
+
+        ChannelBuffer stream = ChannelBuffers.dynamicBuffer();
+
+        for (int i = 0; i < frames; i++) {
+            stream.writeBytes((CORPUS[i % CORPUS.length] + StringToChannelBuffer.CRLF).getBytes("UTF-8"));
+        }
+
+        List<ChannelBuffer> reads = new ArrayList<ChannelBuffer>();
+
+        while (stream.readable()) {
+            reads.add(stream.readBytes(Math.min(READ_SIZE, stream.readableBytes())));
+        }
+
+        return reads;
+    }
+
+    private static long allocatedBytes() {
+
+        try {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import junit.framework.Assert;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SignalFrameDecoderTest {
+
+    private DecoderEmbedder<String> embedder;
+
+    @Before
+    public void setUp() throws Exception {
+        embedder = new DecoderEmbedder<String>(new SignalFrameDecoder(64));
+    }
+
+    @Test
+    public void testDecodeFrames() throws Exception {
+
+        embedder.offer(buffer("{\"action\":\"NOOP\"}\r\n\r\n{\"action\":\"PONG\"}\r\n"));
+
+        Assert.assertEquals("{\"action\":\"NOOP\"}", embedder.poll());
+        Assert.assertEquals("", embedder.poll());
+        Assert.assertEquals("{\"action\":\"PONG\"}", embedder.poll());
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testDecodeSplitFrame() throws Exception {
+
+        embedder.offer(buffer("{\"action\":"));
+        Assert.assertNull(embedder.poll());
+
+        embedder.offer(buffer("\"NOOP\"}\r"));
+        Assert.assertNull(embedder.poll());
+
+        embedder.offer(buffer("\n{\"act"));
+        Assert.assertEquals("{\"action\":\"NOOP\"}", embedder.poll());
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testDecodeUtf8() throws Exception {
+
+        byte[] bytes = "{\"body\":\"h\u00e9llo \u4e16\u754c\"}\r\n".getBytes("UTF-8");
+
+        // Split in the middle of a multi-byte character
+        embedder.offer(ChannelBuffers.wrappedBuffer(bytes, 0, 12));
+        embedder.offer(ChannelBuffers.wrappedBuffer(bytes, 12, bytes.length - 12));
+
+        Assert.assertEquals("{\"body\":\"h\u00e9llo \u4e16\u754c\"}", embedder.poll());
+    }
+
+    @Test
+    public void testBareLineFeedIsPartOfFrame() throws Exception {
+
+        embedder.offer(buffer("a\nb\r\n"));
+
+        Assert.assertEquals("a\nb", embedder.poll());
+    }
+
+    @Test
+    public void testTooLongFrameIsDiscarded() throws Exception {
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append('x');
+        }
+
+        try {
+            embedder.offer(buffer(builder.toString()));
+            Assert.fail("Expected a TooLongFrameException");
+        } catch (CodecEmbedderException e) {
+            Assert.assertTrue(e.getCause() instanceof TooLongFrameException);
+        }
+
+        embedder.offer(buffer("xxxx\r\n{\"action\":\"NOOP\"}\r\n"));
+
+        Assert.assertEquals("{\"action\":\"NOOP\"}", embedder.poll());
+        Assert.assertNull(embedder.poll());
+    }
+
+    @Test
+    public void testLargeFrameIsAccumulatedInBlocks() throws Exception {
+
+        SignalFrameDecoder.Statistics statistics = new SignalFrameDecoder.Statistics();
+        DecoderEmbedder<Object> large = new DecoderEmbedder<Object>(new SignalFrameDecoder(1024 * 1024, 1024, statistics));
+
+        String frame = frame(200000, "x");
+        byte[] bytes = (frame + "\r\n{\"action\":\"NOOP\"}\r\n").getBytes("UTF-8");
+
+        // Cut so the CR and the LF of the large frame arrive in different reads
+        int cut = frame.length() + 1;
+
+        for (int offset = 0; offset < cut; offset += 1000) {
+            large.offer(ChannelBuffers.wrappedBuffer(bytes, offset, Math.min(1000, cut - offset)));
+        }
+
+        Assert.assertNull(large.poll());
+
+        large.offer(ChannelBuffers.wrappedBuffer(bytes, cut, bytes.length - cut));
+
+        Object decoded = large.poll();
+
+        Assert.assertTrue(decoded instanceof LargeFrame);
+        Assert.assertTrue(((LargeFrame) decoded).isAscii());
+        Assert.assertEquals(frame, decoded.toString());
+        Assert.assertEquals(frame.substring(70000, 90000), ((LargeFrame) decoded).subSequence(70000, 90000));
+
+        Assert.assertEquals("{\"action\":\"NOOP\"}", large.poll());
+        Assert.assertNull(large.poll());
+
+        Assert.assertEquals(2, statistics.getFrames());
+        Assert.assertEquals(1, statistics.getLargeFrames());
+        Assert.assertEquals(200000, statistics.getMaxFrameSize());
+        Assert.assertEquals(1, statistics.getHistogram()[18]);
+        Assert.assertEquals(1, statistics.getHistogram()[5]);
+    }
+
+    @Test
+    public void testLargeFrameUtf8() throws Exception {
+
+        DecoderEmbedder<Object> large = new DecoderEmbedder<Object>(new SignalFrameDecoder(1024 * 1024, 1024, new SignalFrameDecoder.Statistics()));
+
+        // Multi-byte characters straddle the 16KB blocks and the reads
+        String frame = frame(40000, "h\u00e9llo \u4e16\u754c ");
+        byte[] bytes = (frame + "\r\n").getBytes("UTF-8");
+
+        for (int offset = 0; offset < bytes.length; offset += 777) {
+            large.offer(ChannelBuffers.wrappedBuffer(bytes, offset, Math.min(777, bytes.length - offset)));
+        }
+
+        Object decoded = large.poll();
+
+        Assert.assertTrue(decoded instanceof LargeFrame);
+        Assert.assertFalse(((LargeFrame) decoded).isAscii());
+        Assert.assertEquals(frame.length(), ((LargeFrame) decoded).length());
+        Assert.assertEquals(frame, decoded.toString());
+        Assert.assertEquals(frame.charAt(16383), ((LargeFrame) decoded).charAt(16383));
+    }
+
+    @Test
+    public void testLargeFrameOverCeilingIsDiscarded() throws Exception {
+
+        DecoderEmbedder<Object> large = new DecoderEmbedder<Object>(new SignalFrameDecoder(4096, 1024, new SignalFrameDecoder.Statistics()));
+
+        boolean failed = false;
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                large.offer(buffer(frame(1000, "x") + (i == 4 ? "\r" : "")));
+            } catch (CodecEmbedderException e) {
+                Assert.assertTrue(e.getCause() instanceof TooLongFrameException);
+                failed = true;
+            }
+        }
+
+        Assert.assertTrue(failed);
+
+        large.offer(buffer("\n{\"action\":\"NOOP\"}\r\n"));
+
+        Assert.assertEquals("{\"action\":\"NOOP\"}", large.poll());
+        Assert.assertNull(large.poll());
+    }
+
+    @Test
+    public void testEmptyFrameObject() throws Exception {
+
+        Object pong = new Object();
+        DecoderEmbedder<Object> keepalive = new DecoderEmbedder<Object>(new SignalFrameDecoder(64, 1024, new SignalFrameDecoder.Statistics(), pong));
+
+        keepalive.offer(buffer("\r\n{\"action\":\"NOOP\"}\r\n\r"));
+        keepalive.offer(buffer("\n"));
+
+        Assert.assertSame(pong, keepalive.poll());
+        Assert.assertEquals("{\"action\":\"NOOP\"}", keepalive.poll());
+        Assert.assertSame(pong, keepalive.poll());
+        Assert.assertNull(keepalive.poll());
+    }
+
+    private static String frame(int length, String repeat) {
+
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(repeat);
+        }
+
+        return builder.substring(0, length);
+    }
+
+    private static ChannelBuffer buffer(String string) throws Exception {
+        return ChannelBuffers.wrappedBuffer(string.getBytes("UTF-8"));
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.InMemorySignalMetrics;
+import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.api.signals.commands.ConnectCommand;
+import com.zipwhip.api.signals.commands.JsonSignalCommandParserTest;
+import com.zipwhip.api.signals.commands.SignalCommand;
+import com.zipwhip.events.Observer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class SignalTlsTest {
+
+    private StandInSignalServer server;
+    private final List<NettySignalConnection> connections = new ArrayList<NettySignalConnection>();
+
+    @After
+    public void tearDown() throws Exception {
+
+        for (NettySignalConnection connection : connections) {
+            connection.disconnect().get(5, TimeUnit.SECONDS);
+            connection.destroy();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testReconnectResumesTheSession() throws Exception {
+
+        server = new StandInSignalServer(false, StandInSignalServer.newTlsContext());
+
+        SignalTls tls = new SignalTls(StandInSignalServer.newTlsContext());
+        InMemorySignalMetrics metrics = new InMemorySignalMetrics();
+
+        NettySignalConnection connection = newConnection(tls, false);
+        connection.setSignalMetrics(metrics);
+        BlockingQueue<Command> received = receive(connection);
+
+        connect(connection, received);
+        Assert.assertFalse(connection.isTlsResumed());
+
+        server.send(JsonSignalCommandParserTest.SIGNAL);
+        Assert.assertTrue(received.poll(5, TimeUnit.SECONDS) instanceof SignalCommand);
+
+        connection.disconnect(true).get(5, TimeUnit.SECONDS);
+
+        connect(connection, received);
+        Assert.assertTrue(connection.isTlsResumed());
+
+        Assert.assertEquals(1, tls.getStatistics().getFull());
+        Assert.assertEquals(1, tls.getStatistics().getResumed());
+        Assert.assertEquals(0.5, tls.getStatistics().getResumeRate(), 0.001);
+
+        InMemorySignalMetrics.Snapshot snapshot = metrics.snapshot();
+
+        Assert.assertEquals(1, snapshot.getFullHandshakes().getCount());
+        Assert.assertEquals(1, snapshot.getResumedHandshakes().getCount());
+    }
+
+    @Test
+    public void testConnectionsShareTheSessionCache() throws Exception {
+
+        server = new StandInSignalServer(false, StandInSignalServer.newTlsContext());
+
+        SignalTls tls = new SignalTls(StandInSignalServer.newTlsContext());
+
+        NettySignalConnection first = newConnection(tls, false);
+        connect(first, receive(first));
+
+        NettySignalConnection second = newConnection(tls, false);
+        connect(second, receive(second));
+
+        Assert.assertFalse(first.isTlsResumed());
+        Assert.assertTrue(second.isTlsResumed());
+
+        // One of its own does not know the session
+        NettySignalConnection third = newConnection(new SignalTls(StandInSignalServer.newTlsContext()), false);
+        connect(third, receive(third));
+
+        Assert.assertFalse(third.isTlsResumed());
+    }
+
+    @Test
+    public void testCompressionInsideTls() throws Exception {
+
+        server = new StandInSignalServer(true, StandInSignalServer.newTlsContext());
+
+        NettySignalConnection connection = newConnection(new SignalTls(StandInSignalServer.newTlsContext()), true);
+        BlockingQueue<Command> received = receive(connection);
+
+        ConnectCommand reply = connect(connection, received);
+
+        Assert.assertEquals(SignalCompression.DEFLATE, reply.getCompression());
+        Assert.assertTrue(connection.isCompressed());
+
+        for (int i = 0; i < 10; i++) {
+            server.send(JsonSignalCommandParserTest.SIGNAL);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(received.poll(5, TimeUnit.SECONDS) instanceof SignalCommand);
+        }
+    }
+
+    @Test
+    public void testUntrustedServerIsRefused() throws Exception {
+
+        server = new StandInSignalServer(false, StandInSignalServer.newTlsContext());
+
+        // Trusts the JVM's trust store, which does not hold the stand-in's certificate
+        SignalTls tls = new SignalTls();
+
+        NettySignalConnection connection = newConnection(tls, false);
+        BlockingQueue<Command> received = receive(connection);
+
+        connection.connect().get(5, TimeUnit.SECONDS);
+        connection.send(new ConnectCommand(null));
+
+        Assert.assertNull(received.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, tls.getStatistics().getFailed());
+        Assert.assertTrue(server.getReceived().isEmpty());
+    }
+
+    @Test
+    public void testHostIsCheckedAgainstTheCertificate() throws Exception {
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = StandInSignalServer.class.getResourceAsStream("stand-in.jks");
+
+        try {
+            keyStore.load(in, "stand-in".toCharArray());
+        } finally {
+            in.close();
+        }
+
+        // For JVMs whose engine cannot verify the host name itself
+        X509Certificate certificate = (X509Certificate) keyStore.getCertificate("stand-in");
+
+        Assert.assertTrue(SignalTls.matches(certificate, "localhost"));
+        Assert.assertTrue(SignalTls.matches(certificate, "LOCALHOST"));
+        Assert.assertTrue(SignalTls.matches(certificate, "127.0.0.1"));
+
+        Assert.assertFalse(SignalTls.matches(certificate, "signals.zipwhip.com"));
+        Assert.assertFalse(SignalTls.matches(certificate, "127.0.0.2"));
+        Assert.assertFalse(SignalTls.matches(certificate, "::1"));
+    }
+
+    private NettySignalConnection newConnection(SignalTls tls, boolean compression) {
+
+        NettySignalConnection connection = new NettySignalConnection();
+        connection.setHost("127.0.0.1");
+        connection.setPort(server.getPort());
+        connection.setTls(tls);
+        connection.setCompressionEnabled(compression);
+        connection.stopKeepalives();
+
+        connections.add(connection);
+
+        return connection;
+    }
+
+    private static BlockingQueue<Command> receive(NettySignalConnection connection) {
+
+        final BlockingQueue<Command> received = new LinkedBlockingQueue<Command>();
+
+        connection.onMessageReceived(new Observer<Command>() {
+            @Override
+            public void notify(Object sender, Command item) {
+                received.add(item);
+            }
+        });
+
+        return received;
+    }
+
+    /*
+     * The CONNECT goes out as soon as the socket is up, before the handshake is done, as the provider's would
+     */
+    private static ConnectCommand connect(NettySignalConnection connection, BlockingQueue<Command> received) throws Exception {
+
+        Assert.assertTrue(connection.connect().get(5, TimeUnit.SECONDS));
+
+        connection.send(new ConnectCommand(null));
+
+        ConnectCommand reply = (ConnectCommand) received.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(reply);
+
+        return reply;
+    }
+
+}
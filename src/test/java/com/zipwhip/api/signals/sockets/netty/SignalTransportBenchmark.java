@@ -0,0 +1,140 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the thread count and heap used per connection of the OIO and NIO transports
+ * of {@code NettySignalConnection} against a local socket server that accepts and ignores everything.
+ * The SHARED mode is NIO with the executor and dispatcher shared the way {@code SignalConnectionManager} shares them.
+ * <p/>
+ * This is not a unit test, run it by hand. The connection counts can be passed as arguments, the default is 1000 and 10000.
+ * Remember to raise the open file limit (ulimit -n) before running the larger counts.
+ */
+public class SignalTransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int[] counts = new int[args.length == 0 ? 2 : args.length];
+
+        if (args.length == 0) {
+            counts[0] = 1000;
+            counts[1] = 10000;
+        } else {
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        ServerBootstrap server = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+        server.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new SimpleChannelUpstreamHandler());
+            }
+        });
+        server.setOption("backlog", 4096);
+
+        Channel serverChannel = server.bind(new InetSocketAddress("127.0.0.1", 0));
+        int port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        SignalEventDispatcher dispatcher = new SignalEventDispatcher();
+
+        for (int count : counts) {
+            run("OIO   ", count, port, null, null, null);
+            run("NIO   ", count, port, NettySignalConnection.getSharedNioChannelFactory(), null, null);
+            run("SHARED", count, port, NettySignalConnection.getSharedNioChannelFactory(), executor, dispatcher);
+        }
+
+        executor.shutdownNow();
+        dispatcher.destroy();
+
+        serverChannel.close().awaitUninterruptibly();
+        server.releaseExternalResources();
+        NettySignalConnection.getSharedNioChannelFactory().releaseExternalResources();
+    }
+
+    private static void run(String mode, int count, int port, ChannelFactory channelFactory, ExecutorService executor, SignalEventDispatcher dispatcher) throws Exception {
+
+        int threadsBefore = threadCount();
+        long heapBefore = usedHeap();
+
+        List<NettySignalConnection> connections = new ArrayList<NettySignalConnection>(count);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(count);
+
+        long start = System.currentTimeMillis();
+
+        try {
+            for (int i = 0; i < count; i++) {
+
+                NettySignalConnection connection = channelFactory == null
+                        ? new NettySignalConnection()
+                        : new NettySignalConnection(new DefaultReconnectStrategy(), channelFactory, executor, dispatcher);
+
+                connection.setHost("127.0.0.1");
+                connection.setPort(port);
+                connection.stopKeepalives();
+
+                connections.add(connection);
+                futures.add(connection.connect());
+            }
+
+            int connected = 0;
+
+            for (Future<Boolean> future : futures) {
+                if (future.get(NettySignalConnection.CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    connected++;
+                }
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+            int threads = threadCount() - threadsBefore;
+            long heap = usedHeap() - heapBefore;
+
+            System.out.println(String.format("%s %6d connections: %6d connected in %6d ms, %6d threads (%.3f/conn), %8d KB heap (%.2f KB/conn)",
+                    mode, count, connected, elapsed, threads, (double) threads / count, heap / 1024, (double) heap / 1024 / count));
+
+        } catch (Throwable t) {
+
+            System.out.println(mode + " " + count + " connections failed after " + connections.size() + " connects: " + t);
+
+        } finally {
+
+            for (NettySignalConnection connection : connections) {
+                connection.disconnect().get();
+                connection.destroy();
+            }
+
+            // Let the worker threads of the closed sockets wind down before the next run
+            Thread.sleep(2000);
+        }
+    }
+
+    private static int threadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
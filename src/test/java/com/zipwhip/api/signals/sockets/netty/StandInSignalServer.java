@@ -0,0 +1,216 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.json.JSONObject;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the SignalServer, for tests and benchmarks. It answers CONNECT and records every other frame.
+ * <p/>
+ * If it supports compression and the CONNECT asked for it, the reply accepts and everything written after it is
+ * deflated with {@link SignalCompression}. It counts the bytes it puts on the wire either way.
+ * <p/>
+ * Given an {@code SSLContext} it only speaks TLS, with the certificate in {@code stand-in.jks}, for localhost and
+ * 127.0.0.1. It caches the sessions it negotiates so that clients can resume them.
+ */
+public class StandInSignalServer {
+
+    private final boolean supportsCompression;
+
+    private final ServerBootstrap bootstrap;
+    private final Channel serverChannel;
+
+    private final List<String> received = new CopyOnWriteArrayList<String>();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private volatile Channel channel;
+
+    public StandInSignalServer(boolean supportsCompression) {
+        this(supportsCompression, null);
+    }
+
+    /**
+     * @param supportsCompression True to accept compression when a CONNECT asks for it.
+     * @param tls The context to speak TLS with, see {@link #newTlsContext()}, or null to speak in the clear.
+     */
+    public StandInSignalServer(boolean supportsCompression, final SSLContext tls) {
+
+        this.supportsCompression = supportsCompression;
+
+        bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+
+                ChannelPipeline pipeline = Channels.pipeline();
+
+                pipeline.addLast("counter", new SimpleChannelDownstreamHandler() {
+                    @Override
+                    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+                        bytesWritten.addAndGet(((ChannelBuffer) e.getMessage()).readableBytes());
+                        super.writeRequested(ctx, e);
+                    }
+                });
+
+                if (tls != null) {
+                    SSLEngine engine = tls.createSSLEngine();
+                    engine.setUseClientMode(false);
+                    pipeline.addLast("tls", new SslHandler(engine));
+                }
+
+                pipeline.addLast("encoder", new StringToChannelBuffer());
+                pipeline.addLast("decoder", new SignalFrameDecoder(1024 * 1024));
+                pipeline.addLast("handler", new SimpleChannelUpstreamHandler() {
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+                        receive(ctx.getChannel(), (String) e.getMessage());
+                    }
+                });
+
+                return pipeline;
+            }
+        });
+
+        serverChannel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    /**
+     * Create a context that holds the stand-in's certificate and trusts nothing else. The server speaks TLS with one,
+     * a client given another trusts the server. Each has a session cache of its own.
+     *
+     * @return A new {@code SSLContext}.
+     * @throws Exception If the key store cannot be read.
+     */
+    public static SSLContext newTlsContext() throws Exception {
+
+        char[] password = "stand-in".toCharArray();
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = StandInSignalServer.class.getResourceAsStream("stand-in.jks");
+
+        try {
+            keyStore.load(in, password);
+        } finally {
+            in.close();
+        }
+
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+
+        return context;
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Write a frame to the last client that connected.
+     *
+     * @param frame The frame without its CRLF.
+     */
+    public void send(String frame) {
+
+        ChannelFuture future;
+
+        synchronized (this) {
+            future = channel.write(frame);
+        }
+
+        future.awaitUninterruptibly();
+    }
+
+    /**
+     * @return The frames received other than CONNECT.
+     */
+    public List<String> getReceived() {
+        return received;
+    }
+
+    /**
+     * @return The bytes written to the wire, compressed or not, since the last reset.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public void resetBytesWritten() {
+        bytesWritten.set(0);
+    }
+
+    public void close() {
+        if (channel != null) {
+            channel.close().awaitUninterruptibly();
+        }
+        serverChannel.close().awaitUninterruptibly();
+        bootstrap.releaseExternalResources();
+    }
+
+    private void receive(Channel channel, String frame) throws Exception {
+
+        if (frame.length() == 0 || frame.charAt(0) != '{') {
+            received.add(frame);
+            return;
+        }
+
+        JSONObject json = new JSONObject(frame);
+
+        if (!"CONNECT".equalsIgnoreCase(json.optString("action"))) {
+            received.add(frame);
+            return;
+        }
+
+        boolean compress = supportsCompression && SignalCompression.DEFLATE.equals(json.optString("compression"));
+
+        JSONObject reply = new JSONObject();
+        reply.put("action", "CONNECT");
+        reply.put("clientId", "stand-in-client");
+
+        if (compress) {
+            reply.put("compression", SignalCompression.DEFLATE);
+        }
+
+        // The write has passed through the pipeline by the time it returns, so the deflater only sees what follows it.
+        // The client may answer the reply before the deflater is added, hold its sends until then.
+        synchronized (this) {
+
+            this.channel = channel;
+
+            channel.write(reply.toString());
+
+            if (compress) {
+                channel.getPipeline().addBefore("encoder", "deflater", SignalCompression.newEncoder());
+            }
+        }
+    }
+
+}
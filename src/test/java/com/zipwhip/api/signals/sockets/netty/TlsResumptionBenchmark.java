@@ -0,0 +1,92 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import com.zipwhip.api.signals.InMemorySignalMetrics;
+import com.zipwhip.api.signals.commands.Command;
+import com.zipwhip.api.signals.commands.ConnectCommand;
+import com.zipwhip.api.signals.reconnect.DefaultReconnectStrategy;
+import com.zipwhip.events.Observer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the TLS handshakes of connections that resume a cached session with those that negotiate a new one,
+ * against a local {@code StandInSignalServer}. On loopback this is the CPU the handshake costs both ends, a real
+ * network adds a round trip more to each full handshake.
+ * <p/>
+ * This is not a unit test, run it by hand. The number of connections can be passed as the argument, the default is 200.
+ */
+public class TlsResumptionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int connections = args.length == 0 ? 200 : Integer.parseInt(args[0]);
+
+        StandInSignalServer server = new StandInSignalServer(false, StandInSignalServer.newTlsContext());
+
+        try {
+            // Warm up, then measure
+            run(server, connections, true);
+            run(server, connections, false);
+
+            InMemorySignalMetrics.Snapshot resumed = run(server, connections, true);
+            InMemorySignalMetrics.Snapshot full = run(server, connections, false);
+
+            System.out.println(connections + " connections: full " + full.getFullHandshakes() + ", resumed " + resumed.getResumedHandshakes());
+
+        } finally {
+            server.close();
+            NettySignalConnection.getSharedNioChannelFactory().releaseExternalResources();
+        }
+    }
+
+    /*
+     * Connects again and again, every connection sharing one SignalTls or each with a new one of its own
+     */
+    private static InMemorySignalMetrics.Snapshot run(StandInSignalServer server, int connections, boolean resume) throws Exception {
+
+        InMemorySignalMetrics metrics = new InMemorySignalMetrics();
+        SignalTls tls = new SignalTls(StandInSignalServer.newTlsContext());
+
+        for (int i = 0; i <= connections; i++) {
+
+            NettySignalConnection connection = new NettySignalConnection(new DefaultReconnectStrategy(), NettySignalConnection.getSharedNioChannelFactory());
+            connection.setHost("127.0.0.1");
+            connection.setPort(server.getPort());
+            connection.setTls(resume ? tls : new SignalTls(StandInSignalServer.newTlsContext()));
+            connection.setSignalMetrics(metrics);
+            connection.stopKeepalives();
+
+            final BlockingQueue<Command> received = new LinkedBlockingQueue<Command>();
+
+            connection.onMessageReceived(new Observer<Command>() {
+                @Override
+                public void notify(Object sender, Command item) {
+                    received.add(item);
+                }
+            });
+
+            try {
+
+                if (!connection.connect().get(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Could not connect");
+                }
+
+                connection.send(new ConnectCommand(null));
+
+                if (received.poll(5, TimeUnit.SECONDS) == null) {
+                    throw new IllegalStateException("No CONNECT reply");
+                }
+
+                connection.disconnect().get(5, TimeUnit.SECONDS);
+
+            } finally {
+                connection.destroy();
+            }
+        }
+
+        return metrics.snapshot();
+    }
+
+}
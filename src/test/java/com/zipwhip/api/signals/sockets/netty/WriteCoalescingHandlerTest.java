@@ -0,0 +1,73 @@
+package com.zipwhip.api.signals.sockets.netty;
+
+import junit.framework.Assert;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+
+public class WriteCoalescingHandlerTest {
+
+    @Test
+    public void testNoWindowWritesThrough() throws Exception {
+
+        WriteCoalescingHandler.Statistics statistics = new WriteCoalescingHandler.Statistics();
+        EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(new WriteCoalescingHandler(0, 1024, statistics));
+
+        embedder.offer(StringToChannelBuffer.encode("{\"action\":\"PONG\"}"));
+        embedder.offer(StringToChannelBuffer.encode(""));
+
+        Assert.assertEquals("{\"action\":\"PONG\"}\r\n", string(embedder.poll()));
+        Assert.assertEquals("\r\n", string(embedder.poll()));
+        Assert.assertNull(embedder.poll());
+
+        Assert.assertEquals(2, statistics.getFlushes());
+        Assert.assertEquals(1.0, statistics.getCoalescingRatio());
+    }
+
+    @Test
+    public void testWindowCoalesces() throws Exception {
+
+        WriteCoalescingHandler.Statistics statistics = new WriteCoalescingHandler.Statistics();
+        EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(new WriteCoalescingHandler(100, 1024, statistics));
+
+        embedder.offer(StringToChannelBuffer.encode("a"));
+        embedder.offer(StringToChannelBuffer.encode("b"));
+        embedder.offer(StringToChannelBuffer.encode("c"));
+
+        Assert.assertNull(embedder.poll());
+
+        Thread.sleep(400);
+
+        Assert.assertEquals("a\r\nb\r\nc\r\n", string(embedder.poll()));
+        Assert.assertNull(embedder.poll());
+
+        Assert.assertEquals(3, statistics.getMessages());
+        Assert.assertEquals(1, statistics.getFlushes());
+        Assert.assertEquals(3.0, statistics.getCoalescingRatio());
+    }
+
+    @Test
+    public void testSizeCapFlushesEarly() throws Exception {
+
+        WriteCoalescingHandler.Statistics statistics = new WriteCoalescingHandler.Statistics();
+        EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(new WriteCoalescingHandler(10000, 12, statistics));
+
+        embedder.offer(StringToChannelBuffer.encode("1234"));
+        embedder.offer(StringToChannelBuffer.encode("5678"));
+
+        Assert.assertEquals("1234\r\n5678\r\n", string(embedder.poll()));
+        Assert.assertNull(embedder.poll());
+
+        // Closing flushes whatever is still waiting for the window
+        embedder.offer(StringToChannelBuffer.encode("9"));
+        embedder.finish();
+
+        Assert.assertEquals("9\r\n", string(embedder.poll()));
+        Assert.assertEquals(2, statistics.getFlushes());
+    }
+
+    private static String string(ChannelBuffer buffer) {
+        return buffer == null ? null : buffer.toString(SignalFrameDecoder.UTF_8);
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.jboss.netty.channel.socket.oio;
+
+import junit.framework.Assert;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.AbstractChannel;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OioWorkerTest {
+
+    private static final int MEGABYTE = 1024 * 1024;
+    private static final int TOTAL = 4 * MEGABYTE;
+    private static final int CHUNK = 512;
+
+    private ServerSocket server;
+    private ClientBootstrap bootstrap;
+    private Channel channel;
+    private Socket socket;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        bootstrap = new ClientBootstrap(new OioClientSocketChannelFactory(Executors.newCachedThreadPool()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // The worker only notices the close once its blocking read fails
+        if (socket != null) {
+            socket.close();
+        }
+        if (channel != null) {
+            channel.close().awaitUninterruptibly();
+        }
+        server.close();
+        bootstrap.releaseExternalResources();
+    }
+
+    @Test
+    public void testAllocationsPerMegabyte() throws Exception {
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger activity = new AtomicInteger();
+        final AtomicInteger reads = new AtomicInteger();
+        final long[] allocated = new long[2];
+        final int[] received = new int[1];
+        final boolean[] intact = {true};
+
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(new SimpleChannelUpstreamHandler() {
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+                        long threadId = Thread.currentThread().getId();
+
+                        if (received[0] == 0) {
+                            allocated[0] = threads.getThreadAllocatedBytes(threadId);
+                        }
+
+                        ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+
+                        while (buffer.readable()) {
+                            if (buffer.readByte() != (byte) received[0]++) {
+                                intact[0] = false;
+                            }
+                        }
+
+                        reads.incrementAndGet();
+
+                        if (received[0] >= TOTAL) {
+                            allocated[1] = threads.getThreadAllocatedBytes(threadId);
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+        });
+
+        channel = bootstrap.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort())).awaitUninterruptibly().getChannel();
+
+        ((AbstractChannel) channel).setOnSocketActivity(new Runnable() {
+            @Override
+            public void run() {
+                activity.incrementAndGet();
+            }
+        });
+
+        socket = server.accept();
+        socket.setTcpNoDelay(true);
+        OutputStream out = socket.getOutputStream();
+
+        // Trickle the data in small writes so the worker reads many small chunks
+        byte[] chunk = new byte[CHUNK];
+        for (int sent = 0; sent < TOTAL; sent += CHUNK) {
+            for (int i = 0; i < CHUNK; i++) {
+                chunk[i] = (byte) (sent + i);
+            }
+            out.write(chunk);
+            out.flush();
+        }
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue(intact[0]);
+
+        // The activity callback still runs once for every chunk that is read
+        Assert.assertEquals(reads.get(), activity.get());
+
+        long perMegabyte = (allocated[1] - allocated[0]) * MEGABYTE / TOTAL;
+
+        // Allocating an array per read costs at least a megabyte per megabyte read
+        Assert.assertTrue("Allocated " + perMegabyte + " bytes per megabyte in " + reads.get() + " reads", perMegabyte < MEGABYTE / 4);
+    }
+
+}